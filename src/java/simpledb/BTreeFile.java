@@ -0,0 +1,742 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * BTreeFile is a DbFile that keeps the tuples of a table in a B+-tree on one
+ * of their fields, the key, so that a lookup of a key or a range of keys
+ * reads a path from the root and then only the leaves that hold matches:
+ * O(log n) pages rather than all of them. It is also the table's
+ * {@link Index}, a clustered one, and the Catalog registers it as such.
+ * <p>
+ * Page 0 is a {@link BTreeHeaderPage} that holds the number of the root page;
+ * the tree is made of {@link BTreeInternalPage}s over {@link BTreeLeafPage}s,
+ * and the pages free to reuse are kept by the header pages from page 1 on.
+ * Pages are identified by HeapPageIds and read and written through a
+ * PagedFile, as in HeapFile; they are always
+ * BufferPool.getPageSize() bytes, as a tree has no page size of its own.
+ * They are locked a page at a time through the BufferPool, also when it
+ * does record locking. Lookups lock
+ * the pages on their path shared; inserts and deletes lock the leaf they
+ * change exclusively, and the parents and siblings a split or merge changes.
+ * Page 0 is only locked while the root is read from it, unless the root
+ * changes, so that readers do not hold up splits. A split adds a page to
+ * the end of the file without locking a header page, and reuses a free
+ * page only if it can lock its header page without waiting; a merge locks
+ * the header page of the page it frees until the transaction completes.
+ * Pages that a transaction adds to the end of the file and then aborts are
+ * not reused.
+ * <p>
+ * A leaf that fills up is split in two, adding a key to its parent, which is
+ * split in turn if it is full; splitting the root adds a level. A leaf that
+ * drops below half full takes tuples from its left sibling, or is merged
+ * into it, and internal pages do the same with either sibling; merging the
+ * last two children of the root removes a level. Tuples only ever move to a
+ * leaf to the left, or to the leaf a deleting scan is on, so that a scan
+ * deleting what it reads never misses a tuple: the first child of a page is
+ * therefore let run below half full, and only removed once it is empty.
+ *
+ * @see BTreePage
+ */
+public class BTreeFile implements DbFile, Index {
+
+    private final File f;
+    private final TupleDesc td;
+    private final int keyField;
+    private final int tableId;
+    private final PagedFile pages;
+
+    /**
+     * Constructs a B+-tree file backed by the specified file. A new or empty
+     * file is given a header page and an empty root leaf.
+     *
+     * @param f the file that stores the on-disk backing store for this file
+     * @param keyField the index of the field of td the tree is ordered by
+     * @param td the TupleDesc of the tuples of the table
+     */
+    public BTreeFile(File f, int keyField, TupleDesc td) {
+        this.f = f;
+        this.td = td;
+        this.keyField = keyField;
+        this.tableId = f.getAbsoluteFile().hashCode();
+        this.pages = new PagedFile(f, 0);
+        if (f.length() == 0) {
+            try {
+                writePageData(0, BTreeHeaderPage.createPageData(2, BTreePage.LEAF));
+                writePageData(1, BTreeHeaderPage.createPageData(0, BTreePage.LEAF));
+                writePageData(2, new byte[BufferPool.getPageSize()]);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /** @return the File backing this BTreeFile on disk. */
+    public File getFile() {
+        return f;
+    }
+
+    // see DbFile.java for javadocs
+    public int getId() {
+        return tableId;
+    }
+
+    // see DbFile.java for javadocs
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the index of the field the tree is ordered by */
+    public int keyField() {
+        return keyField;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (pid.getTableId() != tableId) {
+            return null;
+        }
+        int pgno = pid.pageNumber();
+        if (pgno < 0 || pgno >= numPages()) {
+            return null;
+        }
+        try {
+            byte[] data = pages.read(pgno, BufferPool.getPageSize());
+            return BTreePage.create(new HeapPageId(tableId, pgno), data, td, keyField);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        writePageData(page.getId().pageNumber(), page.getPageData());
+    }
+
+    private void writePageData(int pgno, byte[] data) throws IOException {
+        pages.write(pgno, data, BufferPool.getPageSize());
+    }
+
+    /**
+     * Returns the number of pages in this BTreeFile, in use or not.
+     */
+    public int numPages() {
+        return pages.numPages(BufferPool.getPageSize());
+    }
+
+    /**
+     * Returns a page of this file through the buffer pool, or the copy an
+     * insert or delete in progress has already changed. Pages asked for
+     * READ_WRITE are taken to be changed.
+     *
+     * @param dirtypages the pages changed so far, or null for a reader
+     */
+    private BTreePage getPage(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            int pgno, Permissions perm) throws DbException, TransactionAbortedException {
+        HeapPageId pid = new HeapPageId(tableId, pgno);
+        if (dirtypages != null && dirtypages.containsKey(pid)) {
+            return (BTreePage) dirtypages.get(pid);
+        }
+        BTreePage page = (BTreePage) Database.getBufferPool().getPage(tid, pid, perm);
+        if (dirtypages != null && perm == Permissions.READ_WRITE) {
+            dirtypages.put(pid, page);
+        }
+        return page;
+    }
+
+    private BTreeHeaderPage getRootPointer(TransactionId tid,
+            HashMap<PageId, Page> dirtypages, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (BTreeHeaderPage) getPage(tid, dirtypages, 0, perm);
+    }
+
+    /**
+     * Returns the root page, locked shared if it is an internal page and
+     * with perm if it is a leaf. Page 0 is locked only while the root is
+     * read from it, unless tid had it locked already. As a split or merge
+     * may replace the root before its page is locked, the root is read
+     * again until it is the same after; once its page is locked, the root
+     * cannot be replaced until tid completes.
+     */
+    private BTreePage lockRoot(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            Permissions perm) throws DbException, TransactionAbortedException {
+        BufferPool pool = Database.getBufferPool();
+        HeapPageId metaId = new HeapPageId(tableId, 0);
+        BTreePage root = null;
+        while (true) {
+            boolean held = pool.holdsLock(tid, metaId);
+            BTreeHeaderPage meta = getRootPointer(tid, dirtypages, Permissions.READ_ONLY);
+            int pgno = meta.getRoot();
+            int kind = meta.getRootKind();
+            if (!held) {
+                pool.releasePage(tid, metaId);
+            }
+            if (root != null && root.getId().pageNumber() == pgno) {
+                return root;
+            }
+            root = getPage(tid, dirtypages, pgno,
+                    kind == BTreePage.INTERNAL ? Permissions.READ_ONLY : perm);
+        }
+    }
+
+    /**
+     * Walks down from the root to the leftmost leaf that may hold a key,
+     * locking the internal pages shared and the leaf with perm.
+     *
+     * @param key the key, or null for the leftmost leaf of the tree
+     */
+    private BTreeLeafPage findLeafPage(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            Permissions perm, Field key) throws DbException, TransactionAbortedException {
+        BTreePage page = lockRoot(tid, dirtypages, perm);
+        while (page.getKind() == BTreePage.INTERNAL) {
+            BTreeInternalPage parent = (BTreeInternalPage) page;
+            int pgno = parent.getChild(parent.findChild(key));
+            page = getPage(tid, dirtypages, pgno,
+                    parent.getChildKind() == BTreePage.INTERNAL ? Permissions.READ_ONLY : perm);
+        }
+        return (BTreeLeafPage) page;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("tupledesc is mismatch");
+        }
+        HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+        Field key = t.getField(keyField);
+        BTreeLeafPage leaf = findLeafPage(tid, dirtypages, Permissions.READ_WRITE, key);
+        if (leaf.getNumEmptySlots() == 0) {
+            boolean done = false;
+            try {
+                leaf = splitLeafPage(tid, dirtypages, leaf, key);
+                done = true;
+            } finally {
+                if (!done) {
+                    keepForAbort(tid, dirtypages);
+                }
+            }
+        }
+        leaf.insertTuple(t);
+        return new ArrayList<Page>(dirtypages.values());
+    }
+
+    /**
+     * Marks the pages a split or merge has changed dirty when it stops half
+     * way, as it does when tid is aborted while it waits for a lock, so that
+     * the abort undoes the changes made so far.
+     */
+    private void keepForAbort(TransactionId tid, HashMap<PageId, Page> dirtypages)
+            throws DbException {
+        Database.getBufferPool().cacheDirtyPages(tid, new ArrayList<Page>(dirtypages.values()));
+    }
+
+    /**
+     * Splits a full leaf, moving the upper half of its tuples to a new leaf
+     * to its right, and adds the first key of the new leaf to the parent.
+     *
+     * @return the leaf of the two where a tuple with the given key belongs
+     */
+    private BTreeLeafPage splitLeafPage(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            BTreeLeafPage page, Field key) throws DbException, IOException,
+            TransactionAbortedException {
+        BTreeLeafPage right = (BTreeLeafPage) getEmptyPage(tid, dirtypages, BTreePage.LEAF);
+        int pgno = page.getId().pageNumber();
+        int rightNo = right.getId().pageNumber();
+
+        ArrayList<Tuple> tuples = page.getTuples();
+        int half = tuples.size() / 2;
+        page.setTuples(tuples.subList(0, half));
+        right.setTuples(tuples.subList(half, tuples.size()));
+
+        int next = page.getRightSibling();
+        if (next != 0) {
+            BTreeLeafPage nextPage = (BTreeLeafPage) getPage(tid, dirtypages, next,
+                    Permissions.READ_WRITE);
+            nextPage.setLeftSibling(rightNo);
+        }
+        right.setRightSibling(next);
+        right.setLeftSibling(pgno);
+        page.setRightSibling(rightNo);
+
+        Field middle = tuples.get(half).getField(keyField);
+        insertIntoParent(tid, dirtypages, page, middle, right);
+        return key.compare(Predicate.Op.GREATER_THAN, middle) ? right : page;
+    }
+
+    /**
+     * Splits a full internal page, moving the keys and children above its
+     * middle key to a new page to its right, and moving the middle key up to
+     * the parent.
+     */
+    private void splitInternalPage(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            BTreeInternalPage page) throws DbException, IOException, TransactionAbortedException {
+        BTreeInternalPage right = (BTreeInternalPage) getEmptyPage(tid, dirtypages,
+                BTreePage.INTERNAL);
+        right.setChildKind(page.getChildKind());
+
+        ArrayList<Field> keys = page.getKeys();
+        ArrayList<Integer> children = page.getChildren();
+        int half = keys.size() / 2;
+        page.setEntries(keys.subList(0, half), children.subList(0, half + 1));
+        right.setEntries(keys.subList(half + 1, keys.size()),
+                children.subList(half + 1, children.size()));
+        setParents(tid, dirtypages, right);
+
+        insertIntoParent(tid, dirtypages, page, keys.get(half), right);
+    }
+
+    /**
+     * Adds a key and a new page to the right of it to the parent of the page
+     * left of the key, splitting the parent first if it is full, or making a
+     * new root over the two pages if left was the root.
+     */
+    private void insertIntoParent(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            BTreePage left, Field key, BTreePage right) throws DbException, IOException,
+            TransactionAbortedException {
+        int leftNo = left.getId().pageNumber();
+        int rightNo = right.getId().pageNumber();
+        if (left.getParent() == 0) {
+            BTreeInternalPage root = (BTreeInternalPage) getEmptyPage(tid, dirtypages,
+                    BTreePage.INTERNAL);
+            int rootNo = root.getId().pageNumber();
+            root.setChildKind(left.getKind());
+            root.setEntries(Collections.singletonList(key), Arrays.asList(leftNo, rightNo));
+            left.setParent(rootNo);
+            right.setParent(rootNo);
+            getRootPointer(tid, dirtypages, Permissions.READ_WRITE).setRoot(rootNo,
+                    BTreePage.INTERNAL);
+            return;
+        }
+        BTreeInternalPage parent = (BTreeInternalPage) getPage(tid, dirtypages,
+                left.getParent(), Permissions.READ_WRITE);
+        if (parent.getNumKeys() >= parent.getMaxKeys()) {
+            splitInternalPage(tid, dirtypages, parent);
+            // left is now in one of the two halves
+            parent = (BTreeInternalPage) getPage(tid, dirtypages, left.getParent(),
+                    Permissions.READ_WRITE);
+        }
+        parent.insertAfter(parent.indexOfChild(leftNo), key, rightNo);
+        right.setParent(parent.getId().pageNumber());
+    }
+
+    /** Points the children of an internal page back at it. */
+    private void setParents(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            BTreeInternalPage page) throws DbException, TransactionAbortedException {
+        int pgno = page.getId().pageNumber();
+        for (int child : page.getChildren()) {
+            BTreePage c = getPage(tid, dirtypages, child, Permissions.READ_ONLY);
+            if (c.getParent() != pgno) {
+                getPage(tid, dirtypages, child, Permissions.READ_WRITE).setParent(pgno);
+            }
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+        BTreeLeafPage leaf = null;
+        Tuple stored = null;
+
+        RecordId rid = t.getRecordId();
+        if (rid != null && rid.getPageId().getTableId() == tableId
+                && rid.getPageId().pageNumber() > 0
+                && rid.getPageId().pageNumber() < numPages()) {
+            BTreePage page = getPage(tid, dirtypages, rid.getPageId().pageNumber(),
+                    Permissions.READ_WRITE);
+            if (page instanceof BTreeLeafPage) {
+                leaf = (BTreeLeafPage) page;
+                stored = leaf.find(t);
+            }
+        }
+        if (stored == null) {
+            // the tuple has moved since it was read: look it up by its key
+            Field key = t.getField(keyField);
+            leaf = findLeafPage(tid, dirtypages, Permissions.READ_WRITE, key);
+            stored = leaf.find(t);
+            while (stored == null && leaf.getRightSibling() != 0) {
+                ArrayList<Tuple> tuples = leaf.getTuples();
+                if (!tuples.isEmpty() && tuples.get(tuples.size() - 1).getField(keyField)
+                        .compare(Predicate.Op.GREATER_THAN, key)) {
+                    break;
+                }
+                leaf = (BTreeLeafPage) getPage(tid, dirtypages, leaf.getRightSibling(),
+                        Permissions.READ_WRITE);
+                stored = leaf.find(t);
+            }
+        }
+        if (stored == null) {
+            throw new DbException("Can't find the record in the table!");
+        }
+        leaf.deleteTuple(stored);
+        t.setRecordId(stored.getRecordId());
+        boolean done = false;
+        try {
+            handleMinOccupancyLeafPage(tid, dirtypages, leaf);
+            done = true;
+        } finally {
+            if (!done) {
+                keepForAbort(tid, dirtypages);
+            }
+        }
+        return new ArrayList<Page>(dirtypages.values());
+    }
+
+    /**
+     * Brings a leaf that has dropped below half full back to half full, by
+     * taking tuples from its left sibling or merging into it. A first child
+     * is left alone until it is empty, and then removed.
+     */
+    private void handleMinOccupancyLeafPage(TransactionId tid,
+            HashMap<PageId, Page> dirtypages, BTreeLeafPage page)
+            throws DbException, IOException, TransactionAbortedException {
+        if (page.getParent() == 0 || page.getNumTuples() >= page.getMaxTuples() / 2) {
+            return;
+        }
+        int pgno = page.getId().pageNumber();
+        BTreeInternalPage parent = (BTreeInternalPage) getPage(tid, dirtypages,
+                page.getParent(), Permissions.READ_WRITE);
+        int i = parent.indexOfChild(pgno);
+        if (i == 0) {
+            if (page.getNumTuples() == 0) {
+                unlinkLeaf(tid, dirtypages, page);
+                parent.remove(0, 0);
+                freePage(tid, dirtypages, pgno);
+                handleMinOccupancyInternalPage(tid, dirtypages, parent);
+            }
+            return;
+        }
+
+        BTreeLeafPage left = (BTreeLeafPage) getPage(tid, dirtypages, parent.getChild(i - 1),
+                Permissions.READ_WRITE);
+        ArrayList<Tuple> leftTuples = left.getTuples();
+        ArrayList<Tuple> tuples = page.getTuples();
+        if (leftTuples.size() + tuples.size() <= page.getMaxTuples()) {
+            leftTuples.addAll(tuples);
+            left.setTuples(leftTuples);
+            unlinkLeaf(tid, dirtypages, page);
+            parent.remove(i - 1, i);
+            freePage(tid, dirtypages, pgno);
+            handleMinOccupancyInternalPage(tid, dirtypages, parent);
+        } else {
+            int keep = (leftTuples.size() + tuples.size()) / 2;
+            ArrayList<Tuple> moved = new ArrayList<Tuple>(leftTuples.subList(keep,
+                    leftTuples.size()));
+            moved.addAll(tuples);
+            left.setTuples(leftTuples.subList(0, keep));
+            page.setTuples(moved);
+            parent.setKey(i - 1, moved.get(0).getField(keyField));
+        }
+    }
+
+    /** Takes a leaf out of the chain of leaves. */
+    private void unlinkLeaf(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            BTreeLeafPage page) throws DbException, TransactionAbortedException {
+        int left = page.getLeftSibling();
+        int right = page.getRightSibling();
+        if (left != 0) {
+            ((BTreeLeafPage) getPage(tid, dirtypages, left, Permissions.READ_WRITE))
+                    .setRightSibling(right);
+        }
+        if (right != 0) {
+            ((BTreeLeafPage) getPage(tid, dirtypages, right, Permissions.READ_WRITE))
+                    .setLeftSibling(left);
+        }
+    }
+
+    /**
+     * Brings an internal page that has dropped below half full back to half
+     * full, by moving keys and children through the parent from a sibling,
+     * or merging with it. A root left with one child hands the root over to
+     * that child.
+     */
+    private void handleMinOccupancyInternalPage(TransactionId tid,
+            HashMap<PageId, Page> dirtypages, BTreeInternalPage page)
+            throws DbException, IOException, TransactionAbortedException {
+        int pgno = page.getId().pageNumber();
+        if (page.getParent() == 0) {
+            if (page.getNumKeys() == 0) {
+                int child = page.getChild(0);
+                getPage(tid, dirtypages, child, Permissions.READ_WRITE).setParent(0);
+                getRootPointer(tid, dirtypages, Permissions.READ_WRITE).setRoot(child,
+                        page.getChildKind());
+                freePage(tid, dirtypages, pgno);
+            }
+            return;
+        }
+        if (page.getNumKeys() >= page.getMaxKeys() / 2) {
+            return;
+        }
+        BTreeInternalPage parent = (BTreeInternalPage) getPage(tid, dirtypages,
+                page.getParent(), Permissions.READ_WRITE);
+        int i = parent.indexOfChild(pgno);
+        // the separator between left and right in the parent
+        int sep = i > 0 ? i - 1 : i;
+        BTreeInternalPage left = (BTreeInternalPage) getPage(tid, dirtypages,
+                parent.getChild(sep), Permissions.READ_WRITE);
+        BTreeInternalPage right = (BTreeInternalPage) getPage(tid, dirtypages,
+                parent.getChild(sep + 1), Permissions.READ_WRITE);
+
+        ArrayList<Field> keys = left.getKeys();
+        keys.add(parent.getKey(sep));
+        keys.addAll(right.getKeys());
+        ArrayList<Integer> children = left.getChildren();
+        children.addAll(right.getChildren());
+
+        if (keys.size() <= left.getMaxKeys()) {
+            left.setEntries(keys, children);
+            setParents(tid, dirtypages, left);
+            parent.remove(sep, sep + 1);
+            freePage(tid, dirtypages, right.getId().pageNumber());
+            handleMinOccupancyInternalPage(tid, dirtypages, parent);
+        } else {
+            int half = keys.size() / 2;
+            left.setEntries(keys.subList(0, half), children.subList(0, half + 1));
+            right.setEntries(keys.subList(half + 1, keys.size()),
+                    children.subList(half + 1, children.size()));
+            parent.setKey(sep, keys.get(half));
+            setParents(tid, dirtypages, left);
+            setParents(tid, dirtypages, right);
+        }
+    }
+
+    /** @return the number of the header page that keeps whether page pgno is free */
+    private static int headerOf(int pgno) {
+        int cap = BTreeHeaderPage.capacity();
+        return (pgno - 1) / cap * cap + 1;
+    }
+
+    /**
+     * Returns an empty page of the given kind, reusing a free page if there
+     * is one whose header page tid can lock without waiting, and otherwise
+     * adding one to the end of the file, which needs no header page. A
+     * reused page is replaced in the buffer pool by a new page object,
+     * which keeps the before-image of the old one.
+     */
+    private BTreePage getEmptyPage(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            int kind) throws DbException, IOException, TransactionAbortedException {
+        BufferPool pool = Database.getBufferPool();
+        int pgno = -1;
+        int cap = BTreeHeaderPage.capacity();
+        int n = numPages();
+        for (int h = 1; h < n && pgno < 0; h += cap) {
+            HeapPageId hid = new HeapPageId(tableId, h);
+            boolean held = pool.holdsLock(tid, hid);
+            if (!pool.tryLockPage(tid, hid, Permissions.READ_WRITE)) {
+                continue;
+            }
+            BTreeHeaderPage header = (BTreeHeaderPage) getPage(tid, dirtypages, h,
+                    Permissions.READ_ONLY);
+            int free = header.firstFree(Math.min(cap, n - h));
+            if (free >= 0) {
+                header = (BTreeHeaderPage) getPage(tid, dirtypages, h, Permissions.READ_WRITE);
+                header.markFree(free, false);
+                pgno = h + free;
+            } else if (!held) {
+                // unchanged, so no other transaction need wait for it
+                pool.releasePage(tid, hid);
+            }
+        }
+        if (pgno < 0) {
+            pgno = appendEmptyPage();
+        }
+
+        BTreePage old = getPage(tid, dirtypages, pgno, Permissions.READ_WRITE);
+        HeapPageId pid = new HeapPageId(tableId, pgno);
+        byte[] empty = new byte[BufferPool.getPageSize()];
+        empty[0] = (byte) kind;
+        BTreePage page = BTreePage.create(pid, empty, td, keyField);
+        page.takeBeforeImage(old);
+        dirtypages.put(pid, page);
+        return page;
+    }
+
+    /**
+     * Extends the file with an empty page, and returns its number; a page
+     * that would be the first a header page covers becomes that header page
+     * first.
+     */
+    private synchronized int appendEmptyPage() throws IOException {
+        int pgno = numPages();
+        if (headerOf(pgno) == pgno) {
+            writePageData(pgno, BTreeHeaderPage.createPageData(0, BTreePage.LEAF));
+            pgno++;
+        }
+        writePageData(pgno, new byte[BufferPool.getPageSize()]);
+        return pgno;
+    }
+
+    /**
+     * Marks a page as no longer in use, to be reused by a later split. A
+     * leaf is emptied, so that a tuple with an old RecordId on it is not
+     * found there.
+     */
+    private void freePage(TransactionId tid, HashMap<PageId, Page> dirtypages, int pgno)
+            throws DbException, TransactionAbortedException {
+        BTreePage page = getPage(tid, dirtypages, pgno, Permissions.READ_WRITE);
+        if (page instanceof BTreeLeafPage) {
+            BTreeLeafPage leaf = (BTreeLeafPage) page;
+            leaf.setTuples(Collections.<Tuple>emptyList());
+            leaf.setParent(0);
+            leaf.setLeftSibling(0);
+            leaf.setRightSibling(0);
+        }
+        int h = headerOf(pgno);
+        BTreeHeaderPage header = (BTreeHeaderPage) getPage(tid, dirtypages, h,
+                Permissions.READ_WRITE);
+        header.markFree(pgno - h, true);
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new BTreeFileIterator(tid, null);
+    }
+
+    // see Index.java for javadocs
+    public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+        if (!supports(ipred.getOp())) {
+            throw new UnsupportedOperationException("a B+-tree can't look up " + ipred.getOp());
+        }
+        return new BTreeFileIterator(tid, ipred);
+    }
+
+    /** The tree is the table. */
+    public int getTableId() {
+        return tableId;
+    }
+
+    public int getKeyField() {
+        return keyField;
+    }
+
+    /** Any comparison but NOT_EQUALS and LIKE selects a range of keys. */
+    public boolean supports(Predicate.Op op) {
+        return op != Predicate.Op.NOT_EQUALS && op != Predicate.Op.LIKE;
+    }
+
+    public boolean isClustered() {
+        return true;
+    }
+
+    /**
+     * @return the header page and the internal pages on the path to a leaf,
+     *         estimated from the size of the file and the fanout of an
+     *         internal page
+     */
+    public int probePages() {
+        int fanout = BTreeInternalPage.maxKeys(td, keyField) + 1;
+        int levels = (int) Math.ceil(Math.log(Math.max(2, numPages())) / Math.log(fanout));
+        return 1 + levels;
+    }
+
+    /**
+     * Iterates over the tuples of the tree in key order, or over those whose
+     * key satisfies an IndexPredicate. A lookup of EQUALS, GREATER_THAN or
+     * GREATER_THAN_OR_EQ starts at the first leaf that may hold a match; one
+     * of LESS_THAN or LESS_THAN_OR_EQ starts at the first leaf. Both stop at
+     * the first key past the last match. Each leaf is read as it was when the
+     * iterator got to it.
+     */
+    private class BTreeFileIterator implements DbFileIterator {
+        private final TransactionId tid;
+        private final IndexPredicate ipred;
+        private boolean active;
+        private Iterator<Tuple> pageIter;
+        private int nextLeaf;
+        private Tuple next;
+
+        BTreeFileIterator(TransactionId tid, IndexPredicate ipred) {
+            this.tid = tid;
+            this.ipred = ipred;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            Field start = null;
+            if (ipred != null && (ipred.getOp() == Predicate.Op.EQUALS
+                    || ipred.getOp() == Predicate.Op.GREATER_THAN
+                    || ipred.getOp() == Predicate.Op.GREATER_THAN_OR_EQ)) {
+                start = ipred.getField();
+            }
+            load(findLeafPage(tid, null, Permissions.READ_ONLY, start));
+            next = null;
+            active = true;
+        }
+
+        private void load(BTreeLeafPage leaf) {
+            pageIter = leaf.iterator();
+            nextLeaf = leaf.getRightSibling();
+        }
+
+        /** @return true if no key from this one on can match */
+        private boolean pastEnd(Field key) {
+            switch (ipred.getOp()) {
+            case EQUALS:
+            case LESS_THAN_OR_EQ:
+                return key.compare(Predicate.Op.GREATER_THAN, ipred.getField());
+            case LESS_THAN:
+                return key.compare(Predicate.Op.GREATER_THAN_OR_EQ, ipred.getField());
+            default:
+                return false;
+            }
+        }
+
+        private Tuple readNext() throws DbException, TransactionAbortedException {
+            while (true) {
+                while (pageIter.hasNext()) {
+                    Tuple t = pageIter.next();
+                    if (ipred == null) {
+                        return t;
+                    }
+                    Field key = t.getField(keyField);
+                    if (pastEnd(key)) {
+                        pageIter = Collections.<Tuple>emptyList().iterator();
+                        nextLeaf = 0;
+                        return null;
+                    }
+                    if (ipred.matches(key)) {
+                        return t;
+                    }
+                }
+                if (nextLeaf == 0) {
+                    return null;
+                }
+                load((BTreeLeafPage) getPage(tid, null, nextLeaf, Permissions.READ_ONLY));
+            }
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (!active) {
+                return false;
+            }
+            if (next == null) {
+                next = readNext();
+            }
+            return next != null;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException,
+                NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            active = false;
+            pageIter = null;
+            next = null;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * BTreeHeaderPage tracks which pages of a {@link BTreeFile} are free, with
+ * one bit per page, so that pages freed by merges are reused before the file
+ * grows. Each header page covers the {@link #capacity()} pages starting at
+ * its own, which is never free; header pages sit at page 1 and every
+ * capacity pages after it. A page added to the end of the file is not free,
+ * so adding one does not change its header page.
+ * <p>
+ * The page is the kind byte, the number of the root page as an int and the
+ * kind of the root, then the bits. Page 0 is a header page that keeps only
+ * the root, and its bits are not used, so that the pages that find the root
+ * and those that find free pages are locked apart.
+ */
+public class BTreeHeaderPage extends BTreePage {
+
+    /** Bytes before the bits: the kind, the root and its kind. */
+    static final int POINTER_BYTES = 1 + 4 + 1;
+
+    private int root;
+    private int rootKind;
+    private final byte[] free;
+
+    /**
+     * Create a BTreeHeaderPage from a set of bytes of data read from disk,
+     * for a table in the catalog.
+     */
+    public BTreeHeaderPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, Database.getCatalog().getTupleDesc(id.getTableId()),
+                fileOf(id).keyField());
+    }
+
+    BTreeHeaderPage(HeapPageId id, byte[] data, TupleDesc td, int keyField) throws IOException {
+        super(id, td, keyField);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        dis.readByte();
+        root = dis.readInt();
+        rootKind = dis.readByte();
+        free = new byte[BufferPool.getPageSize() - POINTER_BYTES];
+        dis.readFully(free);
+        setBeforeImage();
+    }
+
+    /**
+     * @return the bytes of a header page with no page free, and the given
+     *         root
+     */
+    static byte[] createPageData(int root, int rootKind) {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        data[0] = HEADER;
+        data[1] = (byte) (root >>> 24);
+        data[2] = (byte) (root >>> 16);
+        data[3] = (byte) (root >>> 8);
+        data[4] = (byte) root;
+        data[5] = (byte) rootKind;
+        return data;
+    }
+
+    /** @return the number of pages a header page covers */
+    static int capacity() {
+        return (BufferPool.getPageSize() - POINTER_BYTES) * 8;
+    }
+
+    public int getKind() {
+        return HEADER;
+    }
+
+    public synchronized byte[] getPageData() {
+        byte[] data = createPageData(root, rootKind);
+        System.arraycopy(free, 0, data, POINTER_BYTES, free.length);
+        return data;
+    }
+
+    /** Header pages have no parent. */
+    public int getParent() {
+        return 0;
+    }
+
+    public void setParent(int parent) {
+        throw new UnsupportedOperationException("header pages have no parent");
+    }
+
+    /** @return the number of the root page; only meaningful on page 0 */
+    public int getRoot() {
+        return root;
+    }
+
+    /** @return the kind of the root page, LEAF or INTERNAL */
+    public int getRootKind() {
+        return rootKind;
+    }
+
+    void setRoot(int root, int rootKind) {
+        this.root = root;
+        this.rootKind = rootKind;
+    }
+
+    /** @return true if the ith page this header covers is free */
+    public synchronized boolean isFree(int i) {
+        return (free[i / 8] & (1 << (i % 8))) != 0;
+    }
+
+    synchronized void markFree(int i, boolean value) {
+        if (value) {
+            free[i / 8] |= 1 << (i % 8);
+        } else {
+            free[i / 8] &= ~(1 << (i % 8));
+        }
+    }
+
+    /** @return the first of the first n pages this header covers that is free, or -1 */
+    public synchronized int firstFree(int n) {
+        for (int i = 0; i < n; i++) {
+            if (isFree(i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,203 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeInternalPage holds the keys and child pointers of one node above the
+ * leaves of a {@link BTreeFile}. A page with n keys has n + 1 children; the
+ * keys under child i are no greater than key i and no less than key i - 1.
+ * Equal keys may be on both sides of a key, so a lookup goes to the leftmost
+ * child that may hold its key and continues to the right along the leaves.
+ * <p>
+ * The page is the kind byte, the number of the parent as an int, the kind
+ * of the children (all leaves or all internal pages), the number of keys as
+ * an int, then room for the largest number of keys and of children, packed
+ * from the start.
+ */
+public class BTreeInternalPage extends BTreePage {
+
+    /** Bytes before the keys: the kind, the parent, the child kind and the count. */
+    static final int POINTER_BYTES = 1 + 4 + 1 + 4;
+
+    private int parent;
+    private int childKind;
+    private final ArrayList<Field> keys = new ArrayList<Field>();
+    private final ArrayList<Integer> children = new ArrayList<Integer>();
+    private final int maxKeys;
+
+    /**
+     * Create a BTreeInternalPage from a set of bytes of data read from disk,
+     * for a table in the catalog.
+     */
+    public BTreeInternalPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, Database.getCatalog().getTupleDesc(id.getTableId()),
+                fileOf(id).keyField());
+    }
+
+    BTreeInternalPage(HeapPageId id, byte[] data, TupleDesc td, int keyField) throws IOException {
+        super(id, td, keyField);
+        this.maxKeys = maxKeys(td, keyField);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        dis.readByte();
+        parent = dis.readInt();
+        childKind = dis.readByte();
+        int n = dis.readInt();
+        if (n < 0 || n > maxKeys) {
+            throw new IOException("bad key count on page " + id.pageNumber());
+        }
+        Type type = td.getFieldType(keyField);
+        for (int i = 0; i < maxKeys; i++) {
+            Field f = readField(dis, type);
+            if (i < n) {
+                keys.add(f);
+            }
+        }
+        for (int i = 0; i <= maxKeys; i++) {
+            int child = dis.readInt();
+            // a page with no keys has one child or none
+            if (i <= n && (n > 0 || child != 0)) {
+                children.add(child);
+            }
+        }
+        setBeforeImage();
+    }
+
+    /** @return the number of keys an internal page of a tree keyed on td's field holds */
+    static int maxKeys(TupleDesc td, int keyField) {
+        int keySize = td.getFieldType(keyField).getLen();
+        return (BufferPool.getPageSize() - POINTER_BYTES - 4) / (keySize + 4);
+    }
+
+    public int getKind() {
+        return INTERNAL;
+    }
+
+    public synchronized byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        Type type = td.getFieldType(keyField);
+        try {
+            dos.writeByte(INTERNAL);
+            dos.writeInt(parent);
+            dos.writeByte(childKind);
+            dos.writeInt(keys.size());
+            for (int i = 0; i < maxKeys; i++) {
+                writeField(dos, type, i < keys.size() ? keys.get(i) : null);
+            }
+            for (int i = 0; i <= maxKeys; i++) {
+                dos.writeInt(i < children.size() ? children.get(i) : 0);
+            }
+            dos.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return pad(baos);
+    }
+
+    public int getParent() {
+        return parent;
+    }
+
+    public void setParent(int parent) {
+        this.parent = parent;
+    }
+
+    /** @return the kind of the children of this page, LEAF or INTERNAL */
+    public int getChildKind() {
+        return childKind;
+    }
+
+    void setChildKind(int childKind) {
+        this.childKind = childKind;
+    }
+
+    /** @return the number of keys on this page */
+    public synchronized int getNumKeys() {
+        return keys.size();
+    }
+
+    /** @return the largest number of keys this page can hold */
+    public int getMaxKeys() {
+        return maxKeys;
+    }
+
+    public synchronized Field getKey(int i) {
+        return keys.get(i);
+    }
+
+    synchronized void setKey(int i, Field key) {
+        keys.set(i, key);
+    }
+
+    /** @return the number of the ith child */
+    public synchronized int getChild(int i) {
+        return children.get(i);
+    }
+
+    /** @return the position of a child among the children, or -1 */
+    public synchronized int indexOfChild(int child) {
+        return children.indexOf(child);
+    }
+
+    /**
+     * @return the position of the leftmost child that may hold a key, or of
+     *         the first child if key is null
+     */
+    public synchronized int findChild(Field key) {
+        if (key == null) {
+            return 0;
+        }
+        for (int i = 0; i < keys.size(); i++) {
+            if (key.compare(Predicate.Op.LESS_THAN_OR_EQ, keys.get(i))) {
+                return i;
+            }
+        }
+        return keys.size();
+    }
+
+    /**
+     * Adds a key and the child to its right just after an existing child.
+     *
+     * @throws DbException if the page is full
+     */
+    synchronized void insertAfter(int i, Field key, int child) throws DbException {
+        if (keys.size() >= maxKeys) {
+            throw new DbException("page is full");
+        }
+        keys.add(i, key);
+        children.add(i + 1, child);
+    }
+
+    /** Removes the ith key and one of the children next to it, i or i + 1. */
+    synchronized void remove(int key, int child) {
+        keys.remove(key);
+        children.remove(child);
+    }
+
+    /** @return a copy of the keys of this page */
+    synchronized ArrayList<Field> getKeys() {
+        return new ArrayList<Field>(keys);
+    }
+
+    /** @return a copy of the children of this page */
+    synchronized ArrayList<Integer> getChildren() {
+        return new ArrayList<Integer>(children);
+    }
+
+    /**
+     * Replaces the keys and children of this page.
+     *
+     * @throws DbException if there are too many, or the counts do not match
+     */
+    synchronized void setEntries(List<Field> newKeys, List<Integer> newChildren)
+            throws DbException {
+        if (newKeys.size() > maxKeys || newChildren.size() != newKeys.size() + 1) {
+            throw new DbException("bad entries for an internal page");
+        }
+        keys.clear();
+        keys.addAll(newKeys);
+        children.clear();
+        children.addAll(newChildren);
+    }
+}
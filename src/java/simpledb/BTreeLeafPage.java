@@ -0,0 +1,275 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeLeafPage holds tuples of a {@link BTreeFile} in the order of their
+ * keys. Leaves are chained to their left and right siblings, so that a scan
+ * can read the whole table in key order without going back up the tree.
+ * <p>
+ * The page is the kind byte, the numbers of the parent, the left sibling and
+ * the right sibling as ints, a header with one bit per slot saying whether
+ * it is used, and the slots, each the size of one tuple. The used slots hold
+ * their tuples in key order. An insert shifts the tuples between its place
+ * and the nearest empty slot, so it may change their RecordIds; a delete
+ * only empties a slot.
+ */
+public class BTreeLeafPage extends BTreePage {
+
+    /** Bytes before the slot header: the kind and three page numbers. */
+    static final int POINTER_BYTES = 1 + 3 * 4;
+
+    private int parent;
+    private int left;
+    private int right;
+    private final Tuple[] tuples;
+
+    /**
+     * Create a BTreeLeafPage from a set of bytes of data read from disk, for
+     * a table in the catalog.
+     */
+    public BTreeLeafPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, Database.getCatalog().getTupleDesc(id.getTableId()),
+                fileOf(id).keyField());
+    }
+
+    BTreeLeafPage(HeapPageId id, byte[] data, TupleDesc td, int keyField) throws IOException {
+        super(id, td, keyField);
+        this.tuples = new Tuple[maxTuples(td)];
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        dis.readByte();
+        parent = dis.readInt();
+        left = dis.readInt();
+        right = dis.readInt();
+        byte[] header = new byte[headerBytes(tuples.length)];
+        dis.readFully(header);
+        for (int i = 0; i < tuples.length; i++) {
+            if ((header[i / 8] & (1 << (i % 8))) != 0) {
+                tuples[i] = readTuple(dis, td);
+                tuples[i].setRecordId(new RecordId(pid, i));
+            } else {
+                dis.skipBytes(td.getSize());
+            }
+        }
+        setBeforeImage();
+    }
+
+    /** @return the number of tuples a leaf page of tuples of td holds */
+    static int maxTuples(TupleDesc td) {
+        return (BufferPool.getPageSize() - POINTER_BYTES) * 8 / (td.getSize() * 8 + 1);
+    }
+
+    private static int headerBytes(int slots) {
+        return (slots + 7) / 8;
+    }
+
+    public int getKind() {
+        return LEAF;
+    }
+
+    public synchronized byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeByte(LEAF);
+            dos.writeInt(parent);
+            dos.writeInt(left);
+            dos.writeInt(right);
+            byte[] header = new byte[headerBytes(tuples.length)];
+            for (int i = 0; i < tuples.length; i++) {
+                if (tuples[i] != null) {
+                    header[i / 8] |= 1 << (i % 8);
+                }
+            }
+            dos.write(header);
+            for (Tuple t : tuples) {
+                writeTuple(dos, td, t);
+            }
+            dos.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return pad(baos);
+    }
+
+    public int getParent() {
+        return parent;
+    }
+
+    public void setParent(int parent) {
+        this.parent = parent;
+    }
+
+    /** @return the number of the page to the left of this one, or 0 */
+    public int getLeftSibling() {
+        return left;
+    }
+
+    public void setLeftSibling(int left) {
+        this.left = left;
+    }
+
+    /** @return the number of the page to the right of this one, or 0 */
+    public int getRightSibling() {
+        return right;
+    }
+
+    public void setRightSibling(int right) {
+        this.right = right;
+    }
+
+    /** @return the number of slots on this page */
+    public int getMaxTuples() {
+        return tuples.length;
+    }
+
+    /** @return the number of tuples on this page */
+    public synchronized int getNumTuples() {
+        int n = 0;
+        for (Tuple t : tuples) {
+            if (t != null) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /** @return the number of empty slots on this page */
+    public int getNumEmptySlots() {
+        return tuples.length - getNumTuples();
+    }
+
+    /**
+     * Adds a tuple to the page, after the tuples with keys no greater than
+     * its own; it and any tuples shifted to make room for it are updated to
+     * reflect where they now are.
+     *
+     * @throws DbException if the page is full or the tupledesc is mismatch
+     */
+    public synchronized void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("tupledesc is mismatch");
+        }
+        Field key = keyOf(t);
+        // the last used slot whose key is not greater than the new one
+        int last = -1;
+        for (int i = 0; i < tuples.length; i++) {
+            if (tuples[i] != null && !keyOf(tuples[i]).compare(Predicate.Op.GREATER_THAN, key)) {
+                last = i;
+            }
+        }
+        // the empty slot nearest to it
+        int empty = -1;
+        for (int d = 0; d < tuples.length && empty < 0; d++) {
+            if (last - d >= 0 && tuples[last - d] == null) {
+                empty = last - d;
+            } else if (last + 1 + d < tuples.length && tuples[last + 1 + d] == null) {
+                empty = last + 1 + d;
+            }
+        }
+        if (empty < 0) {
+            throw new DbException("page is full");
+        }
+        int slot;
+        if (empty < last) {
+            for (int i = empty; i < last; i++) {
+                moveSlot(i + 1, i);
+            }
+            slot = last;
+        } else {
+            for (int i = empty; i > last + 1; i--) {
+                moveSlot(i - 1, i);
+            }
+            slot = last + 1;
+        }
+        tuples[slot] = t;
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    private void moveSlot(int from, int to) {
+        tuples[to] = tuples[from];
+        tuples[from] = null;
+        if (tuples[to] != null) {
+            tuples[to].setRecordId(new RecordId(pid, to));
+        }
+    }
+
+    /**
+     * Delete the specified tuple from the page.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     */
+    public synchronized void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()) || rid.tupleno() < 0
+                || rid.tupleno() >= tuples.length || tuples[rid.tupleno()] == null) {
+            throw new DbException("Can't find the record in the page!");
+        }
+        tuples[rid.tupleno()] = null;
+    }
+
+    /**
+     * @return the tuple on this page with the same values as t, preferring
+     *         the one in the slot of t's RecordId; null if there is none
+     */
+    synchronized Tuple find(Tuple t) {
+        RecordId rid = t.getRecordId();
+        if (rid != null && pid.equals(rid.getPageId()) && rid.tupleno() >= 0
+                && rid.tupleno() < tuples.length && sameValues(tuples[rid.tupleno()], t)) {
+            return tuples[rid.tupleno()];
+        }
+        for (Tuple s : tuples) {
+            if (sameValues(s, t)) {
+                return s;
+            }
+        }
+        return null;
+    }
+
+    private boolean sameValues(Tuple s, Tuple t) {
+        if (s == null) {
+            return false;
+        }
+        for (int i = 0; i < td.numFields(); i++) {
+            if (!s.getField(i).equals(t.getField(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** @return the tuples on this page, in key order */
+    synchronized ArrayList<Tuple> getTuples() {
+        ArrayList<Tuple> list = new ArrayList<Tuple>();
+        for (Tuple t : tuples) {
+            if (t != null) {
+                list.add(t);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Replaces the tuples on this page by a list of tuples in key order,
+     * which are updated to reflect where they now are.
+     */
+    synchronized void setTuples(List<Tuple> list) throws DbException {
+        if (list.size() > tuples.length) {
+            throw new DbException("page is full");
+        }
+        Arrays.fill(tuples, null);
+        for (int i = 0; i < list.size(); i++) {
+            tuples[i] = list.get(i);
+            tuples[i].setRecordId(new RecordId(pid, i));
+        }
+    }
+
+    /**
+     * @return an iterator over the tuples on this page in key order, as they
+     *         are now; later changes to the page do not show through it
+     */
+    public Iterator<Tuple> iterator() {
+        return getTuples().iterator();
+    }
+}
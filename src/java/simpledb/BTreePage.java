@@ -0,0 +1,187 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+
+/**
+ * BTreePage is the common part of the pages of a {@link BTreeFile}: leaf
+ * pages, which hold the tuples of the table in key order, internal pages,
+ * which hold the keys and child pointers above them, and header pages, which
+ * hold the root pointer and track which pages are in use.
+ * <p>
+ * The first byte of every page says which kind it is, so a page can be
+ * decoded from its bytes alone; a page of all zeros is an empty leaf. Pages
+ * point at each other by page number. Page 0 is always a header page, so a
+ * pointer of 0 means "none".
+ *
+ * @see BTreeFile
+ */
+public abstract class BTreePage implements Page {
+
+    /** The kind byte of a leaf page. */
+    public static final int LEAF = 0;
+    /** The kind byte of an internal page. */
+    public static final int INTERNAL = 1;
+    /** The kind byte of a header page. */
+    public static final int HEADER = 2;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    final int keyField;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+    boolean isDirty;
+    TransactionId tid;
+
+    BTreePage(HeapPageId id, TupleDesc td, int keyField) {
+        this.pid = id;
+        this.td = td;
+        this.keyField = keyField;
+    }
+
+    /**
+     * Decodes a page of a B+-tree from its bytes, as a page of the kind its
+     * first byte names.
+     *
+     * @param td the TupleDesc of the tree's tuples
+     * @param keyField the index of the key field in td
+     */
+    static BTreePage create(HeapPageId id, byte[] data, TupleDesc td, int keyField)
+            throws IOException {
+        switch (data[0]) {
+        case LEAF:
+            return new BTreeLeafPage(id, data, td, keyField);
+        case INTERNAL:
+            return new BTreeInternalPage(id, data, td, keyField);
+        case HEADER:
+            return new BTreeHeaderPage(id, data, td, keyField);
+        default:
+            throw new IOException("bad page kind " + data[0] + " on page " + id.pageNumber());
+        }
+    }
+
+    /** @return the B+-tree file of a table in the catalog */
+    static BTreeFile fileOf(HeapPageId id) {
+        return (BTreeFile) Database.getCatalog().getDatabaseFile(id.getTableId());
+    }
+
+    /** @return the kind of this page: LEAF, INTERNAL or HEADER */
+    public abstract int getKind();
+
+    /**
+     * @return the number of the parent of this page, or 0 if this is the
+     *         root or a header page
+     */
+    public abstract int getParent();
+
+    /** Sets the number of the parent of this page; 0 makes it the root. */
+    public abstract void setParent(int parent);
+
+    /** Return a view of this page before it was modified -- used by recovery */
+    public BTreePage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return create(pid, oldDataRef, td, keyField);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData();
+        }
+    }
+
+    /**
+     * Makes the before-image of this page that of another page object for
+     * the same page, which this one is replacing in the buffer pool.
+     */
+    void takeBeforeImage(BTreePage old) {
+        synchronized (oldDataLock) {
+            synchronized (old.oldDataLock) {
+                oldData = old.oldData;
+            }
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        if (dirty) {
+            this.tid = tid;
+        }
+        this.isDirty = dirty;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return isDirty ? tid : null;
+    }
+
+    /** @return the key field of a tuple of this tree */
+    Field keyOf(Tuple t) {
+        return t.getField(keyField);
+    }
+
+    /** Writes the fields of a tuple, or zeros for a missing one. */
+    static void writeTuple(DataOutputStream dos, TupleDesc td, Tuple t) throws IOException {
+        for (int j = 0; j < td.numFields(); j++) {
+            writeField(dos, td.getFieldType(j), t == null ? null : t.getField(j));
+        }
+    }
+
+    static Tuple readTuple(DataInputStream dis, TupleDesc td) throws IOException {
+        Tuple t = new Tuple(td);
+        try {
+            for (int j = 0; j < td.numFields(); j++) {
+                t.setField(j, td.getFieldType(j).parse(dis));
+            }
+        } catch (ParseException e) {
+            throw new IOException("parsing error!", e);
+        }
+        return t;
+    }
+
+    static void writeField(DataOutputStream dos, Type type, Field f) throws IOException {
+        if (f == null) {
+            dos.write(new byte[type.getLen()]);
+        } else {
+            f.serialize(dos);
+        }
+    }
+
+    static Field readField(DataInputStream dis, Type type) throws IOException {
+        try {
+            return type.parse(dis);
+        } catch (ParseException e) {
+            throw new IOException("parsing error!", e);
+        }
+    }
+
+    /** Pads the bytes written so far to a full page. */
+    static byte[] pad(ByteArrayOutputStream baos) {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        byte[] written = baos.toByteArray();
+        System.arraycopy(written, 0, data, 0, Math.min(written.length, data.length));
+        return data;
+    }
+}
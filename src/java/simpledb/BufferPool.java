@@ -2,10 +2,16 @@ package simpledb;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Random;
+import java.util.LinkedList;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -15,6 +21,30 @@ import java.util.concurrent.ConcurrentHashMap;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * Cache hits are served from a concurrent hash table without taking the
+ * BufferPool's monitor. A miss publishes a "being loaded" future for its
+ * page, so that other readers of the same page wait for that one read, and
+ * reads of different pages proceed in parallel. The monitor only guards
+ * frame accounting (reserving a frame, evicting, publishing a loaded page)
+ * and is never held across a read from or a write to disk: a dirty victim
+ * is chosen under the monitor but written out without it, and dropped once
+ * it is clean. Hits record their access with the replacement policy
+ * without taking a lock.
+ * <p>
+ * With record locking enabled (see {@link #setRecordLocking}), writers lock
+ * the tuples they insert or delete rather than whole pages, and only latch
+ * a page (its monitor) while changing it. Such changes cannot be rolled back
+ * by restoring a page's before-image, which may hold other transactions'
+ * changes too, so each one is remembered and undone tuple by tuple on abort.
+ * A page with such changes is only written out by the last of its writers
+ * to complete, so that no transaction's commit forces another's
+ * uncommitted tuples to disk.
+ * <p>
+ * A BufferPool may be given a {@link FrameArena}, an off-heap cache behind
+ * it: evicted heap pages are moved into the arena as bytes, and a miss
+ * looks there before reading the file. A small pool of page objects in
+ * front of a large arena keeps the Java heap small whatever the cache size.
  * 
  * @Threadsafe, all fields are final
  */
@@ -31,21 +61,90 @@ public class BufferPool {
 
     final int numPages;
     final ConcurrentHashMap<PageId,Page> pages; // hash table storing current pages in memory
-    private final Random random = new Random(); // for choosing random pages for eviction
+    private final ReplacementPolicy policy; // chooses pages for eviction
+    // pages read in by a scan ring that nobody else has touched since
+    private final ConcurrentHashMap<PageId,ScanRing> ringPages;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    // pages currently being read from disk, and how many frames they hold
+    private final ConcurrentHashMap<PageId,FutureTask<Page>> loading;
+    private int framesReserved; // guarded by this
+    // dirty victims being written out by an eviction, guarded by this
+    private final HashSet<PageId> flushing;
+    private volatile boolean recordLocking;
+    // tuple changes made under record locks, oldest first, per transaction
+    private final ConcurrentHashMap<TransactionId,LinkedList<RecordChange>> recordChanges;
+    // the transactions with uncommitted record changes on each page
+    private final ConcurrentHashMap<PageId,HashSet<TransactionId>> recordWriters;
+    // the secondary indexes each transaction has changed
+    private final ConcurrentHashMap<TransactionId,HashSet<SecondaryIndex>> changedIndexes;
+    private final FrameArena arena; // off-heap cache of evicted pages, or null
+
+    /** An insert or delete made under a record lock. */
+    private static class RecordChange {
+    	final boolean inserted;
+    	final Tuple tuple;
+    	final PageId pid;
+
+    	RecordChange(boolean inserted, Tuple tuple, PageId pid) {
+    		this.inserted = inserted;
+    		this.tuple = tuple;
+    		this.pid = pid;
+    	}
+    }
 
     /** TODO for Lab 4: create your private Lock Manager class. 
 	Be sure to instantiate it in the constructor. */
     private final LockManager lockmgr; // Added for Lab 4
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, evicting with
+     * the CLOCK replacement policy.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+		this(numPages, new ClockReplacementPolicy(numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and evicts the
+     * pages chosen by the given replacement policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the replacement policy; must not be shared with another
+     *     BufferPool.
+     */
+    public BufferPool(int numPages, ReplacementPolicy policy) {
+		this(numPages, policy, null);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, evicting with
+     * the given replacement policy into an off-heap frame arena.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the replacement policy; must not be shared with another
+     *     BufferPool.
+     * @param arena where evicted pages are kept, or null to drop them; must
+     *     not be shared with another BufferPool.
+     */
+    public BufferPool(int numPages, ReplacementPolicy policy, FrameArena arena) {
 		// some code goes here
 		this.numPages = numPages;
+		this.arena = arena;
 		this.pages = new ConcurrentHashMap<PageId, Page>();
+		this.policy = policy;
+		this.ringPages = new ConcurrentHashMap<PageId, ScanRing>();
+		this.hits = new AtomicLong(0);
+		this.misses = new AtomicLong(0);
+		this.loading = new ConcurrentHashMap<PageId, FutureTask<Page>>();
+		this.framesReserved = 0;
+		this.flushing = new HashSet<PageId>();
+		this.recordLocking = false;
+		this.recordChanges = new ConcurrentHashMap<TransactionId, LinkedList<RecordChange>>();
+		this.recordWriters = new ConcurrentHashMap<PageId, HashSet<TransactionId>>();
+		this.changedIndexes = new ConcurrentHashMap<TransactionId, HashSet<SecondaryIndex>>();
 		
 		lockmgr = new LockManager(); // Added for Lab 4
     }
@@ -53,6 +152,11 @@ public class BufferPool {
     public static int getPageSize() {
     	return pageSize;
     }
+
+    /** @return the most pages this buffer pool holds at once */
+    public int getNumPages() {
+    	return numPages;
+    }
     
     /**
      * Helper: this should be used for testing only!!!
@@ -61,6 +165,41 @@ public class BufferPool {
     	BufferPool.pageSize = pageSize;
     }
     
+    /** @return the number of getPage calls that found the page cached */
+    public long getHitCount() {
+    	return hits.get();
+    }
+    
+    /** @return the number of getPage calls that had to read the page from disk */
+    public long getMissCount() {
+    	return misses.get();
+    }
+    
+    /** @return the off-heap arena behind this pool, or null if it has none */
+    public FrameArena getFrameArena() {
+    	return arena;
+    }
+    
+    /** @return the lock manager, for its deadlock metrics */
+    public LockManager getLockManager() {
+    	return lockmgr;
+    }
+    
+    /**
+     * Switches between page-level locking of inserts and deletes (the
+     * default) and record-level locking, where writers on the same page only
+     * conflict over the same tuple. Only switch while no transaction is
+     * running.
+     */
+    public void setRecordLocking(boolean recordLocking) {
+    	this.recordLocking = recordLocking;
+    }
+    
+    /** @return true if inserts and deletes lock records rather than pages */
+    public boolean isRecordLocking() {
+    	return recordLocking;
+    }
+    
     /**
      * Retrieve the specified page with the associated permissions.
      * Will acquire a lock and may block if that lock is held by another
@@ -78,6 +217,25 @@ public class BufferPool {
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm) 
     		throws TransactionAbortedException, DbException {
+    	return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieve the specified page with the associated permissions on behalf
+     * of a scan that reads through a {@link ScanRing}. Behaves like
+     * {@link #getPage(TransactionId, PageId, Permissions)}, except that on a
+     * miss the page the ring read {@link ScanRing#size()} misses earlier is
+     * dropped to make room, provided it is clean and nobody else has used it
+     * since.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param ring the scan's ring, or null to use the pool like any other
+     *     reader
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, ScanRing ring) 
+    		throws TransactionAbortedException, DbException {
 		// some code goes here
 		
 		
@@ -88,22 +246,261 @@ public class BufferPool {
 		    throw new TransactionAbortedException(); // caught by callee, who calls transactionComplete()
 		}
 		
-		Page p;
-		synchronized(this) {
-		    p = pages.get(pid);
-		    if(p == null) {
-			if(pages.size() >= numPages) {
-			    evictPage();// added for lab 2
-			    // throw new DbException("Out of buffer pages");
-			}
-			
-			p = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-			pages.put(pid, p);
+		return fetchPage(pid, ring);
+    }
+
+    /**
+     * Retrieve the specified page after locking it in the given mode. Used
+     * with IS or IX by access methods that lock individual records on the
+     * page; they must latch the page while they change it.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param mode the lock mode to take on the page
+     */
+    public Page getPage(TransactionId tid, PageId pid, LockMode mode)
+    		throws TransactionAbortedException, DbException {
+		try {
+		    lockmgr.acquireLock(tid, pid, mode);
+		} catch (DeadlockException e) {
+		    throw new TransactionAbortedException();
+		}
+		return fetchPage(pid, null);
+    }
+
+    /**
+     * Lock one record for tid, along with the intention locks on its page
+     * and table. May block if the record is locked by another transaction.
+     */
+    public void lockRecord(TransactionId tid, RecordId rid, Permissions perm)
+    		throws TransactionAbortedException {
+		try {
+		    lockmgr.acquireRecordLock(tid, rid, perm);
+		} catch (DeadlockException e) {
+		    throw new TransactionAbortedException();
+		}
+    }
+
+    /**
+     * Lock one record for tid only if that is possible without waiting.
+     *
+     * @return true if the lock was granted
+     */
+    boolean tryLockRecord(TransactionId tid, RecordId rid, Permissions perm) {
+		return lockmgr.tryAcquireRecordLock(tid, rid, perm);
+    }
+
+    /**
+     * Lock one page for tid only if that is possible without waiting. The
+     * page can then be fetched with getPage without blocking.
+     *
+     * @return true if the lock was granted
+     */
+    boolean tryLockPage(TransactionId tid, PageId pid, Permissions perm) {
+		return lockmgr.tryAcquireLock(tid, pid, perm);
+    }
+
+    /** Look pid up in the pool, reading it in on a miss; the caller holds its lock. */
+    private Page fetchPage(PageId pid, ScanRing ring) throws DbException {
+		Page p = pages.get(pid);
+		if (p != null) {
+		    recordHit(pid, ring);
+		    return p;
+		}
+		
+		FutureTask<Page> load = newLoad(pid, ring);
+		FutureTask<Page> inFlight = loading.putIfAbsent(pid, load);
+		if (inFlight == null) {
+		    // this thread reads the page; anyone else asking for it waits
+		    try {
+			load.run();
+		    } finally {
+			loading.remove(pid, load);
 		    }
+		    return awaitLoad(load);
 		}
+		p = awaitLoad(inFlight);
+		recordHit(pid, ring);
 		return p;
     }
 
+    private void recordHit(PageId pid, ScanRing ring) {
+    	hits.incrementAndGet();
+    	if (ring != null) {
+    		ring.recordHit();
+    	}
+    	if (ringPages.get(pid) != ring) {
+    		// someone else wants this page: leave it to the policy
+    		ringPages.remove(pid);
+    	}
+    	policy.recordAccess(pid);
+    }
+
+    /**
+     * Build the task that reads pid into the pool. It reserves a frame
+     * (evicting if necessary), reads the page without holding the monitor,
+     * and then publishes it.
+     */
+    private FutureTask<Page> newLoad(final PageId pid, final ScanRing ring) {
+    	return new FutureTask<Page>(new Callable<Page>() {
+    		public Page call() throws DbException {
+    			Page cached = pages.get(pid);
+    			if (cached != null) {
+    				// published between our lookup and registering the load
+    				recordHit(pid, ring);
+    				return cached;
+    			}
+    			
+    			misses.incrementAndGet();
+    			reserveFrame(pid, ring);
+    			Page p = null;
+    			try {
+    				p = takeFromArena(pid);
+    				if (p == null) {
+    					p = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+    				}
+    			} finally {
+    				publish(pid, p, ring);
+    			}
+    			if (p == null) {
+    				throw new DbException("could not read page " + pid.pageNumber()
+    						+ " of table " + pid.getTableId());
+    			}
+    			return p;
+    		}
+    	});
+    }
+
+    /** @return the page rebuilt from its image in the arena, or null */
+    private Page takeFromArena(PageId pid) {
+    	if (arena == null) {
+    		return null;
+    	}
+    	byte[] data = arena.take(pid);
+    	if (data == null) {
+    		return null;
+    	}
+    	try {
+    		// only heap pages are put in the arena
+    		return new HeapPage((HeapPageId) pid, data);
+    	} catch (IOException e) {
+    		return null;
+    	}
+    }
+
+    /**
+     * Make room for one more page, counting pages that are still being read
+     * in. If every cached page is gone the load proceeds anyway; the pool
+     * then briefly holds one extra page per concurrent miss.
+     * <p>
+     * A clean victim is dropped at once. A dirty one is written out after
+     * the monitor is released, and the search for room starts over; a miss
+     * that picks a victim another miss is already writing waits for that
+     * write.
+     */
+    private void reserveFrame(PageId pid, ScanRing ring) throws DbException {
+    	if (ring != null) {
+    		synchronized (this) {
+    			ring.recordMiss();
+    			recycleRingFrame(ring.recycle(pid), ring);
+    		}
+    	}
+    	while (true) {
+    		PageId dirty;
+    		synchronized (this) {
+    			if (pages.isEmpty() || pages.size() + framesReserved < numPages) {
+    				framesReserved++;
+    				return;
+    			}
+    			dirty = evictPage();
+    			if (dirty == null) {
+    				continue;
+    			}
+    			if (!flushing.add(dirty)) {
+    				waitForFlush();
+    				continue;
+    			}
+    		}
+    		try {
+    			flushPage(dirty);
+    		} catch (IOException e) {
+    			throw new DbException("could not evict page");
+    		} finally {
+    			synchronized (this) {
+    				flushing.remove(dirty);
+    				notifyAll();
+    			}
+    		}
+    	}
+    }
+
+    /** Wait for an eviction to finish writing out its victim; the caller holds the monitor. */
+    private void waitForFlush() {
+    	try {
+    		wait();
+    	} catch (InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    	}
+    }
+
+    /** Hand a frame reserved by {@link #reserveFrame} over to page p, or give it back. */
+    private synchronized void publish(PageId pid, Page p, ScanRing ring) {
+    	framesReserved--;
+    	if (p == null) {
+    		return;
+    	}
+    	pages.put(pid, p);
+    	if (ring != null) {
+    		ringPages.put(pid, ring);
+    	}
+    	policy.recordAccess(pid);
+    }
+
+    private Page awaitLoad(FutureTask<Page> load) throws DbException {
+    	boolean interrupted = false;
+    	try {
+    		while (true) {
+    			try {
+    				return load.get();
+    			} catch (InterruptedException e) {
+    				// the page is on its way; finish waiting for it
+    				interrupted = true;
+    			}
+    		}
+    	} catch (ExecutionException e) {
+    		Throwable cause = e.getCause();
+    		if (cause instanceof DbException) {
+    			throw (DbException) cause;
+    		}
+    		if (cause instanceof RuntimeException) {
+    			throw (RuntimeException) cause;
+    		}
+    		if (cause instanceof Error) {
+    			throw (Error) cause;
+    		}
+    		throw new DbException("could not read page: " + cause);
+    	} finally {
+    		if (interrupted) {
+    			Thread.currentThread().interrupt();
+    		}
+    	}
+    }
+
+    /**
+     * Drop a page that a scan ring has moved past, unless it has since been
+     * claimed by another reader or dirtied.
+     */
+    private void recycleRingFrame(PageId old, ScanRing ring) {
+    	if (old == null || !ringPages.remove(old, ring)) {
+    		return;
+    	}
+    	Page p = pages.get(old);
+    	if (p != null && p.isDirty() == null) {
+    		pages.remove(old);
+    		policy.remove(old);
+    	}
+    }
+
     /**
      * Releases the lock on a page.
      * Calling this is very risky, and may result in wrong behavior. Think hard
@@ -139,7 +536,8 @@ public class BufferPool {
     
     /**
      * Commit or abort a given transaction; release all locks associated to
-     * the transaction.
+     * the transaction. The secondary indexes it changed are then told it is
+     * complete.
      *
      * @param tid the ID of the transaction requesting the unlock
      * @param commit a flag indicating whether we should commit or abort
@@ -157,24 +555,139 @@ public class BufferPool {
 //    		}
 //    	}
     	
-    	try {
-	        for (PageId pid : pages.keySet()) {
-	            if (pages.get(pid).isDirty() != null && pages.get(pid).isDirty().equals(tid)) {
-	                if (commit) {
-	                	Page p = pages.get(pid);
-	                	
-	                    flushPage(pid);
-	                } else {
-	                	pages.put(pid, pages.get(pid).getBeforeImage());
-	                }
-	            }
-	        }
-    	}catch (NullPointerException e){
-    		e.printStackTrace();
-    		System.exit(0);
+    	// pages whose changes by tid are finished tuple by tuple
+    	Set<PageId> covered = new HashSet<PageId>();
+    	LinkedList<RecordChange> changes = recordChanges.remove(tid);
+    	if (changes != null) {
+    		covered = completeRecordChanges(tid, commit, changes);
     	}
     	
+        for (PageId pid : pages.keySet()) {
+            Page p = pages.get(pid);
+            if (p != null && p.isDirty() != null && tid.equals(p.isDirty())) {
+                if (commit) {
+                    flushPage(pid);
+                } else if (!covered.contains(pid)) {
+                	pages.put(pid, p.getBeforeImage());
+                }
+            }
+        }
+    	
 		lockmgr.releaseAllLocks(tid, commit); // Added for Lab 4
+		
+		HashSet<SecondaryIndex> indexes = changedIndexes.remove(tid);
+		if (indexes != null) {
+			for (SecondaryIndex si : indexes) {
+				si.transactionComplete(tid, commit);
+			}
+		}
+    }
+    
+    /**
+     * Finish the tuple changes tid made under record locks. On abort the
+     * changes are first undone newest first, with the record locks still
+     * held. Then each page they touched is written out, on commit with a
+     * log record, unless another transaction still has uncommitted record
+     * changes on it: the page is then left dirty on behalf of that
+     * transaction, to be written out when it completes.
+     *
+     * @return the pages the changes touched
+     */
+    private Set<PageId> completeRecordChanges(TransactionId tid, boolean commit,
+    		LinkedList<RecordChange> changes) throws IOException {
+    	HashSet<PageId> touched = new HashSet<PageId>();
+    	for (RecordChange c : changes) {
+    		touched.add(c.pid);
+    	}
+    	
+    	Iterator<RecordChange> it = commit
+    			? Collections.<RecordChange>emptyIterator()
+    			: changes.descendingIterator();
+    	while (it.hasNext()) {
+    		RecordChange c = it.next();
+    		DbFile file = Database.getCatalog().getDatabaseFile(c.pid.getTableId());
+    		try {
+    			ArrayList<Page> dirtied = c.inserted
+    					? file.deleteTuple(tid, c.tuple)
+    					: file.insertTuple(tid, c.tuple);
+    			dirtied.addAll(updateIndexes(tid, c.pid.getTableId(), c.tuple, !c.inserted));
+    			cacheDirtyPages(tid, dirtied);
+    			for (Page p : dirtied) {
+    				touched.add(p.getId());
+    			}
+    		} catch (DbException e) {
+    			throw new IOException("could not roll back transaction " + tid.getId(), e);
+    		} catch (TransactionAbortedException e) {
+    			throw new IOException("could not roll back transaction " + tid.getId(), e);
+    		}
+    	}
+    	
+    	for (PageId pid : touched) {
+    		TransactionId heir = finishRecordWrite(tid, pid);
+    		Page p = pages.get(pid);
+    		if (p == null) {
+    			continue;
+    		}
+    		synchronized(p) {
+    			TransactionId dirtier = p.isDirty();
+    			if (heir != null) {
+    				if (dirtier != null) {
+    					p.markDirty(true, heir);
+    				}
+    			} else if (dirtier != null && tid.equals(dirtier)) {
+    				if (commit) {
+    					flushPage(pid);
+    				} else {
+    					Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(p);
+    					p.markDirty(false, null);
+    					p.setBeforeImage();
+    				}
+    			}
+    		}
+    	}
+    	return touched;
+    }
+    
+    /** Note that tid has uncommitted record changes on a page. */
+    private void startRecordWrite(TransactionId tid, PageId pid) {
+    	while (true) {
+    		HashSet<TransactionId> writers = recordWriters.get(pid);
+    		if (writers == null) {
+    			writers = new HashSet<TransactionId>();
+    			HashSet<TransactionId> raced = recordWriters.putIfAbsent(pid, writers);
+    			if (raced != null) {
+    				writers = raced;
+    			}
+    		}
+    		synchronized(writers) {
+    			// a set emptied and dropped by finishRecordWrite is not reused
+    			if (recordWriters.get(pid) == writers) {
+    				writers.add(tid);
+    				return;
+    			}
+    		}
+    	}
+    }
+    
+    /**
+     * Note that tid's record changes on a page are complete.
+     *
+     * @return another transaction with uncommitted record changes on the
+     *     page, or null if there is none
+     */
+    private TransactionId finishRecordWrite(TransactionId tid, PageId pid) {
+    	HashSet<TransactionId> writers = recordWriters.get(pid);
+    	if (writers == null) {
+    		return null;
+    	}
+    	synchronized(writers) {
+    		writers.remove(tid);
+    		if (writers.isEmpty()) {
+    			recordWriters.remove(pid, writers);
+    			return null;
+    		}
+    		return writers.iterator().next();
+    	}
     }
     
     /**
@@ -199,23 +712,37 @@ public class BufferPool {
 		
 		// let the specific implementation of the file decide which page to add it to
 		ArrayList<Page> dirtypages = file.insertTuple(tid, t);
+		dirtypages.addAll(updateIndexes(tid, tableId, t, true));
+		if (recordLocking) {
+			recordChange(tid, new RecordChange(true, t, t.getRecordId().getPageId()));
+		}
 		
-		synchronized(this) {
-		    for (Page p : dirtypages){
+		cacheDirtyPages(tid, dirtypages);
+    }
+    
+    /**
+     * Mark the pages a file changed dirty, and make them the cached copies.
+     * A file may return new copies of pages, and pages may have been evicted
+     * while a change that touches several pages, such as a B+-tree split or
+     * merge, was under way.
+     */
+    void cacheDirtyPages(TransactionId tid, ArrayList<Page> dirtypages)
+    		throws DbException {
+		for (Page p : dirtypages){
 			p.markDirty(true, tid);
 			
-			// if page in pool already, done.
-			if(pages.get(p.getId()) != null) {
-			    //replace old page with new one in case insertTuple returns a new copy of the page
-			    pages.put(p.getId(), p);
+			synchronized (this) {
+			    // if page in pool already, replace the old page with the
+			    // new one in case the file returned a new copy of the page
+			    if (pages.get(p.getId()) != null) {
+				pages.put(p.getId(), p);
+				policy.recordAccess(p.getId());
+				continue;
+			    }
 			}
-			else {
-			    // put page in pool
-			    if(pages.size() >= numPages)
-				evictPage();
-			    pages.put(p.getId(), p);
-			}
-		    }
+			// put page in pool
+			reserveFrame(p.getId(), null);
+			publish(p.getId(), p, null);
 		}
     }
     
@@ -235,22 +762,91 @@ public class BufferPool {
 		// some code goes here
 		// not necessary for lab1
 		
-		DbFile file = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
+		PageId pid = t.getRecordId().getPageId();
+		DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
 		ArrayList<Page> dirtypages = file.deleteTuple(tid, t);
+		dirtypages.addAll(updateIndexes(tid, pid.getTableId(), t, false));
+		if (recordLocking) {
+			recordChange(tid, new RecordChange(false, t, pid));
+		}
 		
-		synchronized(this) {
-		    for (Page p : dirtypages){
-		    	p.markDirty(true, tid);
-		    }
+		cacheDirtyPages(tid, dirtypages);
+    }
+    
+    /**
+     * Bring the secondary indexes of a table up to date with a tuple just
+     * inserted into or deleted from it.
+     * 
+     * @return the pages of the indexes that were modified
+     */
+    private ArrayList<Page> updateIndexes(TransactionId tid, int tableId, Tuple t, boolean inserted)
+    		throws DbException, IOException, TransactionAbortedException {
+		ArrayList<Page> dirtypages = new ArrayList<Page>();
+		for (Index index : Database.getCatalog().getIndexes(tableId)) {
+			if (index instanceof SecondaryIndex) {
+				SecondaryIndex si = (SecondaryIndex) index;
+				indexChanged(tid, si);
+				dirtypages.addAll(inserted ? si.insertEntry(tid, t) : si.deleteEntry(tid, t));
+			}
+		}
+		return dirtypages;
+    }
+    
+    /**
+     * Adds an entry for each tuple of a table to a secondary index on it, in
+     * one scan of the table as a part of transaction tid.
+     */
+    void fillIndex(TransactionId tid, SecondaryIndex index)
+    		throws DbException, IOException, TransactionAbortedException {
+		indexChanged(tid, index);
+		DbFileIterator it = Database.getCatalog().getDatabaseFile(index.getTableId()).iterator(tid);
+		it.open();
+		try {
+			while (it.hasNext()) {
+				cacheDirtyPages(tid, index.insertEntry(tid, it.next()));
+			}
+		} finally {
+			it.close();
 		}
     }
     
+    /** Note that tid has changed a secondary index. */
+    private void indexChanged(TransactionId tid, SecondaryIndex index) {
+    	HashSet<SecondaryIndex> indexes = changedIndexes.get(tid);
+    	if (indexes == null) {
+    		indexes = new HashSet<SecondaryIndex>();
+    		HashSet<SecondaryIndex> raced = changedIndexes.putIfAbsent(tid, indexes);
+    		if (raced != null) {
+    			indexes = raced;
+    		}
+    	}
+    	synchronized(indexes) {
+    		indexes.add(index);
+    	}
+    }
+    
+    private void recordChange(TransactionId tid, RecordChange change) {
+    	startRecordWrite(tid, change.pid);
+    	LinkedList<RecordChange> changes = recordChanges.get(tid);
+    	if (changes == null) {
+    		changes = new LinkedList<RecordChange>();
+    		LinkedList<RecordChange> raced = recordChanges.putIfAbsent(tid, changes);
+    		if (raced != null) {
+    			changes = raced;
+    		}
+    	}
+    	synchronized(changes) {
+    		changes.add(change);
+    	}
+    }
+    
     /**
-     * Flush all dirty pages to disk.
+     * Flush all dirty pages to disk, and the free-space maps of the tables
+     * with them.
      * Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
+    public void flushAllPages() throws IOException {
 		// some code goes here
 		// not necessary for lab1
 		
@@ -258,6 +854,16 @@ public class BufferPool {
 		while(i.hasNext()) {
 		    flushPage(i.next());
 		}
+		
+		Iterator<Integer> tables = Database.getCatalog().tableIdIterator();
+		while (tables.hasNext()) {
+			DbFile file = Database.getCatalog().getDatabaseFile(tables.next());
+			if (file instanceof HeapFile) {
+				((HeapFile) file).syncFreeSpaceMap();
+			} else if (file instanceof SlottedFile) {
+				((SlottedFile) file).syncFreeSpaceMap();
+			}
+		}
 	
     }
     
@@ -270,13 +876,19 @@ public class BufferPool {
 		// some code goes here
 		// not necessary for labs 1--4
     	this.pages.remove(pid);
+    	this.ringPages.remove(pid);
+    	policy.remove(pid);
+    	if (arena != null) {
+    		arena.remove(pid);
+    	}
     }
     
     /**
-     * Flushes a certain page to disk
+     * Flushes a certain page to disk. Only the page itself is latched, so
+     * commits do not hold up reads of other pages.
      * @param pid an ID indicating the page to flush
      */
-    private synchronized  void flushPage(PageId pid) throws IOException {
+    private void flushPage(PageId pid) throws IOException {
 		// some code goes here
 		// not necessary for lab1
 		
@@ -284,29 +896,34 @@ public class BufferPool {
 		if (p == null)
 		    return; //not in buffer pool -- doesn't need to be flushed
 		
-		// append an update record to the log, with 
-        // a before-image and after-image.
-        TransactionId dirtier = p.isDirty();
-        if (dirtier != null){
-          Database.getLogFile().logWrite(dirtier, p.getBeforeImage(), p);
-          Database.getLogFile().force();
-        }
-		
-		DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
-		file.writePage(p);
-		p.markDirty(false, null);
-		
-		// use current page contents as the before-image
-        // for the next transaction that modifies this page.
-        p.setBeforeImage();
+		synchronized(p) {
+		    // append an update record to the log, with
+		    // a before-image and after-image.
+		    TransactionId dirtier = p.isDirty();
+		    if (dirtier != null){
+			Database.getLogFile().logWrite(dirtier, p.getBeforeImage(), p);
+			Database.getLogFile().force();
+		    }
+		    
+		    DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+		    file.writePage(p);
+		    p.markDirty(false, null);
+		    
+		    // use current page contents as the before-image
+		    // for the next transaction that modifies this page.
+		    p.setBeforeImage();
+		}
     }
     
     /** Write all pages of the specified transaction to disk.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
 		// some code goes here
 		// not necessary for labs 1--4
-    	HashSet<PageId> pages = this.lockmgr.getAllPagesByTid(tid);
+    	Set<PageId> pages = this.lockmgr.getAllPagesByTid(tid);
+    	if (pages == null) {
+    		return;
+    	}
     	
     	for (PageId pid : pages) {
     		this.flushPage(pid);
@@ -314,32 +931,33 @@ public class BufferPool {
     }
     
     /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Discards a page from the buffer pool, if the page the policy picks is
+     * clean. A dirty page must be written to disk before it can be dropped;
+     * that is left to the caller, so that it can do it without holding the
+     * monitor.
+     *
+     * @return null if a page was discarded, or the dirty page picked
      */
-    private synchronized  void evictPage() throws DbException {
+    private synchronized PageId evictPage() throws DbException {
 		// some code goes here
 		// not necessary for lab1
 		
-		// try to evict a random page, focusing first on finding one that is not dirty
-		// currently does not check for pages with uncommitted xacts, which could impact future labs
-		Object pids[] = pages.keySet().toArray();
-		PageId pid = (PageId) pids[random.nextInt(pids.length)];
-		
-		try {
-		    Page p = pages.get(pid);
-		    if (p.isDirty() != null) { // this one is dirty, try to find first non-dirty
-				for (PageId pg : pages.keySet()) {
-				    if (pages.get(pg).isDirty() == null) {
-						pid = pg;
-						break;
-				    }
-				}
-		    }
-		    flushPage(pid);
-		} catch (IOException e) {
-		    throw new DbException("could not evict page");
+		// the policy passes over dirty pages unless nothing else is left
+		PageId pid = policy.chooseVictim(pages);
+		if (pid == null) {
+		    throw new DbException("no pages to evict");
+		}
+		Page p = pages.get(pid);
+		if (p != null && p.isDirty() != null) {
+		    return pid;
 		}
+		
 		pages.remove(pid);
+		ringPages.remove(pid);
+		policy.remove(pid);
+		if (arena != null && p instanceof HeapPage) {
+		    arena.put(pid, p.getPageData());
+		}
+		return null;
 	}
 }
\ No newline at end of file
@@ -6,6 +6,7 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * The Catalog keeps track of all available tables in the database and their
@@ -20,6 +21,8 @@ public class Catalog {
 	private final Map<Integer, DbFile> dbFileMap;
 	private final Map<Integer, String> tableNameMap;
 	private final Map<Integer, String> primaryKeyMap;
+	private final Map<Integer, List<Index>> indexMap;
+	private final Map<Integer, DbFile> indexFileMap;
 
     /**
      * Constructor.
@@ -30,6 +33,8 @@ public class Catalog {
     	dbFileMap = new ConcurrentHashMap<Integer, DbFile>();
     	tableNameMap = new ConcurrentHashMap<Integer, String>();
     	primaryKeyMap = new ConcurrentHashMap<Integer, String>();
+    	indexMap = new ConcurrentHashMap<Integer, List<Index>>();
+    	indexFileMap = new ConcurrentHashMap<Integer, DbFile>();
     }
 
     /**
@@ -39,6 +44,8 @@ public class Catalog {
      *    this file/tupledesc param for the calls getTupleDesc and getFile
      * @param name the name of the table -- may be an empty string.  May not be null.  If a name
      * conflict exists, use the last table to be added as the table for a given name.
+     * A file that is also an Index, such as a BTreeFile, is registered as an
+     * index on itself.
      * @param pkeyField the name of the primary key field
      */
     public void addTable(DbFile file, String name, String pkeyField) {
@@ -47,6 +54,9 @@ public class Catalog {
     	dbFileMap.put(id, file);
     	tableNameMap.put(id, name);
     	primaryKeyMap.put(id, pkeyField);
+    	if (file instanceof Index) {
+    		addIndex((Index) file);
+    	}
     }
 
     public void addTable(DbFile file, String name) {
@@ -88,24 +98,39 @@ public class Catalog {
      */
     public TupleDesc getTupleDesc(int tableid) throws NoSuchElementException {
         // some code goes here
+        return getDatabaseFile(tableid).getTupleDesc();
+    }
+
+    /**
+     * Returns the size of the pages of the specified table: the size in the
+     * header of its HeapFile, or BufferPool.getPageSize() for tables that do
+     * not have a size of their own or are not in the catalog. HeapFiles and
+     * SlottedFiles size their pages by it; B+-trees and hash indexes always
+     * use BufferPool.getPageSize(), and loadSchema refuses to give a B+-tree
+     * table a size of its own.
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     */
+    public int getPageSize(int tableid) {
     	DbFile dbFile = dbFileMap.get(tableid);
-    	
-    	if (dbFile == null) {
-    		throw new NoSuchElementException("Can't find dbfile by id: " + tableid);
+    	if (dbFile instanceof HeapFile) {
+    		return ((HeapFile) dbFile).getPageSize();
     	}
-    	
-        return dbFile.getTupleDesc();
+    	return BufferPool.getPageSize();
     }
 
     /**
      * Returns the DbFile that can be used to read the contents of the
-     * specified table.
+     * specified table, or the pages of an index file added with addIndex.
      * @param tableid The id of the table, as specified by the DbFile.getId()
      *     function passed to addTable
      */
     public DbFile getDatabaseFile(int tableid) throws NoSuchElementException {
         // some code goes here
     	DbFile dbFile = dbFileMap.get(tableid);
+    	if (dbFile == null) {
+    		dbFile = indexFileMap.get(tableid);
+    	}
     	
     	if (dbFile == null) {
     		throw new NoSuchElementException("Can't find dbfile by id: " + tableid);
@@ -119,6 +144,73 @@ public class Catalog {
         return primaryKeyMap.get(tableid);
     }
 
+    /**
+     * Register an index on a table, so that the optimizer can use it. An
+     * index that is a DbFile of its own, such as a HashIndexFile, is also
+     * registered as a file, so that the BufferPool can read its pages, but
+     * not as a table. A {@link SecondaryIndex} is filled with the tuples
+     * already in its table before the optimizer sees it.
+     * @param index the index; index.getTableId() is the table it is on
+     * @throws RuntimeException if a new index could not be filled
+     */
+    public void addIndex(Index index) {
+    	boolean ownFile = index instanceof DbFile
+    			&& ((DbFile) index).getId() != index.getTableId();
+    	if (ownFile) {
+    		indexFileMap.put(((DbFile) index).getId(), (DbFile) index);
+    	}
+    	if (index instanceof SecondaryIndex) {
+    		try {
+    			((SecondaryIndex) index).fill();
+    		} catch (Exception e) {
+    			if (ownFile) {
+    				indexFileMap.remove(((DbFile) index).getId());
+    			}
+    			throw new RuntimeException("could not fill index on table " + index.getTableId(), e);
+    		}
+    	}
+    	List<Index> indexes = indexMap.get(index.getTableId());
+    	if (indexes == null) {
+    		indexMap.putIfAbsent(index.getTableId(), new CopyOnWriteArrayList<Index>());
+    		indexes = indexMap.get(index.getTableId());
+    	}
+    	if (!indexes.contains(index)) {
+    		indexes.add(index);
+    	}
+    }
+
+    /**
+     * Returns the indexes on a table.
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     * @return the indexes on the table, in the order they were added; empty
+     *     if it has none
+     */
+    public List<Index> getIndexes(int tableid) {
+    	List<Index> indexes = indexMap.get(tableid);
+    	if (indexes == null) {
+    		return Collections.emptyList();
+    	}
+    	return Collections.unmodifiableList(indexes);
+    }
+
+    /**
+     * Returns an index on a field of a table that can evaluate an operator.
+     * @return of such indexes, the one that reads the fewest pages to reach
+     *     its first match, and of those the first added; or null if there
+     *     is none
+     */
+    public Index getIndex(int tableid, int field, Predicate.Op op) {
+    	Index best = null;
+    	for (Index index : getIndexes(tableid)) {
+    		if (index.getKeyField() == field && index.supports(op)
+    				&& (best == null || index.probePages() < best.probePages())) {
+    			best = index;
+    		}
+    	}
+    	return best;
+    }
+
     public Iterator<Integer> tableIdIterator() {
         // some code goes here
         return dbFileMap.keySet().iterator();
@@ -135,10 +227,15 @@ public class Catalog {
     	dbFileMap.clear();
     	tableNameMap.clear();
     	primaryKeyMap.clear();
+    	indexMap.clear();
+    	indexFileMap.clear();
     }
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * A table's line may end with "pagesize N" to give the table N byte pages,
+     * or with "btree F" to store the table in a B+-tree on its field F; a
+     * B+-tree's pages are always BufferPool.getPageSize() bytes.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -156,6 +253,23 @@ public class Catalog {
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
                 String primaryKey = "";
+                int pageSize = 0;
+                String btreeKey = null;
+                String[] options = line.substring(line.indexOf(")") + 1).trim().split("\\s+");
+                for (int o = 0; o < options.length && options[o].length() > 0; o += 2) {
+                    if (options[o].toLowerCase().equals("pagesize")) {
+                        pageSize = Integer.parseInt(options[o + 1]);
+                    } else if (options[o].toLowerCase().equals("btree")) {
+                        btreeKey = options[o + 1];
+                    } else {
+                        System.out.println("Unknown table option " + options[o]);
+                        System.exit(0);
+                    }
+                }
+                if (btreeKey != null && pageSize != 0) {
+                    System.out.println("Table " + name + " is a B+-tree, whose pages can't have a size of their own");
+                    System.exit(0);
+                }
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
@@ -179,14 +293,19 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
-                addTable(tabHf,name,primaryKey);
+                File dataFile = new File(baseFolder+"/"+name + ".dat");
+                if (btreeKey != null) {
+                    addTable(new BTreeFile(dataFile, t.fieldNameToIndex(btreeKey), t), name, primaryKey);
+                } else {
+                    HeapFile tabHf = new HeapFile(dataFile, t, pageSize);
+                    addTable(tabHf,name,primaryKey);
+                }
                 System.out.println("Added table : " + name + " with schema " + t);
             }
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(0);
-        } catch (IndexOutOfBoundsException e) {
+        } catch (IndexOutOfBoundsException | NumberFormatException | NoSuchElementException e) {
             System.out.println ("Invalid catalog entry : " + line);
             System.exit(0);
         }
@@ -0,0 +1,131 @@
+package simpledb;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * CLOCK (second chance) page replacement. Cached pages sit in a circular
+ * array of frames, each with a reference bit that is set on every access.
+ * The clock hand sweeps the frames, clearing reference bits, and stops at
+ * the first clean page whose bit is already clear. Every bit cleared by the
+ * hand was set by an access, so eviction is O(1) amortized.
+ * <p>
+ * An access to a page that already has a frame only sets its reference
+ * bit, without taking the policy's monitor, so buffer pool hits never wait
+ * for each other or for an eviction. A page's frame is a new object each
+ * time it is given one, so a bit set just as the page is removed is lost
+ * with the old frame rather than landing on another page.
+ *
+ * @Threadsafe
+ */
+public class ClockReplacementPolicy implements ReplacementPolicy {
+
+    /** The slot of one cached page. */
+    private static class Frame {
+        final PageId pid;
+        final int slot;
+        volatile boolean referenced;
+
+        Frame(PageId pid, int slot) {
+            this.pid = pid;
+            this.slot = slot;
+        }
+    }
+
+    private Frame[] frames;
+    private final ConcurrentHashMap<PageId, Frame> frameOf;
+    private final ArrayDeque<Integer> freeFrames;
+    private int used;
+    private int hand;
+
+    /**
+     * Creates a CLOCK policy sized for a buffer pool of the given capacity.
+     * The frame array grows if more pages than that are ever tracked.
+     *
+     * @param numPages the expected number of pages in the buffer pool
+     */
+    public ClockReplacementPolicy(int numPages) {
+        int capacity = Math.max(numPages, 1);
+        frames = new Frame[capacity];
+        frameOf = new ConcurrentHashMap<PageId, Frame>();
+        freeFrames = new ArrayDeque<Integer>();
+        used = 0;
+        hand = 0;
+    }
+
+    public void recordAccess(PageId pid) {
+        Frame frame = frameOf.get(pid);
+        if (frame == null) {
+            frame = addFrame(pid);
+        }
+        frame.referenced = true;
+    }
+
+    /** @return the frame of a page, given one if it has none yet */
+    private synchronized Frame addFrame(PageId pid) {
+        Frame frame = frameOf.get(pid);
+        if (frame == null) {
+            frame = new Frame(pid, allocateFrame());
+            frames[frame.slot] = frame;
+            frameOf.put(pid, frame);
+        }
+        return frame;
+    }
+
+    public synchronized void remove(PageId pid) {
+        Frame frame = frameOf.remove(pid);
+        if (frame != null) {
+            frames[frame.slot] = null;
+            freeFrames.push(frame.slot);
+        }
+    }
+
+    public synchronized PageId chooseVictim(Map<PageId, Page> pages) {
+        if (frameOf.isEmpty()) {
+            return null;
+        }
+
+        // two full turns: the first may only clear reference bits
+        PageId dirtyCandidate = null;
+        for (int step = 0; step < 2 * used; step++) {
+            Frame frame = frames[hand];
+            hand = (hand + 1) % used;
+
+            if (frame == null) {
+                continue;
+            }
+            PageId pid = frame.pid;
+            Page p = pages.get(pid);
+            if (p == null) {
+                // no longer cached, drop the stale frame
+                remove(pid);
+                continue;
+            }
+            if (p.isDirty() != null) {
+                if (dirtyCandidate == null) {
+                    dirtyCandidate = pid;
+                }
+                continue;
+            }
+            if (frame.referenced) {
+                frame.referenced = false;
+                continue;
+            }
+            return pid;
+        }
+        return dirtyCandidate;
+    }
+
+    private int allocateFrame() {
+        if (!freeFrames.isEmpty()) {
+            return freeFrames.pop();
+        }
+        if (used == frames.length) {
+            Frame[] newFrames = new Frame[frames.length * 2];
+            System.arraycopy(frames, 0, newFrames, 0, used);
+            frames = newFrames;
+        }
+        return used++;
+    }
+}
@@ -0,0 +1,74 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * Estimates the number of distinct values added to it in a fixed amount of
+ * memory, by keeping the {@link #K} smallest distinct hashes of the values.
+ * Until it has seen K distinct hashes the count is exact, but for hash
+ * collisions; after that, if the largest hash kept is the fraction f of the
+ * range of hashes, there are about (K - 1) / f distinct values, to within a
+ * few percent.
+ */
+class DistinctSketch {
+
+    /** The number of hashes kept. */
+    static final int K = 2048;
+
+    // the hashes are 53 bits, so they convert to doubles exactly
+    private static final int HASH_BITS = 53;
+
+    // the smallest hashes added, in increasing order
+    private final long[] mins = new long[K];
+    private int size;
+
+    /** Adds an integer value. */
+    void add(int v) {
+        addHash(mix(v));
+    }
+
+    /** Adds a string value. */
+    void add(String s) {
+        // FNV-1a over the characters
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h = (h ^ s.charAt(i)) * 0x100000001b3L;
+        }
+        addHash(mix(h));
+    }
+
+    private void addHash(long hash) {
+        long h = hash >>> (64 - HASH_BITS);
+        if (size == K && h >= mins[K - 1]) {
+            return;
+        }
+        int i = Arrays.binarySearch(mins, 0, size, h);
+        if (i >= 0) {
+            return;
+        }
+        i = -i - 1;
+        // when full, the largest hash is dropped
+        int end = size == K ? K - 1 : size++;
+        System.arraycopy(mins, i, mins, i + 1, end - i);
+        mins[i] = h;
+    }
+
+    /** @return the estimated number of distinct values added */
+    long estimate() {
+        if (size < K) {
+            return size;
+        }
+        double f = (mins[K - 1] + 1.0) / (1L << HASH_BITS);
+        return Math.round((K - 1) / f);
+    }
+
+    /** The finalizer of MurmurHash3, which spreads every bit of h over the hash. */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
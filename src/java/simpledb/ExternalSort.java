@@ -0,0 +1,286 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ExternalSort is an operator that returns the tuples of its child ordered
+ * by one field, using no more than a fixed budget of memory. Unlike
+ * {@link OrderBy}, which holds its whole input, it sorts the input in runs
+ * that fit the budget, writes each run to a {@link SpillFile}, and merges
+ * the runs. If there are more runs than can be merged at once, they are
+ * merged in several passes. An input that fits the budget is sorted in
+ * memory and never written out.
+ */
+public class ExternalSort extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default memory budget, in pages. */
+    public static final int DEFAULT_MEMORY_PAGES = BufferPool.DEFAULT_PAGES / 2;
+
+    private DbIterator child;
+    private final int sortField;
+    private final boolean asc;
+    private final int memoryPages;
+    private final TupleComparator comparator;
+
+    // the whole input, if it fit the budget
+    private ArrayList<Tuple> sorted;
+    private Iterator<Tuple> it;
+    // otherwise the runs of the last pass, merged as tuples are asked for
+    private ArrayList<SpillFile> runs;
+    private Merge merge;
+
+    /** The next tuple of one run, ordered for the merge. */
+    private class Head implements Comparable<Head> {
+        final Tuple t;
+        final int run;
+
+        Head(Tuple t, int run) {
+            this.t = t;
+            this.run = run;
+        }
+
+        public int compareTo(Head o) {
+            int c = comparator.compare(t, o.t);
+            // equal keys come out in run order, which keeps the sort stable
+            return c != 0 ? c : run - o.run;
+        }
+    }
+
+    /** A merge of some runs, reading each of them once. */
+    private class Merge {
+        final DbFileIterator[] readers;
+        final PriorityQueue<Head> heads;
+
+        /** Opens a reader on each run and puts its first tuple in the heap. */
+        Merge(List<SpillFile> runs) throws DbException, TransactionAbortedException {
+            readers = new DbFileIterator[runs.size()];
+            heads = new PriorityQueue<Head>(Math.max(1, runs.size()));
+            for (int i = 0; i < runs.size(); i++) {
+                readers[i] = runs.get(i).iterator();
+                readers[i].open();
+                if (readers[i].hasNext()) {
+                    heads.add(new Head(readers[i].next(), i));
+                }
+            }
+        }
+
+        /** @return the smallest head of the runs, or null when they are done */
+        Tuple next() throws DbException, TransactionAbortedException {
+            Head h = heads.poll();
+            if (h == null) {
+                return null;
+            }
+            if (readers[h.run].hasNext()) {
+                heads.add(new Head(readers[h.run].next(), h.run));
+            }
+            return h.t;
+        }
+
+        void close() {
+            for (DbFileIterator r : readers) {
+                if (r != null) {
+                    r.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a sort of the child's tuples with the default memory budget.
+     *
+     * @param sortField the field to sort on
+     * @param asc true for ascending order
+     * @param child the tuples to sort
+     */
+    public ExternalSort(int sortField, boolean asc, DbIterator child) {
+        this(sortField, asc, child, DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * As above, holding at most memoryPages pages of tuples in memory; the
+     * least it will do with is 3.
+     */
+    public ExternalSort(int sortField, boolean asc, DbIterator child, int memoryPages) {
+        this.child = child;
+        this.sortField = sortField;
+        this.asc = asc;
+        // at least two runs must be merged at once
+        this.memoryPages = Math.max(3, memoryPages);
+        this.comparator = new TupleComparator(sortField, asc);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    @Override
+    public SortOrder getSortOrder() {
+        return new SortOrder(sortField, asc);
+    }
+
+    /** @return true if the last open wrote runs to disk */
+    boolean isSpilled() {
+        return runs != null;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        child.open();
+        int max = Math.max(1, (int) ((long) memoryPages * BufferPool.getPageSize()
+                / child.getTupleDesc().getSize()));
+
+        ArrayList<Tuple> buffer = new ArrayList<Tuple>();
+        ArrayList<SpillFile> written = new ArrayList<SpillFile>();
+        ArrayList<SpillFile> merged = new ArrayList<SpillFile>();
+        boolean done = false;
+        try {
+            while (child.hasNext()) {
+                buffer.add(child.next());
+                if (buffer.size() == max && child.hasNext()) {
+                    written.add(writeRun(buffer));
+                    buffer.clear();
+                }
+            }
+            Collections.sort(buffer, comparator);
+            if (written.isEmpty()) {
+                sorted = buffer;
+                it = sorted.iterator();
+                done = true;
+                return;
+            }
+            if (!buffer.isEmpty()) {
+                written.add(writeRun(buffer));
+            }
+            buffer = null;
+
+            // one page of memory is kept for the output of a merge
+            int fanIn = memoryPages - 1;
+            while (written.size() > fanIn) {
+                merged = new ArrayList<SpillFile>();
+                for (int i = 0; i < written.size(); i += fanIn) {
+                    List<SpillFile> group = written.subList(i, Math.min(i + fanIn, written.size()));
+                    merged.add(mergeRuns(group));
+                }
+                written = merged;
+            }
+            runs = written;
+            merge = new Merge(runs);
+            done = true;
+        } finally {
+            if (!done) {
+                // runs merged already are deleted again, which does no harm
+                closeMerge();
+                runs = null;
+                deleteAll(written);
+                deleteAll(merged);
+            }
+        }
+    }
+
+    private static void deleteAll(List<SpillFile> files) {
+        for (SpillFile f : files) {
+            f.delete();
+        }
+    }
+
+    private SpillFile writeRun(ArrayList<Tuple> buffer) throws DbException {
+        Collections.sort(buffer, comparator);
+        SpillFile run = new SpillFile(child.getTupleDesc());
+        boolean done = false;
+        try {
+            for (Tuple t : buffer) {
+                run.add(t);
+            }
+            run.finish();
+            done = true;
+        } finally {
+            if (!done) {
+                run.delete();
+            }
+        }
+        return run;
+    }
+
+    /** Merges some runs into one, and deletes them. */
+    private SpillFile mergeRuns(List<SpillFile> group)
+            throws DbException, TransactionAbortedException {
+        Merge m = new Merge(group);
+        SpillFile out = new SpillFile(child.getTupleDesc());
+        boolean done = false;
+        try {
+            Tuple t;
+            while ((t = m.next()) != null) {
+                out.add(t);
+            }
+            out.finish();
+            done = true;
+        } finally {
+            m.close();
+            if (!done) {
+                out.delete();
+            }
+        }
+        deleteAll(group);
+        return out;
+    }
+
+    private void closeMerge() {
+        if (merge != null) {
+            merge.close();
+            merge = null;
+        }
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        closeMerge();
+        if (runs != null) {
+            deleteAll(runs);
+            runs = null;
+        }
+        sorted = null;
+        it = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (runs != null) {
+            closeMerge();
+            merge = new Merge(runs);
+        } else {
+            it = sorted.iterator();
+        }
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns tuples from the child
+     * operator in order.
+     *
+     * @return The next tuple in the ordering, or null if there are no more
+     *         tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (runs != null) {
+            return merge.next();
+        }
+        if (it != null && it.hasNext()) {
+            return it.next();
+        }
+        return null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+
+}
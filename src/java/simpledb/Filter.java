@@ -36,6 +36,12 @@ public class Filter extends Operator {
         return child.getTupleDesc();
     }
 
+    /** A filter returns its child's tuples in the same order. */
+    @Override
+    public SortOrder getSortOrder() {
+        return SortOrder.of(child);
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
@@ -0,0 +1,147 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * FrameArena keeps the images of clean pages evicted from the BufferPool in
+ * frames carved out of preallocated direct ByteBuffers, outside the Java
+ * heap. A miss that finds its page here takes the bytes back instead of
+ * reading the file. Since the arena holds plain bytes rather than pages and
+ * their tuples, it can be made as large as memory allows while the pool of
+ * page objects on the heap, and the work of the garbage collector, stays
+ * small.
+ * <p>
+ * A page is in the arena or in the BufferPool, never in both: it is moved
+ * in when evicted and moved out when read. When the arena is full the frame
+ * that was filled longest ago is reused.
+ *
+ * @Threadsafe
+ */
+public class FrameArena {
+
+    /** Largest number of bytes in one direct buffer. */
+    static final int CHUNK_SIZE = 1 << 30;
+
+    private final int frameSize;
+    private final int numFrames;
+    private final int framesPerChunk;
+    private final ByteBuffer[] chunks;
+    private final int[] lengths; // bytes used in each frame
+    private final int[] freeFrames; // stack of unused frame numbers
+    private int numFree;
+    // frame of each page in the arena, in the order they were put in
+    private final LinkedHashMap<PageId, Integer> frames;
+    private long hits;
+    private long misses;
+
+    /**
+     * Allocates an arena of numFrames frames of frameSize bytes each.
+     * Pages larger than a frame are not kept.
+     */
+    public FrameArena(int numFrames, int frameSize) {
+        this.frameSize = frameSize;
+        this.numFrames = numFrames;
+        this.framesPerChunk = Math.max(1, CHUNK_SIZE / frameSize);
+        int numChunks = (numFrames + framesPerChunk - 1) / framesPerChunk;
+        this.chunks = new ByteBuffer[numChunks];
+        for (int c = 0; c < numChunks; c++) {
+            int n = Math.min(framesPerChunk, numFrames - c * framesPerChunk);
+            chunks[c] = ByteBuffer.allocateDirect(n * frameSize);
+        }
+        this.lengths = new int[numFrames];
+        this.freeFrames = new int[numFrames];
+        for (int i = 0; i < numFrames; i++) {
+            freeFrames[i] = numFrames - 1 - i;
+        }
+        this.numFree = numFrames;
+        this.frames = new LinkedHashMap<PageId, Integer>();
+    }
+
+    /** @return the size of one frame in bytes */
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    /** @return the number of frames in the arena */
+    public int getNumFrames() {
+        return numFrames;
+    }
+
+    /** @return the number of pages the arena holds */
+    public synchronized int size() {
+        return frames.size();
+    }
+
+    /** @return the number of take calls that found their page */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /** @return the number of take calls that did not find their page */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Copy the image of a clean page into the arena, replacing any image of
+     * it there already and reusing the oldest frame if none is free.
+     *
+     * @return false if the page is too large for a frame
+     */
+    public synchronized boolean put(PageId pid, byte[] data) {
+        if (data.length > frameSize || numFrames == 0) {
+            return false;
+        }
+        Integer frame = frames.remove(pid);
+        if (frame == null) {
+            if (numFree > 0) {
+                frame = freeFrames[--numFree];
+            } else {
+                Iterator<Integer> oldest = frames.values().iterator();
+                frame = oldest.next();
+                oldest.remove();
+            }
+        }
+        frame(frame).put(data);
+        lengths[frame] = data.length;
+        frames.put(pid, frame);
+        return true;
+    }
+
+    /**
+     * Move the image of a page out of the arena.
+     *
+     * @return the page's bytes, or null if the arena does not hold it
+     */
+    public synchronized byte[] take(PageId pid) {
+        Integer frame = frames.remove(pid);
+        if (frame == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        byte[] data = new byte[lengths[frame]];
+        frame(frame).get(data);
+        freeFrames[numFree++] = frame;
+        return data;
+    }
+
+    /** Drop the image of a page, if the arena holds one. */
+    public synchronized void remove(PageId pid) {
+        Integer frame = frames.remove(pid);
+        if (frame != null) {
+            freeFrames[numFree++] = frame;
+        }
+    }
+
+    /** @return a buffer over the bytes of a frame, positioned at its start */
+    private ByteBuffer frame(int frame) {
+        ByteBuffer b = chunks[frame / framesPerChunk].duplicate();
+        int offset = (frame % framesPerChunk) * frameSize;
+        b.position(offset);
+        b.limit(offset + frameSize);
+        return b;
+    }
+}
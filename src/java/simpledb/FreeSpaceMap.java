@@ -0,0 +1,210 @@
+package simpledb;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap records how much free space each page of a file has, so that
+ * inserts can go straight to a page with room instead of locking every page
+ * of the table to look. For a HeapFile the space is counted in free tuple
+ * slots, for a SlottedFile in free bytes.
+ * <p>
+ * The map lives in memory and is kept up to date by the pages' insertTuple
+ * and deleteTuple. It is also saved in a side file next to the heap file
+ * (see {@link #fileFor}), one int per page. Writing a page only notes its
+ * free space in memory, and only if it changed; the changed entries are
+ * written to the side file by {@link #sync}, which the buffer pool calls
+ * when it flushes all pages, as on a checkpoint. A side file that is missing
+ * or does not cover every page of the heap file is rebuilt from the pages
+ * themselves.
+ * <p>
+ * The counts are hints: a page may have less room than the map says, if it
+ * was rolled back to a before-image or written after the last sync, and
+ * callers must check the page.
+ *
+ * @Threadsafe
+ */
+public class FreeSpaceMap {
+
+    private final File file;
+    private int[] free;
+    private int size;
+    private final BitSet hasRoom; // pages whose free count is positive
+    private int[] onDisk; // free space of each page as it was last written
+    private int diskSize;
+    private final BitSet unsaved = new BitSet(); // onDisk entries not yet synced
+    private FileChannel channel; // side file, opened by the first sync
+
+    private FreeSpaceMap(File file, int[] free, int size) {
+        this.file = file;
+        this.free = free;
+        this.size = size;
+        this.hasRoom = new BitSet(size);
+        for (int i = 0; i < size; i++) {
+            if (free[i] > 0) {
+                hasRoom.set(i);
+            }
+        }
+        this.onDisk = free.clone();
+        this.diskSize = size;
+    }
+
+    /** @return the side file holding the free-space map of a heap file */
+    public static File fileFor(File heapFile) {
+        return new File(heapFile.getPath() + ".fsm");
+    }
+
+    /**
+     * Reads the free-space map of a file from its side file, or rebuilds it
+     * from the file's pages if the side file is missing or stale.
+     *
+     * @param dbFile the file whose pages the map describes
+     * @param dataFile where dbFile keeps its pages
+     * @param numPages the number of pages in dbFile
+     */
+    static FreeSpaceMap load(DbFile dbFile, File dataFile, int numPages) throws IOException {
+        File file = fileFor(dataFile);
+        int[] free = new int[Math.max(numPages, 1)];
+
+        if (file.exists() && file.length() == (long) numPages * 4) {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)));
+            try {
+                for (int i = 0; i < numPages; i++) {
+                    free[i] = in.readInt();
+                }
+            } finally {
+                in.close();
+            }
+            return new FreeSpaceMap(file, free, numPages);
+        }
+
+        for (int i = 0; i < numPages; i++) {
+            free[i] = freeSpaceOf(dbFile.readPage(new HeapPageId(dbFile.getId(), i)));
+        }
+        FreeSpaceMap fsm = new FreeSpaceMap(file, free, numPages);
+        fsm.save();
+        return fsm;
+    }
+
+    /** @return the free space of a page in the unit the map uses for it */
+    static int freeSpaceOf(Page page) {
+        if (page instanceof HeapPage) {
+            return ((HeapPage) page).getNumEmptySlots();
+        }
+        if (page instanceof SlottedPage) {
+            return ((SlottedPage) page).getFreeSpace();
+        }
+        return 0;
+    }
+
+    /** @return the number of pages the map knows about */
+    public synchronized int numPages() {
+        return size;
+    }
+
+    /** @return the free space recorded for a page, 0 if unknown */
+    public synchronized int getFreeSlots(int pageno) {
+        return pageno < size ? free[pageno] : 0;
+    }
+
+    /**
+     * @return the first page at or after from with free slots, or -1 if
+     *         there is none
+     */
+    public synchronized int nextPageWithRoom(int from) {
+        return hasRoom.nextSetBit(from);
+    }
+
+    /**
+     * @return the first page at or after from with at least needed free
+     *         space, or -1 if there is none
+     */
+    public synchronized int nextPageWithRoom(int from, int needed) {
+        for (int i = hasRoom.nextSetBit(from); i >= 0; i = hasRoom.nextSetBit(i + 1)) {
+            if (free[i] >= needed) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Records the free space a page has in memory. */
+    public synchronized void update(int pageno, int freeSpace) {
+        if (pageno >= free.length) {
+            int[] grown = new int[Math.max(pageno + 1, free.length * 2)];
+            System.arraycopy(free, 0, grown, 0, size);
+            free = grown;
+        }
+        size = Math.max(size, pageno + 1);
+        free[pageno] = freeSpace;
+        hasRoom.set(pageno, freeSpace > 0);
+    }
+
+    /**
+     * Notes the free space of a page that was just written to disk, to be
+     * saved by the next {@link #sync}.
+     */
+    synchronized void pageWritten(int pageno, int freeSpace) {
+        if (pageno >= onDisk.length) {
+            int[] grown = new int[Math.max(pageno + 1, onDisk.length * 2)];
+            System.arraycopy(onDisk, 0, grown, 0, diskSize);
+            onDisk = grown;
+        }
+        // earlier pages that were never written through us are filled in
+        for (int i = diskSize; i < pageno; i++) {
+            onDisk[i] = getFreeSlots(i);
+            unsaved.set(i);
+        }
+        if (pageno >= diskSize || onDisk[pageno] != freeSpace) {
+            onDisk[pageno] = freeSpace;
+            unsaved.set(pageno);
+        }
+        diskSize = Math.max(diskSize, pageno + 1);
+    }
+
+    /** Writes the entries that changed since the last sync to the side file. */
+    synchronized void sync() throws IOException {
+        if (unsaved.isEmpty()) {
+            return;
+        }
+        if (channel == null) {
+            channel = new RandomAccessFile(file, "rw").getChannel();
+        }
+        for (int first = unsaved.nextSetBit(0); first >= 0; ) {
+            int end = unsaved.nextClearBit(first);
+            ByteBuffer buf = ByteBuffer.allocate((end - first) * 4);
+            for (int i = first; i < end; i++) {
+                buf.putInt(onDisk[i]);
+            }
+            buf.flip();
+            while (buf.hasRemaining()) {
+                channel.write(buf, (long) first * 4 + buf.position());
+            }
+            first = unsaved.nextSetBit(end);
+        }
+        unsaved.clear();
+    }
+
+    private synchronized void save() throws IOException {
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            for (int i = 0; i < size; i++) {
+                out.writeInt(free[i]);
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * HashBucketPage holds the entries of one bucket of a {@link HashIndexFile},
+ * or of one of the overflow pages chained after the bucket's first page.
+ * An entry is a key and the RecordId of a tuple of the indexed table with
+ * that key.
+ * <p>
+ * The page is the kind byte, the number of the next page of the chain and
+ * the number of entries as ints, then the entries packed from the start,
+ * each the key followed by the page number and slot of the RecordId.
+ */
+public class HashBucketPage extends HashPage {
+
+    /** Bytes before the entries: the kind, the overflow page and the count. */
+    static final int POINTER_BYTES = 1 + 4 + 4;
+
+    private int overflow;
+    private final ArrayList<Field> keys = new ArrayList<Field>();
+    private final ArrayList<RecordId> rids = new ArrayList<RecordId>();
+    private final int maxEntries;
+
+    HashBucketPage(HeapPageId id, byte[] data, Type keyType, int tableId) throws IOException {
+        super(id, keyType, tableId);
+        this.maxEntries = maxEntries(keyType);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        dis.readByte();
+        overflow = dis.readInt();
+        int n = dis.readInt();
+        if (n < 0 || n > maxEntries) {
+            throw new IOException("bad entry count on page " + id.pageNumber());
+        }
+        try {
+            for (int i = 0; i < n; i++) {
+                keys.add(keyType.parse(dis));
+                int pgno = dis.readInt();
+                int slot = dis.readInt();
+                rids.add(new RecordId(new HeapPageId(tableId, pgno), slot));
+            }
+        } catch (ParseException e) {
+            throw new IOException("parsing error!", e);
+        }
+        setBeforeImage();
+    }
+
+    /** @return the number of entries a bucket page of keys of a type holds */
+    static int maxEntries(Type keyType) {
+        return (BufferPool.getPageSize() - POINTER_BYTES) / (keyType.getLen() + 8);
+    }
+
+    public int getKind() {
+        return BUCKET;
+    }
+
+    public synchronized byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeByte(BUCKET);
+            dos.writeInt(overflow);
+            dos.writeInt(keys.size());
+            for (int i = 0; i < keys.size(); i++) {
+                keys.get(i).serialize(dos);
+                dos.writeInt(rids.get(i).getPageId().pageNumber());
+                dos.writeInt(rids.get(i).tupleno());
+            }
+            dos.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return pad(baos);
+    }
+
+    /** @return the number of the next page of this bucket, or 0 */
+    public int getOverflow() {
+        return overflow;
+    }
+
+    void setOverflow(int overflow) {
+        this.overflow = overflow;
+    }
+
+    /** @return the number of entries on this page */
+    public synchronized int getNumEntries() {
+        return keys.size();
+    }
+
+    /** @return true if there is no room for another entry on this page */
+    public synchronized boolean isFull() {
+        return keys.size() >= maxEntries;
+    }
+
+    /**
+     * Adds an entry to the page.
+     *
+     * @throws DbException if the page is full
+     */
+    synchronized void addEntry(Field key, RecordId rid) throws DbException {
+        if (keys.size() >= maxEntries) {
+            throw new DbException("page is full");
+        }
+        keys.add(key);
+        rids.add(rid);
+    }
+
+    /** @return true if the page has an entry for a key and a RecordId */
+    synchronized boolean contains(Field key, RecordId rid) {
+        return indexOf(key, rid) >= 0;
+    }
+
+    /**
+     * Removes the entry for a key and a RecordId.
+     *
+     * @return false if there was no such entry
+     */
+    synchronized boolean removeEntry(Field key, RecordId rid) {
+        int i = indexOf(key, rid);
+        if (i < 0) {
+            return false;
+        }
+        keys.remove(i);
+        rids.remove(i);
+        return true;
+    }
+
+    private int indexOf(Field key, RecordId rid) {
+        for (int i = 0; i < keys.size(); i++) {
+            if (keys.get(i).equals(key) && rids.get(i).equals(rid)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** @return a copy of the keys on this page */
+    synchronized ArrayList<Field> getKeys() {
+        return new ArrayList<Field>(keys);
+    }
+
+    /** @return a copy of the RecordIds on this page, in the order of their keys */
+    synchronized ArrayList<RecordId> getRecordIds() {
+        return new ArrayList<RecordId>(rids);
+    }
+
+    /**
+     * @return the RecordIds of the entries with a key, or of all entries if
+     *         key is null, as they are now
+     */
+    synchronized ArrayList<RecordId> find(Field key) {
+        ArrayList<RecordId> found = new ArrayList<RecordId>();
+        for (int i = 0; i < keys.size(); i++) {
+            if (key == null || keys.get(i).equals(key)) {
+                found.add(rids.get(i));
+            }
+        }
+        return found;
+    }
+
+    /** Removes all entries from the page. */
+    synchronized void clear() {
+        keys.clear();
+        rids.clear();
+    }
+}
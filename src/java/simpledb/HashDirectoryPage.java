@@ -0,0 +1,60 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * HashDirectoryPage holds the numbers of the first pages of a run of the
+ * buckets of a {@link HashIndexFile}, for the buckets that do not fit in the
+ * header page. The page is the kind byte, then one int per bucket.
+ */
+public class HashDirectoryPage extends HashPage {
+
+    /** Bytes before the page numbers: the kind. */
+    static final int POINTER_BYTES = 1;
+
+    private final int[] buckets;
+
+    HashDirectoryPage(HeapPageId id, byte[] data, Type keyType, int tableId) throws IOException {
+        super(id, keyType, tableId);
+        this.buckets = new int[perPage()];
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        dis.readByte();
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = dis.readInt();
+        }
+        setBeforeImage();
+    }
+
+    /** @return the number of buckets a directory page covers */
+    static int perPage() {
+        return (BufferPool.getPageSize() - POINTER_BYTES) / 4;
+    }
+
+    public int getKind() {
+        return DIRECTORY;
+    }
+
+    public synchronized byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeByte(DIRECTORY);
+            for (int b : buckets) {
+                dos.writeInt(b);
+            }
+            dos.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return pad(baos);
+    }
+
+    /** @return the number of the first page of the ith bucket this page covers */
+    public synchronized int getBucketPage(int i) {
+        return buckets[i];
+    }
+
+    synchronized void setBucketPage(int i, int pgno) {
+        buckets[i] = pgno;
+    }
+}
@@ -0,0 +1,162 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * HashHeaderPage is page 0 of a {@link HashIndexFile}. It holds the state of
+ * the linear hashing scheme: the level and the next bucket to split, which
+ * together give the number of buckets and the bucket of each key; the
+ * number of entries, which decides when to split; and the head of the list
+ * of free pages.
+ * <p>
+ * After those, as ints, come the numbers of the first pages of the first
+ * {@link #inlineBuckets()} buckets, so that a small index is probed with
+ * two pages, then the numbers of the directory pages that hold those of
+ * the buckets after them.
+ */
+public class HashHeaderPage extends HashPage {
+
+    /** Bytes before the page numbers: the kind, the level, next, the count and free. */
+    static final int POINTER_BYTES = 1 + 4 * 4;
+
+    private int level;
+    private int next;
+    private int count;
+    private int free;
+    private final int[] pages;
+
+    HashHeaderPage(HeapPageId id, byte[] data, Type keyType, int tableId) throws IOException {
+        super(id, keyType, tableId);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        dis.readByte();
+        level = dis.readInt();
+        next = dis.readInt();
+        count = dis.readInt();
+        free = dis.readInt();
+        pages = new int[(BufferPool.getPageSize() - POINTER_BYTES) / 4];
+        for (int i = 0; i < pages.length; i++) {
+            pages[i] = dis.readInt();
+        }
+        setBeforeImage();
+    }
+
+    /** @return the bytes of the header page of an index of one bucket */
+    static byte[] createPageData(int firstBucket) {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        data[0] = HEADER;
+        data[POINTER_BYTES] = (byte) (firstBucket >>> 24);
+        data[POINTER_BYTES + 1] = (byte) (firstBucket >>> 16);
+        data[POINTER_BYTES + 2] = (byte) (firstBucket >>> 8);
+        data[POINTER_BYTES + 3] = (byte) firstBucket;
+        return data;
+    }
+
+    /** @return the number of buckets whose first pages the header holds */
+    static int inlineBuckets() {
+        return (BufferPool.getPageSize() - POINTER_BYTES) / 4 / 2;
+    }
+
+    /** @return the largest number of buckets an index can have */
+    static int maxBuckets() {
+        int slots = (BufferPool.getPageSize() - POINTER_BYTES) / 4;
+        return inlineBuckets() + (slots - inlineBuckets()) * HashDirectoryPage.perPage();
+    }
+
+    public int getKind() {
+        return HEADER;
+    }
+
+    public synchronized byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeByte(HEADER);
+            dos.writeInt(level);
+            dos.writeInt(next);
+            dos.writeInt(count);
+            dos.writeInt(free);
+            for (int p : pages) {
+                dos.writeInt(p);
+            }
+            dos.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return pad(baos);
+    }
+
+    /** @return the number of buckets */
+    public synchronized int getNumBuckets() {
+        return (1 << level) + next;
+    }
+
+    /**
+     * @return the bucket a key belongs in: its hash modulo 2^level, or
+     *         modulo 2^(level + 1) if that bucket has been split already
+     */
+    public synchronized int bucketOf(Field key) {
+        int h = key.hashCode();
+        // spread the bits, so that keys that differ only in their high bits
+        // do not all land in one bucket
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        int b = h & ((1 << level) - 1);
+        if (b < next) {
+            b = h & ((1 << (level + 1)) - 1);
+        }
+        return b;
+    }
+
+    /** @return the next bucket to split */
+    public synchronized int getNext() {
+        return next;
+    }
+
+    /** Moves on to the next bucket to split, after the current one is split. */
+    synchronized void advance() {
+        next++;
+        if (next == 1 << level) {
+            level++;
+            next = 0;
+        }
+    }
+
+    /** @return the number of entries in the index */
+    public synchronized int getCount() {
+        return count;
+    }
+
+    synchronized void setCount(int count) {
+        this.count = count;
+    }
+
+    /** @return the first page of the list of free pages, or 0 */
+    public synchronized int getFree() {
+        return free;
+    }
+
+    synchronized void setFree(int free) {
+        this.free = free;
+    }
+
+    /** @return the number of the first page of a bucket below inlineBuckets() */
+    public synchronized int getBucketPage(int b) {
+        return pages[b];
+    }
+
+    synchronized void setBucketPage(int b, int pgno) {
+        pages[b] = pgno;
+    }
+
+    /** @return the number of the ith directory page, or 0 if there is none yet */
+    public synchronized int getDirectoryPage(int i) {
+        return pages[inlineBuckets() + i];
+    }
+
+    synchronized void setDirectoryPage(int i, int pgno) {
+        pages[inlineBuckets() + i] = pgno;
+    }
+}
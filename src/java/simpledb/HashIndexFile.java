@@ -0,0 +1,720 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * HashIndexFile is a secondary {@link Index} on one field of a HeapFile,
+ * kept in a file of its own, that finds the tuples with a given key by
+ * reading the header page, at most one directory page and the one bucket
+ * the key hashes to: a constant number of pages, however large the table.
+ * It only supports EQUALS. Its entries are keys and RecordIds, and lookups
+ * return the table's tuples, read through the buffer pool.
+ * <p>
+ * The index uses linear hashing. Page 0 is a {@link HashHeaderPage}; each
+ * bucket is a chain of {@link HashBucketPage}s, whose first pages are found
+ * through the header and {@link HashDirectoryPage}s. When the entries fill
+ * more than {@link #MAX_LOAD} of the room in the first pages of the
+ * buckets, the next bucket in turn is split in two, so the buckets grow one
+ * at a time and overflow chains stay short. Deletes do not merge buckets,
+ * but an overflow page that is emptied is unlinked and reused.
+ * <p>
+ * The index is added to the catalog with {@link Catalog#addIndex}, from
+ * when on the BufferPool keeps it up to date with the table. A new index
+ * file on a table that already has tuples is filled from one scan of the
+ * table when it is added, which should be done while nothing else writes
+ * to the table.
+ * <p>
+ * Inserts, deletes and lookups lock the header page, and a directory page,
+ * only while they find the first page of a bucket in them, and then lock
+ * the pages of that bucket, so writers to different buckets do not wait
+ * for each other; scans of the whole index keep the header locked. A
+ * transaction that is the only one writing to the index splits buckets as
+ * its inserts call for, keeping the header locked exclusively until it
+ * completes. Otherwise the splits are left until a transaction completes:
+ * each is then made in a transaction of its own, once the header and the
+ * pages of the bucket can be locked without waiting. Overflow pages are
+ * added to the end of the file, and an emptied one stays in its chain
+ * until the bucket is split.
+ * <p>
+ * Each transaction counts the entries it adds and removes in memory; the
+ * counts of committed transactions are added to the header's count by the
+ * next split made after they commit, and those of aborted ones dropped.
+ * The count is an estimate of when to split, not kept over restarts.
+ * <p>
+ * Its pages are always BufferPool.getPageSize() bytes, whatever the page size
+ * of its table. Pages that a transaction adds to the end of the file and
+ * then aborts are not reused.
+ */
+public class HashIndexFile implements DbFile, SecondaryIndex {
+
+    /** The fraction of the room in the buckets in use at which a bucket is split. */
+    static final double MAX_LOAD = 0.75;
+
+    private final File f;
+    private final HeapFile table;
+    private final int keyField;
+    private final Type keyType;
+    private final int fileId;
+    private final PagedFile pages;
+    // true for a new file until it has entries for the table's tuples
+    private boolean unfilled = false;
+    // entries added less entries removed by each live transaction
+    private final ConcurrentHashMap<TransactionId, AtomicInteger> deltas =
+            new ConcurrentHashMap<TransactionId, AtomicInteger>();
+    // entries added less entries removed by committed transactions that
+    // are not in the header's count
+    private final AtomicInteger committed = new AtomicInteger();
+    // set while a thread makes the splits left until a transaction completed
+    private final AtomicBoolean splitting = new AtomicBoolean();
+    // the number of buckets and the count in the header when it was last read
+    private volatile int numBuckets = 1;
+    private volatile int count = 0;
+
+    /**
+     * Constructs a hash index backed by the specified file. A new or empty
+     * file is given a header page and one empty bucket, and is filled with
+     * the table's tuples when it is added to the catalog.
+     *
+     * @param f the file that stores the on-disk backing store for this index
+     * @param table the table the index is on
+     * @param keyField the index of the field of the table the index is on
+     */
+    public HashIndexFile(File f, HeapFile table, int keyField) {
+        this.f = f;
+        this.table = table;
+        this.keyField = keyField;
+        this.keyType = table.getTupleDesc().getFieldType(keyField);
+        this.fileId = f.getAbsoluteFile().hashCode();
+        this.pages = new PagedFile(f, 0);
+        if (f.length() == 0) {
+            try {
+                writePageData(0, HashHeaderPage.createPageData(1));
+                writePageData(1, new byte[BufferPool.getPageSize()]);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            unfilled = true;
+        } else {
+            HashHeaderPage header = (HashHeaderPage) readPage(new HeapPageId(fileId, 0));
+            if (header != null) {
+                numBuckets = header.getNumBuckets();
+                count = header.getCount();
+            }
+        }
+    }
+
+    /**
+     * Adds an entry for each tuple already in the table to an index whose
+     * file was new, in one scan of the table in a transaction of its own.
+     * {@link Catalog#addIndex} calls it once the index's pages can be read
+     * through the buffer pool; later calls do nothing.
+     */
+    public synchronized void fill() throws DbException, IOException, TransactionAbortedException {
+        if (!unfilled) {
+            return;
+        }
+        TransactionId tid = new TransactionId();
+        boolean done = false;
+        try {
+            Database.getBufferPool().fillIndex(tid, this);
+            done = true;
+        } finally {
+            Database.getBufferPool().transactionComplete(tid, done);
+        }
+        unfilled = false;
+    }
+
+    /** @return the File backing this HashIndexFile on disk. */
+    public File getFile() {
+        return f;
+    }
+
+    /** @return the id of the index file, which its pages are identified by */
+    public int getId() {
+        return fileId;
+    }
+
+    /** @return the TupleDesc of the table, whose tuples the index returns */
+    public TupleDesc getTupleDesc() {
+        return table.getTupleDesc();
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (pid.getTableId() != fileId) {
+            return null;
+        }
+        int pgno = pid.pageNumber();
+        if (pgno < 0 || pgno >= numPages()) {
+            return null;
+        }
+        try {
+            byte[] data = pages.read(pgno, BufferPool.getPageSize());
+            return HashPage.create(new HeapPageId(fileId, pgno), data, keyType, table.getId());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        writePageData(page.getId().pageNumber(), page.getPageData());
+    }
+
+    private void writePageData(int pgno, byte[] data) throws IOException {
+        pages.write(pgno, data, BufferPool.getPageSize());
+    }
+
+    /**
+     * Returns the number of pages in this HashIndexFile, in use or not.
+     */
+    public int numPages() {
+        return pages.numPages(BufferPool.getPageSize());
+    }
+
+    /**
+     * Returns a page of this file through the buffer pool, or the copy an
+     * insert or delete in progress has already changed. Pages asked for
+     * READ_WRITE are taken to be changed.
+     *
+     * @param dirtypages the pages changed so far, or null for a reader
+     */
+    private HashPage getPage(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            int pgno, Permissions perm) throws DbException, TransactionAbortedException {
+        HeapPageId pid = new HeapPageId(fileId, pgno);
+        if (dirtypages != null && dirtypages.containsKey(pid)) {
+            return (HashPage) dirtypages.get(pid);
+        }
+        HashPage page = (HashPage) Database.getBufferPool().getPage(tid, pid, perm);
+        if (dirtypages != null && perm == Permissions.READ_WRITE) {
+            dirtypages.put(pid, page);
+        }
+        return page;
+    }
+
+    private HashBucketPage getBucket(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            int pgno, Permissions perm) throws DbException, TransactionAbortedException {
+        return (HashBucketPage) getPage(tid, dirtypages, pgno, perm);
+    }
+
+    /** @return the number of the first page of a bucket */
+    private int bucketPage(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            HashHeaderPage header, int b) throws DbException, TransactionAbortedException {
+        int inline = HashHeaderPage.inlineBuckets();
+        if (b < inline) {
+            return header.getBucketPage(b);
+        }
+        int per = HashDirectoryPage.perPage();
+        HashDirectoryPage dir = (HashDirectoryPage) getPage(tid, dirtypages,
+                header.getDirectoryPage((b - inline) / per), Permissions.READ_ONLY);
+        return dir.getBucketPage((b - inline) % per);
+    }
+
+    /** Records the first page of a bucket, adding a directory page if it needs one. */
+    private void setBucketPage(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            HashHeaderPage header, int b, int pgno)
+            throws DbException, IOException, TransactionAbortedException {
+        int inline = HashHeaderPage.inlineBuckets();
+        if (b < inline) {
+            header.setBucketPage(b, pgno);
+            return;
+        }
+        int per = HashDirectoryPage.perPage();
+        int i = (b - inline) / per;
+        HashDirectoryPage dir;
+        if (header.getDirectoryPage(i) == 0) {
+            dir = (HashDirectoryPage) getEmptyPage(tid, dirtypages, header, HashPage.DIRECTORY);
+            header.setDirectoryPage(i, dir.getId().pageNumber());
+        } else {
+            dir = (HashDirectoryPage) getPage(tid, dirtypages, header.getDirectoryPage(i),
+                    Permissions.READ_WRITE);
+        }
+        dir.setBucketPage((b - inline) % per, pgno);
+    }
+
+    /** An index is changed through its table. */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t) throws DbException {
+        throw new DbException("tuples are inserted into the table, not its index");
+    }
+
+    /** An index is changed through its table. */
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException {
+        throw new DbException("tuples are deleted from the table, not its index");
+    }
+
+    // see SecondaryIndex.java for javadocs
+    public ArrayList<Page> insertEntry(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+        Field key = t.getField(keyField);
+        // counted as a writer before it locks any bucket
+        AtomicInteger delta = deltaOf(tid);
+        // the first page of the bucket with room, or its last page
+        HashBucketPage page = lockBucket(tid, dirtypages, key);
+        while (page.isFull() && page.getOverflow() != 0) {
+            page = getBucket(tid, dirtypages, page.getOverflow(), Permissions.READ_ONLY);
+        }
+        page = getBucket(tid, dirtypages, page.getId().pageNumber(), Permissions.READ_WRITE);
+        if (page.isFull()) {
+            HashBucketPage overflow = (HashBucketPage) getEmptyPage(tid, dirtypages, null,
+                    HashPage.BUCKET);
+            page.setOverflow(overflow.getId().pageNumber());
+            page = overflow;
+        }
+        page.addEntry(key, t.getRecordId());
+        int added = delta.incrementAndGet();
+
+        if (overLoaded(count + committed.get() + added, numBuckets) && deltas.size() == 1) {
+            HashHeaderPage header = tryWriteHeader(tid, dirtypages);
+            if (header != null
+                    && overLoaded(header.getCount() + committed.get() + added, header.getNumBuckets())) {
+                splitBucket(tid, dirtypages, header);
+            }
+        }
+        return new ArrayList<Page>(dirtypages.values());
+    }
+
+    /** @return the count of the entries tid has added less those it has removed */
+    private AtomicInteger deltaOf(TransactionId tid) {
+        AtomicInteger delta = deltas.get(tid);
+        if (delta == null) {
+            delta = new AtomicInteger();
+            AtomicInteger raced = deltas.putIfAbsent(tid, delta);
+            if (raced != null) {
+                delta = raced;
+            }
+        }
+        return delta;
+    }
+
+    /** @return true if a bucket should be split for count entries in the buckets */
+    private boolean overLoaded(int count, int buckets) {
+        return count > MAX_LOAD * buckets * HashBucketPage.maxEntries(keyType)
+                && buckets < HashHeaderPage.maxBuckets();
+    }
+
+    /**
+     * Returns the header page to change if tid can lock it exclusively
+     * without waiting, which it can only if no other transaction has it
+     * locked.
+     *
+     * @return the header page, or null if another transaction has it locked
+     */
+    private HashHeaderPage tryWriteHeader(TransactionId tid, HashMap<PageId, Page> dirtypages)
+            throws DbException, TransactionAbortedException {
+        if (!Database.getBufferPool().tryLockPage(tid, new HeapPageId(fileId, 0),
+                Permissions.READ_WRITE)) {
+            return null;
+        }
+        return (HashHeaderPage) getPage(tid, dirtypages, 0, Permissions.READ_WRITE);
+    }
+
+    /**
+     * Returns the first page of the bucket key hashes to, locked shared. As
+     * the header is not kept locked, a split may move the key to another
+     * bucket before the page is locked, so the bucket is looked up again
+     * until it is the same after; once its first page is locked, the bucket
+     * cannot be split until tid completes.
+     */
+    private HashBucketPage lockBucket(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            Field key) throws DbException, TransactionAbortedException {
+        int pgno = firstPage(tid, dirtypages, key);
+        while (true) {
+            HashBucketPage page = getBucket(tid, dirtypages, pgno, Permissions.READ_ONLY);
+            int now = firstPage(tid, dirtypages, key);
+            if (now == pgno) {
+                return page;
+            }
+            pgno = now;
+        }
+    }
+
+    /**
+     * @return the first page of the bucket key hashes to, found through the
+     *         header and a directory page that are locked only while they
+     *         are read, unless tid had them locked already
+     */
+    private int firstPage(TransactionId tid, HashMap<PageId, Page> dirtypages, Field key)
+            throws DbException, TransactionAbortedException {
+        BufferPool pool = Database.getBufferPool();
+        HeapPageId headerId = new HeapPageId(fileId, 0);
+        boolean headerHeld = pool.holdsLock(tid, headerId);
+        try {
+            HashHeaderPage header = (HashHeaderPage) getPage(tid, dirtypages, 0,
+                    Permissions.READ_ONLY);
+            numBuckets = header.getNumBuckets();
+            count = header.getCount();
+            int b = header.bucketOf(key);
+            int inline = HashHeaderPage.inlineBuckets();
+            if (b < inline) {
+                return header.getBucketPage(b);
+            }
+            HeapPageId dirId = new HeapPageId(fileId,
+                    header.getDirectoryPage((b - inline) / HashDirectoryPage.perPage()));
+            boolean dirHeld = pool.holdsLock(tid, dirId);
+            try {
+                return bucketPage(tid, dirtypages, header, b);
+            } finally {
+                if (!dirHeld) {
+                    pool.releasePage(tid, dirId);
+                }
+            }
+        } finally {
+            if (!headerHeld) {
+                pool.releasePage(tid, headerId);
+            }
+        }
+    }
+
+    /**
+     * Makes the splits left until a transaction completed, each in a
+     * transaction of its own, while the entries fill more than MAX_LOAD of
+     * the buckets and the header and the pages of the next bucket can be
+     * locked without waiting. The first split adds the counts of the
+     * committed transactions to the header's count. Only one thread does
+     * so at a time; the others leave it to it.
+     */
+    private void splitDeferred() throws IOException {
+        if (!splitting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            boolean split = true;
+            while (split) {
+                split = false;
+                TransactionId tid = new TransactionId();
+                int added = 0;
+                boolean done = false;
+                try {
+                    HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+                    HashHeaderPage header = tryWriteHeader(tid, dirtypages);
+                    if (header != null && overLoaded(header.getCount() + committed.get(),
+                            header.getNumBuckets())) {
+                        split = splitBucket(tid, dirtypages, header);
+                        if (split) {
+                            added = committed.getAndSet(0);
+                            header.setCount(header.getCount() + added);
+                            numBuckets = header.getNumBuckets();
+                            count = header.getCount();
+                            Database.getBufferPool().cacheDirtyPages(tid,
+                                    new ArrayList<Page>(dirtypages.values()));
+                        }
+                    }
+                    done = true;
+                } catch (DbException e) {
+                    throw new IOException("could not split a bucket of " + f, e);
+                } catch (TransactionAbortedException e) {
+                    throw new IOException("could not split a bucket of " + f, e);
+                } finally {
+                    Database.getBufferPool().transactionComplete(tid, done);
+                    if (!done) {
+                        committed.addAndGet(added);
+                    }
+                }
+            }
+        } finally {
+            splitting.set(false);
+        }
+    }
+
+    // see SecondaryIndex.java for javadocs
+    public void transactionComplete(TransactionId tid, boolean commit) throws IOException {
+        AtomicInteger delta = deltas.remove(tid);
+        if (delta != null && commit) {
+            committed.addAndGet(delta.get());
+        }
+        splitDeferred();
+    }
+
+    /**
+     * Splits the next bucket in turn, if tid can lock the pages of its
+     * chain without waiting: adds a bucket after the last one, and moves
+     * the entries of the split bucket that now hash to it there. The pages
+     * of the split bucket's chain are reused for both chains.
+     *
+     * @param header the header page, locked exclusively
+     * @return true if the bucket was split
+     */
+    private boolean splitBucket(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            HashHeaderPage header) throws DbException, IOException, TransactionAbortedException {
+        int split = header.getNext();
+        ArrayList<HashBucketPage> chain = new ArrayList<HashBucketPage>();
+        int pgno = bucketPage(tid, dirtypages, header, split);
+        while (pgno != 0) {
+            if (!Database.getBufferPool().tryLockPage(tid, new HeapPageId(fileId, pgno),
+                    Permissions.READ_WRITE)) {
+                return false;
+            }
+            HashBucketPage page = getBucket(tid, dirtypages, pgno, Permissions.READ_WRITE);
+            chain.add(page);
+            pgno = page.getOverflow();
+        }
+
+        HashBucketPage added = (HashBucketPage) getEmptyPage(tid, dirtypages, header, HashPage.BUCKET);
+        setBucketPage(tid, dirtypages, header, header.getNumBuckets(), added.getId().pageNumber());
+        header.advance();
+
+        ArrayList<Field> stayKeys = new ArrayList<Field>();
+        ArrayList<RecordId> stayRids = new ArrayList<RecordId>();
+        ArrayList<Field> moveKeys = new ArrayList<Field>();
+        ArrayList<RecordId> moveRids = new ArrayList<RecordId>();
+        for (HashBucketPage page : chain) {
+            ArrayList<Field> keys = page.getKeys();
+            ArrayList<RecordId> rids = page.getRecordIds();
+            for (int i = 0; i < keys.size(); i++) {
+                if (header.bucketOf(keys.get(i)) == split) {
+                    stayKeys.add(keys.get(i));
+                    stayRids.add(rids.get(i));
+                } else {
+                    moveKeys.add(keys.get(i));
+                    moveRids.add(rids.get(i));
+                }
+            }
+        }
+
+        ArrayList<HashBucketPage> spare = new ArrayList<HashBucketPage>(chain.subList(1, chain.size()));
+        writeChain(tid, dirtypages, header, chain.get(0), spare, stayKeys, stayRids);
+        writeChain(tid, dirtypages, header, added, spare, moveKeys, moveRids);
+        for (HashBucketPage page : spare) {
+            freePage(header, page);
+        }
+        return true;
+    }
+
+    /**
+     * Replaces the entries of a bucket, starting at its first page and
+     * continuing on spare pages, or new ones once there are none left.
+     */
+    private void writeChain(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            HashHeaderPage header, HashBucketPage page, List<HashBucketPage> spare,
+            List<Field> keys, List<RecordId> rids)
+            throws DbException, IOException, TransactionAbortedException {
+        page.clear();
+        page.setOverflow(0);
+        for (int i = 0; i < keys.size(); i++) {
+            if (page.isFull()) {
+                HashBucketPage next = spare.isEmpty()
+                        ? (HashBucketPage) getEmptyPage(tid, dirtypages, header, HashPage.BUCKET)
+                        : spare.remove(0);
+                next.clear();
+                next.setOverflow(0);
+                page.setOverflow(next.getId().pageNumber());
+                page = next;
+            }
+            page.addEntry(keys.get(i), rids.get(i));
+        }
+    }
+
+    // see SecondaryIndex.java for javadocs
+    public ArrayList<Page> deleteEntry(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+        Field key = t.getField(keyField);
+        RecordId rid = t.getRecordId();
+        AtomicInteger delta = deltaOf(tid);
+        HashBucketPage page = lockBucket(tid, dirtypages, key);
+        while (true) {
+            if (page.contains(key, rid)) {
+                page = getBucket(tid, dirtypages, page.getId().pageNumber(), Permissions.READ_WRITE);
+                page.removeEntry(key, rid);
+                delta.decrementAndGet();
+                return new ArrayList<Page>(dirtypages.values());
+            }
+            if (page.getOverflow() == 0) {
+                break;
+            }
+            page = getBucket(tid, dirtypages, page.getOverflow(), Permissions.READ_ONLY);
+        }
+        throw new DbException("no index entry for " + key + " at " + rid);
+    }
+
+    /**
+     * Returns an empty page of the given kind, taken from the list of free
+     * pages if the header page is locked exclusively and the first free
+     * page can be locked without waiting, and otherwise added to the end
+     * of the file. The page is replaced in the buffer pool by a new page
+     * object, which keeps the before-image of the old one.
+     *
+     * @param header the header page, if locked exclusively, or null
+     */
+    private HashPage getEmptyPage(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            HashHeaderPage header, int kind)
+            throws DbException, IOException, TransactionAbortedException {
+        int pgno = header == null ? 0 : header.getFree();
+        if (pgno != 0 && Database.getBufferPool().tryLockPage(tid, new HeapPageId(fileId, pgno),
+                Permissions.READ_WRITE)) {
+            header.setFree(getBucket(tid, dirtypages, pgno, Permissions.READ_WRITE).getOverflow());
+        } else {
+            pgno = appendEmptyPage();
+        }
+
+        HashPage old = getPage(tid, dirtypages, pgno, Permissions.READ_WRITE);
+        HeapPageId pid = new HeapPageId(fileId, pgno);
+        byte[] empty = new byte[BufferPool.getPageSize()];
+        empty[0] = (byte) kind;
+        HashPage page = HashPage.create(pid, empty, keyType, table.getId());
+        page.takeBeforeImage(old);
+        dirtypages.put(pid, page);
+        return page;
+    }
+
+    /** Extends the file with an empty page, and returns its number. */
+    private int appendEmptyPage() throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        return pages.append(new byte[pageSize], pageSize);
+    }
+
+    /** Empties a bucket page and puts it on the list of free pages. */
+    private void freePage(HashHeaderPage header, HashBucketPage page) {
+        page.clear();
+        page.setOverflow(header.getFree());
+        header.setFree(page.getId().pageNumber());
+    }
+
+    /** @return an iterator over all the tuples of the table the index has entries for */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new HashIndexIterator(tid, null);
+    }
+
+    // see Index.java for javadocs
+    public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+        if (!supports(ipred.getOp())) {
+            throw new UnsupportedOperationException("a hash index can't look up " + ipred.getOp());
+        }
+        return new HashIndexIterator(tid, ipred.getField());
+    }
+
+    public int getTableId() {
+        return table.getId();
+    }
+
+    public int getKeyField() {
+        return keyField;
+    }
+
+    /** Only keys equal to a value hash to one bucket. */
+    public boolean supports(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS;
+    }
+
+    public boolean isClustered() {
+        return false;
+    }
+
+    /**
+     * @return the header page, a directory page once there are more
+     *         buckets than the header holds, and the pages of a bucket on
+     *         average, from the number of buckets when the header was last
+     *         read and the pages of the file
+     */
+    public int probePages() {
+        int buckets = numBuckets;
+        int inline = HashHeaderPage.inlineBuckets();
+        int per = HashDirectoryPage.perPage();
+        int dirs = buckets <= inline ? 0 : (buckets - inline + per - 1) / per;
+        double chain = Math.max(1.0, (double) (numPages() - 1 - dirs) / buckets);
+        return (int) Math.round((dirs == 0 ? 1 : 2) + chain);
+    }
+
+    /**
+     * Iterates over the tuples of the table that the entries of one bucket
+     * with a key point at, or those of every bucket. Each page of a bucket
+     * is read as it was when the iterator got to it; tuples are read from
+     * the table's pages through the buffer pool.
+     */
+    private class HashIndexIterator implements DbFileIterator {
+        private final TransactionId tid;
+        private final Field key;
+        private boolean active;
+        private int bucket;
+        private int endBucket;
+        private int nextPage;
+        private Iterator<RecordId> rids;
+        private Tuple next;
+
+        HashIndexIterator(TransactionId tid, Field key) {
+            this.tid = tid;
+            this.key = key;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            if (key == null) {
+                // kept locked, so that no bucket is split under the scan
+                HashHeaderPage header = (HashHeaderPage) getPage(tid, null, 0,
+                        Permissions.READ_ONLY);
+                bucket = 0;
+                endBucket = header.getNumBuckets();
+                nextPage = 0;
+            } else {
+                bucket = 0;
+                endBucket = 0;
+                nextPage = lockBucket(tid, null, key).getId().pageNumber();
+            }
+            rids = Collections.<RecordId>emptyList().iterator();
+            next = null;
+            active = true;
+        }
+
+        private Tuple readNext() throws DbException, TransactionAbortedException {
+            while (true) {
+                while (rids.hasNext()) {
+                    RecordId rid = rids.next();
+                    HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                            rid.getPageId(), Permissions.READ_ONLY);
+                    Tuple t = page.getTuple(rid.tupleno());
+                    if (t != null) {
+                        return t;
+                    }
+                }
+                if (nextPage == 0) {
+                    if (bucket >= endBucket) {
+                        return null;
+                    }
+                    HashHeaderPage header = (HashHeaderPage) getPage(tid, null, 0,
+                            Permissions.READ_ONLY);
+                    nextPage = bucketPage(tid, null, header, bucket++);
+                }
+                HashBucketPage page = getBucket(tid, null, nextPage, Permissions.READ_ONLY);
+                rids = page.find(key).iterator();
+                nextPage = page.getOverflow();
+            }
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (!active) {
+                return false;
+            }
+            if (next == null) {
+                next = readNext();
+            }
+            return next != null;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException,
+                NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            active = false;
+            rids = null;
+            next = null;
+        }
+    }
+}
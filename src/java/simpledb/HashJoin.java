@@ -0,0 +1,390 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The HashJoin operator implements an equi-join by building a hash table on
+ * the join field of its right (inner) child and probing it with each tuple
+ * of the left (outer) child, so that each input is read only once. The
+ * optimizer puts the smaller input on the right.
+ * <p>
+ * When the right child has more tuples than fit in the memory budget, the
+ * join falls back to Grace hash join: both inputs are split by a hash of
+ * their join field into partitions written to {@link SpillFile}s, so that
+ * matching tuples land in partitions of the same number, and the pairs of
+ * partitions are then joined one at a time. A build partition that is still
+ * too large is split again with another hash, up to MAX_LEVELS times; past
+ * that its tuples likely share one key and it is joined in memory anyway.
+ * <p>
+ * Output tuples are the left tuple's fields followed by the right tuple's,
+ * as in {@link Join}.
+ */
+public class HashJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default memory budget for the hash table, in pages. */
+    public static final int DEFAULT_MEMORY_PAGES = BufferPool.DEFAULT_PAGES / 2;
+    /** Most times a partition is split again before it is joined anyway. */
+    static final int MAX_LEVELS = 3;
+
+    private JoinPredicate p;
+    private DbIterator child1;
+    private DbIterator child2;
+    private final int memoryPages;
+    private TupleDesc td; // of the output, set on open
+
+    // build side, keyed by join field
+    private HashMap<Field, ArrayList<Tuple>> table;
+    private boolean spilled;
+    // pairs of (right, left) partitions small enough to join in memory
+    private ArrayList<SpillFile[]> partitions;
+    private int partition;
+    private DbFileIterator probeSpill;
+
+    private Tuple probe;
+    private ArrayList<Tuple> matches;
+    private int match;
+
+    /**
+     * Constructor. Accepts two children to join on equality of the fields
+     * named by the predicate, with the default memory budget.
+     *
+     * @param p
+     *            The predicate to use to join the children; its operator
+     *            must be EQUALS
+     * @param child1
+     *            Iterator for the left(outer) relation, which probes
+     * @param child2
+     *            Iterator for the right(inner) relation, which is hashed
+     */
+    public HashJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * Constructor. As above, with a memory budget for the hash table of
+     * memoryPages pages; a larger right child is partitioned on disk.
+     */
+    public HashJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+            int memoryPages) {
+        if (p.getOperator() != Predicate.Op.EQUALS) {
+            throw new IllegalArgumentException("hash join needs an EQUALS predicate");
+        }
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.memoryPages = Math.max(1, memoryPages);
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    /** @return the name of the left child's join field */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(p.getField1());
+    }
+
+    /** @return the name of the right child's join field */
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(p.getField2());
+    }
+
+    /** @see Join#getTupleDesc() */
+    public TupleDesc getTupleDesc() {
+        return TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /** @return true if the last open had to partition its inputs on disk */
+    boolean isSpilled() {
+        return spilled;
+    }
+
+    /** @return how many right tuples fit in the memory budget */
+    private int maxBuildTuples() {
+        return Math.max(1, (int) ((long) memoryPages * BufferPool.getPageSize()
+                / child2.getTupleDesc().getSize()));
+    }
+
+    /** @return how many partitions each split makes */
+    private int numPartitions() {
+        return Math.max(2, memoryPages - 1);
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        child1.open();
+        child2.open();
+        td = getTupleDesc();
+
+        int max = maxBuildTuples();
+        table = new HashMap<Field, ArrayList<Tuple>>();
+        spilled = false;
+        int count = 0;
+        while (child2.hasNext()) {
+            if (count == max) {
+                spilled = true;
+                break;
+            }
+            add(table, child2.next(), p.getField2());
+            count++;
+        }
+        partitions = new ArrayList<SpillFile[]>();
+        if (spilled) {
+            spill(max);
+            partition = -1;
+            nextPartition();
+        }
+        resetProbe();
+    }
+
+    /**
+     * Moves the hash table and the rest of both inputs into partitions on
+     * disk, splitting each partition again until it fits in max tuples.
+     */
+    private void spill(int max) throws DbException, TransactionAbortedException {
+        ArrayList<SpillFile> created = new ArrayList<SpillFile>();
+        boolean done = false;
+        try {
+            spill(max, created);
+            done = true;
+        } finally {
+            if (!done) {
+                // files deleted already are deleted again, which does no harm
+                for (SpillFile f : created) {
+                    f.delete();
+                }
+                partitions.clear();
+            }
+        }
+    }
+
+    /**
+     * Does the work of spill(max), adding each file it creates to created.
+     */
+    private void spill(int max, List<SpillFile> created)
+            throws DbException, TransactionAbortedException {
+        int n = numPartitions();
+        SpillFile[] right = newPartitions(child2.getTupleDesc(), n, created);
+        for (ArrayList<Tuple> ts : table.values()) {
+            for (Tuple t : ts) {
+                right[partitionOf(t.getField(p.getField2()), 0, n)].add(t);
+            }
+        }
+        table = null;
+        while (child2.hasNext()) {
+            Tuple t = child2.next();
+            right[partitionOf(t.getField(p.getField2()), 0, n)].add(t);
+        }
+        SpillFile[] left = newPartitions(child1.getTupleDesc(), n, created);
+        while (child1.hasNext()) {
+            Tuple t = child1.next();
+            left[partitionOf(t.getField(p.getField1()), 0, n)].add(t);
+        }
+
+        LinkedList<SpillFile[]> pending = new LinkedList<SpillFile[]>();
+        LinkedList<Integer> levels = new LinkedList<Integer>();
+        for (int i = 0; i < n; i++) {
+            pending.add(new SpillFile[] { right[i], left[i] });
+            levels.add(1);
+        }
+        while (!pending.isEmpty()) {
+            SpillFile[] pair = pending.removeFirst();
+            int level = levels.removeFirst();
+            if (pair[0].size() == 0 || pair[1].size() == 0) {
+                // nothing in this partition can match
+                pair[0].delete();
+                pair[1].delete();
+            } else if (pair[0].size() <= max || level > MAX_LEVELS) {
+                pair[0].finish();
+                pair[1].finish();
+                partitions.add(pair);
+            } else {
+                SpillFile[] r = split(pair[0], p.getField2(), level, n, created);
+                SpillFile[] l = split(pair[1], p.getField1(), level, n, created);
+                for (int i = 0; i < n; i++) {
+                    pending.add(new SpillFile[] { r[i], l[i] });
+                    levels.add(level + 1);
+                }
+            }
+        }
+    }
+
+    private static SpillFile[] newPartitions(TupleDesc td, int n, List<SpillFile> created)
+            throws DbException {
+        SpillFile[] files = new SpillFile[n];
+        for (int i = 0; i < n; i++) {
+            files[i] = new SpillFile(td);
+            created.add(files[i]);
+        }
+        return files;
+    }
+
+    /** Splits a partition into n by its join field, and deletes it. */
+    private static SpillFile[] split(SpillFile in, int field, int level, int n,
+            List<SpillFile> created) throws DbException, TransactionAbortedException {
+        SpillFile[] out = newPartitions(in.getTupleDesc(), n, created);
+        DbFileIterator it = in.iterator();
+        try {
+            it.open();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                out[partitionOf(t.getField(field), level, n)].add(t);
+            }
+        } finally {
+            it.close();
+        }
+        in.delete();
+        return out;
+    }
+
+    /** @return the partition of a join field value at a level of splitting */
+    private static int partitionOf(Field f, int level, int n) {
+        int h = f.hashCode() ^ (level * 0x9E3779B9);
+        h *= 0x85EBCA6B;
+        h ^= h >>> 16;
+        return (h & 0x7fffffff) % n;
+    }
+
+    private static void add(HashMap<Field, ArrayList<Tuple>> table, Tuple t, int field) {
+        Field key = t.getField(field);
+        ArrayList<Tuple> ts = table.get(key);
+        if (ts == null) {
+            ts = new ArrayList<Tuple>(1);
+            table.put(key, ts);
+        }
+        ts.add(t);
+    }
+
+    /**
+     * Loads the next pair of partitions: the right one into the hash table,
+     * the left one to be probed.
+     *
+     * @return false if there are no more
+     */
+    private boolean nextPartition() throws DbException, TransactionAbortedException {
+        if (probeSpill != null) {
+            probeSpill.close();
+            probeSpill = null;
+        }
+        table = null;
+        if (++partition >= partitions.size()) {
+            return false;
+        }
+        SpillFile[] pair = partitions.get(partition);
+        table = new HashMap<Field, ArrayList<Tuple>>();
+        DbFileIterator it = pair[0].iterator();
+        it.open();
+        while (it.hasNext()) {
+            add(table, it.next(), p.getField2());
+        }
+        it.close();
+        probeSpill = pair[1].iterator();
+        probeSpill.open();
+        return true;
+    }
+
+    private void resetProbe() {
+        probe = null;
+        matches = null;
+        match = 0;
+    }
+
+    /** @return the next left tuple to probe with, or null at the end */
+    private Tuple nextProbe() throws DbException, TransactionAbortedException {
+        if (!spilled) {
+            return child1.hasNext() ? child1.next() : null;
+        }
+        while (probeSpill != null) {
+            if (probeSpill.hasNext()) {
+                return probeSpill.next();
+            }
+            nextPartition();
+        }
+        return null;
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        child2.close();
+        if (probeSpill != null) {
+            probeSpill.close();
+            probeSpill = null;
+        }
+        if (partitions != null) {
+            for (SpillFile[] pair : partitions) {
+                pair[0].delete();
+                pair[1].delete();
+            }
+            partitions = null;
+        }
+        table = null;
+        resetProbe();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (spilled) {
+            if (probeSpill != null) {
+                probeSpill.close();
+                probeSpill = null;
+            }
+            partition = -1;
+            nextPartition();
+        } else {
+            child1.rewind();
+        }
+        resetProbe();
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples: the next match of the current left tuple in the hash
+     * table, or else the first match of the next left tuple that has one.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (matches == null || match >= matches.size()) {
+            probe = nextProbe();
+            if (probe == null) {
+                return null;
+            }
+            matches = table.get(probe.getField(p.getField1()));
+            match = 0;
+        }
+        return merge(probe, matches.get(match++));
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        Tuple ans = new Tuple(td);
+        int n1 = t1.getTupleDesc().numFields();
+        for (int i = 0; i < n1; i++) {
+            ans.setField(i, t1.getField(i));
+        }
+        for (int i = 0; i < t2.getTupleDesc().numFields(); i++) {
+            ans.setField(n1 + i, t2.getField(i));
+        }
+        return ans;
+    }
+
+    /**
+     * See Operator.java for additional notes
+     */
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child1, child2 };
+    }
+
+    /**
+     * See Operator.java for additional notes
+     */
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+    }
+
+}
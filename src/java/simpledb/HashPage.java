@@ -0,0 +1,132 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * HashPage is the common part of the pages of a {@link HashIndexFile}:
+ * bucket pages, which hold index entries, directory pages, which hold the
+ * page numbers of buckets, and the header page.
+ * <p>
+ * As in a B+-tree, the first byte of every page says which kind it is, so a
+ * page can be decoded from its bytes alone, and a page of all zeros is an
+ * empty bucket. Page 0 is always the header page, so a pointer of 0 means
+ * "none".
+ *
+ * @see HashIndexFile
+ */
+public abstract class HashPage implements Page {
+
+    /** The kind byte of a bucket page. */
+    public static final int BUCKET = 0;
+    /** The kind byte of a directory page. */
+    public static final int DIRECTORY = 1;
+    /** The kind byte of the header page. */
+    public static final int HEADER = 2;
+
+    final HeapPageId pid;
+    final Type keyType;
+    // the table the RecordIds of the entries are in
+    final int tableId;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+    boolean isDirty;
+    TransactionId tid;
+
+    HashPage(HeapPageId id, Type keyType, int tableId) {
+        this.pid = id;
+        this.keyType = keyType;
+        this.tableId = tableId;
+    }
+
+    /**
+     * Decodes a page of a hash index from its bytes, as a page of the kind
+     * its first byte names.
+     *
+     * @param keyType the type of the index's keys
+     * @param tableId the id of the indexed table
+     */
+    static HashPage create(HeapPageId id, byte[] data, Type keyType, int tableId)
+            throws IOException {
+        switch (data[0]) {
+        case BUCKET:
+            return new HashBucketPage(id, data, keyType, tableId);
+        case DIRECTORY:
+            return new HashDirectoryPage(id, data, keyType, tableId);
+        case HEADER:
+            return new HashHeaderPage(id, data, keyType, tableId);
+        default:
+            throw new IOException("bad page kind " + data[0] + " on page " + id.pageNumber());
+        }
+    }
+
+    /** @return the kind of this page: BUCKET, DIRECTORY or HEADER */
+    public abstract int getKind();
+
+    /** Return a view of this page before it was modified -- used by recovery */
+    public HashPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return create(pid, oldDataRef, keyType, tableId);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData();
+        }
+    }
+
+    /**
+     * Makes the before-image of this page that of another page object for
+     * the same page, which this one is replacing in the buffer pool.
+     */
+    void takeBeforeImage(HashPage old) {
+        synchronized (oldDataLock) {
+            synchronized (old.oldDataLock) {
+                oldData = old.oldData;
+            }
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        if (dirty) {
+            this.tid = tid;
+        }
+        this.isDirty = dirty;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return isDirty ? tid : null;
+    }
+
+    /** Pads the bytes written so far to a full page. */
+    static byte[] pad(ByteArrayOutputStream baos) {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        byte[] written = baos.toByteArray();
+        System.arraycopy(written, 0, data, 0, Math.min(written.length, data.length));
+        return data;
+    }
+}
@@ -4,6 +4,9 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 
 /**
@@ -21,6 +24,48 @@ public class HeapFile implements DbFile {
 	private TupleDesc td;
 	private File f;
 	private int tableId;
+	private volatile FreeSpaceMap fsm;
+	private final PagedFile pages;
+	// read pages from a memory mapping of the file instead of the channel
+	private volatile boolean memoryMapped = false;
+	private volatile Mapping mapping;
+	// the page size of this table, or 0 for a file without a header, whose
+	// pages follow BufferPool.getPageSize()
+	private final int pageSize;
+	// bytes before the first page: FILE_HEADER_SIZE, or 0 without a header
+	private final int headerSize;
+	
+	/**
+	 * A file with a page size of its own starts with a header of
+	 * FILE_HEADER_SIZE bytes: FILE_MAGIC, a format version, the page size,
+	 * and a reserved int. Files without it are read with the global size.
+	 */
+	static final int FILE_HEADER_SIZE = 16;
+	static final int FILE_MAGIC = 0x53444246; // "SDBF"
+	private static final int FILE_VERSION = 1;
+	
+	/** Largest number of bytes mapped by one MappedByteBuffer. */
+	static final int MAP_SEGMENT_SIZE = 1 << 30;
+	
+	/**
+	 * The file mapped read-only in segments of whole pages. The last segment
+	 * ends at the end of the file as it was when mapped; reading past it
+	 * maps the file again. Mappings are never unmapped explicitly, so a
+	 * reader still using an old one is safe until it is collected.
+	 */
+	private static final class Mapping {
+		final int pageSize;
+		final int pagesPerSegment;
+		final int numPages;
+		final MappedByteBuffer[] segments;
+		
+		Mapping(int pageSize, int pagesPerSegment, int numPages, MappedByteBuffer[] segments) {
+			this.pageSize = pageSize;
+			this.pagesPerSegment = pagesPerSegment;
+			this.numPages = numPages;
+			this.segments = segments;
+		}
+	}
 	
     /**
      * Constructs a heap file backed by the specified file.
@@ -31,9 +76,72 @@ public class HeapFile implements DbFile {
      */
     public HeapFile(File f, TupleDesc td) {
         // some code goes here
+    	this(f, td, 0);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file with pages of the
+     * given size. A new or empty file gets a header recording the size; an
+     * existing file must already have one with the same size.
+     *
+     * @param pageSize the page size in bytes, or 0 to use the size in the
+     *            file's header if it has one, and BufferPool.getPageSize()
+     *            otherwise
+     * @throws IllegalArgumentException if the file's header disagrees with
+     *            pageSize, or the file has pages but no header
+     */
+    public HeapFile(File f, TupleDesc td, int pageSize) {
     	this.td = td;
     	this.f = f;
-    	this.tableId = f.getAbsoluteFile().hashCode();;
+    	this.tableId = f.getAbsoluteFile().hashCode();
+    	try {
+    		int stored = readHeader(f);
+    		boolean newHeader = pageSize > 0 && stored == 0 && f.length() == 0;
+    		if (newHeader) {
+    			stored = pageSize;
+    		}
+    		if (pageSize > 0 && stored != pageSize) {
+    			throw new IllegalArgumentException(f + " does not have pages of " + pageSize + " bytes");
+    		}
+    		this.pageSize = stored;
+    		this.headerSize = stored == 0 ? 0 : FILE_HEADER_SIZE;
+    		this.pages = new PagedFile(f, headerSize);
+    		if (newHeader) {
+    			writeHeader(pageSize);
+    		}
+    	} catch (IOException e) {
+    		throw new RuntimeException(e);
+    	}
+    }
+
+    /** @return the page size in the header of f, or 0 if it has none */
+    private static int readHeader(File f) throws IOException {
+    	if (f.length() < FILE_HEADER_SIZE) {
+    		return 0;
+    	}
+    	RandomAccessFile raf = new RandomAccessFile(f, "r");
+    	try {
+    		if (raf.readInt() != FILE_MAGIC || raf.readInt() != FILE_VERSION) {
+    			return 0;
+    		}
+    		return raf.readInt();
+    	} finally {
+    		raf.close();
+    	}
+    }
+
+    private void writeHeader(int pageSize) throws IOException {
+    	ByteBuffer buf = ByteBuffer.allocate(FILE_HEADER_SIZE);
+    	buf.putInt(FILE_MAGIC).putInt(FILE_VERSION).putInt(pageSize).putInt(0);
+    	buf.flip();
+    	while (buf.hasRemaining()) {
+    		pages.channel().write(buf, buf.position());
+    	}
+    }
+
+    /** @return the size of the pages of this file, in bytes */
+    public int getPageSize() {
+    	return pageSize > 0 ? pageSize : BufferPool.getPageSize();
     }
 
     /**
@@ -70,6 +178,86 @@ public class HeapFile implements DbFile {
         return td;
     }
 
+    /**
+     * Sets whether pages are read from a memory mapping of the file. This
+     * saves a system call and a copy per page read, and suits large tables
+     * that are mostly read. Writes always go through the file channel, and
+     * show through the mapping.
+     */
+    public void setMemoryMapped(boolean memoryMapped) {
+    	this.memoryMapped = memoryMapped;
+    	if (!memoryMapped) {
+    		mapping = null;
+    	}
+    }
+
+    /** @return true if pages are read from a memory mapping of the file */
+    public boolean isMemoryMapped() {
+    	return memoryMapped;
+    }
+
+    /**
+     * Returns a read-only view of the bytes of page pgno in the mapping,
+     * mapping the file again first if the page is past its end.
+     */
+    private ByteBuffer mappedPage(int pgno) throws IOException {
+    	int pageSize = getPageSize();
+    	Mapping m = mapping;
+    	if (m == null || m.pageSize != pageSize || pgno >= m.numPages) {
+    		m = remap(pgno, pageSize);
+    	}
+    	int offset = (pgno % m.pagesPerSegment) * pageSize;
+    	ByteBuffer page = m.segments[pgno / m.pagesPerSegment].duplicate();
+    	page.position(offset);
+    	page.limit(offset + pageSize);
+    	return page.slice();
+    }
+
+    private synchronized Mapping remap(int pgno, int pageSize) throws IOException {
+    	Mapping old = mapping;
+    	if (old != null && old.pageSize == pageSize && pgno < old.numPages) {
+    		// another reader remapped first
+    		return old;
+    	}
+    	int pagesPerSegment = Math.max(1, MAP_SEGMENT_SIZE / pageSize);
+    	int n = numPages();
+    	int numSegments = (n + pagesPerSegment - 1) / pagesPerSegment;
+    	MappedByteBuffer[] segments = new MappedByteBuffer[numSegments];
+    	for (int s = 0; s < numSegments; s++) {
+    		int inSegment = Math.min(pagesPerSegment, n - s * pagesPerSegment);
+    		if (old != null && old.pageSize == pageSize && s < old.segments.length
+    				&& old.segments[s].capacity() == inSegment * pageSize) {
+    			// full segments do not change as the file grows
+    			segments[s] = old.segments[s];
+    		} else {
+    			segments[s] = pages.channel().map(FileChannel.MapMode.READ_ONLY,
+    					headerSize + (long) s * pagesPerSegment * pageSize, (long) inSegment * pageSize);
+    		}
+    	}
+    	Mapping m = new Mapping(pageSize, pagesPerSegment, n, segments);
+    	mapping = m;
+    	return m;
+    }
+
+    /**
+     * Returns the free-space map of this file, reading or rebuilding it on
+     * first use.
+     */
+    public synchronized FreeSpaceMap getFreeSpaceMap() throws IOException {
+    	if (fsm == null) {
+    		fsm = FreeSpaceMap.load(this, f, numPages());
+    	}
+    	return fsm;
+    }
+
+    /** Saves the changes to the free-space map, if it was ever loaded. */
+    void syncFreeSpaceMap() throws IOException {
+    	FreeSpaceMap map = fsm;
+    	if (map != null) {
+    		map.sync();
+    	}
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
@@ -83,15 +271,18 @@ public class HeapFile implements DbFile {
     		return null;
     	}
     	try {
-			RandomAccessFile tableFile = new RandomAccessFile(f, "r");
-			int pageSize = BufferPool.getPageSize();
-			
-			byte data[] = new byte[pageSize];
-			tableFile.seek(pgno * pageSize);
-			tableFile.readFully(data);
 			HeapPageId heapPageId = new HeapPageId(this.tableId, pgno);
-			tableFile.close();
-			return new HeapPage(heapPageId, data);
+			HeapPage page;
+			if (memoryMapped) {
+				page = new HeapPage(heapPageId, mappedPage(pgno));
+			} else {
+				page = new HeapPage(heapPageId, pages.read(pgno, getPageSize()));
+			}
+			FreeSpaceMap map = fsm;
+			if (map != null) {
+				map.update(pgno, page.getNumEmptySlots());
+			}
+			return page;
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -104,10 +295,11 @@ public class HeapFile implements DbFile {
         // some code goes here
         // not necessary for lab1
     	try {
-			RandomAccessFile f = new RandomAccessFile(this.f, "rw");
-			f.seek(page.getId().pageNumber() * BufferPool.getPageSize());
-			f.write(page.getPageData(), 0, BufferPool.getPageSize());
-			f.close();
+			pages.write(page.getId().pageNumber(), page.getPageData(), getPageSize());
+			if (page instanceof HeapPage) {
+				getFreeSpaceMap().pageWritten(page.getId().pageNumber(),
+						((HeapPage) page).getNumEmptySlots());
+			}
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -118,38 +310,37 @@ public class HeapFile implements DbFile {
      */
     public int numPages() {
         // some code goes here
-    	return (int) Math.ceil((double)f.length() / BufferPool.getPageSize());
+    	return pages.numPages(getPageSize());
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
-    	// Get a page which has empty slot
-    	HeapPage page = null;
-    	boolean getPage = false;
     	ArrayList<Page> pageList = new ArrayList<Page>();
+    	BufferPool buffer = Database.getBufferPool();
+    	if (buffer.isRecordLocking()) {
+    		return insertTupleLockingRecord(tid, t, buffer);
+    	}
     	
-    	
+    	// Ask the free-space map for a page with an empty slot, so that only
+    	// that page is locked; the map is a hint, so check the page itself
+    	FreeSpaceMap map = getFreeSpaceMap();
     	int pageno = this.numPages();
-    	BufferPool buffer = Database.getBufferPool();
-    	for (int i = 0; i < pageno; i++) {
-    		page = (HeapPage) buffer.getPage(tid, new HeapPageId(this.tableId, i), Permissions.READ_WRITE);
-    		
+    	for (int i = map.nextPageWithRoom(0); i >= 0 && i < pageno; i = map.nextPageWithRoom(i + 1)) {
+    		HeapPage page = (HeapPage) buffer.getPage(tid, new HeapPageId(this.tableId, i), Permissions.READ_WRITE);
     		if (page.getNumEmptySlots() > 0) {
-    			getPage = true;
+    			page.insertTuple(t);
+    			pageList.add(page);
+    			return pageList;
     		}
+    		map.update(i, 0);
     	}
     	
-    	if (getPage) {
-    		page.insertTuple(t);
-    		pageList.add(page);
-    	} else {
-    		HeapPage newpage = new HeapPage(new HeapPageId(this.tableId, pageno), HeapPage.createEmptyPageData());
-    		newpage.insertTuple(t);
-    		this.writePage(newpage);
-    		pageList.add(newpage);
-    	}
+    	HeapPage newpage = new HeapPage(new HeapPageId(this.tableId, pageno), HeapPage.createEmptyPageData(getPageSize()));
+    	newpage.insertTuple(t);
+    	this.writePage(newpage);
+    	pageList.add(newpage);
     	
     	return pageList;
     }
@@ -161,8 +352,19 @@ public class HeapFile implements DbFile {
         // not necessary for lab1
     	ArrayList<Page> pageList = new ArrayList<Page>();
     	BufferPool buffer = Database.getBufferPool();
-    	HeapPage page = (HeapPage) buffer.getPage(tid, 
-    			new HeapPageId(this.tableId, t.getRecordId().getPageId().pageNumber()), Permissions.READ_WRITE);
+    	HeapPageId pid = new HeapPageId(this.tableId, t.getRecordId().getPageId().pageNumber());
+    	
+    	if (buffer.isRecordLocking()) {
+    		buffer.lockRecord(tid, t.getRecordId(), Permissions.READ_WRITE);
+    		HeapPage page = (HeapPage) buffer.getPage(tid, pid, LockMode.IX);
+    		synchronized (page) {
+    			page.deleteTuple(t);
+    		}
+    		pageList.add(page);
+    		return pageList;
+    	}
+    	
+    	HeapPage page = (HeapPage) buffer.getPage(tid, pid, Permissions.READ_WRITE);
     	
     	page.deleteTuple(t);
     	pageList.add(page);
@@ -170,10 +372,75 @@ public class HeapFile implements DbFile {
     	return pageList;
     }
 
+    /**
+     * Insert under record locking: pages are only IX-locked, and the tuple
+     * goes into a free slot whose record lock this transaction can take,
+     * so that a slot freed by another transaction's uncommitted delete is
+     * not reused. A tuple that still has a RecordId in this table (one whose
+     * delete is being rolled back) goes back to its old slot if possible.
+     */
+    private ArrayList<Page> insertTupleLockingRecord(TransactionId tid, Tuple t, BufferPool buffer)
+            throws DbException, IOException, TransactionAbortedException {
+    	ArrayList<Page> pageList = new ArrayList<Page>();
+    	
+    	RecordId old = t.getRecordId();
+    	if (old != null && old.getPageId().getTableId() == this.tableId
+    			&& old.getPageId().pageNumber() < numPages()) {
+    		HeapPage page = (HeapPage) buffer.getPage(tid, old.getPageId(), LockMode.IX);
+    		synchronized (page) {
+    			if (!page.isSlotUsed(old.tupleno())
+    					&& buffer.tryLockRecord(tid, old, Permissions.READ_WRITE)) {
+    				page.insertTuple(t, old.tupleno());
+    				pageList.add(page);
+    				return pageList;
+    			}
+    		}
+    	}
+    	
+    	// pages the free-space map says have room, then a new page at the end
+    	FreeSpaceMap map = getFreeSpaceMap();
+    	for (int i = map.nextPageWithRoom(0); ; i = map.nextPageWithRoom(i + 1)) {
+    		if (i < 0 || i >= numPages()) {
+    			i = numPages();
+    			appendEmptyPage(i);
+    		}
+    		HeapPage page = (HeapPage) buffer.getPage(tid, new HeapPageId(this.tableId, i), LockMode.IX);
+    		synchronized (page) {
+    			for (int slot = 0; slot < page.getNumSlots(); slot++) {
+    				if (!page.isSlotUsed(slot) && buffer.tryLockRecord(tid,
+    						new RecordId(page.getId(), slot), Permissions.READ_WRITE)) {
+    					page.insertTuple(t, slot);
+    					pageList.add(page);
+    					return pageList;
+    				}
+    			}
+    		}
+    	}
+    }
+
+    /** Extend the file with an empty page numbered pageno, unless another writer already has. */
+    private synchronized void appendEmptyPage(int pageno) throws IOException {
+    	if (numPages() <= pageno) {
+    		writePage(new HeapPage(new HeapPageId(this.tableId, pageno), HeapPage.createEmptyPageData(getPageSize())));
+    	}
+    }
+
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
         return new HeapFileIterator(this, tid);
     }
+
+    /**
+     * Returns an iterator over all the tuples stored in this HeapFile that
+     * reads its pages through the given ScanRing instead of letting
+     * {@link ScanRing#forScan} decide.
+     *
+     * @param ring the ring to read through, or null to read every page
+     *             through the shared buffer pool
+     */
+    public DbFileIterator iterator(TransactionId tid, ScanRing ring) {
+        return new HeapFileIterator(this, tid, ring);
+    }
 }
 
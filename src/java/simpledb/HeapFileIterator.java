@@ -11,9 +11,32 @@ public class HeapFileIterator implements DbFileIterator {
     private int currentPageNo;
     private Iterator<Tuple> currentPageIter;
 
+    // true if the ring is picked from the table size when the scan opens
+    private final boolean autoRing;
+    private ScanRing ring;
+
+    /**
+     * Creates an iterator that reads large tables through a
+     * {@link ScanRing} chosen by {@link ScanRing#forScan} when it is opened.
+     */
     public HeapFileIterator(HeapFile hf, TransactionId tid) {
         this.tid = tid;
         this.hf = hf;
+        this.autoRing = true;
+        close();
+    }
+
+    /**
+     * Creates an iterator that reads through the given ScanRing.
+     *
+     * @param ring the ring to read through, or null to read every page
+     *             through the shared buffer pool
+     */
+    public HeapFileIterator(HeapFile hf, TransactionId tid, ScanRing ring) {
+        this.tid = tid;
+        this.hf = hf;
+        this.autoRing = false;
+        this.ring = ring;
         close();
     }
 
@@ -21,17 +44,27 @@ public class HeapFileIterator implements DbFileIterator {
         return hf.numPages();
     }
 
+    /** @return the ring this scan reads through, or null if it has none */
+    public ScanRing getScanRing() {
+        return ring;
+    }
+
+    private Iterator<Tuple> pageIterator(int pageNo)
+            throws DbException, TransactionAbortedException {
+        return ((HeapPage)Database.getBufferPool().getPage(
+                tid, new HeapPageId(hf.getId(), pageNo), Permissions.READ_ONLY, ring)).iterator();
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         active = true;
         currentPageNo = -1;
         currentPageIter = null;
-        System.out.println("!!!" + Database.getBufferPool());
+        if (autoRing) {
+            ring = ScanRing.forScan(numPages(), Database.getBufferPool());
+        }
         while (currentPageNo + 1 < numPages()) {
             currentPageNo ++;
-            System.out.println("!!!" + Database.getBufferPool().getPage(
-                    tid, new HeapPageId(hf.getId(), currentPageNo), Permissions.READ_ONLY));
-            currentPageIter = ((HeapPage)Database.getBufferPool().getPage(
-                    tid, new HeapPageId(hf.getId(), currentPageNo), Permissions.READ_ONLY)).iterator();
+            currentPageIter = pageIterator(currentPageNo);
             if (!hasNext()) continue;
             return;
         }
@@ -47,8 +80,7 @@ public class HeapFileIterator implements DbFileIterator {
         if (!hasNext()) {
             while (currentPageNo + 1 < numPages()) {
                 currentPageNo ++;
-                currentPageIter = ((HeapPage)Database.getBufferPool().getPage(
-                        tid, new HeapPageId(hf.getId(), currentPageNo), Permissions.READ_ONLY)).iterator();
+                currentPageIter = pageIterator(currentPageNo);
                 if (!hasNext()) continue;
                 break;
             }
@@ -71,4 +103,4 @@ public class HeapFileIterator implements DbFileIterator {
         currentPageNo = -1;
         currentPageIter = null;
     }
-}
\ No newline at end of file
+}
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -15,11 +16,25 @@ public class HeapPage implements Page {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte header[];
+    final int headerSize;
+    // the page size of this page's table
+    final int pageSize;
+    // tuples handed out or inserted so far; other used slots are decoded
+    // from data when first asked for
     final Tuple tuples[];
     final int numSlots;
+    // the bytes of the page, header and slots, kept up to date in place by
+    // insertTuple and deleteTuple; null while the page reads from view
+    byte[] data;
+    // a read-only buffer holding the bytes, such as a slice of a mapped
+    // file, read in place until the page first changes
+    private volatile ByteBuffer view;
+    // false while data is shared, with the before-image or with whoever
+    // made the page; it is copied before the next change
+    private boolean ownsData = false;
 
     byte[] oldData;
+    private ByteBuffer oldView; // the before-image, if it is still view
     private final Byte oldDataLock=new Byte((byte)0);
     boolean isDirty;
     TransactionId tid;
@@ -29,39 +44,60 @@ public class HeapPage implements Page {
      * The format of a HeapPage is a set of header bytes indicating
      * the slots of the page that are in use, some number of tuple slots.
      *  Specifically, the number of tuples is equal to: <p>
-     *          floor((BufferPool.getPageSize()*8) / (tuple size * 8 + 1))
+     *          floor((page size*8) / (tuple size * 8 + 1))
      * <p> where tuple size is the size of tuples in this
-     * database table, which can be determined via {@link Catalog#getTupleDesc}.
+     * database table, which can be determined via {@link Catalog#getTupleDesc},
+     * and the page size is the table's, from {@link Catalog#getPageSize}.
      * The number of 8-bit header words is equal to:
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
-     * @see BufferPool#getPageSize()
+     * @see Catalog#getPageSize
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.pageSize = Database.getCatalog().getPageSize(id.getTableId());
         this.numSlots = getNumTuples();
         this.isDirty = false;
         tid = null;
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.data = data;
 
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
+        // the header and tuples are read from data as they are used
+        headerSize = getHeaderSize();
+        if (data.length < headerSize + numSlots * td.getSize()) {
+            throw new EOFException("page " + id.pageNumber() + " is too short");
+        }
         tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+
+        setBeforeImage();
+    }
+
+    /**
+     * Create a HeapPage from a buffer holding the page's bytes from its
+     * position on, such as a slice of a memory-mapped file. The page and
+     * its tuples read the buffer in place; its bytes are copied only when
+     * the page first changes, since writing the page out changes a mapped
+     * buffer too. Nothing else may change the buffer while the page uses it.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.pageSize = Database.getCatalog().getPageSize(id.getTableId());
+        this.numSlots = getNumTuples();
+        this.isDirty = false;
+        tid = null;
+        this.view = data.slice();
+
+        headerSize = getHeaderSize();
+        if (view.remaining() < headerSize + numSlots * td.getSize()) {
+            throw new EOFException("page " + id.pageNumber() + " is too short");
         }
-        dis.close();
+        tuples = new Tuple[numSlots];
 
         setBeforeImage();
     }
@@ -72,7 +108,7 @@ public class HeapPage implements Page {
     private int getNumTuples() {        
         // some code goes here
 
-    	return (int) Math.floor((double)BufferPool.getPageSize() * 8 / (td.getSize() * 8 + 1));
+    	return (int) Math.floor((double)pageSize * 8 / (td.getSize() * 8 + 1));
     }
 
     /**
@@ -87,13 +123,19 @@ public class HeapPage implements Page {
     }
     
     /** Return a view of this page before it was modified
-        -- used by recovery */
+        -- used by recovery. The view shares the before-image bytes, which
+        nothing writes to, and decodes nothing until it is read. */
     public HeapPage getBeforeImage(){
         try {
             byte[] oldDataRef = null;
+            ByteBuffer oldViewRef = null;
             synchronized(oldDataLock)
             {
                 oldDataRef = oldData;
+                oldViewRef = oldView;
+            }
+            if (oldViewRef != null) {
+                return new HeapPage(pid, oldViewRef);
             }
             return new HeapPage(pid,oldDataRef);
         } catch (IOException e) {
@@ -104,10 +146,17 @@ public class HeapPage implements Page {
         return null;
     }
     
-    public void setBeforeImage() {
+    /**
+     * Make the current contents the before-image. No bytes are copied: the
+     * before-image and the page share one array until the page next changes,
+     * and the page copies it then.
+     */
+    public synchronized void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        oldData = data;
+        oldView = view;
+        ownsData = false;
         }
     }
 
@@ -120,36 +169,23 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * @return the tuple in a slot, or null if the slot is empty or there
+     *         is no such slot. A tuple that has not been asked for before is
+     *         made here, with its fields still to be decoded from the page
+     *         data.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
+    synchronized Tuple getTuple(int slotId) {
+        if (slotId < 0 || slotId >= numSlots || !isSlotUsed(slotId)) {
             return null;
         }
-
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+        Tuple t = tuples[slotId];
+        if (t == null) {
+            ByteBuffer v = view;
+            t = v != null ? new Tuple(td, v, slotOffset(slotId))
+                    : new Tuple(td, data, slotOffset(slotId));
+            t.setRecordId(new RecordId(pid, slotId));
+            tuples[slotId] = t;
         }
-
         return t;
     }
 
@@ -160,69 +196,20 @@ public class HeapPage implements Page {
      * The invariant here is that it should be possible to pass the byte
      * array generated by getPageData to the HeapPage constructor and
      * have it produce an identical HeapPage object.
+     * <p>
+     * The page keeps its bytes up to date as tuples are inserted and
+     * deleted, so this is a copy of them.
      *
      * @see #HeapPage
      * @return A byte array correspond to the bytes of this page.
      */
-    public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
+    public synchronized byte[] getPageData() {
+        if (view != null) {
+            byte[] bytes = new byte[pageSize];
+            view.duplicate().get(bytes, 0, Math.min(pageSize, view.remaining()));
+            return bytes;
         }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        return Arrays.copyOf(data, pageSize);
     }
 
     /**
@@ -239,6 +226,14 @@ public class HeapPage implements Page {
         return new byte[len]; //all 0
     }
 
+    /**
+     * @return the bytes of an empty HeapPage of a table whose pages are
+     *         pageSize bytes long
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize]; //all 0
+    }
+
     /**
      * Delete the specified tuple from the page;  the tuple should be updated to reflect
      *   that it is no longer stored on any page.
@@ -246,15 +241,22 @@ public class HeapPage implements Page {
      *         already empty.
      * @param t The tuple to delete
      */
-    public void deleteTuple(Tuple t) throws DbException {
+    public synchronized void deleteTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
     	int tupleno = t.getRecordId().tupleno();
     	
     	if (tupleno >=0 && tupleno < this.numSlots && isSlotUsed(tupleno) 
     			&& t.getRecordId().getPageId().pageNumber() == this.pid.pageNumber()) {
+    		Tuple old = tuples[tupleno];
+    		if (old != null) {
+    			// it may still be decoding from the bytes cleared below
+    			old.materialize();
+    		}
     		tuples[tupleno] = null;
 			markSlotUsed(tupleno, false);
+			Arrays.fill(data, slotOffset(tupleno), slotOffset(tupleno + 1), (byte) 0);
+			updateFreeSpace();
 			
 			return;
     	}
@@ -269,16 +271,18 @@ public class HeapPage implements Page {
      *         is mismatch.
      * @param t The tuple to add.
      */
-    public void insertTuple(Tuple t) throws DbException {
+    public synchronized void insertTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
     	if (this.getNumEmptySlots() > 0 && td.equals(t.getTupleDesc())) {
     		for (int i = 0; i < tuples.length; i++) {
     			if (!isSlotUsed(i)) {
+    				writeSlot(i, t);
     				tuples[i] = t;
     				markSlotUsed(i, true);
     				RecordId recordId = new RecordId(this.pid, i);
     				t.setRecordId(recordId);
+    				updateFreeSpace();
     				
     				return;
     			}
@@ -288,6 +292,93 @@ public class HeapPage implements Page {
     	throw new DbException("Insert the record ERROR!");
     }
 
+    /**
+     * Adds the specified tuple to the page in the given slot, which must be
+     * empty; the tuple is updated to reflect that it is now stored there.
+     * @throws DbException if the slot is in use or tupledesc is mismatch.
+     * @param t The tuple to add.
+     * @param slot The slot to put it in.
+     */
+    public synchronized void insertTuple(Tuple t, int slot) throws DbException {
+    	if (slot < 0 || slot >= numSlots || isSlotUsed(slot) || !td.equals(t.getTupleDesc())) {
+    		throw new DbException("can't insert into slot " + slot);
+    	}
+    	writeSlot(slot, t);
+    	tuples[slot] = t;
+    	markSlotUsed(slot, true);
+    	t.setRecordId(new RecordId(this.pid, slot));
+    	updateFreeSpace();
+    }
+
+    /** @return the offset in data of a slot */
+    private int slotOffset(int slot) {
+    	return headerSize + slot * td.getSize();
+    }
+
+    /** Copy data before the first change to it, since others may hold it. */
+    private void ownData() {
+    	if (view != null) {
+    		// the view changes when this page is written out, so the tuples
+    		// and before-image read from it need bytes of their own
+    		for (Tuple t : tuples) {
+    			if (t != null) {
+    				t.materialize();
+    			}
+    		}
+    		byte[] bytes = new byte[pageSize];
+    		view.duplicate().get(bytes, 0, Math.min(pageSize, view.remaining()));
+    		synchronized(oldDataLock) {
+    			if (oldView == view) {
+    				oldData = bytes;
+    				oldView = null;
+    			}
+    		}
+    		data = bytes;
+    		view = null;
+    		ownsData = false;
+    	}
+    	if (!ownsData) {
+    		data = Arrays.copyOf(data, Math.max(data.length, pageSize));
+    		ownsData = true;
+    	}
+    }
+
+    /** Serialize the fields of t into a slot of data. */
+    private void writeSlot(int slot, Tuple t) throws DbException {
+    	ByteArrayOutputStream baos = new ByteArrayOutputStream(td.getSize());
+    	DataOutputStream dos = new DataOutputStream(baos);
+    	try {
+    		for (int j = 0; j < td.numFields(); j++) {
+    			t.getField(j).serialize(dos);
+    		}
+    		dos.flush();
+    	} catch (IOException e) {
+    		throw new DbException("can't serialize tuple: " + e.getMessage());
+    	}
+    	if (baos.size() != td.getSize()) {
+    		throw new DbException("tuple does not fit its slot");
+    	}
+    	ownData();
+    	System.arraycopy(baos.toByteArray(), 0, data, slotOffset(slot), td.getSize());
+    }
+
+    /**
+     * Tell the free-space map of this page's file how many slots are left.
+     * Pages of tables that are not in the catalog have no map to update.
+     */
+    private void updateFreeSpace() {
+    	try {
+    		DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+    		if (file instanceof HeapFile) {
+    			((HeapFile) file).getFreeSpaceMap().update(pid.pageNumber(), getNumEmptySlots());
+    		}
+    	} catch (NoSuchElementException e) {
+    		// not a catalog table
+    	} catch (IOException e) {
+    		e.printStackTrace();
+    	}
+    }
+
     /**
      * Marks this page as dirty/not dirty and record that transaction
      * that did the dirtying
@@ -329,6 +420,13 @@ public class HeapPage implements Page {
         return cnt;
     }
 
+    /**
+     * Returns the number of tuple slots on this page.
+     */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
     /**
      * Returns true if associated slot on this page is filled.
      */
@@ -336,8 +434,10 @@ public class HeapPage implements Page {
         // some code goes here
 		int index = i / 8;
 		int offset = i % 8;
+		ByteBuffer v = view;
+		byte b = v != null ? v.get(index) : data[index];
 		
-		if (((header[index] >> offset) & 1) == 0) {
+		if (((b >> offset) & 1) == 0) {
 			return false;
 		}
 		return true;
@@ -351,10 +451,11 @@ public class HeapPage implements Page {
         // not necessary for lab1
     	int index = i / 8;
         int offset = i % 8;
+        ownData();
         if (value) {
-        	header[index] |= (1 << offset);
+        	data[index] |= (1 << offset);
         } else {
-        	header[index] &= (~(1 << offset));
+        	data[index] &= (~(1 << offset));
         }
     }
 
@@ -366,7 +467,7 @@ public class HeapPage implements Page {
         // some code goes here
     	ArrayList<Tuple> tupleList = new ArrayList<Tuple>();
         for (int i = 0; i < numSlots; i ++) {
-            if (isSlotUsed(i)) tupleList.add(tuples[i]);
+            if (isSlotUsed(i)) tupleList.add(getTuple(i));
         }
         return tupleList.iterator();
     }
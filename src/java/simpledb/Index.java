@@ -0,0 +1,41 @@
+package simpledb;
+
+/**
+ * An Index finds the tuples of a table whose key field satisfies an
+ * {@link IndexPredicate} by reading a few pages instead of the whole table.
+ * Indexes are registered with {@link Catalog#addIndex}, where the optimizer
+ * finds them.
+ * <p>
+ * An index is clustered if it keeps the table's tuples themselves in key
+ * order, so that neighbouring matches share pages; otherwise each match may
+ * cost a page of its own.
+ */
+public interface Index {
+
+    /** @return the id of the table whose tuples this index finds */
+    public int getTableId();
+
+    /** @return the index of the field of the table this index is on */
+    public int getKeyField();
+
+    /** @return true if {@link #indexIterator} can evaluate the operator */
+    public boolean supports(Predicate.Op op);
+
+    /** @return true if the index stores the table's tuples in key order */
+    public boolean isClustered();
+
+    /**
+     * @return the number of pages a lookup reads before it reaches the
+     *         first match, such as the height of a tree
+     */
+    public int probePages();
+
+    /**
+     * Returns an iterator over the tuples of the table whose key satisfies
+     * the predicate, read through the buffer pool as part of a transaction.
+     *
+     * @throws UnsupportedOperationException if the predicate's operator is
+     *         not supported
+     */
+    public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred);
+}
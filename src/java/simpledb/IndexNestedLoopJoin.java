@@ -0,0 +1,244 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The IndexNestedLoopJoin operator joins each tuple of its left (outer)
+ * child with the tuples of a table found by probing an {@link Index} on the
+ * table's join field, rather than by rescanning the table. It pays off when
+ * the outer input is small next to the table, as when looking up rows of a
+ * large table by key.
+ * <p>
+ * The right child is the plan the optimizer built for the table: a
+ * {@link SeqScan} or an {@link IndexScan}, possibly under {@link Filter}s.
+ * It is not run; it names the table and its alias, and its filters, and the
+ * predicate of an IndexScan, are applied to the tuples the index returns.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private JoinPredicate p;
+    private DbIterator child1;
+    private DbIterator child2;
+    private final Index index;
+    private final TransactionId tid;
+    private final ArrayList<Predicate> filters;
+    private TupleDesc td; // of the output, set on open
+
+    private Tuple current;
+    private DbFileIterator matches;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to join the children with
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            The plan of the right(inner) relation: a SeqScan or an
+     *            IndexScan, possibly under Filters
+     * @param index
+     *            An index on the table child2 scans, on the field
+     *            p.getField2(), that supports the predicate's operator
+     * @throws IllegalArgumentException if child2 or the index do not fit
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+            Index index) {
+        DbIterator scan = innerScan(child2);
+        if (scan == null) {
+            throw new IllegalArgumentException("inner plan is not a scan of a table");
+        }
+        if (index.getTableId() != innerTableId(child2) || index.getKeyField() != p.getField2()
+                || !index.supports(probeOp(p.getOperator()))) {
+            throw new IllegalArgumentException("index does not fit the join");
+        }
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.index = index;
+        this.filters = new ArrayList<Predicate>();
+        for (DbIterator it = child2; it instanceof Filter; it = ((Filter) it).getChildren()[0]) {
+            filters.add(((Filter) it).getPredicate());
+        }
+        if (scan instanceof IndexScan) {
+            IndexScan is = (IndexScan) scan;
+            IndexPredicate ipred = is.getIndexPredicate();
+            this.tid = is.getTransactionId();
+            filters.add(new Predicate(is.getIndex().getKeyField(), ipred.getOp(), ipred.getField()));
+        } else {
+            this.tid = ((SeqScan) scan).getTransactionId();
+        }
+    }
+
+    /**
+     * @return the SeqScan or IndexScan at the bottom of a plan made of one
+     *         of them and Filters, or null if the plan is something else
+     */
+    public static DbIterator innerScan(DbIterator plan) {
+        while (plan instanceof Filter) {
+            plan = ((Filter) plan).getChildren()[0];
+        }
+        return plan instanceof SeqScan || plan instanceof IndexScan ? plan : null;
+    }
+
+    /**
+     * @return the id of the table scanned at the bottom of a plan that
+     *         {@link #innerScan} accepts, or -1 if it does not accept it
+     */
+    public static int innerTableId(DbIterator plan) {
+        DbIterator scan = innerScan(plan);
+        if (scan instanceof SeqScan) {
+            return ((SeqScan) scan).getTableId();
+        }
+        if (scan instanceof IndexScan) {
+            return ((IndexScan) scan).getTableId();
+        }
+        return -1;
+    }
+
+    /**
+     * @return the operator to probe the index with for a join predicate
+     *         <tt>outer op inner</tt>: the same comparison, seen from the
+     *         inner side
+     */
+    public static Predicate.Op probeOp(Predicate.Op op) {
+        switch (op) {
+        case GREATER_THAN:
+            return Predicate.Op.LESS_THAN;
+        case GREATER_THAN_OR_EQ:
+            return Predicate.Op.LESS_THAN_OR_EQ;
+        case LESS_THAN:
+            return Predicate.Op.GREATER_THAN;
+        case LESS_THAN_OR_EQ:
+            return Predicate.Op.GREATER_THAN_OR_EQ;
+        default:
+            return op;
+        }
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    /** @return the index probed for the inner tuples */
+    public Index getIndex() {
+        return index;
+    }
+
+    /** @return the name of the left child's join field */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(p.getField1());
+    }
+
+    /** @return the name of the right child's join field */
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(p.getField2());
+    }
+
+    /** @see Join#getTupleDesc() */
+    public TupleDesc getTupleDesc() {
+        return TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /** The matches of each outer tuple come together, in outer order. */
+    @Override
+    public SortOrder getSortOrder() {
+        return SortOrder.of(child1);
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        child1.open();
+        td = getTupleDesc();
+        current = null;
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        closeMatches();
+        current = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        closeMatches();
+        current = null;
+    }
+
+    private void closeMatches() {
+        if (matches != null) {
+            matches.close();
+            matches = null;
+        }
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples: the next match in the index of the current outer tuple,
+     * or else the first match of the next outer tuple that has one.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            while (matches != null && matches.hasNext()) {
+                Tuple t2 = matches.next();
+                if (p.filter(current, t2) && passes(t2)) {
+                    return merge(current, t2);
+                }
+            }
+            closeMatches();
+            if (!child1.hasNext()) {
+                return null;
+            }
+            current = child1.next();
+            matches = index.indexIterator(tid, new IndexPredicate(
+                    probeOp(p.getOperator()), current.getField(p.getField1())));
+            matches.open();
+        }
+    }
+
+    /** @return true if an inner tuple passes the inner plan's filters */
+    private boolean passes(Tuple t) {
+        for (Predicate f : filters) {
+            if (!f.filter(t)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        Tuple ans = new Tuple(td);
+        int n1 = t1.getTupleDesc().numFields();
+        for (int i = 0; i < n1; i++) {
+            ans.setField(i, t1.getField(i));
+        }
+        for (int i = 0; i < t2.getTupleDesc().numFields(); i++) {
+            ans.setField(n1 + i, t2.getField(i));
+        }
+        return ans;
+    }
+
+    /**
+     * See Operator.java for additional notes
+     */
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child1, child2 };
+    }
+
+    /**
+     * See Operator.java for additional notes
+     */
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+    }
+
+}
@@ -0,0 +1,61 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * IndexPredicate compares the key field of an index to a constant; it is
+ * what an index is asked for, as Predicate is what a Filter is given.
+ */
+public class IndexPredicate implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Predicate.Op op;
+    private final Field fieldvalue;
+
+    /**
+     * Constructor.
+     *
+     * @param op
+     *            the operation to compare the key to the value with
+     * @param fvalue
+     *            the value the key is compared to
+     */
+    public IndexPredicate(Predicate.Op op, Field fvalue) {
+        this.op = op;
+        this.fieldvalue = fvalue;
+    }
+
+    public Field getField() {
+        return fieldvalue;
+    }
+
+    public Predicate.Op getOp() {
+        return op;
+    }
+
+    /** @return true if a key satisfies this predicate */
+    public boolean matches(Field key) {
+        return key.compare(op, fieldvalue);
+    }
+
+    /** @return true if the fieldvalue and op of the two predicates are equal */
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof IndexPredicate)) {
+            return false;
+        }
+        IndexPredicate ipd = (IndexPredicate) o;
+        return op == ipd.op && fieldvalue.equals(ipd.fieldvalue);
+    }
+
+    @Override
+    public int hashCode() {
+        return op.hashCode() * 31 + fieldvalue.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "key " + op + " " + fieldvalue;
+    }
+}
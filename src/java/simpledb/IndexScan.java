@@ -0,0 +1,108 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexScan is an access method that reads only the tuples of a table whose
+ * key satisfies an {@link IndexPredicate}, by looking them up in an
+ * {@link Index} on the table instead of reading every page. Its output is
+ * the same as that of a {@link SeqScan} of the table under a {@link Filter}
+ * with the same predicate, though not necessarily in the same order.
+ */
+public class IndexScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final Index index;
+    private final IndexPredicate ipred;
+    private final String tableAlias;
+    private final DbFileIterator it;
+
+    /**
+     * Creates an index scan over the table of the given index as a part of
+     * the specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param index
+     *            the index to look the tuples up in
+     * @param ipred
+     *            the predicate on the index's key the tuples must satisfy
+     * @param tableAlias
+     *            the alias of the table; the returned tupleDesc has fields
+     *            named tableAlias.fieldName, as for {@link SeqScan}
+     */
+    public IndexScan(TransactionId tid, Index index, IndexPredicate ipred, String tableAlias) {
+        this.tid = tid;
+        this.index = index;
+        this.ipred = ipred;
+        this.tableAlias = tableAlias;
+        this.it = index.indexIterator(tid, ipred);
+    }
+
+    /** @return the id of the table this operator scans */
+    public int getTableId() {
+        return index.getTableId();
+    }
+
+    /** @return the transaction this scan runs as a part of */
+    public TransactionId getTransactionId() {
+        return tid;
+    }
+
+    /** @return the alias of the table this operator scans */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    /** @return the index this operator reads */
+    public Index getIndex() {
+        return index;
+    }
+
+    /** @return the predicate the tuples are looked up with */
+    public IndexPredicate getIndexPredicate() {
+        return ipred;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        it.open();
+    }
+
+    /**
+     * @return the TupleDesc of the table, with field names prefixed with the
+     *         tableAlias string from the constructor
+     * @see SeqScan#getTupleDesc()
+     */
+    public TupleDesc getTupleDesc() {
+        String alias = tableAlias == null ? "null" : tableAlias;
+        TupleDesc td = Database.getCatalog().getTupleDesc(index.getTableId());
+        Type[] types = new Type[td.numFields()];
+        String[] fields = new String[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            types[i] = td.getFieldType(i);
+            String fieldName = td.getFieldName(i);
+            fields[i] = alias + "." + (fieldName == null ? "null" : fieldName);
+        }
+        return new TupleDesc(types, fields);
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        return it.hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        return it.next();
+    }
+
+    public void close() {
+        it.close();
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        it.rewind();
+    }
+}
@@ -0,0 +1,236 @@
+package simpledb;
+
+/**
+ * A class to represent a fixed-width histogram over a single integer-based
+ * field. Each bucket covers the same number of consecutive integers, except
+ * perhaps the last, and counts the values that fall in it; a value is taken
+ * to be anywhere in its bucket with equal likelihood.
+ * <p>
+ * A bucket also counts the distinct values added to it, as the times a value
+ * differs from the last one added to it. The count is exact when values are
+ * added in order, and otherwise no more than the bucket's width or number
+ * of values. A histogram of a sample of a column is scaled with
+ * {@link #scaleTo}, so that each bucket stands for its share of the
+ * column's distinct values rather than the sample's.
+ */
+public class IntHistogram {
+
+    private final int min;
+    private final int max;
+    private final long width;
+    private final int[] counts;
+    private final int[] distinct;
+    private final int[] last;
+    private int ntups;
+    // the column's distinct values for each distinct value added, and its
+    // values for each value added; 1 unless the values are a sample
+    private double distinctScale = 1.0;
+    private double valueScale = 1.0;
+
+    /**
+     * Create a new IntHistogram.
+     *
+     * This IntHistogram should maintain a histogram of integer values that it
+     * receives. It should split the histogram into "buckets" buckets.
+     *
+     * The values that are being histogrammed will be provided one-at-a-time
+     * through the "addValue()" function.
+     *
+     * @param buckets
+     *            The number of buckets to split the input value into; fewer
+     *            are used if the range holds fewer integers.
+     * @param min
+     *            The minimum integer value that will ever be passed to this
+     *            class for histogramming
+     * @param max
+     *            The maximum integer value that will ever be passed to this
+     *            class for histogramming
+     */
+    public IntHistogram(int buckets, int min, int max) {
+        this.min = min;
+        this.max = max;
+        long range = (long) max - min + 1;
+        this.width = Math.max(1, (range + buckets - 1) / buckets);
+        this.counts = new int[(int) ((range + width - 1) / width)];
+        this.distinct = new int[counts.length];
+        this.last = new int[counts.length];
+    }
+
+    private int bucketOf(int v) {
+        return (int) (((long) v - min) / width);
+    }
+
+    /** @return the lowest value of a bucket */
+    private long low(int b) {
+        return min + b * width;
+    }
+
+    /** @return the number of integers a bucket covers */
+    private long widthOf(int b) {
+        return Math.min(width, max - low(b) + 1);
+    }
+
+    /**
+     * Add a value to the set of values that you are keeping a histogram of.
+     *
+     * @param v
+     *            Value to add to the histogram
+     * @throws IllegalArgumentException if v is outside the range of the histogram
+     */
+    public void addValue(int v) {
+        if (v < min || v > max) {
+            throw new IllegalArgumentException(v + " is outside [" + min + ", " + max + "]");
+        }
+        int b = bucketOf(v);
+        if (counts[b] == 0 || last[b] != v) {
+            distinct[b]++;
+            last[b] = v;
+        }
+        counts[b]++;
+        ntups++;
+    }
+
+    /** @return the number of values added */
+    public int getNumValues() {
+        return ntups;
+    }
+
+    /**
+     * Makes a histogram of a sample of a column stand for the whole column,
+     * once all the sample's values have been added. The selectivity of
+     * EQUALS is then estimated from the column's distinct values, spread
+     * over the buckets like the sample's, rather than from the sample's
+     * alone, which for a column of unique values would put it at no less
+     * than one over the size of the sample.
+     *
+     * @param values the number of values in the column
+     * @param distinct the estimated number of distinct values in the column
+     */
+    void scaleTo(long values, long distinct) {
+        long sampled = 0;
+        for (int d : this.distinct) {
+            sampled += d;
+        }
+        if (ntups == 0 || sampled == 0) {
+            return;
+        }
+        valueScale = Math.max(1.0, (double) values / ntups);
+        distinctScale = Math.max(1.0, (double) distinct / sampled);
+    }
+
+    /**
+     * Estimate the selectivity of a particular predicate and operand on this
+     * table.
+     *
+     * For example, if "op" is "GREATER_THAN" and "v" is 5, return your
+     * estimate of the fraction of elements that are greater than 5.
+     *
+     * @param op
+     *            Operator
+     * @param v
+     *            Value
+     * @return Predicted selectivity of this particular operator and value, or
+     *         0 if no values have been added
+     */
+    public double estimateSelectivity(Predicate.Op op, int v) {
+        if (ntups == 0) {
+            return 0.0;
+        }
+        double sel;
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            sel = equalTo(v);
+            break;
+        case NOT_EQUALS:
+            sel = 1.0 - equalTo(v);
+            break;
+        case GREATER_THAN:
+            sel = greaterThan(v);
+            break;
+        case GREATER_THAN_OR_EQ:
+            sel = greaterThan(v) + equalTo(v);
+            break;
+        case LESS_THAN:
+            sel = 1.0 - greaterThan(v) - equalTo(v);
+            break;
+        case LESS_THAN_OR_EQ:
+            sel = 1.0 - greaterThan(v);
+            break;
+        default:
+            throw new UnsupportedOperationException("unknown operator " + op);
+        }
+        return Math.max(0.0, Math.min(1.0, sel));
+    }
+
+    /** @return the number of distinct values taken to be in a bucket */
+    private double distinctIn(int b) {
+        return Math.min(distinct[b] * distinctScale, Math.min(widthOf(b), counts[b] * valueScale));
+    }
+
+    /**
+     * @return the fraction of values equal to v: an equal share of its
+     *         bucket for each distinct value in the bucket
+     */
+    private double equalTo(int v) {
+        if (v < min || v > max) {
+            return 0.0;
+        }
+        int b = bucketOf(v);
+        if (counts[b] == 0) {
+            return 0.0;
+        }
+        return (double) counts[b] / distinctIn(b) / ntups;
+    }
+
+    /** @return the fraction of values greater than v */
+    private double greaterThan(int v) {
+        if (v < min) {
+            return 1.0;
+        }
+        if (v >= max) {
+            return 0.0;
+        }
+        int b = bucketOf(v);
+        long high = low(b) + widthOf(b) - 1;
+        double above = (double) counts[b] * (high - v) / widthOf(b);
+        for (int i = b + 1; i < counts.length; i++) {
+            above += counts[i];
+        }
+        return above / ntups;
+    }
+
+    /**
+     * @return the average selectivity of this histogram.
+     *
+     *         This is not an indispensable method to implement the basic join
+     *         optimization. It may be needed if you want to implement a more
+     *         efficient optimization
+     * */
+    public double avgSelectivity() {
+        if (ntups == 0) {
+            return 0.0;
+        }
+        // the selectivity of EQUALS for a value drawn from the histogram
+        double sel = 0.0;
+        for (int b = 0; b < counts.length; b++) {
+            if (counts[b] > 0) {
+                sel += (double) counts[b] / ntups * counts[b] / distinctIn(b) / ntups;
+            }
+        }
+        return sel;
+    }
+
+    /**
+     * @return A string describing this histogram, for debugging purposes
+     */
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("IntHistogram(").append(ntups).append(" values in [")
+                .append(min).append(", ").append(max).append("]:");
+        for (int b = 0; b < counts.length; b++) {
+            sb.append(' ').append(counts[b]);
+        }
+        return sb.append(')').toString();
+    }
+}
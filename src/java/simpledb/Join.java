@@ -4,6 +4,12 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * By default it is a tuple-at-a-time nested-loop join, which scans child2
+ * once per tuple of child1. In block mode it instead reads as many pages'
+ * worth of child1 tuples as its block holds, and scans child2 once per
+ * block, comparing each inner tuple to every outer tuple of the block; that
+ * divides the scans of child2 by the number of tuples in a block.
  */
 public class Join extends Operator {
 
@@ -13,6 +19,12 @@ public class Join extends Operator {
     private DbIterator child2;
     private Tuple current1;
 
+    // pages of outer tuples per block, or 0 for one tuple at a time
+    private final int blockPages;
+    private ArrayList<Tuple> block;
+    private Tuple current2;
+    private int blockIndex;
+
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
@@ -25,10 +37,40 @@ public class Join extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public Join(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, 0);
+    }
+
+    /**
+     * Constructor for a block nested-loop join, which holds blockPages pages
+     * of child1 tuples in memory during each scan of child2.
+     *
+     * @param blockPages
+     *            The size of a block of outer tuples, in pages; 0 joins one
+     *            outer tuple at a time
+     * @see #defaultBlockPages()
+     */
+    public Join(JoinPredicate p, DbIterator child1, DbIterator child2, int blockPages) {
         // some code goes here
     	this.p = p;
     	this.child1 = child1;
     	this.child2 = child2;
+    	this.blockPages = blockPages;
+    }
+
+    /**
+     * @return the block size for a block nested-loop join: half the pages
+     *         of the buffer pool, leaving the rest for the scans
+     */
+    public static int defaultBlockPages() {
+    	return Math.max(1, Database.getBufferPool().getNumPages() / 2);
+    }
+
+    /**
+     * @return the number of outer tuples of tupleSize bytes in a block of
+     *         blockPages pages
+     */
+    static int blockTuples(int blockPages, int tupleSize) {
+    	return Math.max(1, (int) ((long) blockPages * BufferPool.getPageSize() / tupleSize));
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -66,12 +108,24 @@ public class Join extends Operator {
         return TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
+    /**
+     * Nested loops return the outer tuples in order, and the outer fields
+     * come first, so the output keeps the order of child1.
+     */
+    @Override
+    public SortOrder getSortOrder() {
+        // a block's matches come out by inner tuple
+        return blockPages > 0 ? null : SortOrder.of(child1);
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
     	super.open();
     	child1.open();
     	child2.open();
+    	block = null;
+    	current2 = null;
     }
 
     public void close() {
@@ -85,6 +139,9 @@ public class Join extends Operator {
         // some code goes here
     	child1.rewind();
     	child2.rewind();
+    	current1 = null;
+    	block = null;
+    	current2 = null;
     }
 
     /**
@@ -111,6 +168,9 @@ public class Join extends Operator {
     	if (child1 == null || child2 == null) {
     		return null;
     	}
+    	if (blockPages > 0) {
+    		return fetchNextBlocked();
+    	}
     	
         if (current1 == null) {
             if (child1.hasNext()) {
@@ -123,21 +183,7 @@ public class Join extends Operator {
             while (child2.hasNext()) {
                 Tuple t2 = child2.next();
                 if (p.filter(current1, t2)) {
-                    Tuple ans = new Tuple(getTupleDesc());
-                    int cnt = 0;
-                    Iterator<Field> fIter = current1.fields();
-                    while (fIter.hasNext()) {
-                        ans.setField(cnt, fIter.next());
-                        cnt ++;
-                    }
-                    
-                    fIter = t2.fields();
-                    
-                    while (fIter.hasNext()) {
-                        ans.setField(cnt, fIter.next());
-                        cnt ++;
-                    }
-                    return ans;
+                    return merge(current1, t2);
                 }
             }
             
@@ -151,6 +197,69 @@ public class Join extends Operator {
         }
     }
 
+    /**
+     * fetchNext for block mode: compares each inner tuple with every outer
+     * tuple of the current block, then reads the next block and rescans
+     * child2.
+     */
+    private Tuple fetchNextBlocked() throws TransactionAbortedException, DbException {
+        if (block == null && !fillBlock()) {
+            return null;
+        }
+        while (true) {
+            if (current2 != null) {
+                while (blockIndex < block.size()) {
+                    Tuple t1 = block.get(blockIndex++);
+                    if (p.filter(t1, current2)) {
+                        return merge(t1, current2);
+                    }
+                }
+                current2 = null;
+            }
+            if (child2.hasNext()) {
+                current2 = child2.next();
+                blockIndex = 0;
+            } else if (fillBlock()) {
+                child2.rewind();
+            } else {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Reads the next block of outer tuples.
+     *
+     * @return false if child1 has no more tuples
+     */
+    private boolean fillBlock() throws TransactionAbortedException, DbException {
+        int max = blockTuples(blockPages, child1.getTupleDesc().getSize());
+        if (block == null) {
+            block = new ArrayList<Tuple>(Math.min(max, 1024));
+        }
+        block.clear();
+        while (block.size() < max && child1.hasNext()) {
+            block.add(child1.next());
+        }
+        return !block.isEmpty();
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        Tuple ans = new Tuple(getTupleDesc());
+        int cnt = 0;
+        Iterator<Field> fIter = t1.fields();
+        while (fIter.hasNext()) {
+            ans.setField(cnt, fIter.next());
+            cnt ++;
+        }
+        fIter = t2.fields();
+        while (fIter.hasNext()) {
+            ans.setField(cnt, fIter.next());
+            cnt ++;
+        }
+        return ans;
+    }
+
     /**
      * See Operator.java for additional notes
      */
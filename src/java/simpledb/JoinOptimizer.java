@@ -34,6 +34,15 @@ public class JoinOptimizer {
      * inner/outer here -- because DbIterator's don't provide any cardinality
      * estimates, and stats only has information about the base tables. For this
      * reason, the plan1
+     * <p>
+     * Equi-joins are done with a {@link HashJoin}, which hashes plan2; since
+     * {@link #estimateJoinCost} charges for a right side that does not fit in
+     * memory, orderJoins puts the smaller input there. If both plans already
+     * come sorted on their join fields, a {@link SortMergeJoin} merges them
+     * instead. Range joins are sort-merge joins, and the rest block nested
+     * loops. A join that {@link #orderJoins} marked with useIndex, because an
+     * index on the right table's join field makes it cheapest to probe that
+     * index per left tuple, is an {@link IndexNestedLoopJoin}.
      * 
      * @param lj
      *            The join being considered
@@ -68,7 +77,24 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        int innerTable = IndexNestedLoopJoin.innerTableId(plan2);
+        Index index = null;
+        if (lj.useIndex && innerTable != -1) {
+            index = Database.getCatalog().getIndex(innerTable, t2id,
+                    IndexNestedLoopJoin.probeOp(lj.p));
+        }
+
+        if (index != null) {
+            j = new IndexNestedLoopJoin(p, plan1, plan2, index);
+        } else if (lj.p == Predicate.Op.EQUALS
+                && !(SortMergeJoin.isSortedFor(plan1, t1id, lj.p)
+                        && SortMergeJoin.isSortedFor(plan2, t2id, lj.p))) {
+            j = new HashJoin(p, plan1, plan2);
+        } else if (SortMergeJoin.supports(lj.p)) {
+            j = new SortMergeJoin(p, plan1, plan2);
+        } else {
+            j = new Join(p, plan1, plan2, Join.defaultBlockPages());
+        }
 
         return j;
 
@@ -107,13 +133,129 @@ public class JoinOptimizer {
             // You do not need to implement support for these for Lab 3.
             return card1 + cost1 + cost2;
         } else {
-            // Insert your code here.
+            return Math.min(scanJoinCost(j, card1, card2, cost1, cost2),
+                    indexJoinCost(j, card1, card2, cost1));
+        }
+    }
+
+    /**
+     * @return the cost of the join done without an index, by the algorithm
+     *         instantiateJoin picks for its predicate
+     */
+    private double scanJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2) {
+        int size1 = tupleSize(j.t1Alias);
+        int size2 = tupleSize(j.t2Alias);
+        if (j.p == Predicate.Op.EQUALS) {
+            // hash join: read each side once, hash one, probe with the
+            // other; if the right side overflows the budget, both sides
+            // are written out in partitions and read back once more
+            double cost = cost1 + cost2 + card1 + card2;
+            long budget = (long) HashJoin.DEFAULT_MEMORY_PAGES * BufferPool.getPageSize();
+            if ((long) card2 * size2 > budget) {
+                cost += 2 * (pages(card1, size1) + pages(card2, size2))
+                        * TableStats.IOCOSTPERPAGE;
+            }
+            return cost;
+        }
+        if (SortMergeJoin.supports(j.p)) {
+            // sort-merge join: sort both sides, then one pass over each
+            return sortCost(card1, cost1, size1) + sortCost(card2, cost2, size2)
+                    + card1 + card2;
+        }
+        // block nested loops: one scan of the right side per block of
+        // left tuples, and the predicate applied to every pair
+        int blockTuples = Join.blockTuples(Join.defaultBlockPages(), size1);
+        double blocks = Math.ceil((double) card1 / blockTuples);
+        return cost1 + blocks * cost2 + (double) card1 * card2;
+    }
+
+    /**
+     * @return the cost of the join as an index nested-loop join: one scan of
+     *         the left side, and per left tuple a probe of the index on the
+     *         right table plus a page per match, or per page of matches if
+     *         the index is clustered; infinite if there is no such index
+     */
+    private double indexJoinCost(LogicalJoinNode j, int card1, int card2, double cost1) {
+        Index index = indexFor(j);
+        if (index == null) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double matches = card1 == 0 ? 0 : Math.max(1.0,
+                (double) estimateTableJoinCardinality(j.p, j.t1Alias, j.t2Alias,
+                        j.f1PureName, j.f2PureName, card1, card2,
+                        isPkeySafe(j.t1Alias, j.f1PureName), isPkeySafe(j.t2Alias, j.f2PureName),
+                        TableStats.getStatsMap(), p.getTableAliasToIdMapping()) / card1);
+        double matchPages = index.isClustered()
+                ? Math.ceil(pages((int) Math.ceil(matches), tupleSize(j.t2Alias)))
+                : matches;
+        return cost1 + card1 * ((index.probePages() + matchPages) * TableStats.IOCOSTPERPAGE
+                + matches);
+    }
+
+    /**
+     * @return an index on the join field of the right table of a join that
+     *         can be probed with each left tuple, or null if there is none
+     */
+    private Index indexFor(LogicalJoinNode j) {
+        if (j instanceof LogicalSubplanJoinNode || p == null || j.t2Alias == null) {
+            return null;
+        }
+        Integer tableId = p.getTableId(j.t2Alias);
+        if (tableId == null) {
+            return null;
+        }
+        int field;
+        try {
+            field = Database.getCatalog().getTupleDesc(tableId).fieldNameToIndex(j.f2PureName);
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+        return Database.getCatalog().getIndex(tableId, field,
+                IndexNestedLoopJoin.probeOp(j.p));
+    }
+
+    /** @return isPkey, or false if the alias is not a table of the plan */
+    private boolean isPkeySafe(String tableAlias, String field) {
+        if (tableAlias == null || p.getTableId(tableAlias) == null) {
+            return false;
+        }
+        return isPkey(tableAlias, field);
+    }
+
+    /** @return the number of pages card tuples of size bytes fill */
+    private static double pages(int card, int size) {
+        return (double) card * size / BufferPool.getPageSize();
+    }
+
+    /**
+     * @return the cost of reading and sorting an input with an
+     *         {@link ExternalSort}: a comparison per tuple per halving, and
+     *         if it overflows memory, writing and reading every tuple once
+     *         per merge pass
+     */
+    private static double sortCost(int card, double cost, int size) {
+        double sort = cost + (card > 1 ? card * (Math.log(card) / Math.log(2)) : 0);
+        double pages = pages(card, size);
+        double runs = Math.ceil(pages / ExternalSort.DEFAULT_MEMORY_PAGES);
+        if (runs > 1) {
+            int fanIn = ExternalSort.DEFAULT_MEMORY_PAGES - 1;
+            double passes = Math.max(1, Math.ceil(Math.log(runs) / Math.log(fanIn)));
+            sort += 2 * pages * TableStats.IOCOSTPERPAGE * passes;
+        }
+        return sort;
+    }
 
-            // HINT: You likely only need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return -1.0;
+    /**
+     * @return the size in bytes of a tuple of the table with the given alias,
+     *         or of an int if it is not a table of the plan
+     */
+    private int tupleSize(String alias) {
+        Integer tableId = alias == null || p == null ? null : p.getTableId(alias);
+        if (tableId == null) {
+            return Type.INT_TYPE.getLen();
         }
+        return Database.getCatalog().getTupleDesc(tableId).getSize();
     }
 
     /**
@@ -148,18 +290,79 @@ public class JoinOptimizer {
         }
     }
 
+    /**
+     * The guessed fraction of the cross product that a range join predicate
+     * passes, as histograms of the two tables don't tell how they overlap.
+     */
+    static final double RANGE_JOIN_SELECTIVITY = 0.3;
+
     /**
      * Estimate the join cardinality of two tables.
+     * <p>
+     * An equi-join is taken to match each value of the join field with the
+     * fewest distinct values to one of the other's, so that it returns
+     * card1 * card2 / max(distinct1, distinct2) tuples, and no more than the
+     * other table has if a join field is a primary key. The number of
+     * distinct values comes from the table's statistics, or is taken to be
+     * its cardinality if there are none.
      * */
     public static int estimateTableJoinCardinality(Predicate.Op joinOp,
             String table1Alias, String table2Alias, String field1PureName,
             String field2PureName, int card1, int card2, boolean t1pkey,
             boolean t2pkey, Map<String, TableStats> stats,
             Map<String, Integer> tableAliasToId) {
-        int card = 1;
-        // some code goes here
-	
-        return card <= 0 ? 1 : card;
+        double cross = (double) card1 * card2;
+        double equal = cross / Math.max(
+                numDistinct(table1Alias, field1PureName, card1, stats, tableAliasToId),
+                numDistinct(table2Alias, field2PureName, card2, stats, tableAliasToId));
+        if (t1pkey) {
+            equal = Math.min(equal, card2);
+        }
+        if (t2pkey) {
+            equal = Math.min(equal, card1);
+        }
+        double card;
+        switch (joinOp) {
+        case EQUALS:
+        case LIKE:
+            card = equal;
+            break;
+        case NOT_EQUALS:
+            card = cross - equal;
+            break;
+        default:
+            card = cross * RANGE_JOIN_SELECTIVITY;
+        }
+        card = Math.min(card, Integer.MAX_VALUE);
+        return card < 1 ? 1 : (int) card;
+    }
+
+    /**
+     * @return the number of distinct values of a field of a table in a join,
+     *         no more than the join's cardinality of the table, which is
+     *         returned when the table has no statistics
+     */
+    private static int numDistinct(String tableAlias, String fieldPureName, int card,
+            Map<String, TableStats> stats, Map<String, Integer> tableAliasToId) {
+        if (tableAlias == null || stats == null || tableAliasToId == null) {
+            return Math.max(card, 1);
+        }
+        Integer tableId = tableAliasToId.get(tableAlias);
+        if (tableId == null) {
+            return Math.max(card, 1);
+        }
+        String name = Database.getCatalog().getTableName(tableId);
+        TableStats s = name == null ? null : stats.get(name);
+        if (s == null) {
+            return Math.max(card, 1);
+        }
+        int field;
+        try {
+            field = Database.getCatalog().getTupleDesc(tableId).fieldNameToIndex(fieldPureName);
+        } catch (NoSuchElementException e) {
+            return Math.max(card, 1);
+        }
+        return Math.max(1, Math.min(card, s.numDistinct(field)));
     }
 
     /**
@@ -221,9 +424,88 @@ public class JoinOptimizer {
             throws ParsingException {
         //Not necessary for labs 1-2
 
-        // some code goes here
-        //Replace the following
-        return joins;
+        // the dynamic program needs stats for every table and handles
+        // subqueries only as the last join, so leave such plans as written
+        for (LogicalJoinNode j : joins) {
+            if (j instanceof LogicalSubplanJoinNode || !hasStats(stats, j.t1Alias)
+                    || !hasStats(stats, j.t2Alias)) {
+                return joins;
+            }
+        }
+
+        PlanCache pc = new PlanCache();
+        for (int i = 1; i <= joins.size(); i++) {
+            for (Set<LogicalJoinNode> s : enumerateSubsets(joins, i)) {
+                double bestCost = Double.MAX_VALUE;
+                CostCard best = null;
+                for (LogicalJoinNode j : s) {
+                    CostCard cc = computeCostAndCardOfSubplan(stats,
+                            filterSelectivities, j, s, bestCost, pc);
+                    if (cc != null) {
+                        bestCost = cc.cost;
+                        best = cc;
+                    }
+                }
+                if (best != null) {
+                    pc.addPlan(s, best.cost, best.card, best.plan);
+                }
+            }
+        }
+
+        Vector<LogicalJoinNode> order = pc.getOrder(new HashSet<LogicalJoinNode>(joins));
+        if (order == null) {
+            // only cross products join some of the tables
+            return joins;
+        }
+        markIndexJoins(order, stats, filterSelectivities, pc);
+        if (explain) {
+            printJoins(order, pc, stats, filterSelectivities);
+        }
+        return order;
+    }
+
+    /** @return true if stats has the table with the given alias */
+    private boolean hasStats(HashMap<String, TableStats> stats, String alias) {
+        if (alias == null) {
+            return true;
+        }
+        Integer tableId = p.getTableId(alias);
+        return tableId != null
+                && stats.get(Database.getCatalog().getTableName(tableId)) != null;
+    }
+
+    /**
+     * Sets useIndex on each join of a plan that is cheapest as an index
+     * nested-loop join, given the cost and cardinality of its inputs where
+     * it stands in the plan.
+     */
+    private void markIndexJoins(Vector<LogicalJoinNode> order,
+            HashMap<String, TableStats> stats,
+            HashMap<String, Double> filterSelectivities, PlanCache pc) {
+        HashSet<LogicalJoinNode> prefix = new HashSet<LogicalJoinNode>();
+        Vector<LogicalJoinNode> done = new Vector<LogicalJoinNode>();
+        for (LogicalJoinNode j : order) {
+            TableStats s1 = stats.get(Database.getCatalog().getTableName(p.getTableId(j.t1Alias)));
+            TableStats s2 = stats.get(Database.getCatalog().getTableName(p.getTableId(j.t2Alias)));
+            double cost1 = p.getAccessCost(j.t1Alias, s1);
+            int card1 = s1.estimateTableCardinality(filterSelectivities.get(j.t1Alias));
+            int card2 = s2.estimateTableCardinality(filterSelectivities.get(j.t2Alias));
+            j.useIndex = false;
+            if (!prefix.isEmpty()) {
+                if (!doesJoin(done, j.t1Alias)) {
+                    // the plan so far is the inner side, with no index on it
+                    prefix.add(j);
+                    done.add(j);
+                    continue;
+                }
+                cost1 = pc.getCost(prefix);
+                card1 = pc.getCard(prefix);
+            }
+            j.useIndex = indexJoinCost(j, card1, card2, cost1)
+                    < scanJoinCost(j, card1, card2, cost1, p.getAccessCost(j.t2Alias, s2));
+            prefix.add(j);
+            done.add(j);
+        }
     }
 
     // ===================== Private Methods =================================
@@ -291,13 +573,13 @@ public class JoinOptimizer {
 
         if (news.isEmpty()) { // base case -- both are base relations
             prevBest = new Vector<LogicalJoinNode>();
-            t1cost = stats.get(table1Name).estimateScanCost();
+            t1cost = p.getAccessCost(j.t1Alias, stats.get(table1Name));
             t1card = stats.get(table1Name).estimateTableCardinality(
                     filterSelectivities.get(j.t1Alias));
             leftPkey = isPkey(j.t1Alias, j.f1PureName);
 
-            t2cost = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateScanCost();
+            t2cost = table2Alias == null ? 0
+                    : p.getAccessCost(table2Alias, stats.get(table2Name));
             t2card = table2Alias == null ? 0 : stats.get(table2Name)
                     .estimateTableCardinality(
                             filterSelectivities.get(j.t2Alias));
@@ -324,8 +606,8 @@ public class JoinOptimizer {
                 t1card = bestCard;
                 leftPkey = hasPkey(prevBest);
 
-                t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateScanCost();
+                t2cost = j.t2Alias == null ? 0
+                        : p.getAccessCost(j.t2Alias, stats.get(table2Name));
                 t2card = j.t2Alias == null ? 0 : stats.get(table2Name)
                         .estimateTableCardinality(
                                 filterSelectivities.get(j.t2Alias));
@@ -339,7 +621,7 @@ public class JoinOptimizer {
                 // subtree is
                 t2card = bestCard;
                 rightPkey = hasPkey(prevBest);
-                t1cost = stats.get(table1Name).estimateScanCost();
+                t1cost = p.getAccessCost(j.t1Alias, stats.get(table1Name));
                 t1card = stats.get(table1Name).estimateTableCardinality(
                         filterSelectivities.get(j.t1Alias));
                 leftPkey = isPkey(j.t1Alias, j.f1PureName);
@@ -0,0 +1,200 @@
+package simpledb;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * LRU-K page replacement (O'Neil, O'Neil and Weikum). Each cached page
+ * remembers the logical times of its last K references, and the victim is
+ * the page whose K-th most recent reference lies furthest in the past.
+ * Pages referenced fewer than K times count as infinitely old and are
+ * evicted first, least recently used among them first. A page read once by
+ * a sequential scan therefore never displaces a page that is in repeated
+ * use.
+ * <p>
+ * Reference histories are dropped as soon as a page leaves the pool, so a
+ * page that is read back in starts over with a single reference.
+ * <p>
+ * Recording an access takes no lock: it takes a time from an atomic
+ * counter and queues the reference. Queued references are applied to the
+ * histories, in the order of their times, before a victim is chosen or a
+ * page removed, and by an access that finds {@link #MAX_PENDING} of them
+ * queued and the policy's lock free.
+ *
+ * @Threadsafe
+ */
+public class LRUKReplacementPolicy implements ReplacementPolicy {
+
+    /** The K used by {@link #LRUKReplacementPolicy()}; LRU-2 in the paper. */
+    public static final int DEFAULT_K = 2;
+
+    /** The number of queued references at which an access applies them. */
+    static final int MAX_PENDING = 1024;
+
+    private final int k;
+    private final AtomicLong clock;
+    // guards histories and order
+    private final ReentrantLock lock;
+    private final HashMap<PageId, History> histories;
+    private final TreeSet<History> order;
+    private final ConcurrentLinkedQueue<Reference> pending;
+    private final AtomicInteger numPending;
+
+    /** An access not yet applied to its page's history. */
+    private static class Reference {
+        final PageId pid;
+        final long time;
+
+        Reference(PageId pid, long time) {
+            this.pid = pid;
+            this.time = time;
+        }
+    }
+
+    /** Reference history of a single cached page. */
+    private static class History implements Comparable<History> {
+        final PageId pid;
+        final long[] times; // times[0] is the most recent reference
+        int count;
+
+        History(PageId pid, int k) {
+            this.pid = pid;
+            this.times = new long[k];
+            this.count = 0;
+        }
+
+        /**
+         * Add a reference. References queued by different threads may be
+         * applied a little out of order, so it is put in its place among
+         * the times kept.
+         */
+        void reference(long now) {
+            int i = 0;
+            while (i < count && times[i] > now) {
+                i++;
+            }
+            if (i == times.length) {
+                return;
+            }
+            System.arraycopy(times, i, times, i + 1, times.length - 1 - i);
+            times[i] = now;
+            if (count < times.length) {
+                count++;
+            }
+        }
+
+        /** @return the K-th most recent reference, or -1 if there is none */
+        long kth() {
+            return count < times.length ? -1 : times[times.length - 1];
+        }
+
+        public int compareTo(History o) {
+            int c = Long.compare(kth(), o.kth());
+            if (c != 0) {
+                return c;
+            }
+            // every reference gets its own timestamp, so this never ties
+            return Long.compare(times[0], o.times[0]);
+        }
+    }
+
+    /** Creates an LRU-2 policy. */
+    public LRUKReplacementPolicy() {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * Creates an LRU-K policy.
+     *
+     * @param k the number of references remembered per page; must be at
+     *          least 1 (LRU-1 is plain LRU)
+     */
+    public LRUKReplacementPolicy(int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("K must be at least 1");
+        }
+        this.k = k;
+        this.clock = new AtomicLong(0);
+        this.lock = new ReentrantLock();
+        this.histories = new HashMap<PageId, History>();
+        this.order = new TreeSet<History>();
+        this.pending = new ConcurrentLinkedQueue<Reference>();
+        this.numPending = new AtomicInteger(0);
+    }
+
+    public void recordAccess(PageId pid) {
+        pending.add(new Reference(pid, clock.incrementAndGet()));
+        if (numPending.incrementAndGet() >= MAX_PENDING && lock.tryLock()) {
+            try {
+                applyPending();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /** Apply the queued references to the histories; the caller holds the lock. */
+    private void applyPending() {
+        Reference r;
+        while ((r = pending.poll()) != null) {
+            numPending.decrementAndGet();
+            History h = histories.get(r.pid);
+            if (h == null) {
+                h = new History(r.pid, k);
+                histories.put(r.pid, h);
+            } else {
+                // the sort key is about to change
+                order.remove(h);
+            }
+            h.reference(r.time);
+            order.add(h);
+        }
+    }
+
+    public void remove(PageId pid) {
+        lock.lock();
+        try {
+            applyPending();
+            History h = histories.remove(pid);
+            if (h != null) {
+                order.remove(h);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public PageId chooseVictim(Map<PageId, Page> pages) {
+        lock.lock();
+        try {
+            applyPending();
+            PageId dirtyCandidate = null;
+            Iterator<History> it = order.iterator();
+            while (it.hasNext()) {
+                History h = it.next();
+                Page p = pages.get(h.pid);
+                if (p == null) {
+                    // an access raced with the page's removal
+                    it.remove();
+                    histories.remove(h.pid);
+                    continue;
+                }
+                if (p.isDirty() == null) {
+                    return h.pid;
+                }
+                if (dirtyCandidate == null) {
+                    dirtyCandidate = h.pid;
+                }
+            }
+            return dirtyCandidate;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
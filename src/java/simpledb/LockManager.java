@@ -1,27 +1,195 @@
 package simpledb;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Manages locks on PageIds held by TransactionIds. S-locks and X-locks are
  * represented as Permissions.READ_ONLY and Permisions.READ_WRITE, respectively
  *
- * All the field read/write operations are protected by this
- * 
+ * Locking is multi-granularity (see LockMode): a page lock is preceded by an
+ * IS or IX lock on the page's table. Once a transaction holds
+ * escalationThreshold page locks in one table, the lock manager tries to
+ * replace them with a single S or X lock on the table; this only happens if
+ * the table lock can be granted without waiting. Pages covered by a table
+ * lock need no entry in the lock table, but are still remembered per
+ * transaction for holdsLock and getAllPagesByTid.
+ *
+ * Below pages, individual tuples can be locked by RecordId
+ * (acquireRecordLock), under an IS or IX lock on their page. Two writers
+ * holding IX on a page conflict only if they lock the same record.
+ *
+ * Each locked page or table has a LockQueue holding its current owners and a
+ * FIFO queue of blocked requests. A blocked transaction waits on its queue's
+ * condition variable and is woken when a release makes its request
+ * grantable; requests are granted strictly in arrival order, except that a
+ * holder upgrading its lock goes to the head of the queue.
+ *
+ * The lock table is split into NUM_STRIPES stripes by hash; each stripe has
+ * its own latch, guarding its queues and the waits-for edges of the
+ * transactions blocked in it, so requests for pages in different stripes
+ * never contend. No method holds more than one stripe latch at a time.
+ *
+ * The waits-for graph is kept up to date as requests are queued, granted
+ * and abandoned. While anyone is blocked, a background detector thread
+ * looks for cycles every LOCK_WAIT ms, and aborts one transaction per cycle:
+ * the one holding the fewest locks, and of those the youngest. It reads the
+ * stripes one after another, and only acts on a cycle if a second pass
+ * finds every edge on it unchanged: each waiter was then blocked on the same
+ * transactions throughout both passes, so at the moment between them the
+ * whole cycle existed at once.
+ *
  * @Threadsafe
  */
 public class LockManager {
 
-	final int LOCK_WAIT = 10; // ms
-	private ConcurrentHashMap<PageId, TransactionId> exclusiveLockMap;
-	private ConcurrentHashMap<PageId, HashSet<TransactionId>> shareLockMap;
-	private ConcurrentHashMap<TransactionId, HashSet<TransactionId>> waitList;
-	private ConcurrentHashMap<TransactionId, HashSet<PageId>> transactionPageMap;
-	
+	final int LOCK_WAIT = 10; // ms between deadlock detector passes
+	static final int NUM_STRIPES = 16;
+	/** Default number of page locks in one table that triggers escalation. */
+	public static final int DEFAULT_ESCALATION_THRESHOLD = 1000;
+
+	private final Stripe[] stripes;
+	private final ConcurrentHashMap<TransactionId, TransactionLocks> transactions;
+	private volatile int escalationThreshold;
+
+	private final AtomicInteger numWaiting = new AtomicInteger(0);
+	private final Object detectorLock = new Object();
+	private Detector detector; // guarded by detectorLock; null while idle
+
+	private final AtomicLong deadlocks = new AtomicLong(0);
+	private final AtomicLong totalDetectionNanos = new AtomicLong(0);
+	private final AtomicLong maxDetectionNanos = new AtomicLong(0);
+	private final AtomicLong escalations = new AtomicLong(0);
+
+	/** One partition of the lock table, keyed by TableKey, PageId or RecordId. */
+	private static class Stripe {
+		final ReentrantLock latch = new ReentrantLock();
+		final HashMap<Object, LockQueue> lockTable = new HashMap<Object, LockQueue>();
+		/** what each transaction blocked in this stripe is waiting for */
+		final HashMap<TransactionId, WaitEdges> waitList = new HashMap<TransactionId, WaitEdges>();
+	}
+
+	/** Lock table key of a whole table. */
+	private static class TableKey {
+		final int tableId;
+
+		TableKey(int tableId) {
+			this.tableId = tableId;
+		}
+
+		public boolean equals(Object o) {
+			return o instanceof TableKey && ((TableKey) o).tableId == tableId;
+		}
+
+		public int hashCode() {
+			return tableId * 31 + 7;
+		}
+	}
+
+	/**
+	 * The locks one transaction holds. Only the transaction itself changes
+	 * them, apart from the lock queues, which are updated under their latch.
+	 */
+	private static class TransactionLocks {
+		/** pages the transaction may use, through page or table locks */
+		final Set<PageId> pages = ConcurrentHashMap.newKeySet();
+		/** locks held in page queues */
+		final ConcurrentHashMap<PageId, LockMode> pageLocks = new ConcurrentHashMap<PageId, LockMode>();
+		/** locks held in table queues, by table id */
+		final ConcurrentHashMap<Integer, LockMode> tableLocks = new ConcurrentHashMap<Integer, LockMode>();
+		/** locks held in record queues */
+		final ConcurrentHashMap<RecordId, LockMode> recordLocks = new ConcurrentHashMap<RecordId, LockMode>();
+		/** number of entries in pageLocks for each table */
+		final ConcurrentHashMap<Integer, Integer> pageLockCounts = new ConcurrentHashMap<Integer, Integer>();
+
+		int addPageLock(int tableId) {
+			Integer n = pageLockCounts.get(tableId);
+			int count = n == null ? 1 : n + 1;
+			pageLockCounts.put(tableId, count);
+			return count;
+		}
+
+		void removePageLock(int tableId) {
+			Integer n = pageLockCounts.get(tableId);
+			if (n != null) {
+				pageLockCounts.put(tableId, n - 1);
+			}
+		}
+	}
+
+	/**
+	 * The transactions one waiter is blocked on. A new instance is recorded
+	 * whenever the set changes, so finding the same instance twice means the
+	 * waiter was blocked on exactly these transactions in between.
+	 */
+	private static class WaitEdges {
+		final Set<TransactionId> blockers;
+		final LockRequest request;
+		final LockQueue queue;
+		final Stripe stripe;
+		final long since; // System.nanoTime() when these edges appeared
+
+		WaitEdges(Set<TransactionId> blockers, LockRequest request,
+				LockQueue queue, Stripe stripe) {
+			this.blockers = blockers;
+			this.request = request;
+			this.queue = queue;
+			this.stripe = stripe;
+			this.since = System.nanoTime();
+		}
+	}
+
+	/** A lock request that could not be granted right away. */
+	private static class LockRequest {
+		final TransactionId tid;
+		final LockMode mode; // including whatever tid already holds
+		boolean granted;
+		boolean victim; // chosen to break a deadlock
+
+		LockRequest(TransactionId tid, LockMode mode) {
+			this.tid = tid;
+			this.mode = mode;
+			this.granted = false;
+			this.victim = false;
+		}
+	}
+
+	/** Owners of, and transactions waiting for, the lock on one resource. */
+	private static class LockQueue {
+		final HashMap<TransactionId, LockMode> holders = new HashMap<TransactionId, LockMode>();
+		final LinkedList<LockRequest> waiting = new LinkedList<LockRequest>();
+		final Condition changed;
+
+		LockQueue(Stripe stripe) {
+			this.changed = stripe.latch.newCondition();
+		}
+
+		boolean isUnused() {
+			return holders.isEmpty() && waiting.isEmpty();
+		}
+
+		/** @return true if no other transaction's lock conflicts with tid/mode */
+		boolean compatible(TransactionId tid, LockMode mode) {
+			for (Map.Entry<TransactionId, LockMode> e : holders.entrySet()) {
+				if (!e.getKey().equals(tid) && !mode.compatibleWith(e.getValue())) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
 	/**
 	 * Sets up the lock manager to keep track of page-level locks for
 	 * transactions Should initialize state required for the lock table data
@@ -29,283 +197,686 @@ public class LockManager {
 	 */
 	public LockManager() {
 		// some code here
-		exclusiveLockMap = new ConcurrentHashMap<PageId, TransactionId>();
-		shareLockMap = new ConcurrentHashMap<PageId, HashSet<TransactionId>>();
-		waitList = new ConcurrentHashMap<TransactionId, HashSet<TransactionId>>();
-		transactionPageMap = new ConcurrentHashMap<TransactionId, HashSet<PageId>>();
+		stripes = new Stripe[NUM_STRIPES];
+		for (int i = 0; i < NUM_STRIPES; i++) {
+			stripes[i] = new Stripe();
+		}
+		transactions = new ConcurrentHashMap<TransactionId, TransactionLocks>();
+		escalationThreshold = DEFAULT_ESCALATION_THRESHOLD;
+	}
+
+	/**
+	 * Sets the number of page locks a transaction may hold in one table
+	 * before they are escalated to a table lock; 0 disables escalation.
+	 */
+	public void setEscalationThreshold(int threshold) {
+		this.escalationThreshold = threshold;
 	}
 
 	/**
-	 * Tries to acquire a lock on page pid for transaction tid, with permissions
-	 * perm. If cannot acquire the lock, waits for a timeout period, then tries
-	 * again.
+	 * Acquires a lock on page pid for transaction tid, with permissions
+	 * perm, blocking until the lock is granted. Takes the matching intention
+	 * lock on the page's table first, and skips the page lock if the
+	 * transaction's table lock already covers it.
 	 *
-	 * In Exercise 5, checking for deadlock will be added in this method Note
-	 * that a transaction should throw a DeadlockException in this method to
-	 * signal that it should be aborted.
+	 * If the deadlock detector picks tid as the victim of a waits-for cycle
+	 * while it is blocked, a DeadlockException is thrown to signal that the
+	 * transaction should be aborted.
 	 *
 	 * @throws DeadlockException
 	 *             after on cycle-based deadlock
 	 */
-	@SuppressWarnings("unchecked")
 	public boolean acquireLock(TransactionId tid, PageId pid, Permissions perm)
 			throws DeadlockException {
+		return acquire(tid, pid, LockMode.forPage(perm), true);
+	}
 
-		while (!lock(tid, pid, perm)) { // keep trying to get the lock
-			synchronized (this) {
-				// some code here for Exercise 5, deadlock detection
-				if (checkCycle(tid)) {
-					throw new DeadlockException();
-				}
-			}
+	/**
+	 * Acquires a page lock in any mode; IS and IX announce record locks on
+	 * the page. See {@link #acquireLock(TransactionId, PageId, Permissions)}.
+	 *
+	 * @throws DeadlockException
+	 *             after on cycle-based deadlock
+	 */
+	public boolean acquireLock(TransactionId tid, PageId pid, LockMode mode)
+			throws DeadlockException {
+		return acquire(tid, pid, mode, true);
+	}
 
-			try {
-				Thread.sleep(LOCK_WAIT); // couldn't get lock, wait for some
-											// time, then try again
-			} catch (InterruptedException e) {
+	/**
+	 * Acquires an S or X lock on one record, after the matching IS or IX lock
+	 * on its page and table. Not needed if tid's page or table lock already
+	 * covers the record.
+	 *
+	 * @throws DeadlockException
+	 *             after on cycle-based deadlock
+	 */
+	public void acquireRecordLock(TransactionId tid, RecordId rid, Permissions perm)
+			throws DeadlockException {
+		recordLock(tid, rid, perm, true);
+	}
+
+	/**
+	 * Acquires a record lock only if it, and the intention locks above it,
+	 * can be granted immediately.
+	 *
+	 * @return true if the lock was granted
+	 */
+	boolean tryAcquireRecordLock(TransactionId tid, RecordId rid, Permissions perm) {
+		try {
+			return recordLock(tid, rid, perm, false);
+		} catch (DeadlockException e) {
+			return false; // not reached: nothing waits
+		}
+	}
+
+	/** Return true if the specified transaction has a lock on the record */
+	public boolean holdsRecordLock(TransactionId tid, RecordId rid) {
+		TransactionLocks locks = transactions.get(tid);
+		if (locks == null) {
+			return false;
+		}
+		PageId pid = rid.getPageId();
+		return locks.recordLocks.containsKey(rid)
+				|| coversContents(locks.pageLocks.get(pid), LockMode.S)
+				|| coversContents(locks.tableLocks.get(pid.getTableId()), LockMode.S);
+	}
+
+	/**
+	 * Acquires the lock only if it can be granted immediately, without
+	 * jumping ahead of transactions already waiting for the page.
+	 *
+	 * @return true if the lock was granted
+	 */
+	boolean tryAcquireLock(TransactionId tid, PageId pid, Permissions perm) {
+		try {
+			return acquire(tid, pid, LockMode.forPage(perm), false);
+		} catch (DeadlockException e) {
+			return false; // not reached: nothing waits
+		}
+	}
+
+	/**
+	 * Acquires an S or X lock on a whole table, after which tid needs no
+	 * page locks in it.
+	 *
+	 * @throws DeadlockException
+	 *             after on cycle-based deadlock
+	 */
+	public void acquireTableLock(TransactionId tid, int tableId, Permissions perm)
+			throws DeadlockException {
+		TransactionLocks locks = locksFor(tid);
+		LockMode held = lock(tid, new TableKey(tableId), LockMode.forPage(perm), true);
+		locks.tableLocks.put(tableId, held);
+		releasePageLocks(tid, locks, tableId);
+	}
+
+	private boolean acquire(TransactionId tid, PageId pid, LockMode pageMode, boolean wait)
+			throws DeadlockException {
+		TransactionLocks locks = locksFor(tid);
+		int tableId = pid.getTableId();
+
+		LockMode tableMode = locks.tableLocks.get(tableId);
+		LockMode intention = LockMode.intentionFor(pageMode);
+		if (tableMode == null || !tableMode.covers(intention)) {
+			tableMode = lock(tid, new TableKey(tableId), intention, wait);
+			if (tableMode == null) {
+				return false;
 			}
+			locks.tableLocks.put(tableId, tableMode);
+		}
 
+		if (!coversContents(tableMode, pageMode)) {
+			LockMode held = locks.pageLocks.get(pid);
+			if (held == null || !held.covers(pageMode)) {
+				LockMode granted = lock(tid, pid, pageMode, wait);
+				if (granted == null) {
+					return false;
+				}
+				locks.pageLocks.put(pid, granted);
+				if (held == null && locks.addPageLock(tableId) >= escalationThreshold
+						&& escalationThreshold > 0) {
+					escalate(tid, locks, tableId);
+				}
+			}
 		}
+		locks.pages.add(pid);
+		return true;
+	}
 
-		synchronized (this) {
-			// for Exercise 5, might need some cleanup on deadlock detection
-			// data structure
-			this.waitList.remove(tid);
-			
+	private boolean recordLock(TransactionId tid, RecordId rid, Permissions perm, boolean wait)
+			throws DeadlockException {
+		PageId pid = rid.getPageId();
+		LockMode recordMode = LockMode.forPage(perm);
+		if (!acquire(tid, pid, LockMode.intentionFor(recordMode), wait)) {
+			return false;
 		}
 
+		TransactionLocks locks = locksFor(tid);
+		if (coversContents(locks.pageLocks.get(pid), recordMode)
+				|| coversContents(locks.tableLocks.get(pid.getTableId()), recordMode)) {
+			return true;
+		}
+		LockMode held = locks.recordLocks.get(rid);
+		if (held != null && held.covers(recordMode)) {
+			return true;
+		}
+		LockMode granted = lock(tid, rid, recordMode, wait);
+		if (granted == null) {
+			return false;
+		}
+		locks.recordLocks.put(rid, granted);
 		return true;
 	}
 
+	/**
+	 * @return true if holding mode on a table or page makes a lock on
+	 *         something inside it in the given mode unnecessary
+	 */
+	private static boolean coversContents(LockMode held, LockMode mode) {
+		return (held == LockMode.S || held == LockMode.X) && held.covers(mode);
+	}
+
+	/**
+	 * Tries to trade tid's page locks in a table for one table lock: X if any
+	 * of them is X or IX, S otherwise. Gives up rather than wait for the
+	 * table.
+	 */
+	private void escalate(TransactionId tid, TransactionLocks locks, int tableId) {
+		LockMode mode = LockMode.S;
+		for (Map.Entry<PageId, LockMode> e : locks.pageLocks.entrySet()) {
+			if (e.getKey().getTableId() == tableId
+					&& (e.getValue() == LockMode.X || e.getValue() == LockMode.IX)) {
+				mode = LockMode.X;
+				break;
+			}
+		}
+		LockMode held;
+		try {
+			held = lock(tid, new TableKey(tableId), mode, false);
+		} catch (DeadlockException e) {
+			return; // not reached: nothing waits
+		}
+		if (held != null) {
+			locks.tableLocks.put(tableId, held);
+			releasePageLocks(tid, locks, tableId);
+			escalations.incrementAndGet();
+		}
+	}
+
+	/** Drops tid's page and record locks in a table it now holds an S or X lock on. */
+	private void releasePageLocks(TransactionId tid, TransactionLocks locks, int tableId) {
+		Iterator<RecordId> records = locks.recordLocks.keySet().iterator();
+		while (records.hasNext()) {
+			RecordId rid = records.next();
+			if (rid.getPageId().getTableId() == tableId) {
+				records.remove();
+				unlock(tid, rid);
+			}
+		}
+		Iterator<PageId> it = locks.pageLocks.keySet().iterator();
+		while (it.hasNext()) {
+			PageId pid = it.next();
+			if (pid.getTableId() == tableId) {
+				it.remove();
+				unlock(tid, pid);
+			}
+		}
+		locks.pageLockCounts.remove(tableId);
+	}
+
 	/**
 	 * Release all locks corresponding to TransactionId tid. Check lab
 	 * description to make sure you clean up appropriately depending on whether
 	 * transaction commits or aborts
-	 * @throws IOException 
+	 * @throws IOException
 	 */
-	public synchronized void releaseAllLocks(TransactionId tid, boolean commit) throws IOException {
+	public void releaseAllLocks(TransactionId tid, boolean commit) throws IOException {
 		// some code here
-		HashSet<PageId> pids = this.getAllPagesByTid(tid);
-		
-		if (pids == null) {
+		TransactionLocks locks = transactions.remove(tid);
+
+		if (locks == null) {
 			return;
 		}
-		
-		HashSet<PageId> cloneSet = (HashSet<PageId>) pids.clone();
-		
-		for (PageId pid : cloneSet) {
-			this.releaseLock(tid, pid);
+
+		for (RecordId rid : locks.recordLocks.keySet()) {
+			unlock(tid, rid);
+		}
+		for (PageId pid : locks.pageLocks.keySet()) {
+			unlock(tid, pid);
+		}
+		for (Integer tableId : locks.tableLocks.keySet()) {
+			unlock(tid, new TableKey(tableId));
 		}
 	}
 
 	/**
 	 * Return true if the specified transaction has a lock on the specified page
 	 */
-	public synchronized boolean holdsLock(TransactionId tid, PageId p) {
+	public boolean holdsLock(TransactionId tid, PageId p) {
 		// some code here
-		if (this.transactionPageMap.containsKey(tid)) {
-			if (this.transactionPageMap.get(tid).contains(p)) {
-				return true;
-			}
+		TransactionLocks locks = transactions.get(tid);
+		return locks != null && locks.pages.contains(p);
+	}
+
+	/**
+	 * Releases whatever lock this transaction has on this page Should update
+	 * lock table, and wakes up the transactions whose requests for the page
+	 * became grantable. A table lock covering the page is kept.
+	 */
+	public void releaseLock(TransactionId tid, PageId pid) {
+		// some code here
+		TransactionLocks locks = transactions.get(tid);
+		if (locks == null) {
+			return;
 		}
+		if (locks.pageLocks.remove(pid) != null) {
+			locks.removePageLock(pid.getTableId());
+			unlock(tid, pid);
+		}
+		locks.pages.remove(pid);
+	}
 
-		return false;
+	public Set<PageId> getAllPagesByTid(TransactionId tid) {
+		TransactionLocks locks = transactions.get(tid);
+		return locks == null ? null : locks.pages;
+	}
+
+	/** @return the lock tid holds on the given table, or null */
+	public LockMode getTableLock(TransactionId tid, int tableId) {
+		TransactionLocks locks = transactions.get(tid);
+		return locks == null ? null : locks.tableLocks.get(tableId);
+	}
+
+	/** @return the number of page locks tid holds in the lock table */
+	public int getPageLockCount(TransactionId tid) {
+		TransactionLocks locks = transactions.get(tid);
+		return locks == null ? 0 : locks.pageLocks.size();
+	}
+
+	/** @return the number of times page locks were escalated to a table lock */
+	public long getEscalationCount() {
+		return escalations.get();
+	}
+
+	/** @return the number of deadlocks broken by aborting a victim */
+	public long getDeadlockCount() {
+		return deadlocks.get();
 	}
 
 	/**
-	 * Answers the question: is this transaction "locked out" of acquiring lock
-	 * on this page with this perm? Returns false if this tid/pid/perm lock
-	 * combo can be achieved (i.e., not locked out), true otherwise.
-	 * 
-	 * Logic:
-	 *
-	 * if perm == READ if tid is holding any sort of lock on pid, then the tid
-	 * can acquire the lock (return false).
-	 *
-	 * if another tid is holding a READ lock on pid, then the tid can acquire
-	 * the lock (return false). if another tid is holding a WRITE lock on pid,
-	 * then tid can not currently acquire the lock (return true).
-	 *
-	 * else if tid is THE ONLY ONE holding a READ lock on pid, then tid can
-	 * acquire the lock (return false). if tid is holding a WRITE lock on pid,
-	 * then the tid already has the lock (return false).
-	 *
-	 * if another tid is holding any sort of lock on pid, then the tid can not
-	 * currenty acquire the lock (return true).
+	 * @return the mean time from a deadlock forming to its victim being
+	 *         chosen, in milliseconds, or 0 if there has been none
 	 */
-	private synchronized boolean locked(TransactionId tid, PageId pid,
-			Permissions perm) {
-		// some code here
-		if (perm == Permissions.READ_ONLY) {
+	public double getMeanDetectionLatencyMillis() {
+		long n = deadlocks.get();
+		return n == 0 ? 0 : totalDetectionNanos.get() / 1e6 / n;
+	}
 
-			if (transactionPageMap.containsKey(tid)) {
-				if (transactionPageMap.get(tid).contains(pid)) {
-					return false;
-				}
-			}
+	/** @return the longest deadlock detection latency seen, in milliseconds */
+	public double getMaxDetectionLatencyMillis() {
+		return maxDetectionNanos.get() / 1e6;
+	}
 
-			if (shareLockMap.containsKey(pid)) {
-				return false;
+	private TransactionLocks locksFor(TransactionId tid) {
+		TransactionLocks locks = transactions.get(tid);
+		if (locks == null) {
+			locks = new TransactionLocks();
+			TransactionLocks raced = transactions.putIfAbsent(tid, locks);
+			if (raced != null) {
+				locks = raced;
 			}
+		}
+		return locks;
+	}
 
-			if (exclusiveLockMap.containsKey(pid)) {
-				TransactionId lockTid = exclusiveLockMap.get(pid);
-				
-				if (this.waitList.containsKey(lockTid)) {
-					waitList.get(lockTid).add(tid);
-				} else {
-					waitList.put(lockTid, new HashSet<TransactionId>() {
-						{add(tid);}
-					});
-				}
-				
-				return true;
+	/**
+	 * Locks one resource in the lock table.
+	 *
+	 * @param wait whether to block until the lock can be granted
+	 * @return the mode tid now holds, or null if wait is false and the lock
+	 *         could not be granted immediately
+	 */
+	private LockMode lock(TransactionId tid, Object key, LockMode mode, boolean wait)
+			throws DeadlockException {
+		Stripe stripe = stripeFor(key);
+		stripe.latch.lock();
+		try {
+			LockQueue q = queueFor(stripe, key);
+			LockMode held = q.holders.get(tid);
+			LockMode target = held == null ? mode : held.combine(mode);
+			if (tryGrant(q, tid, target)) {
+				return target;
+			}
+			if (!wait) {
+				removeIfUnused(stripe, q, key);
+				return null;
 			}
 
-		} else {
-			HashSet<TransactionId> transactionList = shareLockMap.get(pid);
-			if (transactionList != null && transactionList.size() == 1
-					&& transactionList.contains(tid)) {
-				return false;
+			LockRequest req = new LockRequest(tid, target);
+			if (held != null) {
+				// an upgrade: it only waits for the other holders to leave
+				q.waiting.addFirst(req);
+			} else {
+				q.waiting.addLast(req);
 			}
+			refreshWaits(stripe, q);
+			numWaiting.incrementAndGet();
+			startDetector();
 
-			if (exclusiveLockMap.containsKey(pid)
-					&& !exclusiveLockMap.get(pid).equals(tid)) {
-				TransactionId lockTid = exclusiveLockMap.get(pid);
-				
-				if (this.waitList.containsKey(lockTid)) {
-					waitList.get(lockTid).add(tid);
-				} else {
-					waitList.put(lockTid, new HashSet<TransactionId>() {
-						{add(tid);}
-					});
+			try {
+				while (!req.granted) {
+					if (req.victim) {
+						throw new DeadlockException();
+					}
+					q.changed.await();
 				}
-				
-				return true;
-			}
-			
-			if (shareLockMap.containsKey(pid)) {
-				for (TransactionId id : transactionList) {
-					if (this.waitList.containsKey(id)) {
-						waitList.get(id).add(tid);
-					} else {
-						waitList.put(id, new HashSet<TransactionId>() {
-							{add(tid);}
-						});
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new DeadlockException();
+			} finally {
+				numWaiting.decrementAndGet();
+				if (stripe.latch.isHeldByCurrentThread()) {
+					stripe.waitList.remove(tid);
+					if (!req.granted) {
+						// requests queued behind this one may be grantable now
+						q.waiting.remove(req);
+						grantWaiters(stripe, q);
+						removeIfUnused(stripe, q, key);
 					}
 				}
-				
-				return true;
 			}
+			return target;
+		} finally {
+			if (stripe.latch.isHeldByCurrentThread()) {
+				stripe.latch.unlock();
+			}
+		}
+	}
 
+	/** Releases tid's lock on one resource and grants what it was blocking. */
+	private void unlock(TransactionId tid, Object key) {
+		Stripe stripe = stripeFor(key);
+		stripe.latch.lock();
+		try {
+			LockQueue q = stripe.lockTable.get(key);
+			if (q != null && q.holders.remove(tid) != null) {
+				grantWaiters(stripe, q);
+				removeIfUnused(stripe, q, key);
+			}
+		} finally {
+			stripe.latch.unlock();
 		}
+	}
 
-		return false;
+	private Stripe stripeFor(Object key) {
+		return stripes[(key.hashCode() & 0x7fffffff) % NUM_STRIPES];
+	}
+
+	private LockQueue queueFor(Stripe stripe, Object key) {
+		LockQueue q = stripe.lockTable.get(key);
+		if (q == null) {
+			q = new LockQueue(stripe);
+			stripe.lockTable.put(key, q);
+		}
+		return q;
+	}
+
+	private void removeIfUnused(Stripe stripe, LockQueue q, Object key) {
+		if (q.isUnused()) {
+			stripe.lockTable.remove(key);
+		}
 	}
 
 	/**
-	 * Releases whatever lock this transaction has on this page Should update
-	 * lock table
-	 *
-	 * Note that you do not need to "wake up" another transaction that is
-	 * waiting for a lock on this page, since that transaction will be
-	 * "sleeping" and will wake up and check if the page is available on its own
-	 * However, if you decide to change the fact that a thread is sleeping in
-	 * acquireLock(), you would have to wake it up here
+	 * Recomputes the blockers of every request waiting in q, keeping the old
+	 * edges of the waiters whose blockers are unchanged.
 	 */
-	public synchronized void releaseLock(TransactionId tid, PageId pid) {
-		// some code here
-		if (shareLockMap.containsKey(pid)) {
-			shareLockMap.get(pid).remove(tid);
-			if (shareLockMap.get(pid).size() == 0) {
-				shareLockMap.remove(pid);
+	private void refreshWaits(Stripe stripe, LockQueue q) {
+		for (LockRequest req : q.waiting) {
+			Set<TransactionId> blockers = blockers(q, req);
+			WaitEdges old = stripe.waitList.get(req.tid);
+			if (old == null || !old.blockers.equals(blockers)) {
+				stripe.waitList.put(req.tid, new WaitEdges(blockers, req, q, stripe));
 			}
 		}
-		exclusiveLockMap.remove(pid);
-		if (transactionPageMap.containsKey(tid)) {
-			transactionPageMap.get(tid).remove(pid);
-			
-			if (transactionPageMap.get(tid).size() == 0) {
-				transactionPageMap.remove(tid);
+	}
+
+	/**
+	 * Grants tid the given mode if it already holds it, or if it conflicts
+	 * with no holder and nobody is queued ahead of it. Upgrades only need the
+	 * other holders gone.
+	 */
+	private boolean tryGrant(LockQueue q, TransactionId tid, LockMode mode) {
+		LockMode held = q.holders.get(tid);
+		if (held == mode) {
+			return true;
+		}
+		if (q.compatible(tid, mode) && (held != null || q.waiting.isEmpty())) {
+			q.holders.put(tid, mode);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Grants queued requests in FIFO order, stopping at the first one that
+	 * still conflicts with the current holders, and brings the waits-for
+	 * edges of the rest up to date.
+	 */
+	private void grantWaiters(Stripe stripe, LockQueue q) {
+		boolean any = false;
+		Iterator<LockRequest> it = q.waiting.iterator();
+		while (it.hasNext()) {
+			LockRequest req = it.next();
+			if (!q.compatible(req.tid, req.mode)) {
+				break;
 			}
+			q.holders.put(req.tid, req.mode);
+			req.granted = true;
+			it.remove();
+			stripe.waitList.remove(req.tid);
+			any = true;
+		}
+		refreshWaits(stripe, q);
+		if (any) {
+			q.changed.signalAll();
 		}
 	}
 
 	/**
-	 * Attempt to lock the given PageId with the given Permissions for this
-	 * TransactionId Should update the lock table
-	 *
-	 * Returns true if the attempt was successful, false otherwise
+	 * @return the transactions req has to wait for: conflicting holders and
+	 *         conflicting requests queued ahead of it
 	 */
-	private synchronized boolean lock(TransactionId tid, PageId pid,
-			Permissions perm) {
+	private HashSet<TransactionId> blockers(LockQueue q, LockRequest req) {
+		HashSet<TransactionId> result = new HashSet<TransactionId>();
+		for (Map.Entry<TransactionId, LockMode> e : q.holders.entrySet()) {
+			if (!e.getKey().equals(req.tid) && !req.mode.compatibleWith(e.getValue())) {
+				result.add(e.getKey());
+			}
+		}
+		for (LockRequest ahead : q.waiting) {
+			if (ahead == req) {
+				break;
+			}
+			if (!ahead.tid.equals(req.tid) && !req.mode.compatibleWith(ahead.mode)) {
+				result.add(ahead.tid);
+			}
+		}
+		return result;
+	}
 
-		if (locked(tid, pid, perm)) {
-			return false; // this transaction cannot get the lock on this page;
-							// it is "locked out"
+	/**
+	 * Copies the waits-for edges out of every stripe, holding one stripe
+	 * latch at a time.
+	 */
+	private HashMap<TransactionId, WaitEdges> snapshotWaits() {
+		HashMap<TransactionId, WaitEdges> snapshot = new HashMap<TransactionId, WaitEdges>();
+		for (Stripe stripe : stripes) {
+			stripe.latch.lock();
+			try {
+				snapshot.putAll(stripe.waitList);
+			} finally {
+				stripe.latch.unlock();
+			}
 		}
+		return snapshot;
+	}
 
-		// some code here
-		if (perm == Permissions.READ_ONLY) {
-			if (this.shareLockMap.containsKey(pid)) {
-				shareLockMap.get(pid).add(tid);
-			} else {
-				shareLockMap.put(pid, new HashSet<TransactionId>() {
-					{
-						add(tid);
+	/**
+	 * @return the transactions on a waits-for cycle through tid in the given
+	 *         snapshot, or null if there is none
+	 */
+	private static LinkedList<TransactionId> findCycle(TransactionId tid,
+			HashMap<TransactionId, WaitEdges> waits) {
+		HashMap<TransactionId, TransactionId> parent = new HashMap<TransactionId, TransactionId>();
+		LinkedList<TransactionId> stack = new LinkedList<TransactionId>();
+
+		stack.push(tid);
+		while (!stack.isEmpty()) {
+			TransactionId cur = stack.pop();
+			WaitEdges edges = waits.get(cur);
+			if (edges == null) {
+				continue;
+			}
+			for (TransactionId next : edges.blockers) {
+				if (next.equals(tid)) {
+					LinkedList<TransactionId> cycle = new LinkedList<TransactionId>();
+					for (TransactionId t = cur; t != null; t = parent.get(t)) {
+						cycle.addFirst(t);
 					}
-				});
-				
+					return cycle;
+				}
+				if (!parent.containsKey(next)) {
+					parent.put(next, cur);
+					stack.push(next);
+				}
 			}
+		}
 
-		} else {
-			this.exclusiveLockMap.put(pid, tid);
-			// Since pid has the exclusive lock, so remove the share lock.
-			this.shareLockMap.remove(pid);
+		return null;
+	}
+
+	/**
+	 * Runs one detector pass: finds the waits-for cycles, picks a victim for
+	 * each, and aborts the victims of the cycles a second snapshot confirms.
+	 */
+	void detectDeadlocks() {
+		HashMap<TransactionId, WaitEdges> first = snapshotWaits();
+		HashMap<TransactionId, WaitEdges> graph = new HashMap<TransactionId, WaitEdges>(first);
+		ArrayList<LinkedList<TransactionId>> cycles = new ArrayList<LinkedList<TransactionId>>();
+		ArrayList<TransactionId> victims = new ArrayList<TransactionId>();
+
+		for (TransactionId start : first.keySet()) {
+			// removing a victim breaks its cycle, but start may be on others
+			LinkedList<TransactionId> cycle;
+			while (graph.containsKey(start) && (cycle = findCycle(start, graph)) != null) {
+				TransactionId victim = chooseVictim(cycle);
+				graph.remove(victim);
+				cycles.add(cycle);
+				victims.add(victim);
+			}
+		}
+		if (cycles.isEmpty()) {
+			return;
 		}
 
-		if (transactionPageMap.containsKey(tid)) {
-			transactionPageMap.get(tid).add(pid);
-		} else {
-			transactionPageMap.put(tid, new HashSet<PageId>() {
-				{
-					add(pid);
+		// the first pass may have mixed edges from different moments; a
+		// cycle is real if none of its edges changed by the second pass
+		HashMap<TransactionId, WaitEdges> second = snapshotWaits();
+		for (int i = 0; i < cycles.size(); i++) {
+			boolean confirmed = true;
+			long formed = Long.MIN_VALUE;
+			for (TransactionId t : cycles.get(i)) {
+				WaitEdges edges = first.get(t);
+				if (second.get(t) != edges) {
+					confirmed = false;
+					break;
 				}
-			});
+				formed = Math.max(formed, edges.since);
+			}
+			if (confirmed) {
+				abortVictim(victims.get(i), first.get(victims.get(i)), formed);
+			}
 		}
-		
-		//this.waitList.remove(tid);
+	}
 
-		return true;
+	/**
+	 * The cheapest transaction on a cycle to abort: the one holding the
+	 * fewest locks, and of those the youngest.
+	 */
+	private TransactionId chooseVictim(LinkedList<TransactionId> cycle) {
+		TransactionId victim = null;
+		int victimLocks = 0;
+		for (TransactionId t : cycle) {
+			TransactionLocks held = transactions.get(t);
+			int locks = held == null ? 0 : held.pages.size();
+			if (victim == null || locks < victimLocks
+					|| (locks == victimLocks && t.getId() > victim.getId())) {
+				victim = t;
+				victimLocks = locks;
+			}
+		}
+		return victim;
 	}
-	
-	
-	private boolean checkCycle(TransactionId tid) {
-		HashSet<TransactionId> visited = new HashSet<TransactionId>();
-		LinkedList<TransactionId> queue = new LinkedList<TransactionId>();
 
-		queue.add(tid);
+	/** Wakes tid with a DeadlockException if it is still blocked on edges. */
+	private void abortVictim(TransactionId tid, WaitEdges edges, long formed) {
+		edges.stripe.latch.lock();
+		try {
+			if (edges.stripe.waitList.get(tid) != edges || edges.request.granted) {
+				return;
+			}
+			// counted before the victim can see it was aborted
+			long latency = System.nanoTime() - formed;
+			deadlocks.incrementAndGet();
+			totalDetectionNanos.addAndGet(latency);
+			long max = maxDetectionNanos.get();
+			while (latency > max && !maxDetectionNanos.compareAndSet(max, latency)) {
+				max = maxDetectionNanos.get();
+			}
+
+			edges.request.victim = true;
+			edges.queue.changed.signalAll();
+		} finally {
+			edges.stripe.latch.unlock();
+		}
+	}
 
-		while (!(queue.isEmpty())) {
-			TransactionId cur = queue.remove();
-			if (visited.contains(cur)) {
-				return true;
+	private void startDetector() {
+		synchronized (detectorLock) {
+			if (detector == null) {
+				detector = new Detector();
+				detector.start();
 			}
+		}
+	}
 
-			visited.add(cur);
+	/**
+	 * Runs detector passes every LOCK_WAIT ms, and exits once no request is
+	 * blocked; the next blocked request starts a new one.
+	 */
+	private class Detector extends Thread {
+		Detector() {
+			super("deadlock detector");
+			setDaemon(true);
+		}
 
-			if (this.waitList.containsKey(cur) && !(this.waitList.get(cur).isEmpty())) {
-				Iterator<TransactionId> it = this.waitList.get(cur).iterator();
-				while (it.hasNext()) {
-					queue.add(it.next());
+		public void run() {
+			while (true) {
+				try {
+					Thread.sleep(LOCK_WAIT);
+				} catch (InterruptedException e) {
+					return;
+				}
+				synchronized (detectorLock) {
+					if (numWaiting.get() == 0) {
+						detector = null;
+						return;
+					}
 				}
+				detectDeadlocks();
 			}
 		}
-
-		return false;
-	}
-	
-	public HashSet<PageId> getAllPagesByTid(TransactionId tid) {
-		return this.transactionPageMap.get(tid);
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,58 @@
+package simpledb;
+
+/**
+ * Lock modes for multi-granularity locking. Pages are locked S or X; before
+ * that, the transaction takes an intention lock on the page's table, IS for
+ * a page S-lock and IX for a page X-lock. Pages are in turn locked IS or IX
+ * before locking records on them. A transaction holding S or X on a whole
+ * table or page needs no locks on anything inside it.
+ */
+public enum LockMode {
+    IS, IX, S, X;
+
+    // COMPATIBLE[a][b]: may one transaction hold a while another holds b
+    private static final boolean[][] COMPATIBLE = {
+        //          IS     IX     S      X
+        /* IS */ { true,  true,  true,  false },
+        /* IX */ { true,  true,  false, false },
+        /* S  */ { true,  false, true,  false },
+        /* X  */ { false, false, false, false },
+    };
+
+    /** @return true if this mode can be held alongside other by another transaction */
+    public boolean compatibleWith(LockMode other) {
+        return COMPATIBLE[ordinal()][other.ordinal()];
+    }
+
+    /**
+     * @return the weakest mode that is at least as strong as both this and
+     *         other; IX together with S has no SIX mode to go to and becomes X
+     */
+    public LockMode combine(LockMode other) {
+        if (this == other || other == IS) {
+            return this;
+        }
+        if (this == IS) {
+            return other;
+        }
+        return X;
+    }
+
+    /** @return true if holding this mode makes a request for other redundant */
+    public boolean covers(LockMode other) {
+        return combine(other) == this;
+    }
+
+    /** @return the page lock mode used for the given permissions */
+    public static LockMode forPage(Permissions perm) {
+        return perm == Permissions.READ_WRITE ? X : S;
+    }
+
+    /**
+     * @return the intention mode taken on a table or page before locking
+     *         something inside it in the given mode
+     */
+    public static LockMode intentionFor(LockMode mode) {
+        return mode == X || mode == IX ? IX : IS;
+    }
+}
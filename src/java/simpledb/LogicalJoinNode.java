@@ -23,6 +23,10 @@ public class LogicalJoinNode {
     /** The join predicate */
     public Predicate.Op p;
 
+    /** Set by JoinOptimizer.orderJoins when probing an index on the join
+     * field of t2 is the cheapest way to do this join. */
+    public boolean useIndex;
+
     public LogicalJoinNode() {
     }
 
@@ -1,5 +1,6 @@
 package simpledb;
 import java.util.Map;
+import java.util.List;
 import java.util.Vector;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -27,6 +28,8 @@ public class LogicalPlan {
     private Vector<LogicalFilterNode> filters;
     private HashMap<String,DbIterator> subplanMap;
     private HashMap<String,Integer> tableMap;
+    // the estimated cost of the access path physicalPlan chose per alias
+    private HashMap<String,Double> accessCosts;
 
     private Vector<LogicalSelectListNode> selectList;
     private String groupByField = null;
@@ -45,6 +48,7 @@ public class LogicalPlan {
         tables = new Vector<LogicalScanNode>();
         subplanMap = new HashMap<String,DbIterator>();
         tableMap = new HashMap<String,Integer>();
+        accessCosts = new HashMap<String,Double>();
 
         selectList = new Vector<LogicalSelectListNode>();
         this.query = "";
@@ -76,6 +80,17 @@ public class LogicalPlan {
         return tableMap.get(alias);
     }
     
+    /**
+     * @return the estimated I/O cost of the access path {@link #physicalPlan}
+     *         chose for the table with the given alias, which is less than a
+     *         scan when it reads the table through an index, or else the
+     *         cost of a scan from the table's statistics
+     */
+    public double getAccessCost(String alias, TableStats s) {
+        Double cost = accessCosts.get(alias);
+        return cost != null ? cost : s.estimateScanCost();
+    }
+
     public HashMap<String,Integer> getTableAliasToIdMapping()
     {
         return this.tableMap;
@@ -271,6 +286,77 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /**
+     * Builds the plan that reads a table and applies its filters: a
+     * sequential scan under all of the filters, or an {@link IndexScan} that
+     * evaluates one filter through an index on its field under the rest,
+     * whichever is estimated to cost the least I/O. The cost is recorded for
+     * {@link #getAccessCost}.
+     *
+     * @param scan the sequential scan of the table
+     * @param preds the filters on the table, in the order they are applied
+     * @param sels the estimated selectivity of each filter
+     * @param s the statistics of the table
+     */
+    private DbIterator accessPath(TransactionId t, SeqScan scan, List<Predicate> preds,
+            List<Double> sels, TableStats s, boolean explain) {
+        int best = -1;
+        Index bestIndex = null;
+        double bestCost = s.estimateScanCost();
+        for (int i = 0; i < preds.size(); i++) {
+            Predicate p = preds.get(i);
+            for (Index index : Database.getCatalog().getIndexes(scan.getTableId())) {
+                if (index.getKeyField() != p.getField() || !index.supports(p.getOp())) {
+                    continue;
+                }
+                double cost = estimateIndexScanCost(index, sels.get(i), s);
+                if (cost < bestCost) {
+                    best = i;
+                    bestIndex = index;
+                    bestCost = cost;
+                }
+            }
+        }
+
+        accessCosts.put(scan.getAlias(), bestCost);
+        DbIterator plan = scan;
+        if (bestIndex != null) {
+            Predicate p = preds.get(best);
+            plan = new IndexScan(t, bestIndex, new IndexPredicate(p.getOp(), p.getOperand()),
+                    scan.getAlias());
+            if (explain) {
+                System.out.println("Scanning " + scan.getAlias() + " through an index for " + p);
+            }
+        }
+        for (int i = 0; i < preds.size(); i++) {
+            if (i != best) {
+                plan = new Filter(preds.get(i), plan);
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Estimates the I/O cost of looking up the tuples of a table that
+     * satisfy a predicate in an index, in the units of
+     * {@link TableStats#estimateScanCost}: the pages read to reach the first
+     * match, then for a clustered index the fraction of the table's pages
+     * that hold matches, or for an unclustered index one page per match.
+     *
+     * @param index the index on the predicate's field
+     * @param selectivity the estimated selectivity of the predicate
+     * @param s the statistics of the table
+     */
+    static double estimateIndexScanCost(Index index, double selectivity, TableStats s) {
+        double matchPages;
+        if (index.isClustered()) {
+            matchPages = Math.ceil(selectivity * s.estimateScanCost() / TableStats.IOCOSTPERPAGE);
+        } else {
+            matchPages = Math.ceil(selectivity * s.totalTuples());
+        }
+        return (index.probePages() + matchPages) * TableStats.IOCOSTPERPAGE;
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned DbIterator will run as a part of
@@ -289,6 +375,9 @@ public class LogicalPlan {
         HashMap<String,String> equivMap = new HashMap<String,String>();
         HashMap<String,Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String,TableStats> statsMap = new HashMap<String,TableStats>();
+        HashMap<String,ArrayList<Predicate>> tableFilters = new HashMap<String,ArrayList<Predicate>>();
+        HashMap<String,ArrayList<Double>> tableSelectivities = new HashMap<String,ArrayList<Double>>();
+        accessCosts.clear();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
@@ -334,15 +423,28 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
             double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
+            if (!tableFilters.containsKey(lf.tableAlias)) {
+                tableFilters.put(lf.tableAlias, new ArrayList<Predicate>());
+                tableSelectivities.put(lf.tableAlias, new ArrayList<Double>());
+            }
+            tableFilters.get(lf.tableAlias).add(p);
+            tableSelectivities.get(lf.tableAlias).add(sel);
+
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
+
+        for (String alias : tableFilters.keySet()) {
+            SeqScan ss = (SeqScan) subplanMap.get(alias);
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(ss.getTableId()));
+            subplanMap.put(alias, accessPath(t, ss, tableFilters.get(alias),
+                    tableSelectivities.get(alias), s, explain));
+        }
         
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
@@ -475,7 +577,11 @@ public class LogicalPlan {
         }
 
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+            int oByIndex = node.getTupleDesc().fieldNameToIndex(oByField);
+            // a sort-merge join below may already have put the tuples in order
+            if (!SortOrder.isSorted(node, oByIndex, oByAsc)) {
+                node = new OrderBy(oByIndex, oByAsc, node);
+            }
         }
 
         return new Project(outFields, outTypes, node);
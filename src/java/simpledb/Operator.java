@@ -90,6 +90,15 @@ public abstract class Operator implements DbIterator {
      * */
     public abstract TupleDesc getTupleDesc();
 
+    /**
+     * @return the order of the tuples this operator returns, or null if
+     *         they are in no particular order. Operators that sort, or that
+     *         keep the order of a child, override this.
+     */
+    public SortOrder getSortOrder() {
+        return null;
+    }
+
     /**
      * @return The estimated cardinality of this operator. 
      * Not necessary for labs 1-4.
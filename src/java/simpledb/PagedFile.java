@@ -0,0 +1,109 @@
+package simpledb;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The reads and writes of a DbFile whose pages are all the same size, and
+ * its count of pages. Pages are numbered from 0 and start after a header
+ * of a fixed number of bytes, which may be none. The page size is passed
+ * to each call, as it comes from a different place for each kind of file.
+ * <p>
+ * The file is opened on first use through one FileChannel, kept for the
+ * life of the PagedFile and shared by all threads, as it reads and writes
+ * at explicit positions. The page count is read from the file's size once,
+ * then kept up to date by the writes.
+ */
+final class PagedFile {
+
+    private final File f;
+    private final int headerSize;
+    private FileChannel channel;
+    // -1 until the file size is first read
+    private volatile int numPages = -1;
+
+    /**
+     * @param headerSize the number of bytes before the first page
+     */
+    PagedFile(File f, int headerSize) {
+        this.f = f;
+        this.headerSize = headerSize;
+    }
+
+    /** @return the channel all reads and writes of the file go through */
+    synchronized FileChannel channel() throws IOException {
+        if (channel == null) {
+            channel = new RandomAccessFile(f, "rw").getChannel();
+        }
+        return channel;
+    }
+
+    /** @return the bytes of page pgno */
+    byte[] read(int pgno, int pageSize) throws IOException {
+        byte[] data = new byte[pageSize];
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        FileChannel ch = channel();
+        long pos = headerSize + (long) pgno * pageSize;
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, pos + buf.position()) < 0) {
+                throw new EOFException("short read of page " + pgno);
+            }
+        }
+        return data;
+    }
+
+    /** Writes the first pageSize bytes of data to page pgno, extending the file if need be. */
+    void write(int pgno, byte[] data, int pageSize) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(data, 0, pageSize);
+        FileChannel ch = channel();
+        long pos = headerSize + (long) pgno * pageSize;
+        while (buf.hasRemaining()) {
+            ch.write(buf, pos + buf.position());
+        }
+        extendTo(pgno + 1, pageSize);
+    }
+
+    /**
+     * Writes data as a new page at the end of the file.
+     *
+     * @return the number of the new page
+     */
+    synchronized int append(byte[] data, int pageSize) throws IOException {
+        int pgno = numPages(pageSize);
+        write(pgno, data, pageSize);
+        return pgno;
+    }
+
+    /** @return the number of pages in the file, in use or not */
+    int numPages(int pageSize) {
+        int n = numPages;
+        if (n < 0) {
+            n = readNumPages(pageSize);
+        }
+        return n;
+    }
+
+    private synchronized int readNumPages(int pageSize) {
+        if (numPages < 0) {
+            try {
+                long bytes = Math.max(0, channel().size() - headerSize);
+                numPages = (int) ((bytes + pageSize - 1) / pageSize);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return 0;
+            }
+        }
+        return numPages;
+    }
+
+    /** Raises the page count after a write to page n - 1. */
+    private synchronized void extendTo(int n, int pageSize) {
+        if (readNumPages(pageSize) < n) {
+            numPages = n;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package simpledb;
+
+import java.util.Map;
+
+/**
+ * ReplacementPolicy decides which page the BufferPool gives up when it has
+ * run out of frames. The BufferPool reports every page it caches, touches
+ * and drops, and the policy keeps whatever bookkeeping it needs to name a
+ * victim without scanning or copying the whole pool.
+ * <p>
+ * Implementations must be safe to call from several threads at once.
+ *
+ * @see BufferPool#BufferPool(int, ReplacementPolicy)
+ * @see ClockReplacementPolicy
+ * @see LRUKReplacementPolicy
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Record a reference to the specified page. Called when a page is first
+     * cached and on every later hit.
+     *
+     * @param pid the page that was referenced
+     */
+    public void recordAccess(PageId pid);
+
+    /**
+     * Forget the specified page. Called when a page leaves the buffer pool,
+     * either because it was evicted or because it was discarded.
+     *
+     * @param pid the page that left the pool
+     */
+    public void remove(PageId pid);
+
+    /**
+     * Choose the page that should be evicted next. The victim is not
+     * removed; the BufferPool calls {@link #remove} once it has flushed it.
+     * <p>
+     * Dirty pages are passed over as long as a clean page is available. If
+     * every cached page is dirty, a dirty page is returned and the caller is
+     * responsible for flushing it.
+     *
+     * @param pages the pages currently cached, used to check dirtiness
+     * @return the page to evict, or null if the policy tracks no pages
+     */
+    public PageId chooseVictim(Map<PageId, Page> pages);
+}
@@ -0,0 +1,96 @@
+package simpledb;
+
+/**
+ * ScanRing is a small, private set of buffer pool frames used by one large
+ * sequential scan, in the spirit of PostgreSQL's BAS_BULKREAD strategy.
+ * <p>
+ * Pages the scan has to read from disk are still cached in the shared
+ * BufferPool, but once the ring is full each new page takes the place of
+ * the page the scan read {@link #size()} misses earlier, instead of pushing
+ * some other transaction's page out of the pool. A ring page that another
+ * reader has hit in the meantime, or that has been dirtied, is left to the
+ * pool's normal replacement policy.
+ * <p>
+ * A ScanRing belongs to a single scan and is not thread-safe.
+ *
+ * @see BufferPool#getPage(TransactionId, PageId, Permissions, ScanRing)
+ */
+public class ScanRing {
+
+    /** Number of frames in the ring built by {@link #forScan}. */
+    public static final int DEFAULT_RING_PAGES = 8;
+
+    private final PageId[] frames;
+    private int next;
+    private long hits;
+    private long misses;
+
+    /**
+     * Creates a ring that recycles the given number of frames.
+     *
+     * @param size the number of frames in the ring; must be positive
+     */
+    public ScanRing(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("ring size must be positive");
+        }
+        this.frames = new PageId[size];
+        this.next = 0;
+        this.hits = 0;
+        this.misses = 0;
+    }
+
+    /**
+     * Returns the ring a sequential scan should use by default. Tables that
+     * fit in the buffer pool are cached normally, so that repeated scans of
+     * them hit; a scan of anything larger would flush the whole pool without
+     * ever hitting, and gets a ring of at most {@link #DEFAULT_RING_PAGES}
+     * frames and at most a quarter of the pool.
+     *
+     * @param tablePages the number of pages the scan will read
+     * @param pool the buffer pool the scan reads through
+     * @return a new ScanRing, or null if the scan should use the pool directly
+     */
+    public static ScanRing forScan(int tablePages, BufferPool pool) {
+        if (tablePages <= pool.numPages) {
+            return null;
+        }
+        return new ScanRing(Math.max(1, Math.min(DEFAULT_RING_PAGES, pool.numPages / 4)));
+    }
+
+    /** @return the number of frames in this ring */
+    public int size() {
+        return frames.length;
+    }
+
+    /**
+     * Put pid in the next frame of the ring.
+     *
+     * @return the page that previously occupied that frame, or null if the
+     *         ring has not wrapped around yet
+     */
+    PageId recycle(PageId pid) {
+        PageId old = frames[next];
+        frames[next] = pid;
+        next = (next + 1) % frames.length;
+        return old;
+    }
+
+    void recordHit() {
+        hits++;
+    }
+
+    void recordMiss() {
+        misses++;
+    }
+
+    /** @return the number of pages this scan found in the buffer pool */
+    public long getHits() {
+        return hits;
+    }
+
+    /** @return the number of pages this scan had to read from disk */
+    public long getMisses() {
+        return misses;
+    }
+}
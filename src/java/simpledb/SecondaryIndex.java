@@ -0,0 +1,49 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * A SecondaryIndex is an {@link Index} kept apart from its table, which
+ * finds tuples by their RecordIds. The BufferPool keeps the secondary
+ * indexes in the catalog up to date as tuples are inserted into and deleted
+ * from their tables, so they only work for tables whose tuples stay in the
+ * slot they were inserted into.
+ */
+public interface SecondaryIndex extends Index {
+
+    /**
+     * Adds an entry for a tuple just inserted into the table.
+     *
+     * @param t the tuple, with the RecordId it was given
+     * @return the pages of the index that were modified
+     */
+    public ArrayList<Page> insertEntry(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException;
+
+    /**
+     * Removes the entry for a tuple deleted from the table.
+     *
+     * @param t the tuple, with the RecordId it had
+     * @return the pages of the index that were modified
+     * @throws DbException if the index has no entry for the tuple
+     */
+    public ArrayList<Page> deleteEntry(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException;
+
+    /**
+     * Adds entries for the tuples already in the table, if the index was
+     * created empty over a table that has some. The catalog calls it once,
+     * when the index is added; an index that is already up to date with
+     * its table does nothing.
+     */
+    public void fill() throws DbException, IOException, TransactionAbortedException;
+
+    /**
+     * Tells the index that a transaction that changed it has committed or
+     * aborted. The BufferPool calls it once the transaction's locks are
+     * released, and its changes to the index's pages are written out or
+     * undone.
+     */
+    public void transactionComplete(TransactionId tid, boolean commit) throws IOException;
+}
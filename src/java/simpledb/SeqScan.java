@@ -42,6 +42,29 @@ public class SeqScan implements DbIterator {
         			  .iterator(this.tid);
     }
 
+    /**
+     * Creates a sequential scan that reads through the given ScanRing, so
+     * that a large scan recycles a few buffer frames of its own instead of
+     * evicting the rest of the buffer pool. Tables that are not HeapFiles
+     * are scanned as usual.
+     * 
+     * @param ring
+     *            the ring to read through, or null to read every page
+     *            through the shared buffer pool regardless of table size
+     * @see #SeqScan(TransactionId, int, String)
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, ScanRing ring) {
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        DbFile file = Database.getCatalog().getDatabaseFile(this.tableid);
+        if (file instanceof HeapFile) {
+            this.it = ((HeapFile) file).iterator(this.tid, ring);
+        } else {
+            this.it = file.iterator(this.tid);
+        }
+    }
+
     /**
      * @return
      *       return the table name of the table the operator scans. This should
@@ -51,6 +74,16 @@ public class SeqScan implements DbIterator {
         return Database.getCatalog().getTableName(this.tableid);
     }
     
+    /** @return the id of the table this operator scans */
+    public int getTableId() {
+        return this.tableid;
+    }
+
+    /** @return the transaction this scan runs as a part of */
+    public TransactionId getTransactionId() {
+        return this.tid;
+    }
+
     /**
      * @return Return the alias of the table this operator scans. 
      * */
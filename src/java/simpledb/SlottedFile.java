@@ -0,0 +1,163 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * SlottedFile is a DbFile that stores its tuples on SlottedPages, as
+ * variable-length records. It suits tables with short string values, which
+ * on a HeapFile take STRING_LEN + 4 bytes each whatever their length.
+ * <p>
+ * Pages are identified by HeapPageIds and read and written through a
+ * PagedFile, as in HeapFile. Inserts and deletes always lock the whole
+ * page, also when the buffer pool does record locking, since an insert may
+ * move the other records on the page.
+ *
+ * @see SlottedPage
+ * @see HeapFile
+ */
+public class SlottedFile implements DbFile {
+
+    private final TupleDesc td;
+    private final File f;
+    private final int tableId;
+    private volatile FreeSpaceMap fsm;
+    private final PagedFile pages;
+
+    /**
+     * Constructs a slotted file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this file.
+     */
+    public SlottedFile(File f, TupleDesc td) {
+        this.td = td;
+        this.f = f;
+        this.tableId = f.getAbsoluteFile().hashCode();
+        this.pages = new PagedFile(f, 0);
+    }
+
+    /** @return the File backing this SlottedFile on disk. */
+    public File getFile() {
+        return f;
+    }
+
+    // see DbFile.java for javadocs
+    public int getId() {
+        return tableId;
+    }
+
+    // see DbFile.java for javadocs
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Returns the free-space map of this file, in free bytes per page,
+     * reading or rebuilding it on first use.
+     */
+    public synchronized FreeSpaceMap getFreeSpaceMap() throws IOException {
+        if (fsm == null) {
+            fsm = FreeSpaceMap.load(this, f, numPages());
+        }
+        return fsm;
+    }
+
+    /** Saves the changes to the free-space map, if it was ever loaded. */
+    void syncFreeSpaceMap() throws IOException {
+        FreeSpaceMap map = fsm;
+        if (map != null) {
+            map.sync();
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (getId() != pid.getTableId()) {
+            return null;
+        }
+        int pgno = pid.pageNumber();
+        if (pgno < 0 || pgno >= numPages()) {
+            return null;
+        }
+        try {
+            SlottedPage page = new SlottedPage(new HeapPageId(tableId, pgno),
+                    pages.read(pgno, getPageSize()));
+            FreeSpaceMap map = fsm;
+            if (map != null) {
+                map.update(pgno, page.getFreeSpace());
+            }
+            return page;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        int pgno = page.getId().pageNumber();
+        pages.write(pgno, page.getPageData(), getPageSize());
+        getFreeSpaceMap().pageWritten(pgno, ((SlottedPage) page).getFreeSpace());
+    }
+
+    /** @return the size of this file's pages, from {@link Catalog#getPageSize} */
+    private int getPageSize() {
+        return Database.getCatalog().getPageSize(getId());
+    }
+
+    /** Returns the number of pages in this SlottedFile. */
+    public int numPages() {
+        return pages.numPages(getPageSize());
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        ArrayList<Page> pageList = new ArrayList<Page>();
+        BufferPool buffer = Database.getBufferPool();
+        int needed = SlottedPage.spaceNeeded(t);
+        if (needed > getPageSize() - SlottedPage.HEADER_SIZE) {
+            throw new DbException("tuple is too large for a page");
+        }
+
+        // the map is a hint, so check the page itself
+        FreeSpaceMap map = getFreeSpaceMap();
+        int pageno = numPages();
+        for (int i = map.nextPageWithRoom(0, needed); i >= 0 && i < pageno;
+                i = map.nextPageWithRoom(i + 1, needed)) {
+            SlottedPage page = (SlottedPage) buffer.getPage(tid,
+                    new HeapPageId(tableId, i), Permissions.READ_WRITE);
+            if (page.getFreeSpace() >= needed) {
+                page.insertTuple(t);
+                pageList.add(page);
+                return pageList;
+            }
+            map.update(i, page.getFreeSpace());
+        }
+
+        SlottedPage newpage = new SlottedPage(new HeapPageId(tableId, pageno),
+                SlottedPage.createEmptyPageData(getPageSize()));
+        newpage.insertTuple(t);
+        writePage(newpage);
+        pageList.add(newpage);
+        return pageList;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        ArrayList<Page> pageList = new ArrayList<Page>();
+        HeapPageId pid = new HeapPageId(tableId, t.getRecordId().getPageId().pageNumber());
+        SlottedPage page = (SlottedPage) Database.getBufferPool().getPage(tid, pid,
+                Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        pageList.add(page);
+        return pageList;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new SlottedFileIterator(this, tid);
+    }
+}
@@ -0,0 +1,72 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the tuples of a SlottedFile page by page, reading the pages
+ * through the buffer pool.
+ */
+public class SlottedFileIterator implements DbFileIterator {
+    private final TransactionId tid;
+    private final SlottedFile sf;
+
+    private boolean active;
+    private int currentPageNo;
+    private Iterator<Tuple> currentPageIter;
+
+    public SlottedFileIterator(SlottedFile sf, TransactionId tid) {
+        this.tid = tid;
+        this.sf = sf;
+        close();
+    }
+
+    private Iterator<Tuple> pageIterator(int pageNo)
+            throws DbException, TransactionAbortedException {
+        return ((SlottedPage) Database.getBufferPool().getPage(
+                tid, new HeapPageId(sf.getId(), pageNo), Permissions.READ_ONLY)).iterator();
+    }
+
+    /** Move to the next page with tuples on it, if there is one. */
+    private void advance() throws DbException, TransactionAbortedException {
+        while (!hasNext() && currentPageNo + 1 < sf.numPages()) {
+            currentPageNo++;
+            currentPageIter = pageIterator(currentPageNo);
+        }
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        active = true;
+        currentPageNo = -1;
+        currentPageIter = null;
+        advance();
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        return (currentPageIter != null) && (currentPageIter.hasNext());
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        if (!active) throw new NoSuchElementException("Iterator has not been opened.");
+        if (!hasNext()) throw new NoSuchElementException("no more tuples");
+        Tuple ans = currentPageIter.next();
+        advance();
+        return ans;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (!active) throw new DbException("Iterator has not been opened.");
+        close();
+        open();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return sf.getTupleDesc();
+    }
+
+    public void close() {
+        active = false;
+        currentPageNo = -1;
+        currentPageIter = null;
+    }
+}
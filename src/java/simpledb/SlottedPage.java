@@ -0,0 +1,404 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * SlottedPage stores the tuples of a SlottedFile as variable-length records,
+ * so that short strings take only the bytes they need rather than the
+ * STRING_LEN + 4 bytes every string takes on a HeapPage.
+ * <p>
+ * The page starts with two ints, the number of slots and the offset where
+ * the records begin, followed by the slot directory: one (offset, length)
+ * pair of ints per slot. Records are packed from the end of the page
+ * towards the directory. A slot of length 0 is empty; its number may be
+ * reused by a later insert, and the space its record took is reclaimed by
+ * compacting the page when an insert needs it. A page of all zeros is an
+ * empty page.
+ * <p>
+ * In a record, an int field takes 4 bytes and a string field takes a 4 byte
+ * length followed by the string in UTF-8, at most {@link Type#STRING_LEN}
+ * bytes of it.
+ *
+ * @see SlottedFile
+ * @see HeapPage
+ */
+public class SlottedPage implements Page {
+
+    /** Bytes taken by the slot count and the start of the records. */
+    static final int HEADER_SIZE = 8;
+    /** Bytes taken by one slot directory entry. */
+    static final int SLOT_SIZE = 8;
+    /** The encoding of string fields. */
+    static final Charset CHARSET = Charset.forName("UTF-8");
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    // the page size of this page's table
+    final int pageSize;
+    // the bytes of the page, kept up to date in place
+    byte[] data;
+    // false while data is shared, with the before-image or with whoever
+    // made the page; it is copied before the next change
+    private boolean ownsData = false;
+    // decoded tuples by slot, filled in as they are asked for
+    private Tuple[] tuples;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+    boolean isDirty;
+    TransactionId tid;
+
+    /**
+     * Create a SlottedPage from a set of bytes of data read from disk, in
+     * the format described above, as long as the table's page size from
+     * {@link Catalog#getPageSize}.
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.pageSize = Database.getCatalog().getPageSize(id.getTableId());
+        this.isDirty = false;
+        tid = null;
+        this.data = data;
+
+        if (data.length < pageSize) {
+            throw new EOFException("page " + id.pageNumber() + " is too short");
+        }
+        int n = getNumSlots();
+        if (n < 0 || directoryEnd(n) > getRecordsStart()) {
+            throw new IOException("bad slot directory on page " + id.pageNumber());
+        }
+        tuples = new Tuple[n];
+
+        setBeforeImage();
+    }
+
+    /**
+     * @return the bytes of an empty page; passing them to the constructor
+     *         makes a page with no tuples
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /**
+     * @return the bytes of an empty page of a table whose pages are
+     *         pageSize bytes long
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize];
+    }
+
+    /**
+     * @return the number of bytes a tuple takes on a page when it needs a new
+     *         slot; a page with at least this much free space has room for it
+     */
+    public static int spaceNeeded(Tuple t) {
+        return recordLength(t) + SLOT_SIZE;
+    }
+
+    /** Return a view of this page before it was modified -- used by recovery */
+    public SlottedPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new SlottedPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    /**
+     * Make the current contents the before-image, sharing the bytes with the
+     * page until it next changes.
+     */
+    public synchronized void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = data;
+            ownsData = false;
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /** @return a copy of the bytes of this page */
+    public synchronized byte[] getPageData() {
+        return Arrays.copyOf(data, pageSize);
+    }
+
+    /** @return the number of entries in the slot directory, used or not */
+    public int getNumSlots() {
+        return readInt(data, 0);
+    }
+
+    /** @return true if a slot holds a tuple */
+    public boolean isSlotUsed(int slot) {
+        return slot >= 0 && slot < getNumSlots() && slotLength(slot) > 0;
+    }
+
+    /**
+     * @return the number of bytes on this page that hold neither the header,
+     *         the slot directory, nor a record; compacting the page would
+     *         make them all contiguous
+     */
+    public synchronized int getFreeSpace() {
+        int n = getNumSlots();
+        int used = 0;
+        for (int i = 0; i < n; i++) {
+            used += slotLength(i);
+        }
+        return pageSize - directoryEnd(n) - used;
+    }
+
+    /**
+     * Adds the specified tuple to the page, in the first empty slot or a new
+     * one; the tuple is updated to reflect that it is now stored here.
+     * @throws DbException if the page does not have room for it or the
+     *         tupledesc is mismatch.
+     */
+    public synchronized void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("tupledesc is mismatch");
+        }
+        byte[] record = encode(t);
+        int n = getNumSlots();
+        int slot = 0;
+        while (slot < n && slotLength(slot) > 0) {
+            slot++;
+        }
+        int directory = directoryEnd(slot == n ? n + 1 : n);
+        if (getFreeSpace() - (slot == n ? SLOT_SIZE : 0) < record.length) {
+            throw new DbException("page is full");
+        }
+        if (getRecordsStart() - directory < record.length) {
+            compact();
+        }
+
+        ownData();
+        int start = getRecordsStart() - record.length;
+        System.arraycopy(record, 0, data, start, record.length);
+        writeInt(data, 4, start);
+        if (slot == n) {
+            writeInt(data, 0, n + 1);
+            tuples = Arrays.copyOf(tuples, n + 1);
+        }
+        setSlot(slot, start, record.length);
+        tuples[slot] = t;
+        t.setRecordId(new RecordId(pid, slot));
+        updateFreeSpace();
+    }
+
+    /**
+     * Delete the specified tuple from the page. Its space is reclaimed when
+     * an insert next needs it.
+     * @throws DbException if this tuple is not on this page, or its slot is
+     *         already empty.
+     */
+    public synchronized void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()) || !isSlotUsed(rid.tupleno())) {
+            throw new DbException("Can't find the record in the page!");
+        }
+        ownData();
+        int slot = rid.tupleno();
+        setSlot(slot, 0, 0);
+        tuples[slot] = null;
+
+        // trailing empty slots leave the directory
+        int n = getNumSlots();
+        while (n > 0 && slotLength(n - 1) == 0) {
+            n--;
+        }
+        if (n < getNumSlots()) {
+            writeInt(data, 0, n);
+            tuples = Arrays.copyOf(tuples, n);
+        }
+        updateFreeSpace();
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        if (dirty) {
+            this.tid = tid;
+        }
+        this.isDirty = dirty;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return isDirty ? tid : null;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this
+     *         iterator throws an UnsupportedOperationException)
+     */
+    public synchronized Iterator<Tuple> iterator() {
+        ArrayList<Tuple> tupleList = new ArrayList<Tuple>();
+        for (int i = 0; i < getNumSlots(); i++) {
+            if (slotLength(i) > 0) {
+                tupleList.add(getTuple(i));
+            }
+        }
+        return Collections.unmodifiableList(tupleList).iterator();
+    }
+
+    private Tuple getTuple(int slot) {
+        Tuple t = tuples[slot];
+        if (t == null) {
+            t = decode(slotOffset(slot));
+            t.setRecordId(new RecordId(pid, slot));
+            tuples[slot] = t;
+        }
+        return t;
+    }
+
+    private static int recordLength(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        int len = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.STRING_TYPE) {
+                len += 4 + ((StringField) t.getField(i)).getValue().getBytes(CHARSET).length;
+            } else {
+                len += td.getFieldType(i).getLen();
+            }
+        }
+        return len;
+    }
+
+    private byte[] encode(Tuple t) throws DbException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(recordLength(t));
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int i = 0; i < td.numFields(); i++) {
+                if (td.getFieldType(i) == Type.STRING_TYPE) {
+                    byte[] bytes = ((StringField) t.getField(i)).getValue().getBytes(CHARSET);
+                    if (bytes.length > Type.STRING_LEN) {
+                        throw new DbException("string field " + i + " takes " + bytes.length
+                                + " bytes, more than " + Type.STRING_LEN);
+                    }
+                    dos.writeInt(bytes.length);
+                    dos.write(bytes);
+                } else {
+                    t.getField(i).serialize(dos);
+                }
+            }
+            dos.flush();
+        } catch (IOException e) {
+            throw new DbException("can't serialize tuple: " + e.getMessage());
+        }
+        return baos.toByteArray();
+    }
+
+    private Tuple decode(int offset) {
+        Tuple t = new Tuple(td);
+        int pos = offset;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.STRING_TYPE) {
+                int len = readInt(data, pos);
+                t.setField(i, new StringField(new String(data, pos + 4, len, CHARSET), Type.STRING_LEN));
+                pos += 4 + len;
+            } else {
+                t.setField(i, new IntField(readInt(data, pos)));
+                pos += 4;
+            }
+        }
+        return t;
+    }
+
+    /** Move the records together at the end of the page. */
+    private void compact() {
+        byte[] compacted = new byte[data.length];
+        int n = getNumSlots();
+        System.arraycopy(data, 0, compacted, 0, directoryEnd(n));
+        int end = pageSize;
+        for (int i = 0; i < n; i++) {
+            int len = slotLength(i);
+            if (len > 0) {
+                end -= len;
+                System.arraycopy(data, slotOffset(i), compacted, end, len);
+                writeInt(compacted, HEADER_SIZE + i * SLOT_SIZE, end);
+            }
+        }
+        writeInt(compacted, 4, end);
+        data = compacted;
+        ownsData = true;
+    }
+
+    /** Copy data before the first change to it, since others may hold it. */
+    private void ownData() {
+        if (!ownsData) {
+            data = data.clone();
+            ownsData = true;
+        }
+    }
+
+    private static int directoryEnd(int numSlots) {
+        return HEADER_SIZE + numSlots * SLOT_SIZE;
+    }
+
+    /** @return where the records begin; 0 on disk means an empty page */
+    private int getRecordsStart() {
+        int start = readInt(data, 4);
+        return start == 0 ? pageSize : start;
+    }
+
+    private int slotOffset(int slot) {
+        return readInt(data, HEADER_SIZE + slot * SLOT_SIZE);
+    }
+
+    private int slotLength(int slot) {
+        return readInt(data, HEADER_SIZE + slot * SLOT_SIZE + 4);
+    }
+
+    private void setSlot(int slot, int offset, int length) {
+        writeInt(data, HEADER_SIZE + slot * SLOT_SIZE, offset);
+        writeInt(data, HEADER_SIZE + slot * SLOT_SIZE + 4, length);
+    }
+
+    private static int readInt(byte[] b, int pos) {
+        return ((b[pos] & 0xff) << 24) | ((b[pos + 1] & 0xff) << 16)
+                | ((b[pos + 2] & 0xff) << 8) | (b[pos + 3] & 0xff);
+    }
+
+    private static void writeInt(byte[] b, int pos, int v) {
+        b[pos] = (byte) (v >>> 24);
+        b[pos + 1] = (byte) (v >>> 16);
+        b[pos + 2] = (byte) (v >>> 8);
+        b[pos + 3] = (byte) v;
+    }
+
+    /**
+     * Tell the free-space map of this page's file how much room is left.
+     * Pages of tables that are not in the catalog have no map to update.
+     */
+    private void updateFreeSpace() {
+        try {
+            DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            if (file instanceof SlottedFile) {
+                ((SlottedFile) file).getFreeSpaceMap().update(pid.pageNumber(), getFreeSpace());
+            }
+        } catch (NoSuchElementException e) {
+            // not a catalog table
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The SortMergeJoin operator joins two inputs sorted on their join fields
+ * by reading each of them once, in step. An input that is not already in
+ * the needed order, as reported by {@link SortOrder#of}, is sorted with an
+ * {@link ExternalSort} first.
+ * <p>
+ * Besides EQUALS it handles the range predicates. For GREATER_THAN and
+ * GREATER_THAN_OR_EQ both inputs are sorted ascending, so that the right
+ * tuples that match a left tuple are a prefix of the right input that only
+ * grows as the left key does; for LESS_THAN and LESS_THAN_OR_EQ both are
+ * sorted descending, to the same effect. The matching prefix is kept, as
+ * every tuple of it is part of the output of the current left tuple anyway:
+ * in memory up to the memory budget of a sort, and past that in a
+ * {@link SpillFile} that is read again for each left tuple. For EQUALS, the
+ * group of right tuples with the current key is kept the same way, and
+ * reused by following left tuples with the same key.
+ * <p>
+ * The output comes in the order of the left join field, which
+ * {@link #getSortOrder} reports, so an ORDER BY on that field needs no sort
+ * of its own.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private JoinPredicate p;
+    private DbIterator child1;
+    private DbIterator child2;
+    private final int memoryPages;
+    private final boolean asc;
+    private TupleDesc td; // of the output, set on open
+
+    // the children, sorted if they were not already
+    private DbIterator left;
+    private DbIterator right;
+    // the next right tuple not yet in the window
+    private Tuple pending;
+    // right tuples that match the current left tuple: the first maxWindow
+    // of them in memory, the rest in overflow
+    private ArrayList<Tuple> window;
+    private int maxWindow;
+    private SpillFile overflow;
+    private boolean windowSpilled;
+    private Tuple current;
+    // the next match of the current left tuple in window, then in overflow
+    private int match;
+    private DbFileIterator overflowReader;
+
+    /**
+     * Constructor. Accepts two children to join with the predicate, sorting
+     * each with the default memory budget if it is not in order already.
+     *
+     * @param p
+     *            The predicate to use to join the children; any operator
+     *            but NOT_EQUALS or LIKE
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, ExternalSort.DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * As above, with a budget of memoryPages pages for each sort.
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+            int memoryPages) {
+        if (!supports(p.getOperator())) {
+            throw new IllegalArgumentException("sort-merge join can't do " + p.getOperator());
+        }
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.memoryPages = memoryPages;
+        this.asc = p.getOperator() != Predicate.Op.LESS_THAN
+                && p.getOperator() != Predicate.Op.LESS_THAN_OR_EQ;
+    }
+
+    /** @return true if a sort-merge join can evaluate the given predicate */
+    public static boolean supports(Predicate.Op op) {
+        return op != Predicate.Op.NOT_EQUALS && op != Predicate.Op.LIKE;
+    }
+
+    /**
+     * @return true if the output of an iterator is already in the order this
+     *         join needs for the given join field of it
+     */
+    public static boolean isSortedFor(DbIterator it, int field, Predicate.Op op) {
+        return SortOrder.isSorted(it, field,
+                op != Predicate.Op.LESS_THAN && op != Predicate.Op.LESS_THAN_OR_EQ);
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    /** @return the name of the left child's join field */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(p.getField1());
+    }
+
+    /** @return the name of the right child's join field */
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(p.getField2());
+    }
+
+    /** @see Join#getTupleDesc() */
+    public TupleDesc getTupleDesc() {
+        return TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    @Override
+    public SortOrder getSortOrder() {
+        return new SortOrder(p.getField1(), asc);
+    }
+
+    /** @return the child, or a sort of it if it is not in order */
+    private DbIterator sorted(DbIterator child, int field) {
+        if (SortOrder.isSorted(child, field, asc)) {
+            return child;
+        }
+        return new ExternalSort(field, asc, child, memoryPages);
+    }
+
+    /** @return true if the window has not fit in memory since the last open */
+    boolean isWindowSpilled() {
+        return windowSpilled;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        td = getTupleDesc();
+        maxWindow = Math.max(1, (int) ((long) memoryPages * BufferPool.getPageSize()
+                / child2.getTupleDesc().getSize()));
+        windowSpilled = false;
+        left = sorted(child1, p.getField1());
+        right = sorted(child2, p.getField2());
+        left.open();
+        right.open();
+        reset();
+    }
+
+    private void reset() throws DbException, TransactionAbortedException {
+        pending = right.hasNext() ? right.next() : null;
+        clearWindow();
+        current = null;
+        match = 0;
+    }
+
+    public void close() {
+        super.close();
+        if (left != null) {
+            left.close();
+            right.close();
+        }
+        left = null;
+        right = null;
+        closeOverflow();
+        window = null;
+        pending = null;
+        current = null;
+    }
+
+    private void closeOverflow() {
+        if (overflowReader != null) {
+            overflowReader.close();
+            overflowReader = null;
+        }
+        if (overflow != null) {
+            overflow.delete();
+            overflow = null;
+        }
+    }
+
+    private void clearWindow() {
+        closeOverflow();
+        window = new ArrayList<Tuple>();
+    }
+
+    private void addToWindow(Tuple t) throws DbException {
+        if (window.size() < maxWindow) {
+            window.add(t);
+            return;
+        }
+        if (overflow == null) {
+            overflow = new SpillFile(child2.getTupleDesc());
+            windowSpilled = true;
+        }
+        overflow.add(t);
+    }
+
+    /** @return the next right tuple that matches the current left tuple, or null */
+    private Tuple nextMatch() throws DbException, TransactionAbortedException {
+        if (match < window.size()) {
+            return window.get(match++);
+        }
+        if (overflow == null) {
+            return null;
+        }
+        if (overflowReader == null) {
+            overflowReader = overflow.iterator();
+            overflowReader.open();
+        }
+        return overflowReader.hasNext() ? overflowReader.next() : null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        left.rewind();
+        right.rewind();
+        reset();
+    }
+
+    /** Moves the window to the right tuples that match a new left tuple. */
+    private void advance(Tuple t) throws DbException, TransactionAbortedException {
+        Field key = t.getField(p.getField1());
+        if (p.getOperator() == Predicate.Op.EQUALS) {
+            if (!window.isEmpty()
+                    && key.equals(window.get(0).getField(p.getField2()))) {
+                return; // same key as the last left tuple
+            }
+            clearWindow();
+            while (pending != null
+                    && key.compare(Predicate.Op.GREATER_THAN, pending.getField(p.getField2()))) {
+                pending = right.hasNext() ? right.next() : null;
+            }
+        }
+        while (pending != null && p.filter(t, pending)) {
+            addToWindow(pending);
+            pending = right.hasNext() ? right.next() : null;
+        }
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (current != null) {
+                Tuple t = nextMatch();
+                if (t != null) {
+                    return merge(current, t);
+                }
+            }
+            if (!left.hasNext()) {
+                return null;
+            }
+            current = left.next();
+            if (overflowReader != null) {
+                overflowReader.close();
+                overflowReader = null;
+            }
+            advance(current);
+            match = 0;
+        }
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        Tuple ans = new Tuple(td);
+        int n1 = t1.getTupleDesc().numFields();
+        for (int i = 0; i < n1; i++) {
+            ans.setField(i, t1.getField(i));
+        }
+        for (int i = 0; i < t2.getTupleDesc().numFields(); i++) {
+            ans.setField(n1 + i, t2.getField(i));
+        }
+        return ans;
+    }
+
+    /**
+     * See Operator.java for additional notes
+     */
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child1, child2 };
+    }
+
+    /**
+     * See Operator.java for additional notes
+     */
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+    }
+
+}
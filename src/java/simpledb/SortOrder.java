@@ -0,0 +1,73 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * SortOrder describes the order in which an iterator returns its tuples: by
+ * the value of one field, ascending or descending. Operators report the
+ * order of their output through {@link Operator#getSortOrder}, so that a
+ * plan can skip sorting tuples that already arrive in the order it needs.
+ */
+public class SortOrder implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int field;
+    private final boolean asc;
+
+    /**
+     * @param field the index of the field the tuples are ordered by
+     * @param asc true if the order is ascending
+     */
+    public SortOrder(int field, boolean asc) {
+        this.field = field;
+        this.asc = asc;
+    }
+
+    /**
+     * @return the order of an iterator's output, or null if it has none
+     *         that it knows of
+     */
+    public static SortOrder of(DbIterator it) {
+        if (it instanceof Operator) {
+            return ((Operator) it).getSortOrder();
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the output of an iterator is ordered by the given
+     *         field in the given direction
+     */
+    public static boolean isSorted(DbIterator it, int field, boolean asc) {
+        SortOrder order = of(it);
+        return order != null && order.field == field && order.asc == asc;
+    }
+
+    public int getField() {
+        return field;
+    }
+
+    public boolean isAscending() {
+        return asc;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof SortOrder)) {
+            return false;
+        }
+        SortOrder other = (SortOrder) o;
+        return field == other.field && asc == other.asc;
+    }
+
+    @Override
+    public int hashCode() {
+        return field * 2 + (asc ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        return field + (asc ? " asc" : " desc");
+    }
+}
@@ -0,0 +1,162 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.NoSuchElementException;
+
+/**
+ * SpillFile is a temporary file of tuples, written by an operator whose
+ * input does not fit in memory and read back in the order it was written.
+ * Tuples are stored in the same fixed-size format as on a HeapPage.
+ * <p>
+ * A SpillFile is written once: tuples are added, then {@link #finish} is
+ * called, after which it may be read any number of times. It may also be
+ * read while tuples are still being added; a reader then returns the
+ * tuples added before it was opened. {@link #delete}
+ * removes the file, and the operator that made it must call it, on failure
+ * too: nothing else will.
+ */
+public class SpillFile {
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private int size;
+
+    /**
+     * Creates an empty spill file for tuples of the given schema.
+     */
+    public SpillFile(TupleDesc td) throws DbException {
+        this.td = td;
+        try {
+            file = File.createTempFile("spill", ".tmp");
+            out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(file)));
+        } catch (IOException e) {
+            throw new DbException("can't create spill file: " + e.getMessage());
+        }
+    }
+
+    /** @return the schema of the tuples in this file */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of tuples written to this file */
+    public int size() {
+        return size;
+    }
+
+    /** Appends a tuple to the file. */
+    public void add(Tuple t) throws DbException {
+        if (out == null) {
+            throw new IllegalStateException("spill file is finished");
+        }
+        try {
+            for (int i = 0; i < td.numFields(); i++) {
+                t.getField(i).serialize(out);
+            }
+        } catch (IOException e) {
+            throw new DbException("can't write spill file: " + e.getMessage());
+        }
+        size++;
+    }
+
+    /** Writes out the tuples added so far, for a reader to see. */
+    private void flush() throws DbException {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new DbException("can't write spill file: " + e.getMessage());
+        }
+    }
+
+    /** Ends writing. */
+    public void finish() throws DbException {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new DbException("can't write spill file: " + e.getMessage());
+        }
+        out = null;
+    }
+
+    /** Deletes the file. */
+    public void delete() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // deleted anyway
+            }
+            out = null;
+        }
+        file.delete();
+    }
+
+    /**
+     * @return an iterator over the tuples of this file, in the order they
+     *         were added, up to the last one added before it is opened
+     */
+    public DbFileIterator iterator() {
+        return new DbFileIterator() {
+            private DataInputStream in;
+            private int read;
+            private int limit;
+
+            public void open() throws DbException {
+                flush();
+                limit = size;
+                try {
+                    in = new DataInputStream(new BufferedInputStream(
+                            new FileInputStream(file)));
+                } catch (IOException e) {
+                    throw new DbException("can't read spill file: " + e.getMessage());
+                }
+                read = 0;
+            }
+
+            public boolean hasNext() {
+                return in != null && read < limit;
+            }
+
+            public Tuple next() throws DbException {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = new Tuple(td);
+                try {
+                    for (int i = 0; i < td.numFields(); i++) {
+                        t.setField(i, td.getFieldType(i).parse(in));
+                    }
+                } catch (ParseException e) {
+                    throw new DbException("can't read spill file: " + e.getMessage());
+                }
+                read++;
+                return t;
+            }
+
+            public void rewind() throws DbException {
+                close();
+                open();
+            }
+
+            public void close() {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        // nothing more to read
+                    }
+                    in = null;
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,111 @@
+package simpledb;
+
+/**
+ * A class to represent a fixed-width histogram over a single String-based
+ * field. Strings are mapped to integers by their first four characters, in
+ * an order-preserving way, and counted in an {@link IntHistogram} over the
+ * whole range of such integers, so no values need be seen in advance, or
+ * over the range of the values of a column when they have been.
+ */
+public class StringHistogram {
+
+    /** The number of leading characters a string is bucketed by. */
+    static final int PREFIX_CHARS = 4;
+
+    /**
+     * The guessed selectivity of LIKE, which matches substrings anywhere in
+     * a string and so can't be told from their prefixes.
+     */
+    static final double LIKE_SELECTIVITY = 0.1;
+
+    private final IntHistogram hist;
+
+    /**
+     * Create a new StringHistogram with a specified number of buckets.
+     * <p>
+     * Our implementation is written in terms of an IntHistogram by
+     * converting each String to an integer.
+     *
+     * @param buckets
+     *            the number of buckets
+     */
+    public StringHistogram(int buckets) {
+        hist = new IntHistogram(buckets, minVal(), maxVal());
+    }
+
+    /**
+     * Create a StringHistogram from a histogram of strings converted by
+     * {@link #stringToInt}.
+     */
+    StringHistogram(IntHistogram hist) {
+        this.hist = hist;
+    }
+
+    /**
+     * Convert a string to an integer, with the property that if the return
+     * value(s1) < return value(s2), then s1 < s2. Characters past the first
+     * few, and above 127, are not told apart.
+     */
+    static int stringToInt(String s) {
+        int v = 0;
+        for (int i = 0; i < PREFIX_CHARS; i++) {
+            int c = i < s.length() ? Math.min(s.charAt(i), 127) : 0;
+            v = v * 128 + c;
+        }
+        return v;
+    }
+
+    /** @return the maximum value indexed by the histogram */
+    static int maxVal() {
+        return stringToInt("\u007f\u007f\u007f\u007f");
+    }
+
+    /** @return the minimum value indexed by the histogram */
+    static int minVal() {
+        return stringToInt("");
+    }
+
+    /** Add a new value to the histogram */
+    public void addValue(String s) {
+        hist.addValue(stringToInt(s));
+    }
+
+    /** @return the number of values added */
+    public int getNumValues() {
+        return hist.getNumValues();
+    }
+
+    /**
+     * Estimate the selectivity (as a double between 0 and 1) of the specified
+     * predicate over the specified string
+     *
+     * @param op
+     *            The operation being applied
+     * @param s
+     *            The string to apply op to
+     */
+    public double estimateSelectivity(Predicate.Op op, String s) {
+        if (op == Predicate.Op.LIKE) {
+            if (getNumValues() == 0) {
+                return 0.0;
+            }
+            return s.isEmpty() ? 1.0 : LIKE_SELECTIVITY;
+        }
+        return hist.estimateSelectivity(op, stringToInt(s));
+    }
+
+    /**
+     * @return the average selectivity of this histogram.
+     *
+     *         This is not an indispensable method to implement the basic join
+     *         optimization. It may be needed if you want to implement a more
+     *         efficient optimization
+     * */
+    public double avgSelectivity() {
+        return hist.avgSelectivity();
+    }
+
+    public String toString() {
+        return "StringHistogram(" + hist + ")";
+    }
+}
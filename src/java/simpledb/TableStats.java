@@ -1,8 +1,11 @@
 package simpledb;
 
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Random;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -68,9 +71,32 @@ public class TableStats {
     }
 
 
+    /**
+     * The most tuples whose values the histograms are built from; larger
+     * tables are sampled.
+     */
+    static final int SAMPLE_SIZE = 10000;
+
+    private final int ioCostPerPage;
+    private int numTuples;
+    private int numPages;
+    // one histogram per field, an IntHistogram or a StringHistogram
+    private final Object[] histograms;
+    private final int[] distinct;
+
     /**
      * Create a new TableStats object, that keeps track of statistics on each
      * column of a table
+     * <p>
+     * The table is read once, in memory that does not grow with it. Each
+     * field's range is tracked, and its distinct values are counted in a
+     * {@link DistinctSketch}. The values of a random sample of up to
+     * SAMPLE_SIZE tuples are kept (strings converted by
+     * {@link StringHistogram#stringToInt}), and at the end of the scan they
+     * are sorted and counted into a histogram of NUM_HIST_BINS buckets over
+     * each field's range. Tables no larger than the sample are counted
+     * exactly; for larger ones, each histogram is scaled to the table's size
+     * and the sketch's count of distinct values.
      * 
      * @param tableid
      *            The table over which to compute statistics
@@ -79,14 +105,98 @@ public class TableStats {
      *            sequential-scan IO and disk seeks.
      */
     public TableStats(int tableid, int ioCostPerPage) {
-        // For this function, you'll have to get the
-        // DbFile for the table in question,
-        // then scan through its tuples and calculate
-        // the values that you need.
-        // You should try to do this reasonably efficiently, but you don't
-        // necessarily have to (for example) do everything
-        // in a single scan of the table.
-        // some code goes here
+        this.ioCostPerPage = ioCostPerPage;
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        TupleDesc td = file.getTupleDesc();
+        int n = td.numFields();
+        this.histograms = new Object[n];
+        this.distinct = new int[n];
+
+        int[][] sample = new int[n][16];
+        int[] min = new int[n];
+        int[] max = new int[n];
+        DistinctSketch[] sketches = new DistinctSketch[n];
+        for (int i = 0; i < n; i++) {
+            sketches[i] = new DistinctSketch();
+        }
+        // seeded, so that the same table gets the same plans
+        Random rand = new Random(tableid);
+
+        int tuplePages = 0;
+        PageId lastPage = null;
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = file.iterator(tid);
+        try {
+            it.open();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                // a file's iterator returns the tuples of a page together
+                if (t.getRecordId() != null && !t.getRecordId().getPageId().equals(lastPage)) {
+                    lastPage = t.getRecordId().getPageId();
+                    tuplePages++;
+                }
+                // the slot of the sample the tuple replaces, or -1
+                int slot = numTuples < SAMPLE_SIZE ? numTuples : rand.nextInt(numTuples + 1);
+                if (slot >= SAMPLE_SIZE) {
+                    slot = -1;
+                }
+                for (int i = 0; i < n; i++) {
+                    int v;
+                    if (td.getFieldType(i) == Type.STRING_TYPE) {
+                        String s = ((StringField) t.getField(i)).getValue();
+                        v = StringHistogram.stringToInt(s);
+                        sketches[i].add(s);
+                    } else {
+                        v = ((IntField) t.getField(i)).getValue();
+                        sketches[i].add(v);
+                    }
+                    if (numTuples == 0 || v < min[i]) {
+                        min[i] = v;
+                    }
+                    if (numTuples == 0 || v > max[i]) {
+                        max[i] = v;
+                    }
+                    if (slot == sample[i].length) {
+                        sample[i] = Arrays.copyOf(sample[i], Math.min(slot * 2, SAMPLE_SIZE));
+                    }
+                    if (slot >= 0) {
+                        sample[i][slot] = v;
+                    }
+                }
+                numTuples++;
+            }
+            it.close();
+        } catch (DbException e) {
+            throw new RuntimeException("could not scan table " + tableid, e);
+        } catch (TransactionAbortedException e) {
+            throw new RuntimeException("could not scan table " + tableid, e);
+        } finally {
+            try {
+                Database.getBufferPool().transactionComplete(tid);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        // a heap file is read page by page, empty or not; other files are
+        // taken to read only the pages their tuples are on
+        numPages = file instanceof HeapFile ? ((HeapFile) file).numPages() : tuplePages;
+
+        int sampled = Math.min(numTuples, SAMPLE_SIZE);
+        for (int i = 0; i < n; i++) {
+            int[] sorted = Arrays.copyOf(sample[i], sampled);
+            sample[i] = null;
+            Arrays.sort(sorted);
+            IntHistogram hist = new IntHistogram(NUM_HIST_BINS, min[i], max[i]);
+            for (int v : sorted) {
+                hist.addValue(v);
+            }
+            distinct[i] = (int) Math.min(sketches[i].estimate(), numTuples);
+            if (numTuples > sampled) {
+                hist.scaleTo(numTuples, distinct[i]);
+            }
+            histograms[i] = td.getFieldType(i) == Type.STRING_TYPE ? new StringHistogram(hist) : hist;
+        }
     }
 
     /**
@@ -102,8 +212,7 @@ public class TableStats {
      * @return The estimated cost of scanning the table.
      */
     public double estimateScanCost() {
-        // some code goes here
-        return 0;
+        return (double) numPages * ioCostPerPage;
     }
 
     /**
@@ -116,8 +225,7 @@ public class TableStats {
      *         selectivityFactor
      */
     public int estimateTableCardinality(double selectivityFactor) {
-        // some code goes here
-        return 0;
+        return (int) Math.round(totalTuples() * selectivityFactor);
     }
 
     /**
@@ -132,7 +240,17 @@ public class TableStats {
      * expected selectivity. You may estimate this value from the histograms.
      * */
     public double avgSelectivity(int field, Predicate.Op op) {
-        return 0.5;
+        double eq = histograms[field] instanceof IntHistogram
+                ? ((IntHistogram) histograms[field]).avgSelectivity()
+                : ((StringHistogram) histograms[field]).avgSelectivity();
+        switch (op) {
+        case EQUALS:
+            return eq;
+        case NOT_EQUALS:
+            return 1.0 - eq;
+        default:
+            return 0.5;
+        }
     }
 
     /**
@@ -149,16 +267,26 @@ public class TableStats {
      *         predicate
      */
     public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
-        // some code goes here
-        return 1.0;
+        if (histograms[field] instanceof IntHistogram) {
+            return ((IntHistogram) histograms[field]).estimateSelectivity(op,
+                    ((IntField) constant).getValue());
+        }
+        return ((StringHistogram) histograms[field]).estimateSelectivity(op,
+                ((StringField) constant).getValue());
+    }
+
+    /**
+     * @return the number of distinct values of a field
+     */
+    public int numDistinct(int field) {
+        return distinct[field];
     }
 
     /**
      * return the total number of tuples in this table
      * */
     public int totalTuples() {
-        // some code goes here
-        return 0;
+        return numTuples;
     }
 
 }
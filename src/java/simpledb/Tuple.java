@@ -1,9 +1,14 @@
 package simpledb;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 import simpledb.TupleDesc.TDItem;
 
@@ -19,6 +24,10 @@ public class Tuple implements Serializable {
     private TupleDesc td;
     private RecordId recordId;
     private Field[] fieldList;
+    // bytes the unset fields are decoded from on first use, null once there
+    // are none left to decode or for tuples not read from a page
+    private transient volatile ByteBuffer data;
+    private transient int offset;
      
 
     /**
@@ -35,6 +44,25 @@ public class Tuple implements Serializable {
     	fieldList = new Field[td.numFields()];
     }
 
+    /**
+     * Create a tuple whose fields are decoded from data, in the on-page
+     * format, starting at offset, each one the first time it is asked for.
+     * data must not change while any field is still undecoded.
+     */
+    Tuple(TupleDesc td, byte[] data, int offset) {
+    	this(td, ByteBuffer.wrap(data), offset);
+    }
+
+    /**
+     * Create a tuple whose fields are decoded from a buffer, at offset from
+     * its start, as for {@link #Tuple(TupleDesc, byte[], int)}.
+     */
+    Tuple(TupleDesc td, ByteBuffer data, int offset) {
+    	this(td);
+    	this.data = data;
+    	this.offset = offset;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -84,7 +112,46 @@ public class Tuple implements Serializable {
      */
     public Field getField(int i) {
         // some code goes here
-        return fieldList[i];
+    	ByteBuffer d = data;
+    	Field f = fieldList[i];
+    	if (f == null && d != null) {
+    		f = decodeField(i, d);
+    	}
+        return f;
+    }
+
+    private Field decodeField(int i, ByteBuffer data) {
+    	int pos = offset;
+    	for (int j = 0; j < i; j++) {
+    		pos += td.getFieldType(j).getLen();
+    	}
+    	ByteBuffer buf = data.duplicate();
+    	buf.position(pos);
+    	try {
+    		Field f = td.getFieldType(i).parse(buf);
+    		fieldList[i] = f;
+    		return f;
+    	} catch (ParseException e) {
+    		throw new NoSuchElementException("parsing error!");
+    	}
+    }
+
+    /**
+     * Decode every field that has not been decoded yet, so that this tuple
+     * no longer depends on the bytes it was read from.
+     */
+    void materialize() {
+    	if (data != null) {
+    		for (int i = 0; i < fieldList.length; i++) {
+    			getField(i);
+    		}
+    		data = null;
+    	}
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+    	materialize();
+    	out.defaultWriteObject();
     }
 
     /**
@@ -98,9 +165,9 @@ public class Tuple implements Serializable {
     public String toString() {
         // some code goes here
     	if (fieldList.length == 0) return "";
-        String result = fieldList[0].toString();
+        String result = getField(0).toString();
         for (int i = 1; i < fieldList.length; i ++) {
-            result += ("\t" + fieldList[i]);
+            result += ("\t" + getField(i));
         }
         return result ;
     }
@@ -112,6 +179,7 @@ public class Tuple implements Serializable {
     public Iterator<Field> fields()
     {
         // some code goes here
+        materialize();
         return Arrays.asList(fieldList).iterator();
     }
     
@@ -0,0 +1,274 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class BTreeFileTest extends TestUtil.IndexFileTest {
+
+  BTreeFile tree;
+
+  /**
+   * The pages are small, so that a few thousand tuples make a tree of three
+   * levels.
+   */
+  @Before public void createTree() throws Exception {
+    File f = File.createTempFile("btree", ".dat");
+    f.deleteOnExit();
+    tree = new BTreeFile(f, 0, Utility.getTupleDesc(2));
+    Database.getCatalog().addTable(tree, "t");
+  }
+
+  @Override protected Index index() {
+    return tree;
+  }
+
+  /** @return the height of the tree, counting the leaves */
+  private int height() throws Exception {
+    BTreeHeaderPage meta = (BTreeHeaderPage) Database.getBufferPool().getPage(tid,
+        new HeapPageId(tree.getId(), 0), Permissions.READ_ONLY);
+    int levels = 1;
+    int kind = meta.getRootKind();
+    int pgno = meta.getRoot();
+    while (kind == BTreePage.INTERNAL) {
+      BTreeInternalPage page = (BTreeInternalPage) Database.getBufferPool().getPage(tid,
+          new HeapPageId(tree.getId(), pgno), Permissions.READ_ONLY);
+      kind = page.getChildKind();
+      pgno = page.getChild(0);
+      levels++;
+    }
+    return levels;
+  }
+
+  /**
+   * A scan returns every tuple inserted, in key order, after enough inserts
+   * to split the root more than once.
+   */
+  @Test public void insertAndScan() throws Exception {
+    ArrayList<Integer> inserted = insertRandom(4000, 100000);
+    Collections.sort(inserted);
+    assertEquals(inserted, keys(tree.iterator(tid)));
+    assertEquals(3, height());
+  }
+
+  /**
+   * Lookups of each operator return the matching keys in order, also when
+   * a key has more duplicates than fit in a leaf.
+   */
+  @Test public void indexLookups() throws Exception {
+    ArrayList<Integer> inserted = insertRandom(3000, 20);
+    Collections.sort(inserted);
+    Predicate.Op[] ops = { Predicate.Op.EQUALS, Predicate.Op.GREATER_THAN,
+        Predicate.Op.GREATER_THAN_OR_EQ, Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ };
+    for (Predicate.Op op : ops) {
+      for (int v = -1; v <= 20; v += 3) {
+        ArrayList<Integer> expected = new ArrayList<Integer>();
+        for (int k : inserted) {
+          if (new IntField(k).compare(op, new IntField(v))) {
+            expected.add(k);
+          }
+        }
+        assertEquals(op + " " + v, expected,
+            keys(tree.indexIterator(tid, new IndexPredicate(op, new IntField(v)))));
+      }
+    }
+  }
+
+  /**
+   * An equality lookup reads a path down the tree, not the whole table.
+   */
+  @Test public void lookupReadsFewPages() throws Exception {
+    checkLookupReadsFewPages(100000);
+    assertTrue(tree.numPages() > 100);
+  }
+
+  /**
+   * A Delete over a scan of the tree removes every tuple, merging leaves as
+   * it goes, and the freed pages are used again by later inserts.
+   */
+  @Test public void deleteAllWhileScanning() throws Exception {
+    insertRandom(4000, 100000);
+    int pages = tree.numPages();
+    Delete delete = new Delete(tid, new SeqScan(tid, tree.getId()));
+    delete.open();
+    assertEquals(4000, ((IntField) delete.next().getField(0)).getValue());
+    delete.close();
+    assertTrue(keys(tree.iterator(tid)).isEmpty());
+    assertEquals(1, height());
+
+    insertRandom(4000, 100000);
+    assertEquals(4000, keys(tree.iterator(tid)).size());
+    assertEquals(pages, tree.numPages());
+  }
+
+  /**
+   * Deleting tuples at random keeps the rest in order, and the tree shrinks.
+   */
+  @Test public void deleteRandom() throws Exception {
+    insertRandom(4000, 100000);
+    ArrayList<Tuple> all = new ArrayList<Tuple>();
+    DbFileIterator it = tree.iterator(tid);
+    it.open();
+    while (it.hasNext()) {
+      all.add(it.next());
+    }
+    it.close();
+    Collections.shuffle(all, new Random(7));
+    ArrayList<Integer> kept = new ArrayList<Integer>();
+    for (int i = 0; i < all.size(); i++) {
+      if (i < 3900) {
+        Database.getBufferPool().deleteTuple(tid, all.get(i));
+      } else {
+        kept.add(((IntField) all.get(i).getField(0)).getValue());
+      }
+    }
+    Collections.sort(kept);
+    assertEquals(kept, keys(tree.iterator(tid)));
+    assertTrue(height() < 3);
+  }
+
+  /**
+   * Aborting a transaction that split pages leaves the tree as it was.
+   */
+  @Test public void abortUndoesSplits() throws Exception {
+    checkAbortUndoesSplits(100);
+    assertEquals(2, height());
+  }
+
+  /** Inserts keys [from, to) into the tree in its own thread, a transaction at a time. */
+  private class Inserter extends Thread {
+    private final TransactionId tid;
+    private final int from, to;
+    volatile boolean done = false;
+    volatile Exception error = null;
+
+    Inserter(TransactionId tid, int from, int to) {
+      this.tid = tid;
+      this.from = from;
+      this.to = to;
+      start();
+    }
+
+    public void run() {
+      try {
+        for (int key = from; key < to; key++) {
+          Database.getBufferPool().insertTuple(tid, tree.getId(),
+              Utility.getHeapTuple(new int[] { key, 0 }));
+        }
+        done = true;
+      } catch (Exception e) {
+        error = e;
+      }
+    }
+  }
+
+  /**
+   * A lookup holds the page with the root pointer only while it reads the
+   * root, so a transaction can split pages while a reader is open.
+   */
+  @Test public void splitsWhileReaderIsOpen() throws Exception {
+    insertRandom(4000, 100000);
+    Database.getBufferPool().transactionComplete(tid);
+    tid = new TransactionId();
+    assertEquals(3, height());
+    Database.getBufferPool().transactionComplete(tid);
+    tid = new TransactionId();
+
+    // tid reads the leftmost path; the inserts go past the rightmost leaf
+    lookup(-1);
+    assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(tree.getId(), 0)));
+    int pages = tree.numPages();
+    TransactionId writer = new TransactionId();
+    Inserter inserter = new Inserter(writer, 100000, 100040);
+    inserter.join(10000);
+    assertNull(inserter.error);
+    assertTrue(inserter.done);
+    assertTrue(tree.numPages() > pages);
+    Database.getBufferPool().transactionComplete(writer);
+  }
+
+  /**
+   * Two threads inserting at once, each splitting pages, both get their
+   * keys in, retrying the transactions aborted on a deadlock.
+   */
+  @Test public void concurrentInsertsSplit() throws Exception {
+    // an aborted transaction's pages stay in the pool to be rolled back
+    Database.resetBufferPool(1000);
+    final ArrayList<Integer> inserted = new ArrayList<Integer>();
+    final Exception[] errors = new Exception[2];
+    Thread[] threads = new Thread[2];
+    for (int i = 0; i < threads.length; i++) {
+      final int n = i;
+      threads[i] = new Thread() {
+        public void run() {
+          try {
+            Random rand = new Random(n);
+            for (int batch = 0; batch < 40; batch++) {
+              ArrayList<Integer> keys = new ArrayList<Integer>();
+              for (int j = 0; j < 50; j++) {
+                keys.add(rand.nextInt(100000));
+              }
+              while (true) {
+                TransactionId t = new TransactionId();
+                try {
+                  for (int key : keys) {
+                    Database.getBufferPool().insertTuple(t, tree.getId(),
+                        Utility.getHeapTuple(new int[] { key, n }));
+                  }
+                  Database.getBufferPool().transactionComplete(t);
+                  break;
+                } catch (TransactionAbortedException e) {
+                  Database.getBufferPool().transactionComplete(t, false);
+                }
+              }
+              synchronized (inserted) {
+                inserted.addAll(keys);
+              }
+            }
+          } catch (Exception e) {
+            errors[n] = e;
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertNull(errors[0]);
+    assertNull(errors[1]);
+    Collections.sort(inserted);
+    assertEquals(4000, inserted.size());
+    assertEquals(inserted, keys(tree.iterator(tid)));
+    assertEquals(3, height());
+  }
+
+  /**
+   * A B+-tree added to the catalog is found there as a clustered index on
+   * its key.
+   */
+  @Test public void catalogIndex() {
+    assertSame(tree, Database.getCatalog().getIndex(tree.getId(), 0, Predicate.Op.LESS_THAN));
+    assertEquals(1, Database.getCatalog().getIndexes(tree.getId()).size());
+    assertTrue(tree.isClustered());
+    assertFalse(tree.supports(Predicate.Op.NOT_EQUALS));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BTreeFileTest.class);
+  }
+}
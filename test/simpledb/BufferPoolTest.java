@@ -0,0 +1,201 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolTest extends SimpleDbTestBase {
+  private static final long SLOW_READ_MS = 500;
+
+  /**
+   * HeapFile whose reads of page 1, and all writes, stall until released,
+   * or SLOW_READ_MS.
+   */
+  private static class SlowHeapFile extends HeapFile {
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch slowReadStarted = new CountDownLatch(1);
+    final CountDownLatch releaseWrites = new CountDownLatch(1);
+    final CountDownLatch slowWriteStarted = new CountDownLatch(1);
+    final AtomicInteger reads = new AtomicInteger(0);
+
+    SlowHeapFile(File f, TupleDesc td) {
+      super(f, td);
+    }
+
+    @Override
+    public Page readPage(PageId pid) throws NoSuchElementException {
+      reads.incrementAndGet();
+      if (pid.pageNumber() == 1) {
+        slowReadStarted.countDown();
+        try {
+          release.await(SLOW_READ_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      }
+      return super.readPage(pid);
+    }
+
+    @Override
+    public void writePage(Page page) throws IOException {
+      slowWriteStarted.countDown();
+      try {
+        releaseWrites.await(SLOW_READ_MS, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+      super.writePage(page);
+    }
+  }
+
+  private SlowHeapFile table;
+  private BufferPool bp;
+
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    File f = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * 3, 1000, null, null);
+    table = new SlowHeapFile(f, Utility.getTupleDesc(2));
+    Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+    bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+  }
+
+  private Thread reader(final TransactionId tid, final PageId pid, final Page[] result) {
+    Thread t = new Thread() {
+      public void run() {
+        try {
+          result[0] = bp.getPage(tid, pid, Permissions.READ_ONLY);
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    t.start();
+    return t;
+  }
+
+  /**
+   * A hit, and a miss on another page, complete while a slow read is in
+   * progress.
+   */
+  @Test public void missDoesNotBlockOthers() throws Exception {
+    TransactionId tid = new TransactionId();
+    PageId p0 = new HeapPageId(table.getId(), 0);
+    PageId p1 = new HeapPageId(table.getId(), 1);
+    PageId p2 = new HeapPageId(table.getId(), 2);
+    bp.getPage(tid, p0, Permissions.READ_ONLY);
+
+    Page[] slow = new Page[1];
+    Thread t = reader(tid, p1, slow);
+    table.slowReadStarted.await();
+
+    long start = System.currentTimeMillis();
+    bp.getPage(tid, p0, Permissions.READ_ONLY);
+    bp.getPage(tid, p2, Permissions.READ_ONLY);
+    assertTrue(System.currentTimeMillis() - start < SLOW_READ_MS);
+
+    table.release.countDown();
+    t.join();
+    assertEquals(p1, slow[0].getId());
+    bp.transactionComplete(tid);
+  }
+
+  /**
+   * Concurrent misses on the same page read it from disk only once.
+   */
+  @Test public void concurrentMissesShareOneRead() throws Exception {
+    TransactionId tid = new TransactionId();
+    PageId p1 = new HeapPageId(table.getId(), 1);
+    Page[] first = new Page[1];
+    Page[] second = new Page[1];
+
+    Thread t1 = reader(tid, p1, first);
+    table.slowReadStarted.await();
+    Thread t2 = reader(tid, p1, second);
+    Thread.sleep(100);
+
+    table.release.countDown();
+    t1.join();
+    t2.join();
+    assertEquals(1, table.reads.get());
+    assertSame(first[0], second[0]);
+    assertEquals(1, bp.getMissCount());
+    bp.transactionComplete(tid);
+  }
+
+  /**
+   * A miss that has to write out a dirty victim does so without holding
+   * the pool's monitor, so other misses go ahead during the write.
+   */
+  @Test public void dirtyVictimWrittenOutsideMonitor() throws Exception {
+    bp = Database.resetBufferPool(2);
+    table.release.countDown();
+    TransactionId tid = new TransactionId();
+    PageId p0 = new HeapPageId(table.getId(), 0);
+    PageId p1 = new HeapPageId(table.getId(), 1);
+    PageId p2 = new HeapPageId(table.getId(), 2);
+    bp.getPage(tid, p0, Permissions.READ_WRITE).markDirty(true, tid);
+    bp.getPage(tid, p1, Permissions.READ_WRITE).markDirty(true, tid);
+
+    Page[] evicting = new Page[1];
+    Thread t = reader(tid, p2, evicting);
+    table.slowWriteStarted.await();
+
+    long start = System.currentTimeMillis();
+    bp.discardPage(p1);
+    bp.getPage(tid, p0, Permissions.READ_ONLY);
+    bp.getPage(tid, new HeapPageId(table.getId(), 1), Permissions.READ_ONLY);
+    assertTrue(System.currentTimeMillis() - start < SLOW_READ_MS);
+
+    table.releaseWrites.countDown();
+    t.join();
+    assertEquals(p2, evicting[0].getId());
+    bp.transactionComplete(tid);
+  }
+
+  /**
+   * Pages evicted into a frame arena come back from it, with the same
+   * contents, without reading the file again.
+   */
+  @Test public void evictedPagesComeBackFromArena() throws Exception {
+    FrameArena arena = new FrameArena(3, BufferPool.getPageSize());
+    bp = Database.resetBufferPool(new BufferPool(1, new ClockReplacementPolicy(1), arena));
+    table.release.countDown();
+    TransactionId tid = new TransactionId();
+    byte[][] first = new byte[3][];
+    for (int i = 0; i < 3; i++) {
+      first[i] = bp.getPage(tid, new HeapPageId(table.getId(), i),
+          Permissions.READ_ONLY).getPageData();
+    }
+    assertEquals(2, arena.size());
+    int reads = table.reads.get();
+
+    for (int i = 0; i < 3; i++) {
+      Page p = bp.getPage(tid, new HeapPageId(table.getId(), i), Permissions.READ_ONLY);
+      assertTrue(java.util.Arrays.equals(first[i], p.getPageData()));
+    }
+    assertEquals(reads, table.reads.get());
+    assertEquals(3, arena.getHitCount());
+    assertEquals(2, arena.size());
+    bp.transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BufferPoolTest.class);
+  }
+}
@@ -0,0 +1,68 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ExternalSortTest extends SimpleDbTestBase {
+
+  /** @return n two-field tuples, (i * 7919 % n, i), in no useful order */
+  private static TupleIterator shuffled(int n) {
+    int[] data = new int[n * 2];
+    for (int i = 0; i < n; i++) {
+      data[i * 2] = (int) ((long) i * 7919 % n);
+      data[i * 2 + 1] = i;
+    }
+    return TestUtil.createTupleList(2, data);
+  }
+
+  /** Checks that an open sort returns 0..n-1, in the given direction. */
+  private static void checkSorted(ExternalSort sort, int n, boolean asc) throws Exception {
+    for (int i = 0; i < n; i++) {
+      assertTrue(sort.hasNext());
+      int expected = asc ? i : n - 1 - i;
+      assertEquals(new IntField(expected), sort.next().getField(0));
+    }
+    assertFalse(sort.hasNext());
+  }
+
+  /**
+   * An input that fits the budget is sorted in memory.
+   */
+  @Test public void inMemory() throws Exception {
+    ExternalSort sort = new ExternalSort(0, true, shuffled(100));
+    sort.open();
+    checkSorted(sort, 100, true);
+    assertFalse(sort.isSpilled());
+    assertEquals(new SortOrder(0, true), sort.getSortOrder());
+  }
+
+  /**
+   * An input larger than the budget is sorted in runs on disk and merged,
+   * in several passes when there are more runs than fit in memory at once.
+   */
+  @Test public void multiPassMerge() throws Exception {
+    // 512 tuples fit in a page, so 3 pages make 4 runs merged 2 at a time
+    int n = 5000;
+    ExternalSort sort = new ExternalSort(0, false, shuffled(n), 3);
+    sort.open();
+    assertTrue(sort.isSpilled());
+    checkSorted(sort, n, false);
+
+    sort.rewind();
+    checkSorted(sort, n, false);
+    sort.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ExternalSortTest.class);
+  }
+}
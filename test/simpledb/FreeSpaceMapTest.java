@@ -0,0 +1,94 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class FreeSpaceMapTest extends TestUtil.CreateHeapFile {
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /** Fill two pages and start a third, then commit. */
+    private void fillTwoPages() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 504 * 2 + 1; ++i) {
+            bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        }
+        bp.transactionComplete(tid, true);
+        assertEquals(3, empty.numPages());
+    }
+
+    /**
+     * Inserts and deletes keep the map up to date.
+     */
+    @Test public void tracksInsertsAndDeletes() throws Exception {
+        fillTwoPages();
+        FreeSpaceMap fsm = empty.getFreeSpaceMap();
+        assertEquals(0, fsm.getFreeSlots(0));
+        assertEquals(0, fsm.getFreeSlots(1));
+        assertEquals(503, fsm.getFreeSlots(2));
+        assertEquals(2, fsm.nextPageWithRoom(0));
+
+        TransactionId tid = new TransactionId();
+        HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(empty.getId(), 1),
+                Permissions.READ_WRITE);
+        bp.deleteTuple(tid, page.iterator().next());
+        assertEquals(1, fsm.getFreeSlots(1));
+        assertEquals(1, fsm.nextPageWithRoom(0));
+        bp.transactionComplete(tid, true);
+    }
+
+    /**
+     * An insert goes to the page with room without locking the full pages
+     * before it.
+     */
+    @Test public void insertLocksOnlyPageWithRoom() throws Exception {
+        fillTwoPages();
+        TransactionId tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(7, 2);
+        bp.insertTuple(tid, empty.getId(), t);
+
+        HeapPageId p2 = new HeapPageId(empty.getId(), 2);
+        assertEquals(p2, t.getRecordId().getPageId());
+        assertTrue(bp.holdsLock(tid, p2));
+        assertFalse(bp.holdsLock(tid, new HeapPageId(empty.getId(), 0)));
+        assertFalse(bp.holdsLock(tid, new HeapPageId(empty.getId(), 1)));
+        bp.transactionComplete(tid, true);
+    }
+
+    /**
+     * The side file is written when all pages are flushed, not with every
+     * page, and read back by a new HeapFile on the same file.
+     */
+    @Test public void persistsAcrossReopen() throws Exception {
+        fillTwoPages();
+        TransactionId tid = new TransactionId();
+        HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(empty.getId(), 0),
+                Permissions.READ_WRITE);
+        bp.deleteTuple(tid, page.iterator().next());
+        bp.transactionComplete(tid, true);
+        assertEquals(1 * 4, FreeSpaceMap.fileFor(empty.getFile()).length());
+
+        bp.flushAllPages();
+        assertEquals(3 * 4, FreeSpaceMap.fileFor(empty.getFile()).length());
+        HeapFile reopened = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        FreeSpaceMap fsm = reopened.getFreeSpaceMap();
+        assertEquals(3, fsm.numPages());
+        assertEquals(1, fsm.getFreeSlots(0));
+        assertEquals(0, fsm.getFreeSlots(1));
+        assertEquals(503, fsm.getFreeSlots(2));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
@@ -0,0 +1,392 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class HashIndexFileTest extends TestUtil.IndexFileTest {
+
+  HeapFile table;
+  HashIndexFile index;
+
+  /**
+   * The pages are small, so that a few thousand entries need directory
+   * pages.
+   */
+  @Before public void createIndex() throws Exception {
+    File tf = File.createTempFile("table", ".dat");
+    tf.deleteOnExit();
+    table = Utility.openHeapFile(2, "f", tf);
+    File f = File.createTempFile("hash", ".dat");
+    f.deleteOnExit();
+    index = new HashIndexFile(f, table, 0);
+    Database.getCatalog().addIndex(index);
+  }
+
+  @Override protected Index index() {
+    return index;
+  }
+
+  /** @return the tuples of a key in a list of keys */
+  private static ArrayList<Integer> matching(ArrayList<Integer> inserted, int key) {
+    ArrayList<Integer> out = new ArrayList<Integer>();
+    for (int k : inserted) {
+      if (k == key) {
+        out.add(k);
+      }
+    }
+    return out;
+  }
+
+  /**
+   * Lookups return the tuples of the table with the key, after enough
+   * inserts to split buckets past what the header holds.
+   */
+  @Test public void insertAndLookup() throws Exception {
+    ArrayList<Integer> inserted = insertRandom(4000, 3000);
+    for (int key = -1; key < 3000; key += 7) {
+      assertEquals(matching(inserted, key), lookup(key));
+    }
+    Collections.sort(inserted);
+    assertEquals(inserted, allKeys());
+    assertEquals(3, index.probePages());
+  }
+
+  /**
+   * A lookup reads the pages to the bucket and the table's page of the
+   * match, not the whole table or index.
+   */
+  @Test public void lookupReadsFewPages() throws Exception {
+    checkLookupReadsFewPages(1000000);
+    assertTrue(index.numPages() > 100);
+  }
+
+  /**
+   * An index created over a table that already has tuples is filled with
+   * them when it is added to the catalog, and kept up to date after.
+   */
+  @Test public void indexesExistingTuples() throws Exception {
+    ArrayList<Integer> inserted = insertRandom(2000, 3000);
+    Database.getBufferPool().transactionComplete(tid);
+    tid = new TransactionId();
+
+    File f = File.createTempFile("late", ".dat");
+    f.deleteOnExit();
+    HashIndexFile late = new HashIndexFile(f, table, 0);
+    Database.getCatalog().addIndex(late);
+    Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[] { 7, -1 }));
+    inserted.add(7);
+
+    for (int key = 0; key < 3000; key += 7) {
+      assertEquals(matching(inserted, key),
+          keys(late.indexIterator(tid, new IndexPredicate(Predicate.Op.EQUALS, new IntField(key)))));
+    }
+    Collections.sort(inserted);
+    ArrayList<Integer> all = keys(late.iterator(tid));
+    Collections.sort(all);
+    assertEquals(inserted, all);
+  }
+
+  /**
+   * Deleting tuples from the table removes their entries, including many
+   * duplicates of one key spread over a chain of overflow pages, whose
+   * pages are used again by later inserts.
+   */
+  @Test public void deletes() throws Exception {
+    for (int i = 0; i < 200; i++) {
+      Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[] { 7, i }));
+    }
+    insertRandom(2000, 3000);
+    int pages = index.numPages();
+
+    DbFileIterator it = table.iterator(tid);
+    it.open();
+    ArrayList<Tuple> all = new ArrayList<Tuple>();
+    while (it.hasNext()) {
+      all.add(it.next());
+    }
+    it.close();
+    Collections.shuffle(all, new Random(7));
+    ArrayList<Integer> kept = new ArrayList<Integer>();
+    for (Tuple t : all) {
+      int key = ((IntField) t.getField(0)).getValue();
+      if (key == 7 || key % 2 == 0) {
+        Database.getBufferPool().deleteTuple(tid, t);
+      } else {
+        kept.add(key);
+      }
+    }
+    assertTrue(lookup(7).isEmpty());
+    for (int key = 1; key < 3000; key += 50) {
+      assertEquals(matching(kept, key), lookup(key));
+      assertTrue(lookup(key + 1).isEmpty());
+    }
+
+    for (int i = 0; i < 200; i++) {
+      Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[] { 7, i }));
+    }
+    assertEquals(200, lookup(7).size());
+    assertEquals(pages, index.numPages());
+    assertEquals(kept.size() + 200, allKeys().size());
+  }
+
+  /** @return the number of buckets in the index, read by tid */
+  private int numBuckets() throws Exception {
+    return ((HashHeaderPage) Database.getBufferPool().getPage(tid,
+        new HeapPageId(index.getId(), 0), Permissions.READ_ONLY)).getNumBuckets();
+  }
+
+  /**
+   * A transaction inserting entries does not wait for another that has
+   * the header page locked shared, as a scan of the index does, and the
+   * splits its inserts call for wait until the header is free.
+   */
+  @Test public void writersShareTheHeader() throws Exception {
+    ArrayList<Integer> inserted = insertRandom(2000, 3000);
+    Database.getBufferPool().transactionComplete(tid);
+    tid = new TransactionId();
+    int buckets = numBuckets();
+
+    TransactionId reader = new TransactionId();
+    TestUtil.LockGrabber lg = new TestUtil.LockGrabber(reader,
+        new HeapPageId(index.getId(), 0), Permissions.READ_ONLY);
+    lg.start();
+    lg.join(1000);
+    assertTrue(lg.acquired());
+
+    for (int i = 0; i < 200; i++) {
+      Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[] { 3000 + i, i }));
+      inserted.add(3000 + i);
+    }
+    assertEquals(buckets, numBuckets());
+    Database.getBufferPool().transactionComplete(reader);
+    Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[] { 2, -1 }));
+    inserted.add(2);
+    assertTrue(numBuckets() > buckets);
+
+    Database.getBufferPool().transactionComplete(tid);
+    tid = new TransactionId();
+    Collections.sort(inserted);
+    assertEquals(inserted, allKeys());
+    assertEquals(matching(inserted, 3100), lookup(3100));
+  }
+
+  /**
+   * Splits called for while another transaction writes to the index are
+   * made once a transaction completes, each in a transaction of its own,
+   * up to the bucket the other transaction has locked, and the rest once
+   * it aborts.
+   */
+  @Test public void splitsWhileOthersWrite() throws Exception {
+    // half the room the splits made for them is left free
+    insertRandom(2000, 3000);
+    DbFileIterator it = table.iterator(tid);
+    it.open();
+    ArrayList<Tuple> all = new ArrayList<Tuple>();
+    while (it.hasNext()) {
+      all.add(it.next());
+    }
+    it.close();
+    ArrayList<Integer> kept = new ArrayList<Integer>();
+    for (int i = 0; i < all.size(); i++) {
+      if (i < 1000) {
+        Database.getBufferPool().deleteTuple(tid, all.get(i));
+      } else {
+        kept.add(((IntField) all.get(i).getField(0)).getValue());
+      }
+    }
+    Database.getBufferPool().transactionComplete(tid);
+    tid = new TransactionId();
+
+    HashHeaderPage header = (HashHeaderPage) Database.getBufferPool().getPage(tid,
+        new HeapPageId(index.getId(), 0), Permissions.READ_ONLY);
+    int buckets = header.getNumBuckets();
+    int busy = (header.getNext() + 1) % buckets;
+    ArrayList<Integer> busyKeys = new ArrayList<Integer>();
+    ArrayList<Integer> otherKeys = new ArrayList<Integer>();
+    for (int key = 3000; busyKeys.size() < 1000 || otherKeys.size() < 2000; key++) {
+      if (header.bucketOf(new IntField(key)) == busy) {
+        if (busyKeys.size() < 1000) {
+          busyKeys.add(key);
+        }
+      } else if (otherKeys.size() < 2000) {
+        otherKeys.add(key);
+      }
+    }
+    Database.getBufferPool().transactionComplete(tid);
+    tid = new TransactionId();
+
+    // tid writes first, so neither splits buckets itself; the two insert
+    // into the same pages of the table under record locks
+    Database.getBufferPool().setRecordLocking(true);
+    TransactionId other = new TransactionId();
+    Database.getBufferPool().insertTuple(tid, table.getId(),
+        Utility.getHeapTuple(new int[] { otherKeys.get(0), 0 }));
+    for (int key : busyKeys) {
+      Database.getBufferPool().insertTuple(other, table.getId(), Utility.getHeapTuple(new int[] { key, 0 }));
+    }
+    for (int key : otherKeys.subList(1, otherKeys.size())) {
+      Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[] { key, 0 }));
+    }
+    assertEquals(buckets, numBuckets());
+    // the unsplit buckets have grown overflow pages
+    assertTrue(index.probePages() > 3);
+    Database.getBufferPool().transactionComplete(tid);
+    tid = new TransactionId();
+    int split = numBuckets();
+    Database.getBufferPool().transactionComplete(tid);
+    tid = new TransactionId();
+    assertTrue(split > buckets);
+
+    Database.getBufferPool().transactionComplete(other, false);
+    int entries = kept.size() + otherKeys.size();
+    int room = HashBucketPage.maxEntries(Type.INT_TYPE);
+    assertTrue(entries <= HashIndexFile.MAX_LOAD * numBuckets() * room);
+    assertTrue(entries > HashIndexFile.MAX_LOAD * (numBuckets() - 1) * room);
+    kept.addAll(otherKeys);
+    Collections.sort(kept);
+    assertEquals(kept, allKeys());
+  }
+
+  /**
+   * The entries of an aborted transaction do not count towards splits
+   * made after it.
+   */
+  @Test public void abortedEntriesAreNotCounted() throws Exception {
+    Database.resetBufferPool(1000);
+    insertRandom(2000, 3000);
+    Database.getBufferPool().transactionComplete(tid, false);
+    tid = new TransactionId();
+    Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[] { 1, 1 }));
+    Database.getBufferPool().transactionComplete(tid);
+    tid = new TransactionId();
+    assertEquals(1, numBuckets());
+  }
+
+  /**
+   * Aborting a transaction that split buckets leaves the index as it was.
+   */
+  @Test public void abortUndoesSplits() throws Exception {
+    checkAbortUndoesSplits(50);
+  }
+
+  /**
+   * The index file's pages are found through the catalog, but it is not a
+   * table, and the index is found for equality lookups only.
+   */
+  @Test public void catalog() throws Exception {
+    assertSame(index, Database.getCatalog().getDatabaseFile(index.getId()));
+    Iterator<Integer> it = Database.getCatalog().tableIdIterator();
+    while (it.hasNext()) {
+      assertFalse(it.next() == index.getId());
+    }
+    assertSame(index, Database.getCatalog().getIndex(table.getId(), 0, Predicate.Op.EQUALS));
+    assertEquals(null, Database.getCatalog().getIndex(table.getId(), 0, Predicate.Op.LESS_THAN));
+    assertFalse(index.isClustered());
+  }
+
+  /**
+   * The planner looks up an equality filter in the index when it is
+   * selective, and probes the index for each tuple of an equi-join.
+   */
+  @Test public void planner() throws Exception {
+    insertRandom(2000, 3000);
+    File of = File.createTempFile("outer", ".dat");
+    of.deleteOnExit();
+    HeapFile outer = Utility.openHeapFile(2, "f", of);
+    for (int i = 0; i < 10; i++) {
+      Database.getBufferPool().insertTuple(tid, outer.getId(), Utility.getHeapTuple(new int[] { i * 100, i }));
+    }
+    Database.getBufferPool().transactionComplete(tid);
+    tid = new TransactionId();
+
+    TableStats stats = new TableStats(table.getId(), TableStats.IOCOSTPERPAGE) {
+      private static final long serialVersionUID = 1L;
+      @Override public double estimateScanCost() { return 200 * IOCOSTPERPAGE; }
+      @Override public int totalTuples() { return 2000; }
+      @Override public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
+        return 0.001;
+      }
+    };
+    LogicalPlan lp = new LogicalPlan();
+    lp.addScan(table.getId(), "t");
+    lp.addFilter("t.f0", Predicate.Op.EQUALS, "100");
+    lp.addProjectField("t.f0", null);
+    HashMap<String, TableStats> statsMap = new HashMap<String, TableStats>();
+    statsMap.put(Database.getCatalog().getTableName(table.getId()), stats);
+    DbIterator plan = lp.physicalPlan(tid, statsMap, false);
+    DbIterator scan = ((Operator) plan).getChildren()[0];
+    assertTrue(scan instanceof IndexScan);
+    assertSame(index, ((IndexScan) scan).getIndex());
+
+    LogicalJoinNode lj = new LogicalJoinNode("o", "t", "f0", "f0", Predicate.Op.EQUALS);
+    lj.useIndex = true;
+    DbIterator j = JoinOptimizer.instantiateJoin(lj,
+        new SeqScan(tid, outer.getId(), "o"), new SeqScan(tid, table.getId(), "t"));
+    assertTrue(j instanceof IndexNestedLoopJoin);
+    assertSame(index, ((IndexNestedLoopJoin) j).getIndex());
+    int expected = 0;
+    for (int i = 0; i < 10; i++) {
+      expected += lookup(i * 100).size();
+    }
+    int n = 0;
+    j.open();
+    while (j.hasNext()) {
+      j.next();
+      n++;
+    }
+    j.close();
+    assertEquals(expected, n);
+  }
+
+  /**
+   * A join marked to use the index still probes it when the planner has
+   * already turned the inner table's filter into an IndexScan, and applies
+   * that filter to the matches.
+   */
+  @Test public void indexJoinOverIndexScan() throws Exception {
+    ArrayList<Integer> inserted = insertRandom(2000, 300);
+    File of = File.createTempFile("outer", ".dat");
+    of.deleteOnExit();
+    HeapFile outer = Utility.openHeapFile(2, "f", of);
+    for (int i = 0; i < 10; i++) {
+      Database.getBufferPool().insertTuple(tid, outer.getId(), Utility.getHeapTuple(new int[] { i * 10, i }));
+    }
+    int key = 50;
+
+    LogicalJoinNode lj = new LogicalJoinNode("o", "t", "f0", "f0", Predicate.Op.EQUALS);
+    lj.useIndex = true;
+    DbIterator inner = new IndexScan(tid, index,
+        new IndexPredicate(Predicate.Op.EQUALS, new IntField(key)), "t");
+    DbIterator j = JoinOptimizer.instantiateJoin(lj, new SeqScan(tid, outer.getId(), "o"), inner);
+    assertTrue(j instanceof IndexNestedLoopJoin);
+    int n = 0;
+    j.open();
+    while (j.hasNext()) {
+      assertEquals(new IntField(key), j.next().getField(2));
+      n++;
+    }
+    j.close();
+    assertTrue(n > 0);
+    assertEquals(matching(inserted, key).size(), n);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashIndexFileTest.class);
+  }
+}
@@ -0,0 +1,140 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  DbIterator scan1;
+  DbIterator scan2;
+  DbIterator eqJoin;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    3, 4,
+                    5, 6,
+                    7, 8 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 1, 2, 3,
+                    2, 3, 4,
+                    3, 4, 5,
+                    4, 5, 6,
+                    5, 6, 7 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    5, 6, 5, 6, 7 });
+  }
+
+  /** @return a list of n tuples of the given width, with field 0 = i % keys */
+  private static TupleIterator keyedTuples(int width, int n, int keys) {
+    int[] data = new int[n * width];
+    for (int i = 0; i < n; i++) {
+      data[i * width] = i % keys;
+      for (int j = 1; j < width; j++) {
+        data[i * width + j] = i;
+      }
+    }
+    return TestUtil.createTupleList(width, data);
+  }
+
+  /**
+   * Unit test for HashJoin.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, scan1, scan2);
+    assertEquals(Utility.getTupleDesc(width1 + width2), op.getTupleDesc());
+  }
+
+  /**
+   * Unit test for HashJoin.getNext() using an = predicate
+   */
+  @Test public void eqJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, scan1, scan2);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+    assertFalse(op.isSpilled());
+  }
+
+  /**
+   * Unit test for HashJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, scan1, scan2);
+    op.open();
+    while (op.hasNext()) {
+      op.next();
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * A right side larger than the memory budget is partitioned on disk, and
+   * the join gives the same tuples as nested loops, also after a rewind.
+   */
+  @Test public void graceJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    ArrayList<String> expected = TestUtil.drain(new Join(pred,
+        keyedTuples(width1, 3000, 500), keyedTuples(width2, 2000, 700)));
+    assertEquals(500 * 6 * 3, expected.size());
+
+    HashJoin op = new HashJoin(pred, keyedTuples(width1, 3000, 500),
+        keyedTuples(width2, 2000, 700), 1);
+    assertEquals(expected, TestUtil.drain(op));
+    assertTrue(op.isSpilled());
+
+    op.open();
+    op.next();
+    op.rewind();
+    ArrayList<String> again = new ArrayList<String>();
+    while (op.hasNext()) {
+      again.add(op.next().toString());
+    }
+    Collections.sort(again);
+    assertEquals(expected, again);
+    op.close();
+  }
+
+  /**
+   * A partition whose tuples all share one key cannot be split further, and
+   * is joined in memory once splitting stops helping.
+   */
+  @Test public void skewedGraceJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, keyedTuples(width1, 10, 1),
+        keyedTuples(width2, 1000, 1), 1);
+    assertEquals(10 * 1000, TestUtil.drain(op).size());
+    assertTrue(op.isSpilled());
+    op.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashJoinTest.class);
+  }
+}
@@ -85,6 +85,54 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Pages read through the memory mapping match the file, including pages
+     * written after the file was mapped and pages past its old end.
+     */
+    @Test
+    public void readPageMapped() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        byte[] expected = hf.readPage(pid).getPageData();
+        hf.setMemoryMapped(true);
+        assertArrayEquals(expected, hf.readPage(pid).getPageData());
+
+        // change page 0 and add page 1 behind the mapping's back
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        page.deleteTuple(page.iterator().next());
+        hf.writePage(page);
+        HeapPage added = new HeapPage(new HeapPageId(hf.getId(), 1),
+                HeapPage.createEmptyPageData());
+        added.insertTuple(Utility.getHeapTuple(7, 2));
+        hf.writePage(added);
+
+        assertEquals(485, ((HeapPage) hf.readPage(pid)).getNumEmptySlots());
+        HeapPage reread = (HeapPage) hf.readPage(added.getId());
+        assertArrayEquals(added.getPageData(), reread.getPageData());
+        hf.setMemoryMapped(false);
+    }
+
+    /**
+     * A page read through the mapping copies its bytes when it first
+     * changes, so writing it out leaves its before-image and the tuples
+     * read before the change as they were.
+     */
+    @Test
+    public void mappedPageCopiedOnWrite() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        byte[] expected = hf.readPage(pid).getPageData();
+        hf.setMemoryMapped(true);
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        Tuple first = page.iterator().next();
+        Field value = ((HeapPage) hf.readPage(pid)).iterator().next().getField(1);
+
+        page.deleteTuple(first);
+        hf.writePage(page);
+        assertEquals(value, first.getField(1));
+        assertArrayEquals(expected, page.getBeforeImage().getPageData());
+        assertFalse(Arrays.equals(expected, hf.readPage(pid).getPageData()));
+        hf.setMemoryMapped(false);
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
@@ -43,6 +43,39 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * A table with its own page size keeps it in its file header, and its
+     * pages hold correspondingly more tuples.
+     */
+    @Test public void largePages() throws Exception {
+        java.io.File f = java.io.File.createTempFile("large", ".dat");
+        f.deleteOnExit();
+        FreeSpaceMap.fileFor(f).deleteOnExit();
+        HeapFile large = new HeapFile(f, Utility.getTupleDesc(2), 4 * BufferPool.getPageSize());
+        Database.getCatalog().addTable(large);
+        assertEquals(large.getPageSize(), Database.getCatalog().getPageSize(large.getId()));
+
+        // four times the 504 tuples of a default page fit on the first page
+        for (int i = 0; i < 4 * 504; ++i) {
+            Database.getBufferPool().insertTuple(tid, large.getId(), Utility.getHeapTuple(i, 2));
+            assertEquals(1, large.numPages());
+        }
+        Database.getBufferPool().insertTuple(tid, large.getId(), Utility.getHeapTuple(0, 2));
+        assertEquals(2, large.numPages());
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(HeapFile.FILE_HEADER_SIZE + 2 * large.getPageSize(), f.length());
+
+        HeapFile reopened = new HeapFile(f, Utility.getTupleDesc(2));
+        assertEquals(large.getPageSize(), reopened.getPageSize());
+        assertEquals(2, reopened.numPages());
+        try {
+            new HeapFile(f, Utility.getTupleDesc(2), BufferPool.getPageSize());
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // explicitly ignored
+        }
+    }
+
     /**
      * JUnit suite target
      */
@@ -1,5 +1,6 @@
 package simpledb;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -126,6 +127,49 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * getPageData reflects inserts and deletes made in place, without
+     * changing the array the page was made from or tuples already read.
+     */
+    @Test public void pageDataInPlace() throws Exception {
+        byte[] original = HeapPageReadTest.EXAMPLE_DATA.clone();
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Tuple first = page.iterator().next();
+        String before = first.toString();
+
+        page.deleteTuple(first);
+        Tuple addition = Utility.getHeapTuple(new int[] { 7, 8 });
+        page.insertTuple(addition);
+        assertEquals(first.getRecordId(), addition.getRecordId());
+        assertEquals(before, first.toString());
+        assertArrayEquals(original, HeapPageReadTest.EXAMPLE_DATA);
+
+        HeapPage reread = new HeapPage(pid, page.getPageData());
+        assertEquals(page.getNumEmptySlots(), reread.getNumEmptySlots());
+        assertTrue(TestUtil.compareTuples(addition, reread.iterator().next()));
+        assertArrayEquals(page.getPageData(), reread.getPageData());
+    }
+
+    /**
+     * The before-image keeps the contents as of the last setBeforeImage
+     * while the page changes, and follows the page when it is set again.
+     */
+    @Test public void beforeImage() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        int free = page.getNumEmptySlots();
+        page.insertTuple(Utility.getHeapTuple(1, 2));
+
+        HeapPage before = page.getBeforeImage();
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, before.getPageData());
+        assertEquals(free, before.getNumEmptySlots());
+
+        page.setBeforeImage();
+        page.insertTuple(Utility.getHeapTuple(2, 2));
+        assertEquals(free - 1, page.getBeforeImage().getNumEmptySlots());
+        assertEquals(free - 2, page.getNumEmptySlots());
+        assertEquals(free, before.getNumEmptySlots());
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,123 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+
+  HeapFile outer;
+  HeapFile inner;
+  TransactionId tid;
+
+  @Before public void createTables() throws Exception {
+    outer = SystemTestUtil.createRandomHeapFile(2, 20, 10, null,
+        new ArrayList<ArrayList<Integer>>(), "c");
+    inner = SystemTestUtil.createRandomHeapFile(3, 200, 10, null,
+        new ArrayList<ArrayList<Integer>>(), "c");
+    tid = new TransactionId();
+  }
+
+  private void checkAgainstJoin(Predicate.Op op) throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, op, 1);
+    TestUtil.ScanIndex index = new TestUtil.ScanIndex(inner, 1);
+    DbIterator inlj = new IndexNestedLoopJoin(pred, new SeqScan(tid, outer.getId()),
+        new SeqScan(tid, inner.getId()), index);
+    DbIterator nlj = new Join(pred, new SeqScan(tid, outer.getId()),
+        new SeqScan(tid, inner.getId()));
+    ArrayList<String> expected = TestUtil.drain(nlj);
+    assertEquals(expected, TestUtil.drain(inlj));
+    assertEquals(20, index.probes);
+  }
+
+  /**
+   * Unit test for IndexNestedLoopJoin.getNext(), against a nested-loop join
+   */
+  @Test public void eqJoin() throws Exception {
+    checkAgainstJoin(Predicate.Op.EQUALS);
+  }
+
+  /**
+   * Range predicates probe the index with the operator reversed.
+   */
+  @Test public void rangeJoin() throws Exception {
+    assertEquals(Predicate.Op.LESS_THAN, IndexNestedLoopJoin.probeOp(Predicate.Op.GREATER_THAN));
+    checkAgainstJoin(Predicate.Op.GREATER_THAN);
+    checkAgainstJoin(Predicate.Op.LESS_THAN_OR_EQ);
+  }
+
+  /**
+   * Filters over the inner scan are applied to the tuples the index returns.
+   */
+  @Test public void innerFilters() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+    Predicate f = new Predicate(2, Predicate.Op.GREATER_THAN, new IntField(5));
+    DbIterator inlj = new IndexNestedLoopJoin(pred, new SeqScan(tid, outer.getId()),
+        new Filter(f, new SeqScan(tid, inner.getId())), new TestUtil.ScanIndex(inner, 1));
+    DbIterator nlj = new Join(pred, new SeqScan(tid, outer.getId()),
+        new Filter(f, new SeqScan(tid, inner.getId())));
+    assertEquals(TestUtil.drain(nlj), TestUtil.drain(inlj));
+  }
+
+  /**
+   * The inner plan must be a scan of the index's table.
+   */
+  @Test(expected = IllegalArgumentException.class) public void wrongInner() {
+    new IndexNestedLoopJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+        new SeqScan(tid, outer.getId()), new SeqScan(tid, outer.getId()),
+        new TestUtil.ScanIndex(inner, 1));
+  }
+
+  /**
+   * Indexes are found in the catalog by table, field and operator.
+   */
+  @Test public void catalogIndexes() {
+    TestUtil.ScanIndex index = new TestUtil.ScanIndex(inner, 1);
+    assertTrue(Database.getCatalog().getIndexes(inner.getId()).isEmpty());
+    Database.getCatalog().addIndex(index);
+    assertEquals(1, Database.getCatalog().getIndexes(inner.getId()).size());
+    assertSame(index, Database.getCatalog().getIndex(inner.getId(), 1, Predicate.Op.EQUALS));
+    assertNull(Database.getCatalog().getIndex(inner.getId(), 0, Predicate.Op.EQUALS));
+    assertNull(Database.getCatalog().getIndex(inner.getId(), 1, Predicate.Op.LIKE));
+    assertNull(Database.getCatalog().getIndex(outer.getId(), 1, Predicate.Op.EQUALS));
+  }
+
+  /**
+   * The planner makes a join marked useIndex an index nested-loop join when
+   * the catalog has an index for it, and otherwise ignores the mark.
+   */
+  @Test public void instantiateJoin() throws Exception {
+    LogicalJoinNode lj = new LogicalJoinNode("a", "b", "c0", "c1", Predicate.Op.EQUALS);
+    lj.useIndex = true;
+    DbIterator j = JoinOptimizer.instantiateJoin(lj,
+        new SeqScan(tid, outer.getId(), "a"), new SeqScan(tid, inner.getId(), "b"));
+    assertTrue(j instanceof HashJoin);
+
+    Database.getCatalog().addIndex(new TestUtil.ScanIndex(inner, 1));
+    j = JoinOptimizer.instantiateJoin(lj,
+        new SeqScan(tid, outer.getId(), "a"), new SeqScan(tid, inner.getId(), "b"));
+    assertTrue(j instanceof IndexNestedLoopJoin);
+
+    lj.useIndex = false;
+    j = JoinOptimizer.instantiateJoin(lj,
+        new SeqScan(tid, outer.getId(), "a"), new SeqScan(tid, inner.getId(), "b"));
+    assertTrue(j instanceof HashJoin);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+  }
+}
@@ -0,0 +1,168 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class IndexScanTest extends SimpleDbTestBase {
+
+  /** Statistics with a fixed size and a fixed selectivity for each field. */
+  private static class FixedStats extends TableStats {
+    final double[] sels;
+
+    FixedStats(int tableid, double... sels) {
+      super(tableid, IOCOSTPERPAGE);
+      this.sels = sels;
+    }
+
+    @Override public double estimateScanCost() { return 100 * IOCOSTPERPAGE; }
+    @Override public int totalTuples() { return 2000; }
+    @Override public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
+      return sels[field];
+    }
+  }
+
+  BTreeFile tree;
+  TransactionId tid;
+
+  /** A table of (i, 1999 - i) for i in [0, 2000), clustered on field 0. */
+  @Before public void createTable() throws Exception {
+    File f = File.createTempFile("btree", ".dat");
+    f.deleteOnExit();
+    tree = new BTreeFile(f, 0, Utility.getTupleDesc(2, "f"));
+    Database.getCatalog().addTable(tree, "t");
+    tid = new TransactionId();
+    for (int i = 0; i < 2000; i++) {
+      Tuple t = new Tuple(tree.getTupleDesc());
+      t.setField(0, new IntField(i));
+      t.setField(1, new IntField(1999 - i));
+      Database.getBufferPool().insertTuple(tid, tree.getId(), t);
+    }
+    Database.getBufferPool().transactionComplete(tid);
+    tid = new TransactionId();
+  }
+
+  /** @return the plan of a query on t with filters f0 < 10 and f1 > 1900 */
+  private DbIterator plan(TableStats stats) throws Exception {
+    LogicalPlan lp = new LogicalPlan();
+    lp.addScan(tree.getId(), "t");
+    lp.addFilter("t.f0", Predicate.Op.LESS_THAN, "10");
+    lp.addFilter("t.f1", Predicate.Op.GREATER_THAN, "1900");
+    lp.addProjectField("t.f0", null);
+    HashMap<String, TableStats> statsMap = new HashMap<String, TableStats>();
+    statsMap.put("t", stats);
+    return lp.physicalPlan(tid, statsMap, false);
+  }
+
+  /** @return the operator at the bottom of a plan */
+  private static DbIterator leaf(DbIterator plan) {
+    while (plan instanceof Operator) {
+      plan = ((Operator) plan).getChildren()[0];
+    }
+    return plan;
+  }
+
+  /** @return the number of filters in a plan */
+  private static int filters(DbIterator plan) {
+    int n = 0;
+    while (plan instanceof Operator) {
+      if (plan instanceof Filter) {
+        n++;
+      }
+      plan = ((Operator) plan).getChildren()[0];
+    }
+    return n;
+  }
+
+  /** @return the values of the first field of a plan's output, sorted */
+  private static ArrayList<Integer> firstFields(DbIterator it) throws Exception {
+    ArrayList<Integer> out = new ArrayList<Integer>();
+    it.open();
+    while (it.hasNext()) {
+      out.add(((IntField) it.next().getField(0)).getValue());
+    }
+    it.close();
+    Collections.sort(out);
+    return out;
+  }
+
+  private static ArrayList<Integer> range(int from, int to) {
+    ArrayList<Integer> out = new ArrayList<Integer>();
+    for (int i = from; i < to; i++) {
+      out.add(i);
+    }
+    return out;
+  }
+
+  /**
+   * A selective filter on the key of a B+-tree is evaluated by an index
+   * scan, with the other filter on top of it.
+   */
+  @Test public void selectiveFilterUsesIndex() throws Exception {
+    DbIterator plan = plan(new FixedStats(tree.getId(), 0.005, 1.0));
+    DbIterator scan = leaf(plan);
+    assertTrue(scan instanceof IndexScan);
+    assertSame(tree, ((IndexScan) scan).getIndex());
+    assertEquals(Predicate.Op.LESS_THAN, ((IndexScan) scan).getIndexPredicate().getOp());
+    assertEquals(1, filters(plan));
+    assertEquals(range(0, 10), firstFields(plan));
+  }
+
+  /**
+   * Filters that match all of the table are cheaper to evaluate over a
+   * sequential scan, which need not walk down the index first.
+   */
+  @Test public void unselectiveFilterScans() throws Exception {
+    DbIterator plan = plan(new FixedStats(tree.getId(), 1.0, 1.0));
+    assertTrue(leaf(plan) instanceof SeqScan);
+    assertEquals(2, filters(plan));
+    assertEquals(range(0, 10), firstFields(plan));
+  }
+
+  /**
+   * Of two indexes, the one estimated to read fewer pages is used, even if
+   * it is not clustered.
+   */
+  @Test public void cheaperOfTwoIndexes() throws Exception {
+    TestUtil.ScanIndex second = new TestUtil.ScanIndex(tree, 1);
+    Database.getCatalog().addIndex(second);
+
+    DbIterator plan = plan(new FixedStats(tree.getId(), 0.5, 0.001));
+    assertSame(second, ((IndexScan) leaf(plan)).getIndex());
+    assertEquals(range(0, 10), firstFields(plan));
+
+    plan = plan(new FixedStats(tree.getId(), 0.001, 0.5));
+    assertSame(tree, ((IndexScan) leaf(plan)).getIndex());
+    assertEquals(range(0, 10), firstFields(plan));
+  }
+
+  /**
+   * A clustered index costs the pages holding the matches, an unclustered
+   * one a page for each match.
+   */
+  @Test public void indexScanCost() {
+    TableStats stats = new FixedStats(tree.getId(), 0.1, 0.1);
+    assertEquals((tree.probePages() + 10) * TableStats.IOCOSTPERPAGE,
+        LogicalPlan.estimateIndexScanCost(tree, 0.1, stats), 0.001);
+    assertEquals((1 + 200) * TableStats.IOCOSTPERPAGE,
+        LogicalPlan.estimateIndexScanCost(new TestUtil.ScanIndex(tree, 1), 0.1, stats), 0.001);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IndexScanTest.class);
+  }
+}
@@ -5,6 +5,8 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
+import java.util.ArrayList;
+
 import org.junit.Before;
 import org.junit.Test;
 
@@ -105,6 +107,67 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * Unit test for Join.getNext() in block mode, with both predicates
+   */
+  @Test public void blockJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    Join op = new Join(pred, scan1, scan2, 1);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+
+    pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    op = new Join(pred, scan1, scan2, 1);
+    op.open();
+    gtJoin.open();
+    TestUtil.matchAllTuples(gtJoin, op);
+
+    op.rewind();
+    gtJoin.rewind();
+    TestUtil.matchAllTuples(gtJoin, op);
+  }
+
+  /**
+   * A block nested-loop join scans the inner relation once per block of
+   * outer tuples rather than once per outer tuple.
+   */
+  @Test public void blockJoinRescans() throws Exception {
+    int n = 2000;
+    int[] data = new int[n * width1];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = i;
+    }
+    final int[] rewinds = new int[1];
+    ArrayList<Tuple> inner = new ArrayList<Tuple>();
+    TupleIterator it = TestUtil.createTupleList(width2, new int[] { 10, 0, 0, 20, 0, 0 });
+    it.open();
+    while (it.hasNext()) {
+      inner.add(it.next());
+    }
+    DbIterator counted = new TupleIterator(Utility.getTupleDesc(width2), inner) {
+      private static final long serialVersionUID = 1L;
+
+      public void rewind() {
+        rewinds[0]++;
+        super.rewind();
+      }
+    };
+
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    Join op = new Join(pred, TestUtil.createTupleList(width1, data), counted, 1);
+    op.open();
+    int matches = 0;
+    while (op.hasNext()) {
+      op.next();
+      matches++;
+    }
+    assertEquals(2, matches);
+    // 512 tuples of 8 bytes fit in a page, so 4 blocks and 3 rescans
+    int blocks = (n + Join.blockTuples(1, 8) - 1) / Join.blockTuples(1, 8);
+    assertEquals(blocks - 1, rewinds[0]);
+  }
+
   /**
    * JUnit suite target
    */
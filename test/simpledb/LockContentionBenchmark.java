@@ -0,0 +1,109 @@
+package simpledb;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures LockManager throughput and lock wait time when many threads fight
+ * over a few hot pages, once with the blocking lock queue and once with the
+ * old strategy of retrying every LOCK_WAIT ms.
+ * <p>
+ * Each transaction takes an X lock on one random hot page, holds it for a
+ * short critical section and releases it. Not run as part of the test suite:
+ * <pre>
+ * java simpledb.LockContentionBenchmark [threads] [hotPages] [txnsPerThread]
+ * </pre>
+ */
+public class LockContentionBenchmark {
+    private static final int HOLD_MICROS = 50;
+
+    private interface Locker {
+        void lock(LockManager lm, TransactionId tid, PageId pid) throws Exception;
+    }
+
+    private static final Locker QUEUE = new Locker() {
+        public void lock(LockManager lm, TransactionId tid, PageId pid) throws Exception {
+            lm.acquireLock(tid, pid, Permissions.READ_WRITE);
+        }
+    };
+
+    private static final Locker SLEEP_POLL = new Locker() {
+        public void lock(LockManager lm, TransactionId tid, PageId pid) throws Exception {
+            while (!lm.tryAcquireLock(tid, pid, Permissions.READ_WRITE)) {
+                Thread.sleep(lm.LOCK_WAIT);
+            }
+        }
+    };
+
+    private static void hold() {
+        long end = System.nanoTime() + HOLD_MICROS * 1000L;
+        while (System.nanoTime() < end) {
+            // simulate work done under the lock
+        }
+    }
+
+    private static void run(String name, final Locker locker, int threads,
+            final int hotPages, final int txns) throws InterruptedException {
+        final LockManager lm = new LockManager();
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicLong waitNanos = new AtomicLong();
+        final AtomicLong maxWaitNanos = new AtomicLong();
+        Thread[] workers = new Thread[threads];
+
+        for (int i = 0; i < threads; i++) {
+            final long seed = i;
+            workers[i] = new Thread() {
+                public void run() {
+                    Random r = new Random(seed);
+                    try {
+                        start.await();
+                        for (int j = 0; j < txns; j++) {
+                            TransactionId tid = new TransactionId();
+                            PageId pid = new HeapPageId(0, r.nextInt(hotPages));
+                            long t0 = System.nanoTime();
+                            locker.lock(lm, tid, pid);
+                            long waited = System.nanoTime() - t0;
+                            waitNanos.addAndGet(waited);
+                            long max = maxWaitNanos.get();
+                            while (waited > max && !maxWaitNanos.compareAndSet(max, waited)) {
+                                max = maxWaitNanos.get();
+                            }
+                            hold();
+                            lm.releaseAllLocks(tid, true);
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            workers[i].start();
+        }
+
+        long t0 = System.nanoTime();
+        start.countDown();
+        for (Thread t : workers) {
+            t.join();
+        }
+        long elapsed = System.nanoTime() - t0;
+
+        long total = (long) threads * txns;
+        System.out.printf("%-10s %8.0f txn/s  avg wait %8.3f ms  max wait %8.3f ms  elapsed %6d ms%n",
+                name, total / (elapsed / 1e9), waitNanos.get() / 1e6 / total,
+                maxWaitNanos.get() / 1e6, elapsed / 1000000);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int hotPages = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int txns = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+
+        System.out.println(threads + " threads, " + hotPages + " hot pages, "
+                + txns + " transactions per thread");
+        // warm up both paths before measuring
+        run("warmup", QUEUE, threads, hotPages, txns / 10 + 1);
+        run("warmup", SLEEP_POLL, threads, hotPages, txns / 10 + 1);
+        run("queue", QUEUE, threads, hotPages, txns);
+        run("sleep-poll", SLEEP_POLL, threads, hotPages, txns);
+    }
+}
@@ -0,0 +1,207 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+public class LockManagerTest extends SimpleDbTestBase {
+  /** Time to wait before checking the state of lock contention, in ms */
+  private static final int TIMEOUT = 100;
+
+  private LockManager lm;
+  private PageId p0, p1;
+  private TransactionId tid1, tid2, tid3;
+
+  /** Acquires a lock in its own thread and records the outcome. */
+  private class Acquirer extends Thread {
+    private final TransactionId tid;
+    private final PageId pid;
+    private final Permissions perm;
+    volatile boolean acquired = false;
+    volatile Exception error = null;
+
+    Acquirer(TransactionId tid, PageId pid, Permissions perm) {
+      this.tid = tid;
+      this.pid = pid;
+      this.perm = perm;
+      start();
+    }
+
+    public void run() {
+      try {
+        lm.acquireLock(tid, pid, perm);
+        acquired = true;
+      } catch (Exception e) {
+        error = e;
+      }
+    }
+  }
+
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    lm = new LockManager();
+    // adjacent pages of a table fall into different stripes
+    p0 = new HeapPageId(1, 0);
+    p1 = new HeapPageId(1, 1);
+    tid1 = new TransactionId();
+    tid2 = new TransactionId();
+    tid3 = new TransactionId();
+  }
+
+  /**
+   * A deadlock between pages in different stripes is detected.
+   */
+  @Test public void crossStripeDeadlock() throws Exception {
+    lm.acquireLock(tid1, p0, Permissions.READ_WRITE);
+    lm.acquireLock(tid2, p1, Permissions.READ_WRITE);
+
+    Acquirer a1 = new Acquirer(tid1, p1, Permissions.READ_WRITE);
+    Acquirer a2 = new Acquirer(tid2, p0, Permissions.READ_WRITE);
+    a1.join(5000);
+    a2.join(5000);
+
+    assertTrue(a1.error instanceof DeadlockException
+        || a2.error instanceof DeadlockException);
+  }
+
+  /**
+   * The transaction holding fewer locks is chosen as the victim, the other
+   * one goes ahead, and the deadlock is counted.
+   */
+  @Test public void victimHoldsFewestLocks() throws Exception {
+    PageId p2 = new HeapPageId(1, 2);
+    lm.acquireLock(tid1, p0, Permissions.READ_WRITE);
+    lm.acquireLock(tid1, p2, Permissions.READ_WRITE);
+    lm.acquireLock(tid2, p1, Permissions.READ_WRITE);
+
+    Acquirer a1 = new Acquirer(tid1, p1, Permissions.READ_WRITE);
+    Acquirer a2 = new Acquirer(tid2, p0, Permissions.READ_WRITE);
+    a2.join(5000);
+    assertTrue(a2.error instanceof DeadlockException);
+
+    lm.releaseAllLocks(tid2, false);
+    a1.join(5000);
+    assertTrue(a1.acquired);
+    assertEquals(1, lm.getDeadlockCount());
+    assertTrue(lm.getMaxDetectionLatencyMillis() > 0);
+  }
+
+  /**
+   * A waiter that gives up leaves no waits-for edges behind that could make
+   * a later wait look like a deadlock.
+   */
+  @Test public void abandonedWaitLeavesNoEdges() throws Exception {
+    lm.acquireLock(tid1, p0, Permissions.READ_WRITE);
+    lm.acquireLock(tid2, p1, Permissions.READ_WRITE);
+
+    Acquirer gaveUp = new Acquirer(tid2, p0, Permissions.READ_WRITE);
+    Thread.sleep(TIMEOUT);
+    gaveUp.interrupt();
+    gaveUp.join();
+    assertNotNull(gaveUp.error);
+
+    Acquirer waiter = new Acquirer(tid1, p1, Permissions.READ_WRITE);
+    Thread.sleep(TIMEOUT);
+    assertFalse(waiter.acquired);
+    assertNull(waiter.error);
+
+    lm.releaseAllLocks(tid2, true);
+    waiter.join(5000);
+    assertTrue(waiter.acquired);
+  }
+
+  /**
+   * Blocked requests are granted in arrival order: a reader queued behind a
+   * writer waits for it even though the page is free of readers.
+   */
+  @Test public void fifoGrant() throws Exception {
+    lm.acquireLock(tid1, p0, Permissions.READ_WRITE);
+    Acquirer writer = new Acquirer(tid2, p0, Permissions.READ_WRITE);
+    Thread.sleep(TIMEOUT);
+    Acquirer reader = new Acquirer(tid3, p0, Permissions.READ_ONLY);
+    Thread.sleep(TIMEOUT);
+
+    lm.releaseLock(tid1, p0);
+    writer.join(5000);
+    assertTrue(writer.acquired);
+    Thread.sleep(TIMEOUT);
+    assertFalse(reader.acquired);
+
+    lm.releaseLock(tid2, p0);
+    reader.join(5000);
+    assertTrue(reader.acquired);
+  }
+
+  /**
+   * Page locks are traded for a table lock once a transaction crosses the
+   * escalation threshold, after which writers to the table block.
+   */
+  @Test public void escalation() throws Exception {
+    lm.setEscalationThreshold(3);
+    for (int i = 0; i < 3; i++) {
+      lm.acquireLock(tid1, new HeapPageId(1, i), Permissions.READ_ONLY);
+    }
+
+    assertEquals(LockMode.S, lm.getTableLock(tid1, 1));
+    assertEquals(0, lm.getPageLockCount(tid1));
+    assertEquals(1, lm.getEscalationCount());
+    assertTrue(lm.holdsLock(tid1, p0));
+    assertTrue(lm.holdsLock(tid1, new HeapPageId(1, 2)));
+
+    // other readers are fine, a writer has to wait for the table
+    lm.acquireLock(tid2, new HeapPageId(1, 7), Permissions.READ_ONLY);
+    Acquirer writer = new Acquirer(tid3, new HeapPageId(1, 8), Permissions.READ_WRITE);
+    Thread.sleep(TIMEOUT);
+    assertFalse(writer.acquired);
+
+    lm.releaseAllLocks(tid1, true);
+    lm.releaseAllLocks(tid2, true);
+    writer.join(5000);
+    assertTrue(writer.acquired);
+  }
+
+  /**
+   * Escalation does not wait: with another writer in the table the page
+   * locks are kept.
+   */
+  @Test public void escalationBlockedByIntentionLock() throws Exception {
+    lm.setEscalationThreshold(3);
+    lm.acquireLock(tid2, new HeapPageId(1, 9), Permissions.READ_WRITE);
+    for (int i = 0; i < 3; i++) {
+      lm.acquireLock(tid1, new HeapPageId(1, i), Permissions.READ_ONLY);
+    }
+
+    assertEquals(LockMode.IS, lm.getTableLock(tid1, 1));
+    assertEquals(3, lm.getPageLockCount(tid1));
+    assertEquals(0, lm.getEscalationCount());
+  }
+
+  /**
+   * The IS/IX/S/X compatibility matrix and mode upgrades.
+   */
+  @Test public void lockModes() {
+    assertTrue(LockMode.IS.compatibleWith(LockMode.IX));
+    assertTrue(LockMode.IS.compatibleWith(LockMode.S));
+    assertTrue(LockMode.IX.compatibleWith(LockMode.IX));
+    assertFalse(LockMode.IX.compatibleWith(LockMode.S));
+    assertFalse(LockMode.IS.compatibleWith(LockMode.X));
+    assertEquals(LockMode.IX, LockMode.IS.combine(LockMode.IX));
+    assertEquals(LockMode.X, LockMode.S.combine(LockMode.IX));
+    assertTrue(LockMode.X.covers(LockMode.S));
+    assertFalse(LockMode.S.covers(LockMode.IX));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(LockManagerTest.class);
+  }
+}
@@ -0,0 +1,246 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+public class RecordLockingTest extends TestUtil.CreateHeapFile {
+  /** Time to wait before checking the state of lock contention, in ms */
+  private static final int TIMEOUT = 100;
+
+  private BufferPool bp;
+  private PageId p0;
+  private TransactionId tid1, tid2, tid3;
+
+  /** Runs one insert or delete in its own thread and records the outcome. */
+  private class Writer extends Thread {
+    private final TransactionId tid;
+    private final Tuple t;
+    private final boolean insert;
+    volatile boolean done = false;
+    volatile Exception error = null;
+
+    Writer(TransactionId tid, Tuple t, boolean insert) {
+      this.tid = tid;
+      this.t = t;
+      this.insert = insert;
+      start();
+    }
+
+    public void run() {
+      try {
+        if (insert)
+          bp.insertTuple(tid, empty.getId(), t);
+        else
+          bp.deleteTuple(tid, t);
+        done = true;
+      } catch (Exception e) {
+        error = e;
+      }
+    }
+  }
+
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    bp.setRecordLocking(true);
+    p0 = new HeapPageId(empty.getId(), 0);
+    tid1 = new TransactionId();
+    tid2 = new TransactionId();
+    tid3 = new TransactionId();
+  }
+
+  @After public void tearDown() {
+    bp.setRecordLocking(false);
+  }
+
+  /** Commit two tuples and return them as stored on page 0. */
+  private ArrayList<Tuple> committedTuples() throws Exception {
+    TransactionId tid = new TransactionId();
+    bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(1, 2));
+    bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(2, 2));
+    bp.transactionComplete(tid, true);
+    return contents();
+  }
+
+  /** @return the tuples a new transaction sees in the table */
+  private ArrayList<Tuple> contents() throws Exception {
+    TransactionId tid = new TransactionId();
+    ArrayList<Tuple> result = new ArrayList<Tuple>();
+    DbFileIterator it = empty.iterator(tid);
+    it.open();
+    while (it.hasNext())
+      result.add(it.next());
+    it.close();
+    bp.transactionComplete(tid, true);
+    return result;
+  }
+
+  /**
+   * Two transactions insert into the same page without waiting for each
+   * other, and get different slots.
+   */
+  @Test public void concurrentInsertsOnOnePage() throws Exception {
+    Tuple a = Utility.getHeapTuple(1, 2);
+    Tuple b = Utility.getHeapTuple(2, 2);
+    bp.insertTuple(tid1, empty.getId(), a);
+
+    Writer w = new Writer(tid2, b, true);
+    w.join(TIMEOUT * 10);
+    assertTrue(w.done);
+    assertEquals(p0, a.getRecordId().getPageId());
+    assertEquals(p0, b.getRecordId().getPageId());
+    assertFalse(a.getRecordId().equals(b.getRecordId()));
+
+    bp.transactionComplete(tid1, true);
+    bp.transactionComplete(tid2, true);
+    assertEquals(2, contents().size());
+  }
+
+  /**
+   * Aborting one writer removes only its own tuple from a page another
+   * writer changed as well.
+   */
+  @Test public void abortUndoesOnlyOwnChanges() throws Exception {
+    bp.insertTuple(tid1, empty.getId(), Utility.getHeapTuple(1, 2));
+    bp.insertTuple(tid2, empty.getId(), Utility.getHeapTuple(2, 2));
+
+    bp.transactionComplete(tid1, false);
+    bp.transactionComplete(tid2, true);
+
+    ArrayList<Tuple> tuples = contents();
+    assertEquals(1, tuples.size());
+    assertEquals(new IntField(2), tuples.get(0).getField(0));
+
+    // and the same is on disk
+    bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    assertEquals(1, contents().size());
+  }
+
+  /** @return the number of tuples on page 0 as it is on disk */
+  private int tuplesOnDisk() {
+    HeapPage page = (HeapPage) empty.readPage(p0);
+    return page.getNumSlots() - page.getNumEmptySlots();
+  }
+
+  /**
+   * A commit writes out a page another writer has changed as well only
+   * once that writer is done, so its uncommitted tuple is not forced to
+   * disk; the last writer to commit writes both.
+   */
+  @Test public void commitLeavesOthersChangesInMemory() throws Exception {
+    bp.insertTuple(tid1, empty.getId(), Utility.getHeapTuple(1, 2));
+    bp.insertTuple(tid2, empty.getId(), Utility.getHeapTuple(2, 2));
+
+    bp.transactionComplete(tid1, true);
+    assertEquals(0, tuplesOnDisk());
+    assertEquals(tid2, bp.getPage(tid2, p0, LockMode.IX).isDirty());
+
+    bp.transactionComplete(tid2, true);
+    assertEquals(2, tuplesOnDisk());
+  }
+
+  /**
+   * An abort still restores the before-images of pages the transaction
+   * changed under page locks, alongside its record changes.
+   */
+  @Test public void abortRestoresPagesOutsideRecordChanges() throws Exception {
+    File f = File.createTempFile("other", ".dat");
+    f.deleteOnExit();
+    HeapFile other = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+    TransactionId tid = new TransactionId();
+    bp.insertTuple(tid, other.getId(), Utility.getHeapTuple(7, 2));
+    bp.transactionComplete(tid, true);
+
+    bp.insertTuple(tid1, empty.getId(), Utility.getHeapTuple(1, 2));
+    PageId otherPage = new HeapPageId(other.getId(), 0);
+    HeapPage page = (HeapPage) bp.getPage(tid1, otherPage, Permissions.READ_WRITE);
+    page.deleteTuple(page.iterator().next());
+    page.markDirty(true, tid1);
+
+    bp.transactionComplete(tid1, false);
+    assertEquals(0, contents().size());
+    tid = new TransactionId();
+    page = (HeapPage) bp.getPage(tid, otherPage, Permissions.READ_ONLY);
+    assertEquals(new IntField(7), page.iterator().next().getField(0));
+    bp.transactionComplete(tid, true);
+  }
+
+  /**
+   * Deletes of the same record conflict, deletes of different records on
+   * the same page do not.
+   */
+  @Test public void deletesLockRecords() throws Exception {
+    ArrayList<Tuple> tuples = committedTuples();
+    bp.deleteTuple(tid1, tuples.get(0));
+
+    Writer same = new Writer(tid2, tuples.get(0), false);
+    Writer other = new Writer(tid3, tuples.get(1), false);
+    other.join(TIMEOUT * 10);
+    assertTrue(other.done);
+    Thread.sleep(TIMEOUT);
+    assertFalse(same.done);
+    assertNull(same.error);
+
+    bp.transactionComplete(tid3, true);
+    bp.transactionComplete(tid1, false);
+    same.join(TIMEOUT * 10);
+    assertTrue(same.done);
+    bp.transactionComplete(tid2, true);
+    assertEquals(0, contents().size());
+  }
+
+  /**
+   * A slot freed by an uncommitted delete is not reused, so the delete can
+   * be rolled back into it.
+   */
+  @Test public void uncommittedDeleteKeepsSlot() throws Exception {
+    ArrayList<Tuple> tuples = committedTuples();
+    Tuple deleted = tuples.get(0);
+    RecordId slot = deleted.getRecordId();
+    bp.deleteTuple(tid1, deleted);
+
+    Tuple c = Utility.getHeapTuple(3, 2);
+    bp.insertTuple(tid2, empty.getId(), c);
+    assertFalse(slot.equals(c.getRecordId()));
+
+    bp.transactionComplete(tid1, false);
+    assertEquals(slot, deleted.getRecordId());
+    bp.transactionComplete(tid2, true);
+    assertEquals(3, contents().size());
+  }
+
+  /**
+   * Readers of a page still wait for the writers on it.
+   */
+  @Test public void readerWaitsForWriter() throws Exception {
+    bp.insertTuple(tid1, empty.getId(), Utility.getHeapTuple(1, 2));
+
+    TestUtil.LockGrabber reader = new TestUtil.LockGrabber(tid2, p0, Permissions.READ_ONLY);
+    reader.start();
+    Thread.sleep(TIMEOUT);
+    assertFalse(reader.acquired());
+
+    bp.transactionComplete(tid1, true);
+    reader.join(TIMEOUT * 10);
+    assertTrue(reader.acquired());
+    assertNotNull(bp.getPage(tid2, p0, Permissions.READ_ONLY));
+    bp.transactionComplete(tid2, true);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(RecordLockingTest.class);
+  }
+}
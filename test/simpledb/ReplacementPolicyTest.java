@@ -0,0 +1,139 @@
+package simpledb;
+
+import java.util.HashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import junit.framework.JUnit4TestAdapter;
+
+public class ReplacementPolicyTest {
+  private HashMap<PageId, Page> pages;
+  private PageId p0, p1, p2, p3;
+
+  /**
+   * Minimal Page that only knows its id and whether it is dirty.
+   */
+  private static class MockPage implements Page {
+    private final PageId pid;
+    private TransactionId dirtier;
+
+    MockPage(PageId pid) {
+      this.pid = pid;
+    }
+
+    public PageId getId() { return pid; }
+    public TransactionId isDirty() { return dirtier; }
+    public void markDirty(boolean dirty, TransactionId tid) {
+      dirtier = dirty ? tid : null;
+    }
+    public byte[] getPageData() { return new byte[0]; }
+    public Page getBeforeImage() { return this; }
+    public void setBeforeImage() { }
+  }
+
+  @Before public void setUp() {
+    pages = new HashMap<PageId, Page>();
+    p0 = new HeapPageId(1, 0);
+    p1 = new HeapPageId(1, 1);
+    p2 = new HeapPageId(1, 2);
+    p3 = new HeapPageId(1, 3);
+  }
+
+  private void cache(ReplacementPolicy policy, PageId pid) {
+    if (!pages.containsKey(pid))
+      pages.put(pid, new MockPage(pid));
+    policy.recordAccess(pid);
+  }
+
+  private void evict(ReplacementPolicy policy, PageId pid) {
+    pages.remove(pid);
+    policy.remove(pid);
+  }
+
+  /**
+   * Unit test for ClockReplacementPolicy: a page referenced since the last
+   * sweep gets a second chance.
+   */
+  @Test public void clockSecondChance() {
+    ReplacementPolicy policy = new ClockReplacementPolicy(3);
+    cache(policy, p0);
+    cache(policy, p1);
+    cache(policy, p2);
+
+    // first sweep clears every bit, then p0 is the first clean frame
+    assertEquals(p0, policy.chooseVictim(pages));
+    evict(policy, p0);
+
+    // p3 reuses p0's frame; touching p1 saves it from the next sweep
+    cache(policy, p3);
+    cache(policy, p1);
+    assertEquals(p2, policy.chooseVictim(pages));
+  }
+
+  /**
+   * Unit test for ClockReplacementPolicy: dirty pages are skipped until
+   * nothing else is left.
+   */
+  @Test public void clockSkipsDirty() {
+    ReplacementPolicy policy = new ClockReplacementPolicy(2);
+    TransactionId tid = new TransactionId();
+    cache(policy, p0);
+    cache(policy, p1);
+    pages.get(p0).markDirty(true, tid);
+    assertEquals(p1, policy.chooseVictim(pages));
+
+    pages.get(p1).markDirty(true, tid);
+    PageId victim = policy.chooseVictim(pages);
+    assertEquals(tid, pages.get(victim).isDirty());
+  }
+
+  /**
+   * Unit test for LRUKReplacementPolicy: pages referenced only once by a
+   * scan are evicted before a page that is in repeated use.
+   */
+  @Test public void lruKScanResistance() {
+    ReplacementPolicy policy = new LRUKReplacementPolicy(2);
+    cache(policy, p0);
+    cache(policy, p0);
+
+    cache(policy, p1);
+    cache(policy, p2);
+    cache(policy, p3);
+
+    assertEquals(p1, policy.chooseVictim(pages));
+    evict(policy, p1);
+    assertEquals(p2, policy.chooseVictim(pages));
+    evict(policy, p2);
+    assertEquals(p3, policy.chooseVictim(pages));
+    evict(policy, p3);
+    assertEquals(p0, policy.chooseVictim(pages));
+    evict(policy, p0);
+    assertNull(policy.chooseVictim(pages));
+  }
+
+  /**
+   * Unit test for LRUKReplacementPolicy: among pages with K references the
+   * one whose K-th most recent reference is oldest goes first.
+   */
+  @Test public void lruKBackwardDistance() {
+    ReplacementPolicy policy = new LRUKReplacementPolicy(2);
+    cache(policy, p0);
+    cache(policy, p1);
+    cache(policy, p1);
+    cache(policy, p0);
+    // p0 was referenced at t=1,4 and p1 at t=2,3
+    assertEquals(p0, policy.chooseVictim(pages));
+
+    pages.get(p0).markDirty(true, new TransactionId());
+    assertEquals(p1, policy.chooseVictim(pages));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+  }
+}
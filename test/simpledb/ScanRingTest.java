@@ -0,0 +1,122 @@
+package simpledb;
+
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+public class ScanRingTest extends SimpleDbTestBase {
+  private static final int BUFFER_PAGES = 20;
+
+  private HeapFile big;
+  private HeapFile small;
+  private BufferPool bp;
+
+  /**
+   * Set up a table much larger than the buffer pool and a one-page table.
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    big = SystemTestUtil.createRandomHeapFile(2, 504 * 40, null, null);
+    small = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+    bp = Database.resetBufferPool(BUFFER_PAGES);
+  }
+
+  private int cachedPagesOf(HeapFile f) {
+    int n = 0;
+    for (PageId pid : bp.pages.keySet()) {
+      if (pid.getTableId() == f.getId())
+        n++;
+    }
+    return n;
+  }
+
+  private int scan(DbIterator it) throws Exception {
+    int count = 0;
+    it.open();
+    while (it.hasNext()) {
+      it.next();
+      count++;
+    }
+    it.close();
+    return count;
+  }
+
+  /**
+   * ScanRing.forScan only hands out rings for tables larger than the pool.
+   */
+  @Test public void threshold() {
+    assertNull(ScanRing.forScan(BUFFER_PAGES, bp));
+    ScanRing ring = ScanRing.forScan(BUFFER_PAGES + 1, bp);
+    assertNotNull(ring);
+    assertTrue(ring.size() <= ScanRing.DEFAULT_RING_PAGES);
+  }
+
+  /**
+   * A scan through a ring only ever occupies ring.size() frames and leaves
+   * the other table's page cached.
+   */
+  @Test public void ringScanKeepsWorkingSet() throws Exception {
+    TransactionId tid = new TransactionId();
+    PageId hot = new HeapPageId(small.getId(), 0);
+    bp.getPage(tid, hot, Permissions.READ_ONLY);
+
+    ScanRing ring = new ScanRing(4);
+    SeqScan ss = new SeqScan(tid, big.getId(), "big", ring);
+    assertEquals(504 * 40, scan(ss));
+
+    assertEquals(40, ring.getMisses());
+    assertEquals(0, ring.getHits());
+    assertEquals(4, cachedPagesOf(big));
+    assertTrue(bp.pages.containsKey(hot));
+    bp.transactionComplete(tid);
+  }
+
+  /**
+   * Without a ring the same scan fills the whole pool.
+   */
+  @Test public void sharedScanFillsPool() throws Exception {
+    TransactionId tid = new TransactionId();
+    long missesBefore = bp.getMissCount();
+    SeqScan ss = new SeqScan(tid, big.getId(), "big", null);
+    assertEquals(504 * 40, scan(ss));
+
+    assertEquals(40, bp.getMissCount() - missesBefore);
+    assertEquals(BUFFER_PAGES, cachedPagesOf(big));
+    bp.transactionComplete(tid);
+  }
+
+  /**
+   * Pages the ring read in but another reader hit in the meantime are no
+   * longer recycled by the ring.
+   */
+  @Test public void sharedPagesAreNotRecycled() throws Exception {
+    TransactionId tid = new TransactionId();
+    ScanRing ring = new ScanRing(2);
+    PageId p0 = new HeapPageId(big.getId(), 0);
+    bp.getPage(tid, p0, Permissions.READ_ONLY, ring);
+    bp.getPage(tid, p0, Permissions.READ_ONLY);
+    bp.getPage(tid, new HeapPageId(big.getId(), 1), Permissions.READ_ONLY, ring);
+    bp.getPage(tid, new HeapPageId(big.getId(), 2), Permissions.READ_ONLY, ring);
+
+    assertTrue(bp.pages.containsKey(p0));
+    assertEquals(3, cachedPagesOf(big));
+    assertEquals(1, bp.getHitCount());
+    bp.transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ScanRingTest.class);
+  }
+}
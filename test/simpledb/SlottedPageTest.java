@@ -0,0 +1,170 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SlottedPageTest extends SimpleDbTestBase {
+    private TupleDesc td;
+    private SlottedFile sf;
+    private HeapPageId pid;
+
+    @Before public void setUp() throws Exception {
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        FreeSpaceMap.fileFor(f).deleteOnExit();
+        sf = new SlottedFile(f, td);
+        Database.getCatalog().addTable(sf, "slotted");
+        pid = new HeapPageId(sf.getId(), 0);
+    }
+
+    private Tuple tuple(int i, String s) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    /**
+     * Short strings take only their own length, so a page holds many more
+     * of them than a HeapPage does.
+     */
+    @Test public void shortStringsPackTightly() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        int count = 0;
+        try {
+            while (true) {
+                page.insertTuple(tuple(count, "ab" + count % 10));
+                count++;
+            }
+        } catch (DbException e) {
+            // full
+        }
+        int heapSlots = BufferPool.getPageSize() * 8 / (td.getSize() * 8 + 1);
+        assertTrue(count >= 4 * heapSlots);
+
+        SlottedPage reread = new SlottedPage(pid, page.getPageData());
+        Iterator<Tuple> it = reread.iterator();
+        for (int i = 0; i < count; i++) {
+            Tuple t = it.next();
+            assertEquals(new IntField(i), t.getField(0));
+            assertEquals("ab" + i % 10, t.getField(1).toString());
+            assertEquals(new RecordId(pid, i), t.getRecordId());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * The space of deleted records is reused by compacting the page, and the
+     * remaining records survive the move.
+     */
+    /**
+     * Strings are stored in UTF-8 whatever the platform charset, and one
+     * that takes more than STRING_LEN bytes is refused.
+     */
+    @Test public void stringsAreUtf8() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        String s = "na\u00efve \u65e5\u672c";
+        page.insertTuple(tuple(1, s));
+        Tuple read = new SlottedPage(pid, page.getPageData()).iterator().next();
+        assertEquals(new StringField(s, Type.STRING_LEN), read.getField(1));
+
+        StringBuilder wide = new StringBuilder();
+        for (int i = 0; i < Type.STRING_LEN; i++) {
+            wide.append('\u00e9');
+        }
+        try {
+            page.insertTuple(tuple(2, wide.toString()));
+            fail("a string of " + 2 * Type.STRING_LEN + " bytes was stored");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
+    @Test public void deleteAndCompact() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+        try {
+            for (int i = 0; ; i++) {
+                Tuple t = tuple(i, "value " + i);
+                page.insertTuple(t);
+                inserted.add(t);
+            }
+        } catch (DbException e) {
+            // full
+        }
+        for (int i = 0; i < inserted.size(); i += 2) {
+            page.deleteTuple(inserted.get(i));
+        }
+
+        // a record longer than any single hole
+        Tuple big = tuple(-1, "a much longer string than before");
+        page.insertTuple(big);
+        assertEquals(new RecordId(pid, 0), big.getRecordId());
+
+        SlottedPage reread = new SlottedPage(pid, page.getPageData());
+        int seen = 0;
+        for (Iterator<Tuple> it = reread.iterator(); it.hasNext(); seen++) {
+            Tuple t = it.next();
+            int slot = t.getRecordId().tupleno();
+            Tuple expected = slot == 0 ? big : inserted.get(slot);
+            assertTrue(TestUtil.compareTuples(expected, t));
+        }
+        assertEquals(inserted.size() / 2 + 1, seen);
+    }
+
+    /**
+     * A SlottedFile stores tuples across pages, and scans and deletes them
+     * through the buffer pool.
+     */
+    @Test public void fileInsertScanDelete() throws Exception {
+        TransactionId tid = new TransactionId();
+        BufferPool bp = Database.getBufferPool();
+        for (int i = 0; i < 500; i++) {
+            bp.insertTuple(tid, sf.getId(), tuple(i, "x" + i));
+        }
+        bp.transactionComplete(tid, true);
+        assertTrue(sf.numPages() > 1);
+
+        tid = new TransactionId();
+        DbFileIterator it = sf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() % 2 == 0) {
+                bp.deleteTuple(tid, t);
+            }
+            count++;
+        }
+        it.close();
+        assertEquals(500, count);
+        bp.transactionComplete(tid, true);
+
+        tid = new TransactionId();
+        it = sf.iterator(tid);
+        it.open();
+        count = 0;
+        while (it.hasNext()) {
+            assertEquals(1, ((IntField) it.next().getField(0)).getValue() % 2);
+            count++;
+        }
+        assertEquals(250, count);
+        bp.transactionComplete(tid, true);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedPageTest.class);
+    }
+}
@@ -0,0 +1,113 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+  /** @return n tuples (i * 37 % keys, i) of the given width, unordered */
+  private static TupleIterator tuples(int width, int n, int keys) {
+    int[] data = new int[n * width];
+    for (int i = 0; i < n; i++) {
+      data[i * width] = i * 37 % keys;
+      for (int j = 1; j < width; j++) {
+        data[i * width + j] = i;
+      }
+    }
+    return TestUtil.createTupleList(width, data);
+  }
+
+  /** Checks a sort-merge join against nested loops for one predicate. */
+  private static void checkJoin(Predicate.Op op, int memoryPages) throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, op, 0);
+    ArrayList<String> expected = TestUtil.drain(new Join(pred,
+        tuples(2, 300, 50), tuples(3, 400, 60)));
+    assertTrue(expected.size() > 0);
+    SortMergeJoin smj = new SortMergeJoin(pred,
+        tuples(2, 300, 50), tuples(3, 400, 60), memoryPages);
+    assertEquals(expected, TestUtil.drain(smj));
+
+    smj.open();
+    smj.next();
+    smj.rewind();
+    ArrayList<String> again = new ArrayList<String>();
+    while (smj.hasNext()) {
+      again.add(smj.next().toString());
+    }
+    Collections.sort(again);
+    assertEquals(expected, again);
+    smj.close();
+  }
+
+  /**
+   * Equality and range joins give the same tuples as nested loops.
+   */
+  @Test public void matchesNestedLoops() throws Exception {
+    checkJoin(Predicate.Op.EQUALS, ExternalSort.DEFAULT_MEMORY_PAGES);
+    checkJoin(Predicate.Op.GREATER_THAN, ExternalSort.DEFAULT_MEMORY_PAGES);
+    checkJoin(Predicate.Op.GREATER_THAN_OR_EQ, ExternalSort.DEFAULT_MEMORY_PAGES);
+    checkJoin(Predicate.Op.LESS_THAN, ExternalSort.DEFAULT_MEMORY_PAGES);
+    checkJoin(Predicate.Op.LESS_THAN_OR_EQ, ExternalSort.DEFAULT_MEMORY_PAGES);
+  }
+
+  /**
+   * Inputs larger than the sort budget are sorted on disk first.
+   */
+  @Test public void externalSortedInputs() throws Exception {
+    checkJoin(Predicate.Op.EQUALS, 1);
+    checkJoin(Predicate.Op.LESS_THAN, 1);
+  }
+
+  /**
+   * A window of matching right tuples larger than the memory budget goes
+   * on disk, for range predicates and long groups of equal keys alike.
+   */
+  @Test public void windowSpills() throws Exception {
+    for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.GREATER_THAN, Predicate.Op.EQUALS }) {
+      JoinPredicate pred = new JoinPredicate(0, op, 0);
+      ArrayList<String> expected = TestUtil.drain(new Join(pred,
+          tuples(2, 100, 2), tuples(3, 1000, 2)));
+      SortMergeJoin smj = new SortMergeJoin(pred, tuples(2, 100, 2), tuples(3, 1000, 2), 1);
+      assertEquals(expected, TestUtil.drain(smj));
+      assertTrue(smj.isWindowSpilled());
+    }
+  }
+
+  /**
+   * The output is ordered on the left join field, and an input already in
+   * that order is used as it is.
+   */
+  @Test public void sortOrder() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    DbIterator left = new OrderBy(0, true, tuples(2, 300, 50));
+    SortMergeJoin smj = new SortMergeJoin(pred, left, tuples(3, 400, 60));
+    assertEquals(new SortOrder(0, true), smj.getSortOrder());
+    assertTrue(SortMergeJoin.isSortedFor(left, 0, Predicate.Op.EQUALS));
+
+    smj.open();
+    Field last = null;
+    int count = 0;
+    while (smj.hasNext()) {
+      Field f = smj.next().getField(0);
+      assertTrue(last == null || !last.compare(Predicate.Op.GREATER_THAN, f));
+      last = f;
+      count++;
+    }
+    assertTrue(count > 0);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortMergeJoinTest.class);
+  }
+}
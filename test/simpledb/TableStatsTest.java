@@ -0,0 +1,222 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TableStatsTest extends SimpleDbTestBase {
+
+  HeapFile table;
+
+  /**
+   * A table of 1000 tuples: f0 holds i % 10 and f1 holds i, and a string
+   * field holds one of three names.
+   */
+  @Before public void createTable() throws Exception {
+    File f = File.createTempFile("stats", ".dat");
+    f.deleteOnExit();
+    TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE },
+        new String[] { "f0", "f1", "name" });
+    table = new HeapFile(f, td);
+    Database.getCatalog().addTable(table, "stats");
+    String[] names = { "apple", "banana", "cherry" };
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < 1000; i++) {
+      Tuple t = new Tuple(td);
+      t.setField(0, new IntField(i % 10));
+      t.setField(1, new IntField(i));
+      t.setField(2, new StringField(names[i % 3], Type.STRING_LEN));
+      Database.getBufferPool().insertTuple(tid, table.getId(), t);
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * An int histogram estimates the selectivity of each operator over
+   * uniformly spread values.
+   */
+  @Test public void intHistogram() {
+    IntHistogram h = new IntHistogram(10, 1, 100);
+    for (int v = 1; v <= 100; v++) {
+      h.addValue(v);
+    }
+    assertEquals(0.01, h.estimateSelectivity(Predicate.Op.EQUALS, 42), 0.001);
+    assertEquals(0.99, h.estimateSelectivity(Predicate.Op.NOT_EQUALS, 42), 0.001);
+    assertEquals(0.5, h.estimateSelectivity(Predicate.Op.GREATER_THAN, 50), 0.001);
+    assertEquals(0.51, h.estimateSelectivity(Predicate.Op.GREATER_THAN_OR_EQ, 50), 0.001);
+    assertEquals(0.49, h.estimateSelectivity(Predicate.Op.LESS_THAN, 50), 0.001);
+    assertEquals(0.5, h.estimateSelectivity(Predicate.Op.LESS_THAN_OR_EQ, 50), 0.001);
+    assertEquals(0.0, h.estimateSelectivity(Predicate.Op.EQUALS, 101), 0.0);
+    assertEquals(1.0, h.estimateSelectivity(Predicate.Op.GREATER_THAN, 0), 0.0);
+    assertEquals(0.0, h.estimateSelectivity(Predicate.Op.LESS_THAN, 1), 1e-9);
+    assertEquals(1.0, h.estimateSelectivity(Predicate.Op.LESS_THAN_OR_EQ, 100), 0.0);
+    assertEquals(0.01, h.avgSelectivity(), 0.001);
+  }
+
+  /**
+   * Equality is estimated from the distinct values in a bucket, which are
+   * counted exactly when values are added in order.
+   */
+  @Test public void intHistogramSkew() {
+    IntHistogram h = new IntHistogram(10, 0, 999);
+    for (int i = 0; i < 90; i++) {
+      h.addValue(5);
+    }
+    for (int v = 900; v < 910; v++) {
+      h.addValue(v);
+    }
+    assertEquals(0.9, h.estimateSelectivity(Predicate.Op.EQUALS, 5), 0.001);
+    assertEquals(0.01, h.estimateSelectivity(Predicate.Op.EQUALS, 905), 0.001);
+    assertEquals(0.0, h.estimateSelectivity(Predicate.Op.EQUALS, 500), 0.0);
+    assertEquals(0.1, h.estimateSelectivity(Predicate.Op.GREATER_THAN, 500), 0.001);
+  }
+
+  /**
+   * A string histogram keeps the order of strings by their prefixes, though
+   * over the range of all strings its buckets are wide.
+   */
+  @Test public void stringHistogram() {
+    StringHistogram h = new StringHistogram(TableStats.NUM_HIST_BINS);
+    assertEquals(0.0, h.estimateSelectivity(Predicate.Op.EQUALS, "apple"), 0.0);
+    h.addValue("apple");
+    h.addValue("banana");
+    h.addValue("cherry");
+    h.addValue("cherry");
+    assertEquals(1.0, h.estimateSelectivity(Predicate.Op.GREATER_THAN, "a"), 0.0);
+    assertTrue(h.estimateSelectivity(Predicate.Op.GREATER_THAN, "b") > 0.5);
+    assertTrue(h.estimateSelectivity(Predicate.Op.LESS_THAN, "b") < 0.5);
+    assertEquals(0.0, h.estimateSelectivity(Predicate.Op.GREATER_THAN, "d"), 0.0);
+    assertEquals(StringHistogram.LIKE_SELECTIVITY,
+        h.estimateSelectivity(Predicate.Op.LIKE, "an"), 0.0);
+  }
+
+  /**
+   * The statistics of a table come from its tuples and pages.
+   */
+  @Test public void tableStats() {
+    TableStats s = new TableStats(table.getId(), TableStats.IOCOSTPERPAGE);
+    assertEquals(1000, s.totalTuples());
+    assertEquals(250, s.estimateTableCardinality(0.25));
+    assertEquals((double) table.numPages() * TableStats.IOCOSTPERPAGE, s.estimateScanCost(), 0.0);
+    assertTrue(table.numPages() > 1);
+
+    assertEquals(10, s.numDistinct(0));
+    assertEquals(1000, s.numDistinct(1));
+    assertEquals(3, s.numDistinct(2));
+
+    assertEquals(0.1, s.estimateSelectivity(0, Predicate.Op.EQUALS, new IntField(3)), 0.001);
+    assertEquals(0.0, s.estimateSelectivity(0, Predicate.Op.EQUALS, new IntField(10)), 0.0);
+    assertEquals(0.1, s.estimateSelectivity(1, Predicate.Op.LESS_THAN, new IntField(100)), 0.01);
+    assertEquals(0.5, s.estimateSelectivity(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(500)), 0.01);
+    assertEquals(1.0 / 3, s.estimateSelectivity(2, Predicate.Op.EQUALS,
+        new StringField("banana", Type.STRING_LEN)), 0.01);
+    assertEquals(2.0 / 3, s.estimateSelectivity(2, Predicate.Op.GREATER_THAN,
+        new StringField("b", Type.STRING_LEN)), 0.01);
+    assertEquals(0.1, s.avgSelectivity(0, Predicate.Op.EQUALS), 0.001);
+  }
+
+  /**
+   * Distinct values are counted exactly up to the number of hashes the
+   * sketch keeps, and estimated to within a few percent past that.
+   */
+  @Test public void distinctSketch() {
+    DistinctSketch small = new DistinctSketch();
+    DistinctSketch large = new DistinctSketch();
+    for (int i = 0; i < 200000; i++) {
+      if (i < DistinctSketch.K) {
+        small.add(i % 1000);
+        small.add("s" + i % 7);
+      }
+      large.add(i / 2);
+    }
+    assertEquals(1007, small.estimate());
+    assertEquals(100000, large.estimate(), 5000);
+  }
+
+  /**
+   * A table larger than the sample estimates equality from the distinct
+   * values of the whole table, so that a unique key selects about one
+   * tuple, not one of the sample.
+   */
+  @Test public void sampledTable() throws Exception {
+    int rows = TableStats.SAMPLE_SIZE * 5;
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    for (int i = 0; i < rows; i++) {
+      tuples.add(new ArrayList<Integer>(Arrays.asList(i, i % 10)));
+    }
+    File f = File.createTempFile("sampled", ".dat");
+    f.deleteOnExit();
+    HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+    HeapFile big = Utility.openHeapFile(2, f);
+    Database.getCatalog().addTable(big, "big");
+    TableStats s = new TableStats(big.getId(), TableStats.IOCOSTPERPAGE);
+
+    assertEquals(rows, s.totalTuples());
+    assertEquals(rows, s.numDistinct(0), rows * 0.05);
+    assertEquals(10, s.numDistinct(1));
+    assertEquals(1.0 / rows, s.estimateSelectivity(0, Predicate.Op.EQUALS, new IntField(1234)),
+        0.5 / rows);
+    assertEquals(1.0 / rows, s.avgSelectivity(0, Predicate.Op.EQUALS), 0.5 / rows);
+    assertEquals(0.1, s.estimateSelectivity(1, Predicate.Op.EQUALS, new IntField(3)), 0.01);
+    assertEquals(0.5, s.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(rows / 2)), 0.02);
+  }
+
+  /**
+   * A table with no tuples selects none of them.
+   */
+  @Test public void emptyTable() throws Exception {
+    File f = File.createTempFile("empty", ".dat");
+    f.deleteOnExit();
+    HeapFile empty = Utility.openHeapFile(2, f);
+    TableStats s = new TableStats(empty.getId(), TableStats.IOCOSTPERPAGE);
+    assertEquals(0, s.totalTuples());
+    assertEquals(0, s.numDistinct(0));
+    assertEquals(0.0, s.estimateSelectivity(0, Predicate.Op.GREATER_THAN, new IntField(0)), 0.0);
+  }
+
+  /**
+   * Equi-joins are estimated from the number of distinct values of the join
+   * fields, and other joins from the size of the cross product.
+   */
+  @Test public void joinCardinality() {
+    HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+    stats.put("stats", new TableStats(table.getId(), TableStats.IOCOSTPERPAGE));
+    HashMap<String, Integer> aliases = new HashMap<String, Integer>();
+    aliases.put("a", table.getId());
+    aliases.put("b", table.getId());
+
+    assertEquals(100000, JoinOptimizer.estimateTableJoinCardinality(Predicate.Op.EQUALS,
+        "a", "b", "f0", "f0", 1000, 1000, false, false, stats, aliases));
+    assertEquals(1000, JoinOptimizer.estimateTableJoinCardinality(Predicate.Op.EQUALS,
+        "a", "b", "f0", "f1", 1000, 1000, false, false, stats, aliases));
+    // a filtered table has no more distinct values than tuples
+    assertEquals(10, JoinOptimizer.estimateTableJoinCardinality(Predicate.Op.EQUALS,
+        "a", "b", "f1", "f1", 10, 1000, false, false, stats, aliases));
+    assertEquals(1000, JoinOptimizer.estimateTableJoinCardinality(Predicate.Op.EQUALS,
+        "a", "b", "f0", "f0", 1000, 1000, false, true, stats, aliases));
+    assertEquals(900000, JoinOptimizer.estimateTableJoinCardinality(Predicate.Op.NOT_EQUALS,
+        "a", "b", "f0", "f0", 1000, 1000, false, false, stats, aliases));
+    assertEquals(300000, JoinOptimizer.estimateTableJoinCardinality(Predicate.Op.LESS_THAN,
+        "a", "b", "f0", "f1", 1000, 1000, false, false, stats, aliases));
+    // without statistics, each tuple is taken to have its own value
+    assertEquals(100, JoinOptimizer.estimateTableJoinCardinality(Predicate.Op.EQUALS,
+        "x", "y", "f0", "f0", 100, 1000, false, false, stats, aliases));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TableStatsTest.class);
+  }
+}
@@ -3,6 +3,11 @@ package simpledb;
 import java.io.*;
 import java.util.*;
 
+import org.junit.After;
+import org.junit.Before;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
 import static org.junit.Assert.*;
 
 public class TestUtil {
@@ -379,6 +384,7 @@ public class TestUtil {
                 throw new RuntimeException(e);
             }
             emptyFile.deleteOnExit();
+            FreeSpaceMap.fileFor(emptyFile).deleteOnExit();
         }
 
         protected void setUp() throws Exception {
@@ -393,4 +399,186 @@ public class TestUtil {
         protected HeapFile empty;
         private final File emptyFile;
     }
+
+    /**
+     * Reads all of an iterator's tuples, opening and closing it.
+     *
+     * @return the tuples as strings, sorted, to compare outputs whose order
+     *         does not matter
+     */
+    public static ArrayList<String> drain(DbIterator it) throws Exception {
+        ArrayList<String> out = new ArrayList<String>();
+        it.open();
+        while (it.hasNext()) {
+            out.add(it.next().toString());
+        }
+        it.close();
+        Collections.sort(out);
+        return out;
+    }
+
+    /**
+     * An unclustered index on one field of a file, which finds matches by
+     * scanning the file, and counts the probes made of it.
+     */
+    static class ScanIndex implements Index {
+        final DbFile f;
+        final int field;
+        int probes;
+
+        ScanIndex(DbFile f, int field) {
+            this.f = f;
+            this.field = field;
+        }
+
+        public int getTableId() { return f.getId(); }
+        public int getKeyField() { return field; }
+        public boolean supports(Predicate.Op op) { return op != Predicate.Op.LIKE; }
+        public boolean isClustered() { return false; }
+        public int probePages() { return 1; }
+
+        public DbFileIterator indexIterator(TransactionId tid, final IndexPredicate ipred) {
+            probes++;
+            final DbFileIterator scan = f.iterator(tid);
+            return new DbFileIterator() {
+                Tuple next;
+
+                public void open() throws DbException, TransactionAbortedException {
+                    scan.open();
+                }
+
+                public boolean hasNext() throws DbException, TransactionAbortedException {
+                    while (next == null && scan.hasNext()) {
+                        Tuple t = scan.next();
+                        if (ipred.matches(t.getField(field))) {
+                            next = t;
+                        }
+                    }
+                    return next != null;
+                }
+
+                public Tuple next() throws DbException, TransactionAbortedException {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    Tuple t = next;
+                    next = null;
+                    return t;
+                }
+
+                public void rewind() throws DbException, TransactionAbortedException {
+                    scan.rewind();
+                    next = null;
+                }
+
+                public void close() {
+                    scan.close();
+                    next = null;
+                }
+            };
+        }
+    }
+
+    /**
+     * JUnit fixture for the tests of index files. Pages are small, so that a
+     * few thousand tuples of two int fields fill many of them, and the
+     * helpers fill the index's table and read keys back.
+     */
+    public static abstract class IndexFileTest extends SimpleDbTestBase {
+        protected TransactionId tid;
+
+        @Before public void useSmallPages() throws Exception {
+            BufferPool.setPageSize(256);
+            Database.reset();
+            tid = new TransactionId();
+        }
+
+        @After public void resetPageSize() {
+            BufferPool.setPageSize(BufferPool.PAGE_SIZE);
+        }
+
+        /** @return the index under test, which is also a DbFile */
+        protected abstract Index index();
+
+        private DbFile file() {
+            return (DbFile) index();
+        }
+
+        /**
+         * Inserts n tuples with keys drawn from [0, keys) into the index's
+         * table, and returns the keys.
+         */
+        protected ArrayList<Integer> insertRandom(int n, int keys) throws Exception {
+            Random rand = new Random(42);
+            ArrayList<Integer> inserted = new ArrayList<Integer>();
+            for (int i = 0; i < n; i++) {
+                int key = rand.nextInt(keys);
+                Database.getBufferPool().insertTuple(tid, index().getTableId(),
+                        Utility.getHeapTuple(new int[] { key, i }));
+                inserted.add(key);
+            }
+            return inserted;
+        }
+
+        /** @return the keys an iterator returns, in the order it returns them */
+        protected static ArrayList<Integer> keys(DbFileIterator it) throws Exception {
+            ArrayList<Integer> out = new ArrayList<Integer>();
+            it.open();
+            while (it.hasNext()) {
+                out.add(((IntField) it.next().getField(0)).getValue());
+            }
+            it.close();
+            return out;
+        }
+
+        /** @return the keys of all the entries of the index, sorted */
+        protected ArrayList<Integer> allKeys() throws Exception {
+            ArrayList<Integer> out = keys(file().iterator(tid));
+            Collections.sort(out);
+            return out;
+        }
+
+        /** @return the keys an equality lookup in the index returns */
+        protected ArrayList<Integer> lookup(int key) throws Exception {
+            return keys(index().indexIterator(tid,
+                    new IndexPredicate(Predicate.Op.EQUALS, new IntField(key))));
+        }
+
+        /**
+         * Checks that looking up a key that was inserted, among 4000 keys
+         * drawn from [0, keys), reads the index's probe pages and the pages
+         * of the matches, not the whole index.
+         */
+        protected void checkLookupReadsFewPages(int keys) throws Exception {
+            ArrayList<Integer> inserted = insertRandom(4000, keys);
+            Database.getBufferPool().transactionComplete(tid);
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            tid = new TransactionId();
+            int key = inserted.get(inserted.size() / 2);
+            ArrayList<Integer> found = lookup(key);
+            assertEquals(Collections.frequency(inserted, key), found.size());
+            assertTrue(Database.getBufferPool().getMissCount() <= index().probePages() + found.size());
+        }
+
+        /**
+         * Checks that aborting 2000 inserts, enough to split pages, after
+         * committing a few leaves the index with the entries it had.
+         */
+        protected void checkAbortUndoesSplits(int committed) throws Exception {
+            Database.resetBufferPool(1000);
+            insertRandom(committed, 100000);
+            Database.getBufferPool().transactionComplete(tid);
+            tid = new TransactionId();
+            ArrayList<Integer> before = allKeys();
+
+            for (int i = 0; i < 2000; i++) {
+                Database.getBufferPool().insertTuple(tid, index().getTableId(),
+                        Utility.getHeapTuple(new int[] { 200000 + i, i }));
+            }
+            Database.getBufferPool().transactionComplete(tid, false);
+            tid = new TransactionId();
+            assertEquals(before, allKeys());
+            assertTrue(lookup(200000).isEmpty());
+        }
+    }
 }
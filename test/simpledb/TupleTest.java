@@ -31,6 +31,27 @@ public class TupleTest extends SimpleDbTestBase {
         assertEquals(new IntField(37), tup.getField(1));
     }
 
+    /**
+     * A tuple read from page bytes decodes each field when it is first
+     * asked for, and fields set explicitly win over the bytes.
+     */
+    @Test public void lazyFields() {
+        TupleDesc td = Utility.getTupleDesc(3);
+        java.nio.ByteBuffer buf = java.nio.ByteBuffer.allocate(2 + td.getSize());
+        buf.position(2);
+        buf.putInt(5).putInt(6).putInt(7);
+
+        Tuple tup = new Tuple(td, buf.array(), 2);
+        assertEquals(new IntField(7), tup.getField(2));
+        tup.setField(1, new IntField(60));
+        assertEquals(new IntField(60), tup.getField(1));
+
+        tup.materialize();
+        buf.putInt(2, 50);
+        assertEquals(new IntField(5), tup.getField(0));
+        assertEquals("5\t60\t7", tup.toString());
+    }
+
    /** Unit test for fields() iterator 
      * 
      */